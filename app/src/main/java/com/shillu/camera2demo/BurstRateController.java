@@ -0,0 +1,160 @@
+package com.shillu.camera2demo;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 连拍速率控制器
+ * <p>
+ * 连拍时每一轮 captureBurst 提交多少帧、两轮之间隔多久，由这里根据 I/O 的消化速度决定：
+ * 1. 在途帧数（已提交请求但还没写完文件的帧）不能超过 ImageReader 的环形深度，否则 acquireNextImage 会失败；
+ * 2. 在途帧数堆到环形深度的 3/4 以上，说明磁盘跟不上，速率乘性下降；
+ * 3. 在途帧数低于 1/4，说明还有余量，速率加性上升，直到目标帧率；
+ * 4. 同时用指数滑动平均估计保存速度（帧/秒），速率不会超过保存速度太多。
+ * <p>
+ * 所有方法都在相机后台线程调用，不需要同步。时间统一使用 System.nanoTime() 的单调时间。
+ */
+public final class BurstRateController {
+
+    /**
+     * 速率下限，避免 I/O 很慢时连拍完全停住
+     */
+    private static final double MIN_FPS = 0.5;
+
+    /**
+     * 背压时速率的乘性下降系数
+     */
+    private static final double DECREASE_FACTOR = 0.7;
+
+    /**
+     * 保存速度估计的平滑系数
+     */
+    private static final double DRAIN_EWMA_ALPHA = 0.3;
+
+    /**
+     * 允许的速率相对保存速度的余量，留给环形缓冲吸收抖动
+     */
+    private static final double DRAIN_HEADROOM = 1.25;
+
+    private final double mTargetFps;
+    private final int mRingDepth;
+    private final int mMaxBurstSize;
+
+    private double mCurrentFps;
+    private double mDrainFps;
+    private int mInFlight;
+    private long mSavedCount;
+    private long mLastDrainSampleNanos;
+    private long mLastDrainSampleCount;
+
+    /**
+     * @param targetFps    期望的持续连拍帧率
+     * @param ringDepth    JPEG ImageReader 的 maxImages
+     * @param maxBurstSize 单次 captureBurst 的最大帧数
+     */
+    public BurstRateController(double targetFps, int ringDepth, int maxBurstSize) {
+        if (targetFps <= 0 || ringDepth <= 0 || maxBurstSize <= 0) {
+            throw new IllegalArgumentException("targetFps, ringDepth and maxBurstSize must be positive");
+        }
+        mTargetFps = targetFps;
+        mRingDepth = ringDepth;
+        mMaxBurstSize = maxBurstSize;
+    }
+
+    /**
+     * 开始新一轮连拍，重置所有统计
+     */
+    public void start(long nowNanos) {
+        mCurrentFps = mTargetFps;
+        mDrainFps = 0;
+        mInFlight = 0;
+        mSavedCount = 0;
+        mLastDrainSampleNanos = nowNanos;
+        mLastDrainSampleCount = 0;
+    }
+
+    /**
+     * 计算下一轮要提交的帧数，并把这些帧计入在途数量。
+     *
+     * @return 帧数，0 表示环形缓冲已满，这一轮先不提交
+     */
+    public int acquireBurst() {
+        int free = mRingDepth - mInFlight;
+        int wanted = (int) Math.max(1, Math.round(mCurrentFps * burstWindowSeconds()));
+        int size = Math.max(0, Math.min(Math.min(free, wanted), mMaxBurstSize));
+        mInFlight += size;
+        return size;
+    }
+
+    /**
+     * 一帧写完文件（或被丢弃、请求失败），释放一个环形槽位
+     */
+    public void onFrameFinished() {
+        if (mInFlight > 0) {
+            mInFlight--;
+        }
+        mSavedCount++;
+    }
+
+    /**
+     * 一轮连拍的请求全部完成时调用，根据当前积压调整速率
+     *
+     * @return 距离下一轮提交还应该等待的纳秒数
+     */
+    public long onBurstCompleted(long nowNanos, int burstSize) {
+        sampleDrainRate(nowNanos);
+
+        if (mInFlight * 4 >= mRingDepth * 3) {
+            mCurrentFps = Math.max(MIN_FPS, mCurrentFps * DECREASE_FACTOR);
+        } else if (mInFlight * 4 <= mRingDepth) {
+            mCurrentFps = Math.min(mTargetFps, mCurrentFps + mTargetFps / 10);
+        }
+        if (mDrainFps > 0) {
+            mCurrentFps = Math.max(MIN_FPS, Math.min(mCurrentFps, mDrainFps * DRAIN_HEADROOM));
+        }
+        // 让下一轮开始的时间对应当前速率下 burstSize 帧所占的时长
+        return (long) (Math.max(1, burstSize) / mCurrentFps * 1_000_000_000L);
+    }
+
+    private void sampleDrainRate(long nowNanos) {
+        long elapsed = nowNanos - mLastDrainSampleNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+        long saved = mSavedCount - mLastDrainSampleCount;
+        double sample = saved * 1_000_000_000.0 / elapsed;
+        mDrainFps = mDrainFps == 0 ? sample : mDrainFps + DRAIN_EWMA_ALPHA * (sample - mDrainFps);
+        mLastDrainSampleNanos = nowNanos;
+        mLastDrainSampleCount = mSavedCount;
+    }
+
+    /**
+     * 每轮大约覆盖的时长：环形深度的一半按目标帧率需要的时间，至少 100ms
+     */
+    private double burstWindowSeconds() {
+        return Math.max(0.1, mRingDepth / 2.0 / mTargetFps);
+    }
+
+    public double getTargetFps() {
+        return mTargetFps;
+    }
+
+    public int getRingDepth() {
+        return mRingDepth;
+    }
+
+    public double getCurrentFps() {
+        return mCurrentFps;
+    }
+
+    public double getDrainFps() {
+        return mDrainFps;
+    }
+
+    public int getInFlight() {
+        return mInFlight;
+    }
+
+    public long getSavedCount() {
+        return mSavedCount;
+    }
+}
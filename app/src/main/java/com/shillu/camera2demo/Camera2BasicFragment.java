@@ -4,13 +4,16 @@ import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
+import android.graphics.Bitmap;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
@@ -19,12 +22,15 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
-import android.hardware.camera2.params.StreamConfigurationMap;
+import android.hardware.camera2.params.MeteringRectangle;
+import android.hardware.display.DisplayManager;
 import android.media.Image;
 import android.media.ImageReader;
+import android.os.Build;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
@@ -35,29 +41,37 @@ import androidx.fragment.app.Fragment;
 
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 import android.util.SparseIntArray;
+import android.view.GestureDetector;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.Surface;
 import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.Toast;
 
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 
 /**
@@ -106,29 +120,29 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
     private static final String TAG = "Camera2BasicFragment";
 
     /**
-     * 相机状态：显示相机预览
+     * 等待对焦锁定的超时，超时后按已锁定继续
      */
-    private static final int STATE_PREVIEW = 0;
+    private static final long AF_LOCK_TIMEOUT_MS = 1000;
 
     /**
-     * 相机状态：等待对焦被锁定
+     * 等待预拍照开始和结束的超时，超时后继续下一步
      */
-    private static final int STATE_WAITING_LOCK = 1;
+    private static final long PRECAPTURE_TIMEOUT_MS = 1000;
 
     /**
-     * 相机状态：等待曝光进入预捕获状态
+     * 点击对焦等待锁定的硬超时
      */
-    private static final int STATE_WAITING_PRECAPTURE = 2;
+    private static final long TAP_FOCUS_TIMEOUT_MS = 1500;
 
     /**
-     * 相机状态：等待曝光状态不再是预拍照状态
+     * 点击对焦锁定后保持的时间，之后回到连续对焦
      */
-    private static final int STATE_WAITING_NON_PRECAPTURE = 3;
+    private static final long TAP_FOCUS_HOLD_MS = 3000;
 
     /**
-     * 相机状态：照片已拍摄
+     * 点击对焦区域边长占画面短边的比例
      */
-    private static final int STATE_PICTURE_TAKEN = 4;
+    private static final float TAP_REGION_FRACTION = 0.1f;
 
     /**
      * Camera2 API所保证的最大预览宽度
@@ -141,9 +155,149 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
     private static final int MAX_PREVIEW_HEIGHT = 1080;
 
     /**
-     * 锁超时时间吧，自己定义的，防止魔法值
+     * 预览尺寸与 JPEG 尺寸宽高比允许的相对误差
      */
-    private static final int CLOSE_LOCK_TIME = 2500;
+    private static final float PREVIEW_ASPECT_TOLERANCE = 0.01f;
+
+    /**
+     * onPause 之后延迟多久才真正关闭相机，期间 onResume 会直接继续预览
+     */
+    private static final long CLOSE_COALESCE_MS = CameraLifecycleController.DEFAULT_CLOSE_DELAY_MS;
+
+    /**
+     * 每隔多少帧把帧节奏统计打到 logcat，30fps 下约 10 秒一次
+     */
+    private static final int PACING_LOG_INTERVAL_FRAMES = 300;
+
+    /**
+     * 保存照片的 I/O 工作线程数
+     */
+    private static final int IO_WORKERS = 2;
+
+    /**
+     * 保存队列容量，大于连拍、单拍和 ZSL 的 ImageReader 能同时借出的 Image 总数，正常情况下入队不会失败。
+     * 入队方是相机回调线程，队列满时直接拒绝（FAIL_FAST），不等磁盘；连拍的背压由 {@link BurstRateController} 按在途帧数控制
+     */
+    private static final int IO_QUEUE_CAPACITY = 16;
+
+    /**
+     * JPEG ImageReader 的环形深度（maxImages），决定连拍时最多有多少帧在途
+     */
+    private static final int BURST_RING_DEPTH = 8;
+
+    /**
+     * 单张拍照时 JPEG ImageReader 的 maxImages：一张在保存，一张在到达
+     */
+    private static final int STILL_SINGLE_DEPTH = 2;
+
+    /**
+     * 预览期间允许常驻的 JPEG 缓冲内存，超过时只在拍照时才给会话加上 JPEG 输出
+     */
+    private static final long STILL_RESIDENT_BUDGET_BYTES = 24L * 1024 * 1024;
+
+    /**
+     * 按需加上的 JPEG 输出在最后一次拍照后空闲多久释放
+     */
+    private static final long STILL_IDLE_RELEASE_MS = 10_000;
+
+    /**
+     * 连拍期望的持续帧率
+     */
+    private static final double BURST_TARGET_FPS = 8;
+
+    /**
+     * 单次 captureBurst 最多提交的帧数
+     */
+    private static final int BURST_MAX_SIZE = 4;
+
+    /**
+     * 环形缓冲已满时，隔多久再尝试提交下一轮
+     */
+    private static final long BURST_RETRY_DELAY_MS = 20;
+
+    /**
+     * 是否启用零延迟拍照（ZSL），只在 FULL 及以上硬件级别的相机上生效
+     */
+    private static final boolean ZSL_ENABLED = true;
+
+    /**
+     * ZSL 环形缓冲允许占用的最大内存
+     */
+    private static final long ZSL_MEMORY_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * ZSL 环形缓冲最多保留的帧数
+     */
+    private static final int ZSL_MAX_FRAMES = 4;
+
+    /**
+     * ZSL 帧编码 JPEG 的质量
+     */
+    private static final int ZSL_JPEG_QUALITY = 95;
+
+    /**
+     * 照片等 onCaptureCompleted() 的结果（写 EXIF 用）最多等多久，超时后不带拍摄参数保存
+     */
+    private static final long EXIF_WAIT_MS = 500;
+
+    /**
+     * 缩略图长边至少多少像素，12MP 照片按 1/8 生成
+     */
+    private static final int THUMBNAIL_MIN_EDGE = 256;
+
+    /**
+     * 缩略图磁盘缓存的上限，内存部分按堆上限的 1/32
+     */
+    private static final long THUMBNAIL_DISK_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * 预览分析 YUV 输出的尺寸上限（横向），0 表示不带分析输出
+     */
+    private static final int ANALYSIS_MAX_WIDTH = 640;
+
+    private static final int ANALYSIS_MAX_HEIGHT = 480;
+
+    /**
+     * 分析 ImageReader 的 maxImages：一个在相机线程拷贝，一个排队，一个给相机写入
+     */
+    private static final int ANALYSIS_READER_DEPTH = 3;
+
+    /**
+     * 分析工作线程数
+     */
+    private static final int ANALYSIS_WORKERS = 2;
+
+    /**
+     * 两次分析之间的最小间隔，约 15fps
+     */
+    private static final long ANALYSIS_MIN_INTERVAL_MS = 66;
+
+    /**
+     * 亮度分析器的采样间隔和单帧时间预算
+     */
+    private static final int LUMA_SAMPLE_STEP = 8;
+
+    private static final long LUMA_BUDGET_MS = 8;
+
+    /**
+     * 帧缓冲池最小的桶，预览尺寸的分析帧以下都落在这里
+     */
+    private static final int FRAME_POOL_MIN_BUCKET_BYTES = 64 * 1024;
+
+    /**
+     * 帧缓冲池保留的空闲缓冲上限，够放两帧 12MP 的 NV21
+     */
+    private static final long FRAME_POOL_RETAINED_BYTES = 48L * 1024 * 1024;
+
+    /**
+     * 从 ZSL 环形缓冲挤出的帧直接关闭
+     */
+    private static final ZslRingBuffer.Releaser<Image> IMAGE_RELEASER = new ZslRingBuffer.Releaser<Image>() {
+        @Override
+        public void release(Image frame) {
+            frame.close();
+        }
+    };
 
     /**
      * 这是一个 TextureView 的监听器，用于监听 TextureView 的 SurfaceTexture 状态变化。
@@ -160,6 +314,7 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
         // 在 onSurfaceTextureAvailable() 方法中，当 SurfaceTexture 可用时，调用 openCamera() 方法来打开相机并启动预览。
         @Override
         public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
+            mStartupTrace.mark(StartupTrace.Phase.SURFACE_AVAILABLE, System.nanoTime());
             openCamera(width, height);
         }
 
@@ -167,19 +322,35 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
         // 我们调用 configureTransform() 方法来重新配置相机预览的变换矩阵，以确保预览画面的正确显示。
         @Override
         public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width, int height) {
+            // 之后切换相机按新的尺寸选择输出配置
+            mViewWidth = width;
+            mViewHeight = height;
             configureTransform(width, height);
+            // 旋转 90 度后 TextureView 按新尺寸布局完成，新的变换矩阵生效
+            mRotationLatency.onTransformApplied(System.nanoTime());
         }
 
         // 在 onSurfaceTextureDestroyed() 方法中，当 SurfaceTexture 被销毁时，我们返回 true，
         // 表示此 SurfaceTexture 已经被处理了，否则会收到 logcat 错误提示。
         @Override
         public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
+            // 预览的 Surface 已经失效，不能再等合并窗口
+            if (null != mLifecycle) {
+                mLifecycle.close(0);
+            }
             return true;
         }
 
-        // 在 onSurfaceTextureUpdated() 方法中，当 SurfaceTexture 更新时，我们不需要做任何操作，因此该方法留空。
+        // 在 onSurfaceTextureUpdated() 方法中，当 SurfaceTexture 更新时，只用来记录切换相机和旋转屏幕后的第一帧。
         @Override
         public void onSurfaceTextureUpdated(SurfaceTexture texture) {
+            long now = System.nanoTime();
+            if (mSwitchLatency.onPreviewFrame(now)) {
+                Log.d(TAG, "fliCamera: " + mSwitchLatency);
+            }
+            if (mRotationLatency.onPreviewFrame(now)) {
+                Log.d(TAG, "rotation: " + mRotationLatency);
+            }
         }
 
     };
@@ -187,7 +358,61 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
     /**
      * CameraDevice ID
      */
-    private String mCameraId;
+    private volatile String mCameraId;
+
+    /**
+     * 旋转屏幕到新方向第一帧的延迟
+     */
+    private final RotationLatencyTracker mRotationLatency = new RotationLatencyTracker();
+
+    /**
+     * 冷启动各阶段的打点，冷启动时由 {@link CameraStartup} 从 Activity.onCreate() 开始计时，否则从 Fragment.onCreate() 开始
+     */
+    private StartupTrace mStartupTrace;
+
+    /**
+     * 冷启动时提前打开的相机，第一次打开设备时在相机线程上接收；到 onDestroy 还没接收时在那里释放
+     */
+    private volatile CameraStartup mStartup;
+
+    /**
+     * UI 线程看到的屏幕旋转方向，-1 表示还没有记录
+     */
+    private int mUiRotation = -1;
+
+    /**
+     * 横屏和反向横屏之间的 180 度翻转不会触发 onConfigurationChanged，只能从 DisplayListener 得知
+     */
+    private final DisplayManager.DisplayListener mDisplayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            onDisplayRotationChanged();
+        }
+    };
+
+    /**
+     * 最近一次请求打开相机时 TextureView 的尺寸，在相机线程上用来选择输出尺寸
+     */
+    private volatile int mViewWidth;
+    private volatile int mViewHeight;
+
+    /**
+     * 每个相机（以及 view 尺寸、屏幕方向）算好的输出配置，切换相机时直接复用，只在 mBackgroundHandler 线程上访问
+     */
+    private final Map<String, CameraOutputConfig> mOutputConfigs = new HashMap<>();
+
+    /**
+     * 前后摄切换延迟：点击切换到新相机第一帧预览
+     */
+    private final SwitchLatencyTracker mSwitchLatency = new SwitchLatencyTracker();
 
     /**
      * 用于相机预览的 AutoFitTextureView.
@@ -204,12 +429,12 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
      * 通过CameraCaptureSession对象，我们可以启动预览、拍照、录像等操作，并可以通过设置回调函数来处理相机操作的结果。
      * 例如，在启动预览之后，我们可以通过setRepeatingRequest()方法来持续输出预览图像，同时可以通过setPreviewCallback()方法设置回调函数，以处理每一帧预览图像的数据。
      */
-    private CameraCaptureSession mCaptureSession;
+    private volatile CameraCaptureSession mCaptureSession;
 
     /**
      * 一种指向已打开的 CameraDevice 的引用
      */
-    private CameraDevice mCameraDevice;
+    private volatile CameraDevice mCameraDevice;
 
     /**
      * 预览尺寸
@@ -219,44 +444,48 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
     /**
      *
      * 相机状态回调
-     * 这段代码定义了一个 CameraDevice 的状态回调接口 mStateCallback
-     * 它实现了三个回调方法：onOpened()、onDisconnected()、onError(),这些回调方法会在相机设备的状态发生变化时被调用。
+     * 每次打开设备创建一个，onOpened() 或打开前的 onError() 结束生命周期控制器的打开步骤，
+     * 打开之后的 onDisconnected()、onError() 交给 {@link CameraLifecycleController#onDeviceError(Throwable)} 统一关闭。
+     * 回调都在 mBackgroundHandler 线程上。
      *
      */
-    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+    private class DeviceStateCallback extends CameraDevice.StateCallback {
+
+        private final CameraLifecycleController.StepCallback mStep;
+        private boolean mOpened;
+
+        DeviceStateCallback(CameraLifecycleController.StepCallback step) {
+            mStep = step;
+        }
 
-        // 当相机设备成功打开并准备开始工作时，onOpened() 方法会被调用，释放相机打开关闭锁，
-        // 保存当前的相机设备对象 mCameraDevice，调用 createCameraPreviewSession() 方法开始预览。
         @Override
         public void onOpened(@NonNull CameraDevice cameraDevice) {
-            // This method is called when the camera is opened.  We start camera preview here.
-            mCameraOpenCloseLock.release();
+            mOpened = true;
             mCameraDevice = cameraDevice;
-            // 开启相机预览
-            createCameraPreviewSession();
+            mStartupTrace.mark(StartupTrace.Phase.DEVICE_OPENED, System.nanoTime());
+            mSwitchLatency.onDeviceOpened(System.nanoTime());
+            mStep.onSuccess();
         }
 
-        // 当相机设备断开连接时，onDisconnected() 方法会被调用，释放相机打开关闭锁，关闭相机设备，清空 mCameraDevice 对象。
         @Override
         public void onDisconnected(@NonNull CameraDevice cameraDevice) {
-            mCameraOpenCloseLock.release();
-            cameraDevice.close();
-            mCameraDevice = null;
+            fail(cameraDevice, new IllegalStateException("Camera " + cameraDevice.getId() + " disconnected"));
         }
 
-        // 当相机设备遇到错误时，onError() 方法会被调用，释放相机打开关闭锁，关闭相机设备，清空 mCameraDevice 对象，并结束当前 Activity。
         @Override
         public void onError(@NonNull CameraDevice cameraDevice, int error) {
-            mCameraOpenCloseLock.release();
-            cameraDevice.close();
-            mCameraDevice = null;
-            Activity activity = getActivity();
-            if (null != activity) {
-                activity.finish();
-            }
+            fail(cameraDevice, new IllegalStateException("Camera " + cameraDevice.getId() + " error " + error));
         }
 
-    };
+        private void fail(CameraDevice cameraDevice, Throwable error) {
+            if (mOpened) {
+                mLifecycle.onDeviceError(error);
+            } else {
+                cameraDevice.close();
+                mStep.onFailure(error);
+            }
+        }
+    }
 
     /**
      * 一个额外的线程是在 Android 应用程序中创建的一个独立线程，用于执行可能需要很长时间的任务或不应该阻塞 UI 线程的任务。
@@ -277,6 +506,11 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
      */
     private Handler mBackgroundHandler;
 
+    /**
+     * 保存照片专用的 I/O 执行器，和 mBackgroundHandler 分开，磁盘写入慢时不会拖慢预览回调和对焦状态机
+     */
+    private volatile CaptureIoExecutor mIoExecutor;
+
     /**
      * 是指一个 Android 类，它允许你从设备相机中捕获静止图像。
      * 它提供了一种访问原始图像数据的方法，可以将其保存为图像文件或根据需要进一步处理。
@@ -285,133 +519,799 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
      */
     private ImageReader mImageReader;
 
+    /**
+     * mImageReader 的延迟关闭：还有照片在 I/O 线程上保存时，关闭推迟到最后一张写完
+     */
+    private DeferredCloser mImageReaderCloser;
+
+    /**
+     * 当前相机的 JPEG 输出尺寸，ImageReader 按 {@link #mStillOutput} 的决定在配置会话时创建
+     */
+    private Size mJpegSize;
+
+    /**
+     * 相机帧的共享缓冲：从 Image 拷贝一次后立即归还 Image，同一帧按引用计数分发给保存、分析、编码，调试版本开启泄漏检测
+     */
+    private final FrameBufferPool mFramePool = new FrameBufferPool(FRAME_POOL_MIN_BUCKET_BYTES, FRAME_POOL_RETAINED_BYTES, false,
+            BuildConfig.DEBUG ? new FrameBufferPool.LeakListener() {
+                @Override
+                public void onLeak(int capacity, Throwable allocationSite) {
+                    Log.e(TAG, "FrameBuffer leaked, capacity " + capacity, allocationSite);
+                }
+            } : null);
+
+    /**
+     * 系统内存紧张时释放帧缓冲池的空闲缓冲
+     */
+    private final ComponentCallbacks2 mTrimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            mFramePool.onTrimMemory(level);
+            ThumbnailCache thumbnails = mThumbnails;
+            if (null != thumbnails && level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                thumbnails.clearMemory();
+            }
+            Log.d(TAG, "onTrimMemory " + level + ": " + mFramePool);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            mFramePool.trim();
+            ThumbnailCache thumbnails = mThumbnails;
+            if (null != thumbnails) {
+                thumbnails.clearMemory();
+            }
+        }
+    };
+
+    /**
+     * JPEG ImageReader 的按需分配策略：大尺寸传感器只预览时不带 JPEG 输出，拍照时再重新配置会话
+     */
+    private final StillOutputPolicy mStillOutput = new StillOutputPolicy(STILL_RESIDENT_BUDGET_BYTES,
+            TimeUnit.MILLISECONDS.toNanos(STILL_IDLE_RELEASE_MS), STILL_SINGLE_DEPTH, BURST_RING_DEPTH);
+
+    /**
+     * 空闲超时后释放按需加上的 JPEG 输出，在相机线程上执行
+     */
+    private final Runnable mStillReleaseCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (mBurstActive || mBurstPendingImages > 0 || mCaptureState.getState() != CaptureStateMachine.STATE_PREVIEW) {
+                // 还在拍，稍后再看
+                scheduleStillRelease();
+                return;
+            }
+            if (mStillOutput.shouldRelease(System.nanoTime())) {
+                Log.d(TAG, "release still output: " + mStillOutput);
+                mLifecycle.reconfigure();
+            }
+        }
+    };
+
     /**
      * 照片的输出文件
      */
     private File mFile;
 
+    /**
+     * 保存照片用的写入器，直接把 Image 平面的 ByteBuffer 写进 FileChannel，不再为每张照片分配 byte[]
+     */
+    private final PooledJpegWriter mJpegWriter = new PooledJpegWriter();
+
+    /**
+     * 最近一张照片的缩略图，显示在控制栏
+     */
+    private ImageView mThumbnailView;
+
+    /**
+     * 照片缩略图的内存和磁盘缓存，在 onActivityCreated() 中创建，只在 I/O 线程上生成
+     */
+    private volatile ThumbnailCache mThumbnails;
+
+    /**
+     * 缩略图生成或者从磁盘读出后转成 Bitmap 交给界面
+     */
+    private final ThumbnailCache.Listener mThumbnailListener = new ThumbnailCache.Listener() {
+        @Override
+        public void onThumbnail(File source, JpegThumbnailer.Thumbnail thumbnail) {
+            Activity activity = getActivity();
+            if (null == activity) {
+                return;
+            }
+            final Bitmap bitmap = Bitmap.createBitmap(thumbnail.toArgb(), thumbnail.width, thumbnail.height,
+                    Bitmap.Config.ARGB_8888);
+            activity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (null != mThumbnailView) {
+                        mThumbnailView.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+    };
+
     /**
      * This a callback object for the {@link ImageReader}. "onImageAvailable" will be called when a
      * still image is ready to be saved.
+     * <p>
+     * 每个 JPEG ImageReader 一个，借出的 Image 记在它自己的 {@link DeferredCloser} 上
+     */
+    private ImageReader.OnImageAvailableListener stillImageListener(final DeferredCloser closer) {
+        return new ImageReader.OnImageAvailableListener() {
+
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                onStillImageAvailable(reader, closer);
+            }
+
+        };
+    }
+
+    private void onStillImageAvailable(ImageReader reader, DeferredCloser closer) {
+        // 这里只负责把 Image 交给 I/O 执行器，真正的写文件在 I/O 线程进行；先等同一帧的拍摄结果，用来写 EXIF
+        Image image;
+        try {
+            image = reader.acquireNextImage();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "acquireNextImage failed", e);
+            return;
+        }
+        if (null == image) {
+            return;
+        }
+        if (!closer.acquire()) {
+            image.close();
+            return;
+        }
+        ImageSaver saver;
+        if (mBurstPendingImages > 0) {
+            mBurstPendingImages--;
+            saver = new ImageSaver(image, closer, mBurstNamer.next(), mJpegWriter, mBurstFrameFinished, null, -1);
+        } else {
+            int captureId = mCaptureId;
+            mCaptureLatency.mark(captureId, CaptureLatencyRecorder.Stage.IMAGE_AVAILABLE, System.nanoTime());
+            saver = new ImageSaver(image, closer, mFile, mJpegWriter, null, mCaptureLatency, captureId);
+            saver.setThumbnails(mThumbnails);
+        }
+        mExifJoiner.offerItem(image.getTimestamp(), saver, System.nanoTime());
+        Handler handler = mBackgroundHandler;
+        if (null != handler) {
+            handler.removeCallbacks(mExifExpire);
+            handler.postDelayed(mExifExpire, EXIF_WAIT_MS + 1);
+        }
+    }
+
+    /**
+     * 按传感器时间戳把照片和它的 TotalCaptureResult 配对：配上了带着拍摄参数保存，等不到结果就原样保存
+     */
+    private final TimestampJoiner<ImageSaver, CaptureMetadata> mExifJoiner = new TimestampJoiner<>(
+            BURST_RING_DEPTH + STILL_SINGLE_DEPTH, TimeUnit.MILLISECONDS.toNanos(EXIF_WAIT_MS),
+            new TimestampJoiner.Listener<ImageSaver, CaptureMetadata>() {
+                @Override
+                public void onJoined(long timestampNs, ImageSaver saver, CaptureMetadata metadata) {
+                    saver.setMetadata(metadata);
+                    mIoExecutor.submit(saver);
+                }
+
+                @Override
+                public void onUnmatched(long timestampNs, ImageSaver saver) {
+                    Log.w(TAG, "No capture result for image " + timestampNs + ", saving without EXIF");
+                    mIoExecutor.submit(saver);
+                }
+            });
+
+    /**
+     * 等不到结果的照片超时后照常保存
+     */
+    private final Runnable mExifExpire = new Runnable() {
+        @Override
+        public void run() {
+            mExifJoiner.expire(System.nanoTime());
+        }
+    };
+
+    /**
+     * 从拍照结果中取出写 EXIF 的参数
+     * <p>
+     * HAL 已经按 JPEG_ORIENTATION 旋转了像素或者写了自己的 Orientation（{@link ExifWriter} 会沿用），所以旋转角度记为 0。
+     * 拍摄时间取结果到达的墙上时间，和曝光时刻只差一帧左右。
+     */
+    private static CaptureMetadata captureMetadata(TotalCaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        Long exposure = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+        Integer iso = result.get(CaptureResult.SENSOR_SENSITIVITY);
+        Float focalLength = result.get(CaptureResult.LENS_FOCAL_LENGTH);
+        Float aperture = result.get(CaptureResult.LENS_APERTURE);
+        Integer flashState = result.get(CaptureResult.FLASH_STATE);
+        return new CaptureMetadata(null == timestamp ? -1 : timestamp, System.currentTimeMillis(),
+                null == exposure ? -1 : exposure, null == iso ? -1 : iso,
+                null == focalLength ? -1 : focalLength, null == aperture ? -1 : aperture,
+                null != flashState && flashState == CaptureResult.FLASH_STATE_FIRED, 0,
+                Build.MANUFACTURER, Build.MODEL);
+    }
+
+    /**
+     * 静态拍照和连拍的结果交给 {@link #mExifJoiner}
+     */
+    private void offerCaptureResult(TotalCaptureResult result) {
+        CaptureMetadata metadata = captureMetadata(result);
+        if (metadata.sensorTimestampNs >= 0) {
+            mExifJoiner.offerResult(metadata.sensorTimestampNs, metadata, System.nanoTime());
+        }
+    }
+
+    /**
+     * 连拍速率控制器，只在 mBackgroundHandler 线程上访问
+     */
+    private final BurstRateController mBurstController =
+            new BurstRateController(BURST_TARGET_FPS, BURST_RING_DEPTH, BURST_MAX_SIZE);
+
+    /**
+     * 连拍输出文件命名，按序号生成文件名
+     */
+    private CaptureFileNamer mBurstNamer;
+
+    /**
+     * 是否正在连拍
      */
-    private final ImageReader.OnImageAvailableListener mOnImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+    private volatile boolean mBurstActive;
+
+    /**
+     * 已提交但还没有收到 Image 的连拍帧数，只在 mBackgroundHandler 线程上访问。
+     * 大于 0 时到达的 Image 属于连拍，按序号命名保存。
+     */
+    private int mBurstPendingImages;
+
+    /**
+     * 当前这一轮 captureBurst 的帧数
+     */
+    private int mLastBurstSize;
+
+    /**
+     * 连拍用的静态拍照请求，每轮连拍开始时构建一次
+     */
+    private CaptureRequest mBurstRequest;
+
+    /**
+     * 预览输出的 Surface，连拍时同时作为输出目标，保证连拍期间预览不中断
+     */
+    private Surface mPreviewSurface;
+
+    /**
+     * mPreviewSurface 所对应的 SurfaceTexture，只要它没变，重建会话时就复用同一个 Surface
+     */
+    private SurfaceTexture mPreviewSurfaceTexture;
+
+    /**
+     * 连拍帧写完（或被丢弃）后在 I/O 线程回调，转到相机后台线程通知速率控制器
+     */
+    private final Runnable mBurstFrameFinished = new Runnable() {
+        @Override
+        public void run() {
+            Handler handler = mBackgroundHandler;
+            if (null != handler) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mBurstController.onFrameFinished();
+                    }
+                });
+            }
+        }
+    };
+
+    /**
+     * 提交一轮连拍请求，在 mBackgroundHandler 线程上执行
+     */
+    private final Runnable mBurstRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mBurstActive || null == mCaptureSession || null == mBurstRequest) {
+                return;
+            }
+            int size = mBurstController.acquireBurst();
+            if (size == 0) {
+                // ImageReader 的环形缓冲已满，等 I/O 消化一些再提交
+                mBackgroundHandler.postDelayed(this, BURST_RETRY_DELAY_MS);
+                return;
+            }
+            List<CaptureRequest> requests = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                requests.add(mBurstRequest);
+            }
+            try {
+                mBurstPendingImages += size;
+                mLastBurstSize = size;
+                mCaptureSession.captureBurst(requests, mBurstCaptureCallback, mBackgroundHandler);
+            } catch (CameraAccessException | IllegalStateException e) {
+                e.printStackTrace();
+                mBurstPendingImages -= size;
+                for (int i = 0; i < size; i++) {
+                    mBurstController.onFrameFinished();
+                }
+                mBurstActive = false;
+            }
+        }
+    };
+
+    /**
+     * 连拍请求的回调：一轮完成后按控制器给出的间隔安排下一轮
+     */
+    private final CameraCaptureSession.CaptureCallback mBurstCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            offerCaptureResult(result);
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            // 失败的帧不会有 Image，直接释放它占的槽位
+            mBurstPendingImages--;
+            mBurstController.onFrameFinished();
+        }
+
+        @Override
+        public void onCaptureSequenceCompleted(@NonNull CameraCaptureSession session, int sequenceId, long frameNumber) {
+            long delayNanos = mBurstController.onBurstCompleted(System.nanoTime(), mLastBurstSize);
+            if (mBurstActive && null != mBackgroundHandler) {
+                mBackgroundHandler.postDelayed(mBurstRunnable, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+            }
+        }
+
+        @Override
+        public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+            if (mBurstActive && null != mBackgroundHandler) {
+                mBackgroundHandler.postDelayed(mBurstRunnable, BURST_RETRY_DELAY_MS);
+            }
+        }
+    };
+
+    /**
+     * ZSL 用的全分辨率 YUV ImageReader，和预览一起由重复请求驱动；相机不支持时为 null
+     */
+    private ImageReader mZslImageReader;
+
+    /**
+     * mZslImageReader 的延迟关闭，交给 I/O 线程编码的帧打包完之前不关闭
+     */
+    private volatile DeferredCloser mZslReaderCloser;
+
+    /**
+     * 最近几帧全分辨率 YUV 图像，按 SENSOR_TIMESTAMP 排序；相机线程上关闭时置空，界面线程读一次到局部变量再用
+     */
+    private volatile ZslRingBuffer<Image> mZslRing;
+
+    /**
+     * 当前会话是否带着 ZSL 输出。FULL 只保证 PRIV PREVIEW + YUV MAXIMUM，再加上 JPEG MAXIMUM 不保证能配置成功，
+     * 所以两者不同时出现在一个会话里：平时带 ZSL，连拍按需换成 JPEG 输出，空闲释放后再换回来
+     */
+    private volatile boolean mZslStreaming;
+
+    /**
+     * 传感器时间戳是否和 SystemClock.elapsedRealtimeNanos() 同一时间基准，
+     * 否则（TIMESTAMP_SOURCE_UNKNOWN）按 System.nanoTime() 的单调时钟处理
+     */
+    private boolean mZslRealtimeTimestamps;
+
+    /**
+     * ZSL 帧到达时放进环形缓冲，最老的帧会被挤出并关闭
+     */
+    private final ImageReader.OnImageAvailableListener mOnZslImageAvailableListener = new ImageReader.OnImageAvailableListener() {
 
         @Override
         public void onImageAvailable(ImageReader reader) {
-            mBackgroundHandler.post(new ImageSaver(reader.acquireNextImage(), mFile));
+            Image image;
+            try {
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                // 环形缓冲满了而且还有帧在编码，丢掉这一帧
+                return;
+            }
+            if (null == image) {
+                return;
+            }
+            ZslRingBuffer<Image> ring = mZslRing;
+            if (null == ring) {
+                image.close();
+            } else {
+                ring.add(image.getTimestamp(), image);
+            }
         }
 
     };
 
     /**
-     * {@link CaptureRequest.Builder} for the camera preview
+     * 预览分析用的 YUV ImageReader，和预览一起由重复请求驱动；启用 ZSL 时为 null
+     */
+    private ImageReader mAnalysisImageReader;
+
+    /**
+     * 预览分析流水线和它的工作线程，随后台线程创建和关闭
+     */
+    private ExecutorService mAnalysisExecutor;
+
+    private FrameAnalysisPipeline mAnalysis;
+
+    /**
+     * ZSL 帧的软件 JPEG 编码器和它并行编码 restart 段用的线程池，随后台线程创建和关闭
+     */
+    private ForkJoinPool mEncodePool;
+
+    private JpegEncoder mJpegEncoder;
+
+    private final LumaAnalyzer mLumaAnalyzer = new LumaAnalyzer(LUMA_SAMPLE_STEP);
+
+    /**
+     * 分析帧到达时只取最新的一帧，流水线需要就拷贝进池里的缓冲，然后立即关闭 Image，分析在工作线程上进行
      */
-    private CaptureRequest.Builder mPreviewRequestBuilder;
+    private final ImageReader.OnImageAvailableListener mOnAnalysisImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image;
+            try {
+                image = reader.acquireLatestImage();
+            } catch (IllegalStateException e) {
+                return;
+            }
+            if (null == image) {
+                return;
+            }
+            FrameAnalysisPipeline analysis = mAnalysis;
+            FrameBuffer frame = null;
+            try {
+                if (null == analysis || !analysis.shouldAccept(image.getTimestamp())) {
+                    return;
+                }
+                int width = image.getWidth();
+                int height = image.getHeight();
+                Image.Plane[] planes = image.getPlanes();
+                int size = YuvPacker.nv21Size(width, height);
+                frame = mFramePool.acquire(size);
+                YuvPacker.packNv21(planes[0].getBuffer(), planes[0].getRowStride(),
+                        planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                        width, height, frame.array());
+                frame.setFrame(ImageFormat.NV21, width, height, image.getTimestamp(), size);
+            } catch (RuntimeException e) {
+                if (null != frame) {
+                    frame.release();
+                }
+                throw e;
+            } finally {
+                image.close();
+            }
+            // 交给流水线，由它负责释放
+            analysis.submit(frame);
+        }
+
+    };
 
     /**
-     * {@link CaptureRequest} generated by {@link #mPreviewRequestBuilder}
+     * 每个会话预先构建好的不可变请求：预览、对焦触发、取消对焦、预拍照、静态拍照、连拍
      */
-    private CaptureRequest mPreviewRequest;
+    private final CaptureRequestTemplates<CaptureRequest> mRequestTemplates = new CaptureRequestTemplates<>();
 
     /**
-     * The current state of camera state for taking pictures.
+     * 构建 {@link #mRequestTemplates} 中的请求，在会话配置完成后调用
+     */
+    private final CaptureRequestTemplates.Factory<CaptureRequest> mRequestFactory = new CaptureRequestTemplates.Factory<CaptureRequest>() {
+        @Override
+        public CaptureRequest create(int kind, int jpegOrientation) throws CameraAccessException {
+            CameraDevice device = mCameraDevice;
+            if (null == device) {
+                throw new CameraAccessException(CameraAccessException.CAMERA_DISCONNECTED);
+            }
+            CaptureRequest.Builder builder;
+            if (kind == CaptureRequestTemplates.KIND_STILL || kind == CaptureRequestTemplates.KIND_BURST) {
+                ImageReader reader = mImageReader;
+                if (null == reader) {
+                    throw new IllegalStateException("Session has no still output");
+                }
+                builder = device.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+                builder.addTarget(reader.getSurface());
+                if (kind == CaptureRequestTemplates.KIND_BURST) {
+                    // 连拍时预览不中断
+                    builder.addTarget(mPreviewSurface);
+                }
+                builder.set(CaptureRequest.JPEG_ORIENTATION, jpegOrientation);
+            } else {
+                builder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                builder.addTarget(mPreviewSurface);
+                if (mZslStreaming) {
+                    // ZSL 的 YUV 输出跟着预览一起持续出帧
+                    builder.addTarget(mZslImageReader.getSurface());
+                }
+                if (null != mAnalysisImageReader) {
+                    builder.addTarget(mAnalysisImageReader.getSurface());
+                }
+                switch (kind) {
+                    case CaptureRequestTemplates.KIND_AF_TRIGGER:
+                        builder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START);
+                        break;
+                    case CaptureRequestTemplates.KIND_AF_CANCEL:
+                        builder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
+                        break;
+                    case CaptureRequestTemplates.KIND_PRECAPTURE:
+                        builder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
+                                CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            // 对焦模式来自 mControls：默认连续对焦，点击对焦时为 AUTO；必要时启动flash
+            setAutoFlash(builder);
+            applyControls(builder);
+            return builder.build();
+        }
+    };
+
+    /**
+     * 缩放、曝光补偿、对焦 / 测光区域的改动先放在这里，每帧最多提交一次
+     */
+    private final ControlUpdateCoalescer mControls = new ControlUpdateCoalescer();
+
+    /**
+     * 当前相机的 SENSOR_INFO_ACTIVE_ARRAY_SIZE，用于计算缩放裁剪区域
+     */
+    private volatile int[] mActiveArray = new int[4];
+
+    /**
+     * mControls 的取值范围对应的相机，换相机时重置
+     */
+    private String mControlsCameraId;
+
+    /**
+     * 拍照状态机，由 mCaptureCallback 的结果驱动
      *
      * @see #mCaptureCallback
      */
-    private int mState = STATE_PREVIEW;
+    private final CaptureStateMachine mCaptureState = newCaptureStateMachine();
+
+    /**
+     * 结果不再到来时（例如会话卡住）由这里检查状态机超时，在相机线程执行
+     */
+    private final Runnable mCaptureTimeoutCheck = new Runnable() {
+        @Override
+        public void run() {
+            int previous = mCaptureState.getState();
+            onCaptureAction(previous, mCaptureState.onTimeoutCheck(System.nanoTime()));
+        }
+    };
+
+    /**
+     * 拍照链路各阶段的延迟统计，在信息对话框中查看和导出
+     */
+    private final CaptureLatencyRecorder mCaptureLatency = new CaptureLatencyRecorder();
+
+    /**
+     * 当前这次拍照在 mCaptureLatency 中的编号
+     */
+    private volatile int mCaptureId = -1;
+
+    /**
+     * 相机生命周期控制器，打开、配置、关闭都在 mBackgroundHandler 线程上串行执行，UI 线程不再等待锁。
+     * 和后台线程一起在 onCreate() 创建、onDestroy() 释放，跨越 onPause() / onResume()。
+     */
+    private CameraLifecycleController mLifecycle;
+
+    /**
+     * 生命周期控制器的相机操作部分，所有方法都在 mBackgroundHandler 线程上调用
+     */
+    private final CameraLifecycleController.Backend mLifecycleBackend = new CameraLifecycleController.Backend() {
+
+        @Override
+        public void openDevice(String cameraId, CameraLifecycleController.StepCallback callback) throws Exception {
+            final Activity activity = getActivity();
+            if (null == activity) {
+                throw new IllegalStateException("Fragment detached");
+            }
+            mCameraId = cameraId;
+            // 设置相机特性，设置图片存储监听，拍照图片有效会通知ImageSaver线程保存图片，设置AE，AF等
+            setUpCameraOutputs(mViewWidth, mViewHeight);
+            activity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    // 设置矩阵变换，配置预览图的大小、方向、角度
+                    applyPreviewAspectRatio();
+                    configureTransform(mTextureView.getWidth(), mTextureView.getHeight());
+                }
+            });
+            DeviceStateCallback stateCallback = new DeviceStateCallback(callback);
+            // 冷启动时设备可能已经在 Activity.onCreate() 里开始打开了，接过来即可
+            CameraStartup startup = mStartup;
+            mStartup = null;
+            if (null != startup && startup.adoptDevice(cameraId, stateCallback)) {
+                return;
+            }
+            CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+            manager.openCamera(cameraId, stateCallback, mBackgroundHandler);
+        }
+
+        @Override
+        public void configureSession(CameraLifecycleController.StepCallback callback) throws Exception {
+            createCameraPreviewSession(callback);
+        }
+
+        @Override
+        public void closeSession() {
+            mRequestTemplates.clear();
+            if (null != mCaptureSession) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+        }
+
+        @Override
+        public void closeDevice() {
+            closeCamera();
+        }
+    };
+
+    private final CameraLifecycleController.Listener mLifecycleListener = new CameraLifecycleController.Listener() {
+        @Override
+        public void onError(final CameraLifecycleController.Stage stage, Throwable error) {
+            Log.e(TAG, "Camera " + stage + " failed", error);
+            mSwitchLatency.cancel();
+            final Activity activity = getActivity();
+            if (null == activity) {
+                return;
+            }
+            activity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    switch (stage) {
+                        case CONFIGURE:
+                            showToast("Failed");
+                            break;
+                        case OPEN:
+                            if (isAdded()) {
+                                ErrorDialog.newInstance(getString(R.string.camera_error)).show(getChildFragmentManager(), FRAGMENT_DIALOG);
+                            }
+                            break;
+                        default:
+                            activity.finish();
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * Whether the current camera device supports Flash or not.
+     */
+    private boolean mFlashSupported;
+
+    /**
+     * Orientation of the camera sensor
+     */
+    private int mSensorOrientation;
+
+    /**
+     * 配置输出时的屏幕旋转方向，用于预先构建当前方向的静态拍照请求
+     */
+    private volatile int mDisplayRotation;
+
+    /**
+     * 这段代码实现了一个CameraCaptureSession.CaptureCallback的回调函数，用于处理摄像头捕获画面时的不同状态。
+     *
+     * 其中，process()函数把结果里的 AF / AE 状态交给 mCaptureState，再执行状态机返回的动作：
+     * 预览状态下不读取结果；等待对焦锁定、等待预拍照开始、等待预拍照结束的转换都在 {@link CaptureStateMachine} 中。
+     *
+     * onCaptureProgressed()和onCaptureCompleted()方法则分别对应不同阶段的捕获结果，可以调用process()函数来处理不同状态下的结果。
+     *
+     */
+    private CameraCaptureSession.CaptureCallback mCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+
+        private void process(CaptureResult result, boolean completed) {
+            boolean waiting = mCaptureState.isWaiting();
+            if (!waiting && !completed) {
+                // 相机预览正常，则无操作
+                return;
+            }
+            Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+            Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+            int af = null == afState ? CaptureStateMachine.UNKNOWN : afState;
+            int ae = null == aeState ? CaptureStateMachine.UNKNOWN : aeState;
+            long now = System.nanoTime();
+            if (completed) {
+                // 部分结果里可能没有 AF / AE 状态，只用完整结果判断是否收敛
+                mFastShutter.onPreviewResult(af, ae, now);
+            }
+            // 状态机把 UNKNOWN 当作"没有这个状态"（定焦镜头直接拍、没有 AE 就跳过预拍照），
+            // 部分结果里缺键只是还没到，不能这样解释：缺 AF 或 AE 的部分结果不驱动状态机，等完整结果
+            if (waiting && (completed || (null != afState && null != aeState))) {
+                int previous = mCaptureState.getState();
+                onCaptureAction(previous, mCaptureState.onResult(af, ae, now));
+            }
+            if (completed) {
+                if (mTapFocus.isActive()) {
+                    Integer afTrigger = result.get(CaptureResult.CONTROL_AF_TRIGGER);
+                    int state = mTapFocus.getState();
+                    int action = mTapFocus.onResult(af, null == afTrigger ? CaptureStateMachine.UNKNOWN : afTrigger, now);
+                    if (action == TapFocusController.ACTION_RELEASE) {
+                        clearTapFocusControls(now);
+                    } else if (mTapFocus.getState() != state) {
+                        scheduleTapFocusCheck();
+                    }
+                }
+                commitControls(result, now);
+            }
+        }
+
+        @Override
+        public void onCaptureProgressed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureResult partialResult) {
+            process(partialResult, false);
+        }
+
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
+            mFramePacing.onFrameStarted(frameNumber);
+        }
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            Long frameDuration = result.get(CaptureResult.SENSOR_FRAME_DURATION);
+            if (null != timestamp) {
+                mFramePacing.onFrameCompleted(result.getFrameNumber(), timestamp, null == frameDuration ? 0 : frameDuration);
+                if (mFramePacing.getFrames() % PACING_LOG_INTERVAL_FRAMES == 0) {
+                    Log.i(TAG, mFramePacing.toString());
+                }
+            }
+            if (!mStartupTrace.isComplete() && mStartupTrace.mark(StartupTrace.Phase.FIRST_RESULT, System.nanoTime())) {
+                Log.i(TAG, mStartupTrace.toString());
+            }
+            process(result, true);
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            mFramePacing.onFrameFailed(failure.getFrameNumber());
+        }
+    };
 
     /**
-     * 使用Semaphore（信号量）来防止在关闭相机之前应用程序退出。
-     * Semaphore是一个同步辅助类，用于控制线程的并发访问数量。它被设置为1，意味着在任何时候只能有一个线程访问它所控制的资源，即相机的打开和关闭操作。
-     * Semaphore是一种同步机制，它可以用于控制同时访问共享资源的线程数量。
-     * Semaphore用于确保相机在关闭之前被正确释放，以避免内存泄漏和其他问题。
-     *
+     * 预览帧节奏监控，数据来自 mCaptureCallback
      */
-    private Semaphore mCameraOpenCloseLock = new Semaphore(1);
+    private final FramePacingMonitor mFramePacing = new FramePacingMonitor();
 
     /**
-     * Whether the current camera device supports Flash or not.
+     * 快速快门预测，数据来自 mCaptureCallback 的完整结果
      */
-    private boolean mFlashSupported;
+    private final FastShutterPredictor mFastShutter = new FastShutterPredictor();
 
     /**
-     * Orientation of the camera sensor
+     * 点击对焦的对焦周期和点击到锁定的耗时
      */
-    private int mSensorOrientation;
+    private final TapFocusController mTapFocus = new TapFocusController(
+            TimeUnit.MILLISECONDS.toNanos(TAP_FOCUS_TIMEOUT_MS), TimeUnit.MILLISECONDS.toNanos(TAP_FOCUS_HOLD_MS));
 
     /**
-     * 这段代码实现了一个CameraCaptureSession.CaptureCallback的回调函数，用于处理摄像头捕获画面时的不同状态。
-     *
-     * 其中，process()函数根据当前状态来进行不同的处理，可以用来控制捕获图片的流程。
-     * 在STATE_PREVIEW状态下，即正常预览状态下，不需要进行任何处理；
-     * 在STATE_WAITING_LOCK状态下，等待对焦完成，可以判断对焦状态并启动预拍照流程；
-     * 在STATE_WAITING_PRECAPTURE状态下，等待曝光预捕获状态，可以判断曝光状态并启动预拍照流程；
-     * 在STATE_WAITING_NON_PRECAPTURE状态下，等待曝光完成状态，可以判断曝光状态并启动拍照流程。
-     *
-     * onCaptureProgressed()和onCaptureCompleted()方法则分别对应不同阶段的捕获结果，可以调用process()函数来处理不同状态下的结果。
-     *
+     * 结果不再到来时检查点击对焦的超时和保持时间，在相机线程执行
      */
-    private CameraCaptureSession.CaptureCallback mCaptureCallback = new CameraCaptureSession.CaptureCallback() {
-
-        private void process(CaptureResult result) {
-            switch (mState) {
-                case STATE_PREVIEW: {
-                    // 相机预览正常，则无操作
-                    break;
-                }
-                case STATE_WAITING_LOCK: {
-                    Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
-                    if (afState == null) {
-                        captureStillPicture();
-                    } else if (CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED == afState ||
-                            CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED == afState) {
-                        // CONTROL_AE_STATE 在某些设备中可能为空
-                        Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
-                        if (aeState == null ||
-                                aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
-                            mState = STATE_PICTURE_TAKEN;
-                            captureStillPicture();
-                        } else {
-                            runPrecaptureSequence();
-                        }
-                    }
-                    break;
-                }
-                case STATE_WAITING_PRECAPTURE: {
-                    // CONTROL_AE_STATE 在某些设备中可能为空
-                    Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
-                    if (aeState == null ||
-                            aeState == CaptureResult.CONTROL_AE_STATE_PRECAPTURE ||
-                            aeState == CaptureRequest.CONTROL_AE_STATE_FLASH_REQUIRED) {
-                        mState = STATE_WAITING_NON_PRECAPTURE;
-                    }
-                    break;
-                }
-                case STATE_WAITING_NON_PRECAPTURE: {
-                    // CONTROL_AE_STATE 在某些设备中可能为空
-                    Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
-                    if (aeState == null || aeState != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
-                        mState = STATE_PICTURE_TAKEN;
-                        captureStillPicture();
-                    }
-                    break;
-                }
-                default:
-                    break;
-            }
-        }
-
+    private final Runnable mTapFocusCheck = new Runnable() {
         @Override
-        public void onCaptureProgressed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureResult partialResult) {
-            process(partialResult);
-        }
-
-        @Override
-        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-            process(result);
+        public void run() {
+            if (mTapFocus.onTimeoutCheck(System.nanoTime()) == TapFocusController.ACTION_RELEASE) {
+                clearTapFocusControls(System.nanoTime());
+            }
         }
     };
 
+    /**
+     * 当前相机的点击对焦能力，在 setUpCameraOutputs 中更新
+     */
+    private volatile boolean mFrontFacing;
+    private volatile boolean mTapAfSupported;
+    private volatile boolean mTapAeSupported;
+
     /**
      * Shows a {@link Toast} on the UI thread.
      *
@@ -430,52 +1330,11 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
     }
 
     /**
-     * 这段代码是一个用于选择合适的相机预览尺寸的方法，它接收一些参数包括预览视图的宽和高、最大的宽和高以及一个期望的宽高比。
-     * 它会遍历相机支持的预览尺寸，将宽高比符合要求的尺寸分别放入 bigEnough 和 notBigEnough 两个列表中。
-     * 如果 bigEnough 列表不为空，那么它会返回其中面积最小的一个尺寸；
-     * 如果 bigEnough 列表为空而 notBigEnough 不为空，那么它会返回其中面积最大的一个尺寸；
-     * 如果 bigEnough 和 notBigEnough 列表都为空，那么它会返回相机支持的第一个尺寸。
-     * 同时，这个类还提供了一个静态方法 newInstance()，用于创建一个新的 Camera2BasicFragment 实例。
-     *
-     * @param choices           根据预览SurfaceView的得到的摄像头所支持的流配置
-     * @param textureViewWidth  TextureView的宽
-     * @param textureViewHeight TextureView的高
-     * @param maxWidth          可显示区域的宽
-     * @param maxHeight         可显示区域的高
-     * @param aspectRatio       可使用的最大尺寸
-     * @return The optimal {@code Size}, or an arbitrary one if none were big enough
-     *
+     * 当前屏幕的旋转方向（Surface.ROTATION_*）。minSdk 32，直接用 API 30 的 Activity.getDisplay()，
+     * 不再用过时的 WindowManager.getDefaultDisplay()
      */
-    private static Size chooseOptimalSize(Size[] choices, int textureViewWidth, int textureViewHeight, int maxWidth, int maxHeight, Size aspectRatio) {
-
-        // Collect the supported resolutions that are at least as big as the preview Surface
-        List<Size> bigEnough = new ArrayList<>();
-        // Collect the supported resolutions that are smaller than the preview Surface
-        List<Size> notBigEnough = new ArrayList<>();
-        int w = aspectRatio.getWidth();
-        int h = aspectRatio.getHeight();
-        for (Size option : choices) {
-            if (option.getWidth() <= maxWidth && option.getHeight() <= maxHeight &&
-                    option.getHeight() == option.getWidth() * h / w) {
-                if (option.getWidth() >= textureViewWidth &&
-                        option.getHeight() >= textureViewHeight) {
-                    bigEnough.add(option);
-                } else {
-                    notBigEnough.add(option);
-                }
-            }
-        }
-
-        // Pick the smallest of those big enough. If there is no one big enough, pick the
-        // largest of those not big enough.
-        if (bigEnough.size() > 0) {
-            return Collections.min(bigEnough, new CompareSizesByArea());
-        } else if (notBigEnough.size() > 0) {
-            return Collections.max(notBigEnough, new CompareSizesByArea());
-        } else {
-            Log.e(TAG, "Couldn't find any suitable preview size");
-            return choices[0];
-        }
+    private static int displayRotation(Activity activity) {
+        return activity.getDisplay().getRotation();
     }
 
     public static Camera2BasicFragment newInstance() {
@@ -516,10 +1375,48 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
      */
     @Override
     public void onViewCreated(final View view, Bundle savedInstanceState) {
+        mStartupTrace.mark(StartupTrace.Phase.VIEW_CREATED, System.nanoTime());
         view.findViewById(R.id.picture).setOnClickListener(this);
+        // 长按拍照按钮开始连拍，连拍过程中再点一次停止
+        view.findViewById(R.id.picture).setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                startBurst();
+                return true;
+            }
+        });
         view.findViewById(R.id.turn).setOnClickListener(this);
         view.findViewById(R.id.info).setOnClickListener(this);
+        mThumbnailView = (ImageView) view.findViewById(R.id.thumbnail);
         mTextureView = (AutoFitTextureView) view.findViewById(R.id.texture);
+        // 点击对焦 / 测光
+        final GestureDetector tapDetector = new GestureDetector(view.getContext(),
+                new GestureDetector.SimpleOnGestureListener() {
+                    @Override
+                    public boolean onSingleTapUp(MotionEvent e) {
+                        tapToFocus(e.getX(), e.getY());
+                        return true;
+                    }
+                });
+        // 双指缩放：每个手势事件只改 mControls，由相机线程每帧合并提交
+        final ScaleGestureDetector scaleDetector = new ScaleGestureDetector(view.getContext(),
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        mControls.setZoom(mControls.getZoom() * detector.getScaleFactor(), System.nanoTime());
+                        return true;
+                    }
+                });
+        mTextureView.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View v, MotionEvent event) {
+                scaleDetector.onTouchEvent(event);
+                if (!scaleDetector.isInProgress()) {
+                    tapDetector.onTouchEvent(event);
+                }
+                return true;
+            }
+        });
     }
 
     /**
@@ -549,6 +1446,9 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
         Date currentDate = new Date();
         String picName = "pic" + String.valueOf(currentDate);
         mFile = new File(getActivity().getExternalFilesDir(null), picName + ".jpg");
+        mBurstNamer = new CaptureFileNamer(getActivity().getExternalFilesDir(null), "burst");
+        mThumbnails = new ThumbnailCache(new File(getActivity().getCacheDir(), "thumbnails"),
+                Runtime.getRuntime().maxMemory() / 32, THUMBNAIL_DISK_BYTES, THUMBNAIL_MIN_EDGE, mThumbnailListener);
     }
 
 
@@ -558,7 +1458,7 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
      * 在该方法中，我们通常会初始化一些变量、启动后台线程、注册一些监听器等。
      *
      * 在该方法中，首先调用了 super.onResume() 方法以确保 Fragment 生命周期的正常进行。
-     * 接着调用了 startBackgroundThread() 方法，该方法用于启动一个后台线程，以便我们可以在后台线程中进行相机操作。
+     * 后台线程在 onCreate() 中已经启动。
      * 然后，我们检查 mTextureView 是否已经准备好显示相机预览，
      * 并根据情况分别调用 openCamera() 方法或设置 mSurfaceTextureListener 监听器，
      * 以便在 onSurfaceTextureAvailable() 方法回调中打开相机并启动预览。
@@ -569,7 +1469,7 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
     @Override
     public void onResume() {
         super.onResume();
-        startBackgroundThread();    // 开启一个后台线程处理相机数据
+        mFramePool.restore();
 
         Log.d(TAG, "onResume: " + mTextureView.isAvailable());
         // .isAvailable()是一个Java方法，用于检查某个对象或资源是否可用。
@@ -579,18 +1479,91 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
             // 设置 mSurfaceTextureListener 监听器, 以便在 onSurfaceTextureAvailable() 方法回调中打开相机并启动预览
             mTextureView.setSurfaceTextureListener(mSurfaceTextureListener);
         }
+        mUiRotation = displayRotation(getActivity());
+        DisplayManager displayManager = (DisplayManager) getActivity().getSystemService(Context.DISPLAY_SERVICE);
+        displayManager.registerDisplayListener(mDisplayListener, null);
+    }
+
+    /**
+     * CameraActivity 声明了 configChanges，旋转屏幕不再重建 Activity，相机设备、会话和 ImageReader 都保持不变
+     */
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        onDisplayRotationChanged();
+    }
+
+    /**
+     * 屏幕方向变化：只重新计算预览的宽高比和变换矩阵，并预先构建新方向的 JPEG_ORIENTATION 请求
+     */
+    private void onDisplayRotationChanged() {
+        Activity activity = getActivity();
+        if (null == activity || null == mTextureView) {
+            return;
+        }
+        final int rotation = displayRotation(activity);
+        if (rotation == mUiRotation) {
+            return;
+        }
+        // 90 度旋转宽高互换，要等 TextureView 重新布局（onSurfaceTextureSizeChanged）
+        boolean needsLayout = mUiRotation >= 0 && (mUiRotation + rotation) % 2 != 0;
+        mUiRotation = rotation;
+        mDisplayRotation = rotation;
+        mRotationLatency.onRotation(System.nanoTime(), needsLayout);
+        applyPreviewAspectRatio();
+        configureTransform(mTextureView.getWidth(), mTextureView.getHeight());
+        Handler handler = mBackgroundHandler;
+        if (null != handler) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (null == mImageReader) {
+                        return;
+                    }
+                    try {
+                        mRequestTemplates.getStill(getOrientation(rotation));
+                    } catch (Exception e) {
+                        Log.w(TAG, "prebuild still request failed", e);
+                    }
+                }
+            });
+        }
     }
 
     /**
-     * 关闭相机后台线程
+     * 请求关闭相机，真正的关闭延迟 {@link #CLOSE_COALESCE_MS} 毫秒在后台线程上执行，
+     * 这期间回到 onResume() 相机不会被关闭，预览直接继续
      */
     @Override
     public void onPause() {
-        closeCamera();
-        stopBackgroundThread();
+        mBurstActive = false;
+        DisplayManager displayManager = (DisplayManager) getActivity().getSystemService(Context.DISPLAY_SERVICE);
+        displayManager.unregisterDisplayListener(mDisplayListener);
+        mRotationLatency.cancel();
+        mLifecycle.close(CLOSE_COALESCE_MS);
         super.onPause();
     }
 
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        startBackgroundThread();    // 开启一个后台线程处理相机数据
+        getActivity().registerComponentCallbacks(mTrimCallbacks);
+    }
+
+    @Override
+    public void onDestroy() {
+        getActivity().unregisterComponentCallbacks(mTrimCallbacks);
+        if (BuildConfig.DEBUG) {
+            // 已经提交的保存任务可能还没执行完，这里只是提示
+            for (Throwable site : mFramePool.getOutstandingSites()) {
+                Log.w(TAG, "FrameBuffer not released yet", site);
+            }
+        }
+        stopBackgroundThread();
+        super.onDestroy();
+    }
+
     /**
      * 请求相机权限
      * 如果应该显示对相机权限的请求理由，就会弹出一个确认对话框；否则就会请求相机权限。
@@ -620,104 +1593,72 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
     /**
      *
      * setUpCameraOutputs 是用于设置与相机相关的成员变量的方法
+     * <p>
+     * 相机能力全部来自 {@link CameraCapabilityIndex}，不再在这里遍历 getCameraIdList() 和 getCameraCharacteristics()。
      */
     @SuppressWarnings("SuspiciousNameCombination")
-    private void setUpCameraOutputs(int width, int height) {
+    private void setUpCameraOutputs(int width, int height) throws CameraAccessException {
         Activity activity = getActivity();
+        int displayRotation = displayRotation(activity);
+        Rect bounds = activity.getWindowManager().getCurrentWindowMetrics().getBounds();
+        Point displaySize = new Point(bounds.width(), bounds.height());
+
+        // 同一个相机在相同的显示条件下配置不变，前后摄来回切换时直接复用
+        String key = CameraOutputConfig.key(mCameraId, width, height, displayRotation, displaySize.x, displaySize.y);
+        CameraOutputConfig config = mOutputConfigs.get(key);
+        if (null == config) {
+            CameraCapabilityIndex.CameraInfo info = CameraCapabilityIndex.get(activity).get(mCameraId);
+            if (null == info) {
+                throw new IllegalStateException("Unknown camera " + mCameraId);
+            }
+            // 危险！尝试使用太大的预览大小可能会超过相机总线的底宽限制，导致华丽的预览，但是会存储垃圾捕获数据
+            config = CameraOutputConfig.resolve(info, width, height, displayRotation, displaySize.x, displaySize.y,
+                    MAX_PREVIEW_WIDTH, MAX_PREVIEW_HEIGHT, PREVIEW_ASPECT_TOLERANCE,
+                    ZSL_ENABLED ? ZSL_MEMORY_BUDGET_BYTES : 0, ZSL_MAX_FRAMES, ANALYSIS_MAX_WIDTH, ANALYSIS_MAX_HEIGHT);
+            mOutputConfigs.put(key, config);
+        }
 
-        // 这段代码是在Android应用中获取摄像头管理器的实例，用于控制摄像头的打开、关闭、拍照等操作。
-        // activity.getSystemService(Context.CAMERA_SERVICE)获取到一个CameraManager对象，该对象提供了访问摄像头硬件设备的接口。
-        CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
-        try {
-            for (String cameraId : manager.getCameraIdList()) {
-                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
-                // 在这个样例中，我们不使用前置摄像头。
-                // Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
-                // 如果使用前置摄像头，就不处理
-//                if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
-//                    continue;
-//                }
-
-                // 得到该摄像头设备支持的可用流配置，还包括每种格式/尺寸组合的最小帧时长和停顿时长。
-                // StreamConfigurationMap是一个Android Camera2 API中的类，用于获取相机硬件的所有可用配置选项。
-                // 它提供了一组方法，可以获取相机支持的所有输出格式、分辨率、帧率等详细信息。
-                // 通过这些信息，开发人员可以根据自己的需求选择最合适的相机配置来实现各种功能，例如拍照和录像。
-                StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-                if (map == null) {
-                    continue;
-                }
-
-                // 对于静态图想捕获，我们使用最大的可用大小
-                Size largest = Collections.max(Arrays.asList(map.getOutputSizes(ImageFormat.JPEG)), new CompareSizesByArea());
-                mImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(), ImageFormat.JPEG, 2);
-                mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mBackgroundHandler);
-
-                // 找出是否需要交换尺寸以获得相对于传感器坐标的预览尺寸
-                int displayRotation = activity.getWindowManager().getDefaultDisplay().getRotation();
-                mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-                boolean swappedDimensions = false;
-                switch (displayRotation) {
-                    case Surface.ROTATION_0:
-                    case Surface.ROTATION_180:
-                        if (mSensorOrientation == 90 || mSensorOrientation == 270) {
-                            swappedDimensions = true;
-                        }
-                        break;
-                    case Surface.ROTATION_90:
-                    case Surface.ROTATION_270:
-                        if (mSensorOrientation == 0 || mSensorOrientation == 180) {
-                            swappedDimensions = true;
-                        }
-                        break;
-                    default:
-                        Log.e(TAG, "Display rotation is invalid: " + displayRotation);
-                }
-
-                Point displaySize = new Point();
-                activity.getWindowManager().getDefaultDisplay().getSize(displaySize);
-                int rotatedPreviewWidth = width;
-                int rotatedPreviewHeight = height;
-                int maxPreviewWidth = displaySize.x;
-                int maxPreviewHeight = displaySize.y;
-
-                if (swappedDimensions) {
-                    rotatedPreviewWidth = height;
-                    rotatedPreviewHeight = width;
-                    maxPreviewWidth = displaySize.y;
-                    maxPreviewHeight = displaySize.x;
-                }
-
-                if (maxPreviewWidth > MAX_PREVIEW_WIDTH) {
-                    maxPreviewWidth = MAX_PREVIEW_WIDTH;
-                }
-
-                if (maxPreviewHeight > MAX_PREVIEW_HEIGHT) {
-                    maxPreviewHeight = MAX_PREVIEW_HEIGHT;
-                }
-
-                // 危险！尝试使用太大的预览大小可能会超过相机总线的底宽限制，导致华丽的预览，但是会存储垃圾捕获数据
-                mPreviewSize = chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class), rotatedPreviewWidth, rotatedPreviewHeight, maxPreviewWidth, maxPreviewHeight, largest);
+        // JPEG ImageReader 不在这里创建，配置会话时按 mStillOutput 决定的深度创建（可能没有）
+        mJpegSize = new Size(config.jpegWidth, config.jpegHeight);
+        mStillOutput.onCameraConfigured(config.jpegWidth, config.jpegHeight, config.zslCapacity > 0);
+
+        mSensorOrientation = config.sensorOrientation;
+        mDisplayRotation = displayRotation;
+        if (!mCameraId.equals(mControlsCameraId)) {
+            // 换了相机，缩放和区域都不再适用
+            CameraCapabilityIndex.CameraInfo info = CameraCapabilityIndex.get(activity).get(mCameraId);
+            if (null != info) {
+                mActiveArray = info.activeArray;
+                mFrontFacing = info.facing == CameraCharacteristics.LENS_FACING_FRONT;
+                mTapAfSupported = info.maxAfRegions > 0 && supportsAfMode(info, CaptureRequest.CONTROL_AF_MODE_AUTO);
+                mTapAeSupported = info.maxAeRegions > 0;
+                mTapFocus.reset();
+                mControls.reset(info.maxDigitalZoom, info.aeCompensationMin, info.aeCompensationMax);
+                mControlsCameraId = mCameraId;
+            }
+        }
+        mPreviewSize = new Size(config.previewWidth, config.previewHeight);
 
-                // 我们将 TextureView 的宽高比与我们选择的预览大小相匹配
-                int orientation = getResources().getConfiguration().orientation;
-                if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
-                    mTextureView.setAspectRatio(mPreviewSize.getWidth(), mPreviewSize.getHeight());
-                } else {
-                    mTextureView.setAspectRatio(mPreviewSize.getHeight(), mPreviewSize.getWidth());
-                }
+        // 检查flash是否可用
+        mFlashSupported = config.flashSupported;
 
-                // 检查flash是否可用
-                Boolean available = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
-                mFlashSupported = available == null ? false : available;
+        setUpZslOutput(config);
+        setUpAnalysisOutput(config);
+    }
 
-                mCameraId = cameraId;
-                return;
-            }
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        } catch (NullPointerException e) {
-            // 目前，当使用Camera2API时抛出一个NPE，但在运行此代码的设备上不支持
-            ErrorDialog.newInstance(getString(R.string.camera_error)).show(getChildFragmentManager(), FRAGMENT_DIALOG);
+    /**
+     * 我们将 TextureView 的宽高比与我们选择的预览大小相匹配，必须在 UI 线程调用
+     */
+    private void applyPreviewAspectRatio() {
+        Size previewSize = mPreviewSize;
+        if (null == previewSize || !isAdded()) {
+            return;
+        }
+        int orientation = getResources().getConfiguration().orientation;
+        if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
+            mTextureView.setAspectRatio(previewSize.getWidth(), previewSize.getHeight());
+        } else {
+            mTextureView.setAspectRatio(previewSize.getHeight(), previewSize.getWidth());
         }
     }
 
@@ -725,13 +1666,9 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
      * openCamera() 这是一个用于打开相机的方法
      *
      * 在这个方法中，我们首先检查是否已经获取了相机权限，如果没有获取到权限，就调用 requestCameraPermission() 方法来请求权限，然后直接返回。
-     * 如果已经获取到相机权限，就调用 setUpCameraOutputs() 方法来设置相机输出参数，
-     * 然后调用 configureTransform() 方法来配置相机预览的变换矩阵，以确保预览画面的正确显示。
-     * 接着，我们获取到当前的 Activity 对象，然后通过调用 getSystemService() 方法来获取相机管理器 CameraManager 的实例。
-     * 接下来，我们调用 mCameraOpenCloseLock.tryAcquire() 方法来尝试获取相机开启的锁，并设置等待时间为 2500 毫秒。
-     * 如果在等待时间内没有获取到锁，就抛出一个 RuntimeException 异常。
-     * 如果获取到了锁，就通过调用 manager.openCamera() 方法来打开相机，并传入相机 ID、相机状态回调和后台线程的 Handler 对象。
-     * 在这个方法中，我们通过相机状态回调来处理相机开启和关闭的状态，例如当相机已经关闭时，我们可以通过调用 mCameraOpenCloseLock.release() 方法来释放相机开启的锁。
+     * 如果已经获取到相机权限，就记下 TextureView 的尺寸，然后向生命周期控制器请求打开相机并建立预览会话。
+     * 设置输出参数、打开设备、创建会话都在后台线程上依次执行，这里立即返回，不再在主线程等待锁。
+     * 相机仍在合并窗口内没有关闭时，这两个请求会直接完成，预览继续。
      */
     private void openCamera(int width, int height) {
 
@@ -741,80 +1678,73 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
             return;
         }
 
-        // 设置相机特性，设置图片存储监听，拍照图片有效会通知ImageSaver线程保存图片，设置AE，AF等
-        setUpCameraOutputs(width, height);
-        // 设置矩阵变换，配置预览图的大小、方向、角度
-        configureTransform(width, height);
-        Activity activity = getActivity();
+        mViewWidth = width;
+        mViewHeight = height;
+        String cameraId = resolveCameraId();
+        if (null == cameraId) {
+            ErrorDialog.newInstance(getString(R.string.camera_error)).show(getChildFragmentManager(), FRAGMENT_DIALOG);
+            return;
+        }
+        mLifecycle.open(cameraId);
+        mLifecycle.configure();
+    }
 
-        // 这段代码是在Android中使用相机的一个管理器，它的作用是获取相机服务，以便在应用程序中使用相机功能。
-        // 其中，activity是当前的Activity对象，而Context.CAMERA_SERVICE是一个常量，表示获取相机服务的类型。
-        // 在获取相机服务之后，可以通过该服务来打开相机、拍照、录制视频等操作。
-        CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+    /**
+     * 当前相机 id，还没有选过或者不可用时退回默认相机
+     */
+    private String resolveCameraId() {
         try {
-            if (!mCameraOpenCloseLock.tryAcquire(CLOSE_LOCK_TIME, TimeUnit.MILLISECONDS)) {
-                throw new RuntimeException("Time out waiting to lock camera opening.");
+            CameraCapabilityIndex index = CameraCapabilityIndex.get(getActivity());
+            String cameraId = mCameraId;
+            CameraCapabilityIndex.CameraInfo info = null == cameraId ? null : index.get(cameraId);
+            if (null == info || !info.hasOutputs()) {
+                cameraId = index.getDefaultCameraId();
             }
-            // 获取CameraManager对象，正式打开相机
-            manager.openCamera(mCameraId, mStateCallback, mBackgroundHandler);
+            return cameraId;
         } catch (CameraAccessException e) {
             e.printStackTrace();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted while trying to lock camera opening.", e);
+            return null;
         }
     }
 
     /**
      * 关闭当前 CameraDevice.
      * <p>
-     * 这段代码定义了一个名为closeCamera()的方法，其目的是关闭相机、图像捕获会话和图像阅读器。
-     * 该方法使用了mCameraOpenCloseLock对象，以确保同一时间只有一个线程可以访问相机资源。
-     * 首先，使用mCameraOpenCloseLock.acquire()方法获得相机资源的锁。
-     * 如果锁已经被另一个线程获得，当前线程将被阻塞，直到锁被释放为止。
-     * 然后，如果mCaptureSession不为null，就调用它的close()方法关闭图像捕获会话，并将它赋值为null。
-     * 同样，如果mCameraDevice不为null，就调用它的close()方法关闭相机，并将它赋值为null。
-     * 如果mImageReader不为null，就调用它的close()方法关闭图像阅读器，并将它赋值为null。
-     * 如果在获取相机资源锁的过程中发生了InterruptedException异常，则使用RuntimeException重新抛出该异常并附带原始异常对象作为参数。
-     * 最后，使用mCameraOpenCloseLock.release()方法释放相机资源的锁，以便其他线程可以访问相机资源。
+     * 只由生命周期控制器在后台线程上调用（会话已经先关闭），依次关闭相机、ZSL 缓冲和图像阅读器。
+     * 所有打开、关闭都在同一个线程上串行执行，不再需要 mCameraOpenCloseLock。
      */
     private void closeCamera() {
-        try {
-
-            /**
-             * 这段代码定义了一个名为acquire()的方法，其目的是获取一个共享锁。
-             * sync是一个Sync对象，可以是ReentrantLock、ReentrantReadWriteLock或Semaphore等。
-             * <p>
-             * acquire()方法使用了sync对象的acquireSharedInterruptibly(int permits)方法，该方法尝试获取给定数量的共享锁。
-             * 如果当前线程被中断，该方法将抛出InterruptedException异常，表示当前线程无法获取锁。
-             * 在抛出异常之前，该方法会释放它已经获取的任何锁，以便其他线程可以获取它们。
-             */
-            mCameraOpenCloseLock.acquire();
-            if (null != mCaptureSession) {
-                mCaptureSession.close();
-                mCaptureSession = null;
-            }
-            if (null != mCameraDevice) {
-                mCameraDevice.close();
-                mCameraDevice = null;
-            }
-            if (null != mImageReader) {
-                mImageReader.close();
-                mImageReader = null;
-            }
-        } catch (InterruptedException e) {
-            Log.d(TAG, "closeCamera: Interrupted while trying to lock camera closing.");
-            throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
-        } finally {
-
-            /**
-             * 这段代码是针对 Android 开发的，它使用了一个名为“mCameraOpenCloseLock”的对象，并调用了该对象的“release()”方法。
-             * 在 Android 中，CameraOpenCloseLock 是一个类，用于控制相机的打开和关闭。
-             * 该方法的作用是释放 CameraOpenCloseLock 对象，以允许其他线程获得相机的访问权限。
-             * 在多线程环境中，当一个线程占用相机资源时，其他线程必须等待，直到该线程释放相机资源后才能获取相机访问权限。
-             * 因此，使用 CameraOpenCloseLock 可以确保在某个线程使用相机时不会被其他线程干扰。
-             * 需要注意的是，在调用该方法之前，应该先使用“acquire()”方法获取相机访问权限，并在使用完相机后再调用“release()”方法释放相机资源，以避免出现竞争条件。
-             */
-            mCameraOpenCloseLock.release();
+        mRequestTemplates.clear();
+        // 还在等结果的照片不带 EXIF 保存
+        mExifJoiner.clear();
+        if (null != mCaptureSession) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (null != mCameraDevice) {
+            mCameraDevice.close();
+            mCameraDevice = null;
+        }
+        mZslStreaming = false;
+        ZslRingBuffer<Image> zslRing = mZslRing;
+        if (null != zslRing) {
+            mZslRing = null;
+            zslRing.clear();
+        }
+        if (null != mZslImageReader) {
+            mZslReaderCloser.close();
+            mZslReaderCloser = null;
+            mZslImageReader = null;
+        }
+        if (null != mAnalysisImageReader) {
+            mAnalysisImageReader.close();
+            mAnalysisImageReader = null;
+        }
+        if (null != mImageReader) {
+            // 还在保存的照片写完后再真正关闭
+            mImageReaderCloser.close();
+            mImageReaderCloser = null;
+            mImageReader = null;
         }
     }
 
@@ -836,30 +1766,114 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
      *
      */
     private void startBackgroundThread() {
-        mBackgroundThread = new HandlerThread("CameraBackground");
-        mBackgroundThread.start();
-        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        CameraStartup startup = CameraStartup.take();
+        final Handler handler;
+        if (null != startup) {
+            // 冷启动：接管 CameraActivity.onCreate() 创建的相机线程，上面可能已经在打开相机
+            mStartup = startup;
+            mStartupTrace = startup.getTrace();
+            mBackgroundThread = startup.getThread();
+            handler = startup.getHandler();
+        } else {
+            mStartupTrace = new StartupTrace(System.nanoTime());
+            mBackgroundThread = new HandlerThread("CameraBackground");
+            mBackgroundThread.start();
+            handler = new Handler(mBackgroundThread.getLooper());
+        }
+        mBackgroundHandler = handler;
+        mLifecycle = new CameraLifecycleController(new CameraLifecycleController.Scheduler() {
+            @Override
+            public void post(Runnable task) {
+                handler.post(task);
+            }
+
+            @Override
+            public void postDelayed(Runnable task, long delayMs) {
+                handler.postDelayed(task, delayMs);
+            }
+
+            @Override
+            public void remove(Runnable task) {
+                handler.removeCallbacks(task);
+            }
+        }, mLifecycleBackend, mLifecycleListener);
+        mIoExecutor = new CaptureIoExecutor("CameraIo", IO_WORKERS, IO_QUEUE_CAPACITY,
+                CaptureIoExecutor.BackpressurePolicy.FAIL_FAST, 0);
+        // 重启后先显示上次拍的照片，通常直接从磁盘缓存读出
+        final ThumbnailCache thumbnails = mThumbnails;
+        final File directory = null == mFile ? null : mFile.getParentFile();
+        if (null != thumbnails && null != directory) {
+            mIoExecutor.submit(new CaptureIoExecutor.Task() {
+                @Override
+                public void run() {
+                    File latest = null;
+                    File[] files = directory.listFiles();
+                    if (null != files) {
+                        for (File file : files) {
+                            if (file.getName().endsWith(".jpg")
+                                    && (null == latest || file.lastModified() > latest.lastModified())) {
+                                latest = file;
+                            }
+                        }
+                    }
+                    if (null != latest) {
+                        updateThumbnail(thumbnails, latest);
+                    }
+                }
+
+                @Override
+                public void onDropped() {
+                }
+            });
+        }
+        // 留一个核给相机和界面
+        mEncodePool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        mJpegEncoder = new JpegEncoder(mEncodePool, ZSL_JPEG_QUALITY, JpegEncoder.DEFAULT_MCU_ROWS_PER_STRIP);
+        mAnalysisExecutor = Executors.newFixedThreadPool(ANALYSIS_WORKERS);
+        mAnalysis = new FrameAnalysisPipeline(mAnalysisExecutor, FrameAnalysisPipeline.Backpressure.KEEP_LATEST, 1,
+                TimeUnit.MILLISECONDS.toNanos(ANALYSIS_MIN_INTERVAL_MS), FrameAnalysisPipeline.SYSTEM_CLOCK);
+        mAnalysis.addAnalyzer(mLumaAnalyzer, TimeUnit.MILLISECONDS.toNanos(LUMA_BUDGET_MS));
     }
 
     /**
      *
-     * 该方法用于停止后台线程，即在 onPause() 方法中被调用，以便释放资源和停止正在进行的任务。
+     * 该方法用于停止后台线程，在 onDestroy() 方法中被调用，以便释放资源和停止正在进行的任务。
      * <p>
-     * 首先调用 mBackgroundThread.quitSafely() 方法来请求停止 mBackgroundThread，并在完成当前消息队列中的所有消息后停止该线程。
-     * 然后，使用 mBackgroundThread.join() 方法阻止调用线程（通常是主线程）直到后台线程终止。
-     * 在等待期间，如果中断发生，则会抛出 InterruptedException。
+     * 先请求生命周期控制器立即关闭相机，关闭完成后（在后台线程上）再调用 mBackgroundThread.quitSafely()，
+     * 这样正在进行中的打开也能收到回调并被正确关闭，调用线程（通常是主线程）不需要 join 等待。
+     * I/O 执行器也在关闭完成后才停止接收任务：closeCamera() 会把还在等拍摄结果的照片交给它保存。
+     * 停止后 mIoExecutor 不置空，之后迟到的提交会被拒绝并经 onDropped() 释放 Image。
      * 最后，将 mBackgroundThread 和 mBackgroundHandler 设置为 null，以便它们可以被垃圾回收。
      *
      */
     private void stopBackgroundThread() {
-        mBackgroundThread.quitSafely();
-        try {
-            mBackgroundThread.join();
-            mBackgroundThread = null;
-            mBackgroundHandler = null;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        final CaptureIoExecutor io = mIoExecutor;
+        // 排队中的分析帧直接释放，正在分析的帧跑完为止
+        mAnalysis.shutdown();
+        mAnalysisExecutor.shutdown();
+        Log.d(TAG, "stopBackgroundThread: " + mAnalysis);
+        mAnalysisExecutor = null;
+        // 已经提交的段会编码完，I/O 线程上还在排队的 ZSL 照片退回到 I/O 线程自己编码
+        mEncodePool.shutdown();
+        mEncodePool = null;
+        CameraStartup startup = mStartup;
+        mStartup = null;
+        if (null != startup) {
+            // 还没来得及打开预览就销毁了，关闭提前打开的设备
+            startup.release();
         }
+        final HandlerThread thread = mBackgroundThread;
+        mLifecycle.close(0).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                // 已经入队的照片会继续写完，这里不等待
+                io.shutdown();
+                Log.d(TAG, "stopBackgroundThread: " + io + " " + mLifecycle);
+                thread.quitSafely();
+            }
+        });
+        mBackgroundThread = null;
+        mBackgroundHandler = null;
     }
 
     /**
@@ -872,135 +1886,443 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
      * 如果配置失败，则显示一个简单的消息。
      *
      */
-    private void createCameraPreviewSession() {
-        try {
-            SurfaceTexture texture = mTextureView.getSurfaceTexture();
-            assert texture != null;
+    private void createCameraPreviewSession(final CameraLifecycleController.StepCallback callback) throws CameraAccessException {
+        SurfaceTexture texture = mTextureView.getSurfaceTexture();
+        if (null == texture) {
+            throw new IllegalStateException("SurfaceTexture is not available");
+        }
 
-            // 将默认缓冲区大小配置为所需的相机预览尺寸
-            texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+        // 将默认缓冲区大小配置为所需的相机预览尺寸
+        texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
 
-            // 这是我们需要开始预览的输出surface
-            Surface surface = new Surface(texture);
+        // 这是我们需要开始预览的输出surface，SurfaceTexture 没变时（切换相机、暂停后恢复）直接复用
+        Surface surface = mPreviewSurface;
+        if (null == surface || texture != mPreviewSurfaceTexture) {
+            if (null != surface) {
+                surface.release();
+            }
+            surface = new Surface(texture);
+            mPreviewSurface = surface;
+            mPreviewSurfaceTexture = texture;
+        }
 
-            // 我们用输出的surface设置CaptureRequest.Builder
-            mPreviewRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            mPreviewRequestBuilder.addTarget(surface);
+        updateStillOutput(mStillOutput.getDepth());
+        List<Surface> outputs = new ArrayList<>();
+        outputs.add(surface);
+        if (null != mImageReader) {
+            outputs.add(mImageReader.getSurface());
+        }
+        // 带着 JPEG 输出（连拍）的会话不带 ZSL，缓冲里的旧帧不能再当作快门时刻的画面
+        mZslStreaming = null != mZslImageReader && null == mImageReader;
+        if (mZslStreaming) {
+            outputs.add(mZslImageReader.getSurface());
+        } else if (null != mZslRing) {
+            mZslRing.clear();
+        }
+        if (null != mAnalysisImageReader) {
+            outputs.add(mAnalysisImageReader.getSurface());
+        }
 
-            // 在这里，为相机预览创建一个CameraCaptureSession
-            mCameraDevice.createCaptureSession(Arrays.asList(surface, mImageReader.getSurface()),
-                    new CameraCaptureSession.StateCallback() {
+        // 在这里，为相机预览创建一个CameraCaptureSession，回调在后台线程上
+        mCameraDevice.createCaptureSession(outputs,
+                new CameraCaptureSession.StateCallback() {
+
+                    @Override
+                    public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
+                        // 相机已经关闭
+                        if (null == mCameraDevice) {
+                            cameraCaptureSession.close();
+                            callback.onFailure(new IllegalStateException("Camera closed during configuration"));
+                            return;
+                        }
 
-                        @Override
-                        public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
-                            // 相机已经关闭
-                            if (null == mCameraDevice) {
-                                return;
+                        // 当会话准备好后，开始显示预览
+                        mCaptureSession = cameraCaptureSession;
+                        try {
+                            // 一次性构建这个会话要用到的请求，之后拍照只取用
+                            ImageReader reader = mImageReader;
+                            mRequestTemplates.prepare(mRequestFactory, null == reader ? -1 : getOrientation(mDisplayRotation));
+                            mStillOutput.onSessionConfigured(null == reader ? 0 : reader.getMaxImages(), System.nanoTime());
+
+                            // 最后，显示相机预览
+                            mFramePacing.onSessionStarted();
+                            mFastShutter.reset();
+                            if (mTapFocus.isActive()) {
+                                // 新会话没有发过对焦触发，放弃上一次的点击对焦
+                                mTapFocus.reset();
+                                clearTapFocusControls(System.nanoTime());
                             }
+                            mCaptureSession.setRepeatingRequest(mRequestTemplates.get(CaptureRequestTemplates.KIND_PREVIEW),
+                                    mCaptureCallback, mBackgroundHandler);
+                            mSwitchLatency.onSessionConfigured(System.nanoTime());
+                            mStartupTrace.mark(StartupTrace.Phase.SESSION_CONFIGURED, System.nanoTime());
+                            callback.onSuccess();
+                        } catch (Exception e) {
+                            callback.onFailure(e);
+                        }
+                    }
+
+                    @Override
+                    public void onConfigureFailed(
+                            @NonNull CameraCaptureSession cameraCaptureSession) {
+                        callback.onFailure(new IllegalStateException("Capture session configuration failed"));
+                    }
+                }, mBackgroundHandler
+        );
+    }
+
+    /**
+     *
+     * 这段代码中的 configureTransform 方法是用来配置 TextureView 的变换矩阵，使预览画面能够正确地显示在 TextureView 上。
+     * <p>
+     * 首先，该方法会获取当前设备的旋转角度，然后创建一个 Matrix 对象，用于设置变换矩阵。
+     * 接着，它会创建两个 RectF 对象，一个用于表示 TextureView 的区域，一个用于表示预览画面的区域。
+     * 然后计算出这两个区域的中心点坐标，并将预览画面的区域进行偏移，使其中心点与 TextureView 的中心点重合。
+     * 接下来，根据设备的旋转角度来设置变换矩阵。如果设备的旋转角度是 90 度或 270 度，就需要将预览画面旋转，并进行缩放，以确保预览画面能够填满 TextureView。
+     * 如果设备的旋转角度是 180 度，则只需要将预览画面旋转 180 度即可。
+     * 最后，将配置好的变换矩阵应用到 TextureView 上，以正确地显示预览画面。
+     *
+     * @param viewWidth  mTextureView 宽
+     * @param viewHeight mTextureView 高
+     */
+    private void configureTransform(int viewWidth, int viewHeight) {
+        // 获取当前Fragment所依附的Activity实例。
+        Activity activity = getActivity();
+        if (null == mTextureView || null == mPreviewSize || null == activity) {
+            return;
+        }
+        // 获取当前屏幕的旋转角度
+        int rotation = displayRotation(activity);
+        Matrix matrix = new Matrix();
+        RectF viewRect = new RectF(0, 0, viewWidth, viewHeight);
+        RectF bufferRect = new RectF(0, 0, mPreviewSize.getHeight(), mPreviewSize.getWidth());
+        float centerX = viewRect.centerX();
+        float centerY = viewRect.centerY();
+        if (Surface.ROTATION_90 == rotation || Surface.ROTATION_270 == rotation) {
+            bufferRect.offset(centerX - bufferRect.centerX(), centerY - bufferRect.centerY());
+            matrix.setRectToRect(viewRect, bufferRect, Matrix.ScaleToFit.FILL);
+            float scale = Math.max(
+                    (float) viewHeight / mPreviewSize.getHeight(),
+                    (float) viewWidth / mPreviewSize.getWidth());
+            matrix.postScale(scale, scale, centerX, centerY);
+            matrix.postRotate(90 * (rotation - 2), centerX, centerY);
+        } else if (Surface.ROTATION_180 == rotation) {
+            matrix.postRotate(180, centerX, centerY);
+        }
+        mTextureView.setTransform(matrix);
+    }
+
+    /**
+     * 启动静态图像捕获 - 拍照
+     */
+    private void takePicture() {
+        int captureId = mCaptureLatency.begin(System.nanoTime());
+        ZslRingBuffer<Image> zslRing = mZslRing;
+        if (null != zslRing && mZslStreaming) {
+            // ZSL 会话不为单拍加 JPEG 输出（见 mZslStreaming），缓冲里还没有帧时这次快门拍不成
+            if (!captureZslFrame(zslRing, captureId)) {
+                Log.w(TAG, "takePicture: no ZSL frame yet");
+                mCaptureLatency.abandon(captureId);
+            }
+            return;
+        }
+        if (mStillOutput.isAttachPending()) {
+            // 正在给会话加上 JPEG 输出，连按的快门忽略；mCaptureId 还属于等着输出的那次快门
+            mCaptureLatency.abandon(captureId);
+            return;
+        }
+        mCaptureId = captureId;
+        if (mStillOutput.request(false, System.nanoTime())) {
+            attachStillOutput(new Runnable() {
+                @Override
+                public void run() {
+                    shootStill();
+                }
+            });
+            return;
+        }
+        shootStill();
+    }
+
+    /**
+     * 会话已经带着 JPEG 输出，按对焦和曝光是否收敛选择快速或完整的拍照流程
+     */
+    private void shootStill() {
+        long now = System.nanoTime();
+        if (mFastShutter.canSkip(now) && mCaptureState.startFastCapture()) {
+            // 对焦和曝光都已稳定收敛，跳过对焦触发和预拍照
+            mFastShutter.onShutter(true, now);
+            captureStillPicture();
+            return;
+        }
+        mFastShutter.onShutter(false, now);
+        lockFocus();
+    }
+
+    /**
+     * 按需给会话加上 JPEG 输出：重新配置会话（设备不关闭），完成后在 UI 线程上继续
+     */
+    private void attachStillOutput(final Runnable then) {
+        Log.d(TAG, "attach still output: depth " + mStillOutput.getDepth());
+        mLifecycle.reconfigure().whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                Activity activity = getActivity();
+                if (null != error || null == activity) {
+                    mStillOutput.cancelAttach();
+                    // 这次快门拍不成了
+                    mCaptureLatency.abandon(mCaptureId);
+                    if (null != error) {
+                        Log.w(TAG, "attach still output failed", error);
+                    }
+                    return;
+                }
+                activity.runOnUiThread(then);
+            }
+        });
+    }
+
+    /**
+     * 配置会话前在相机线程上调用：按深度创建、替换或关闭 JPEG ImageReader。
+     * 单拍深度换成连拍深度时旧输出上可能还有照片在保存，旧的 ImageReader 经 {@link DeferredCloser} 等它们写完再关闭。
+     *
+     * @param depth maxImages，0 表示不要 JPEG 输出
+     */
+    private void updateStillOutput(int depth) {
+        if (null != mImageReader && mImageReader.getMaxImages() != depth) {
+            mImageReaderCloser.close();
+            mImageReaderCloser = null;
+            mImageReader = null;
+        }
+        if (depth > 0 && null == mImageReader) {
+            mImageReader = ImageReader.newInstance(mJpegSize.getWidth(), mJpegSize.getHeight(), ImageFormat.JPEG, depth);
+            mImageReaderCloser = new DeferredCloser(mImageReader);
+            mImageReader.setOnImageAvailableListener(stillImageListener(mImageReaderCloser), mBackgroundHandler);
+        }
+    }
+
+    /**
+     * 拍照或连拍结束，重新开始 JPEG 输出的空闲计时
+     */
+    private void markStillUsed() {
+        mStillOutput.onUse(System.nanoTime());
+        scheduleStillRelease();
+    }
+
+    private void scheduleStillRelease() {
+        Handler handler = mBackgroundHandler;
+        if (null != handler) {
+            handler.removeCallbacks(mStillReleaseCheck);
+            handler.postDelayed(mStillReleaseCheck, STILL_IDLE_RELEASE_MS);
+        }
+    }
 
-                            // 当会话准备好后，开始显示预览
-                            mCaptureSession = cameraCaptureSession;
-                            try {
-                                // 相机预览时自动对焦应连续
-                                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                                        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-                                // 必要时启动flash
-                                setAutoFlash(mPreviewRequestBuilder);
-
-                                // 最后，显示相机预览
-                                mPreviewRequest = mPreviewRequestBuilder.build();
-                                mCaptureSession.setRepeatingRequest(mPreviewRequest,
-                                        mCaptureCallback, mBackgroundHandler);
-                            } catch (CameraAccessException e) {
-                                e.printStackTrace();
-                            }
-                        }
+    /**
+     * 配置 ZSL 输出
+     * <p>
+     * 只有 FULL 及以上硬件级别才保证 PRIV PREVIEW + YUV MAXIMUM 的流组合，其他设备不启用 ZSL。
+     * 这个组合里没有 JPEG：单张照片由 {@link JpegEncoder} 从 YUV 编码，不需要 JPEG 输出；
+     * 连拍要 JPEG 输出时会话换成 PRIV PREVIEW + JPEG MAXIMUM（所有硬件级别都保证），不带 ZSL（见 mZslStreaming）。
+     * 环形缓冲的帧数由 ZSL_MEMORY_BUDGET_BYTES 按单帧大小（width * height * 1.5）换算（见 {@link CameraOutputConfig}），
+     * ImageReader 多留两个槽位：一个给正在编码的帧，一个给刚到达还没放进缓冲的帧。
+     */
+    private void setUpZslOutput(CameraOutputConfig config) {
+        if (config.zslCapacity == 0) {
+            if (config.zslWidth > 0) {
+                Log.w(TAG, "ZSL disabled, budget too small for " + config.zslWidth + "x" + config.zslHeight);
+            }
+            return;
+        }
+        mZslRing = new ZslRingBuffer<>(config.zslCapacity, IMAGE_RELEASER);
+        mZslImageReader = ImageReader.newInstance(config.zslWidth, config.zslHeight, ImageFormat.YUV_420_888, config.zslCapacity + 2);
+        mZslImageReader.setOnImageAvailableListener(mOnZslImageAvailableListener, mBackgroundHandler);
+        mZslReaderCloser = new DeferredCloser(mZslImageReader);
+        mZslRealtimeTimestamps = config.zslRealtimeTimestamps;
+    }
 
-                        @Override
-                        public void onConfigureFailed(
-                                @NonNull CameraCaptureSession cameraCaptureSession) {
-                            showToast("Failed");
-                        }
-                    }, null
-            );
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+    /**
+     * 配置预览分析输出
+     * <p>
+     * 小尺寸的 YUV 流和预览、JPEG 组成所有硬件级别都保证的三路输出，ZSL 已经占用了 YUV 流时不启用（见 {@link CameraOutputConfig}）。
+     */
+    private void setUpAnalysisOutput(CameraOutputConfig config) {
+        if (config.analysisWidth == 0) {
+            return;
         }
+        mAnalysisImageReader = ImageReader.newInstance(config.analysisWidth, config.analysisHeight,
+                ImageFormat.YUV_420_888, ANALYSIS_READER_DEPTH);
+        mAnalysisImageReader.setOnImageAvailableListener(mOnAnalysisImageAvailableListener, mBackgroundHandler);
     }
 
     /**
+     * 零延迟拍照：从环形缓冲中取出离按下快门最近的一帧，交给 I/O 执行器编码保存，不经过对焦和预拍照流程
      *
-     * 这段代码中的 configureTransform 方法是用来配置 TextureView 的变换矩阵，使预览画面能够正确地显示在 TextureView 上。
+     * @param zslRing   调用方读出的 {@link #mZslRing}，相机线程随时可能把字段置空
+     * @param captureId 这次快门在 {@link #mCaptureLatency} 里的编号
+     * @return false 表示缓冲里还没有帧，需要走普通拍照流程
+     */
+    private boolean captureZslFrame(ZslRingBuffer<Image> zslRing, int captureId) {
+        long shutterTimestamp = mZslRealtimeTimestamps ? SystemClock.elapsedRealtimeNanos() : System.nanoTime();
+        DeferredCloser reader = mZslReaderCloser;
+        Image frame = zslRing.takeClosest(shutterTimestamp);
+        if (null == frame) {
+            return false;
+        }
+        if (null == reader || !reader.acquire()) {
+            // 相机正在关闭
+            frame.close();
+            return false;
+        }
+        Log.d(TAG, "captureZslFrame: offset " + (frame.getTimestamp() - shutterTimestamp) / 1000 + "us");
+        final File file = mFile;
+        mCaptureLatency.mark(captureId, CaptureLatencyRecorder.Stage.IMAGE_AVAILABLE, System.nanoTime());
+        // 方向按快门时刻算，帧在队列里等待期间转了屏也不影响
+        mIoExecutor.submit(new ZslImageSaver(frame, reader, mFramePool, file, mJpegEncoder, mCaptureLatency, captureId,
+                mThumbnails, getOrientation(mDisplayRotation), System.currentTimeMillis(), new Runnable() {
+                    @Override
+                    public void run() {
+                        showToast("Saved: " + file);
+                    }
+                }));
+        return true;
+    }
+
+    /**
+     * 开始连拍
      * <p>
-     * 首先，该方法会获取当前设备的旋转角度，然后创建一个 Matrix 对象，用于设置变换矩阵。
-     * 接着，它会创建两个 RectF 对象，一个用于表示 TextureView 的区域，一个用于表示预览画面的区域。
-     * 然后计算出这两个区域的中心点坐标，并将预览画面的区域进行偏移，使其中心点与 TextureView 的中心点重合。
-     * 接下来，根据设备的旋转角度来设置变换矩阵。如果设备的旋转角度是 90 度或 270 度，就需要将预览画面旋转，并进行缩放，以确保预览画面能够填满 TextureView。
-     * 如果设备的旋转角度是 180 度，则只需要将预览画面旋转 180 度即可。
-     * 最后，将配置好的变换矩阵应用到 TextureView 上，以正确地显示预览画面。
-     *
-     * @param viewWidth  mTextureView 宽
-     * @param viewHeight mTextureView 高
+     * 连拍不走 lockFocus / precapture 流程，直接用连续对焦和自动曝光的静态拍照请求，
+     * 通过 captureBurst 一轮提交多帧，同时输出到预览和 JPEG ImageReader，预览不会中断。
+     * 每轮帧数和间隔由 {@link BurstRateController} 根据 I/O 的消化速度调整。
      */
-    private void configureTransform(int viewWidth, int viewHeight) {
-        // 获取当前Fragment所依附的Activity实例。
-        Activity activity = getActivity();
-        if (null == mTextureView || null == mPreviewSize || null == activity) {
+    private void startBurst() {
+        final Activity activity = getActivity();
+        if (mBurstActive || null == activity || null == mCameraDevice || null == mCaptureSession || mCaptureState.getState() != CaptureStateMachine.STATE_PREVIEW) {
             return;
         }
-        // 获取当前Activity的窗口管理器，然后获取默认的显示屏幕，最后获取当前屏幕的旋转角度。
-        // .getDefaultDisplay() 过时了，后续寻找替换方法
-        int rotation = activity.getWindowManager().getDefaultDisplay().getRotation();
-        Matrix matrix = new Matrix();
-        RectF viewRect = new RectF(0, 0, viewWidth, viewHeight);
-        RectF bufferRect = new RectF(0, 0, mPreviewSize.getHeight(), mPreviewSize.getWidth());
-        float centerX = viewRect.centerX();
-        float centerY = viewRect.centerY();
-        if (Surface.ROTATION_90 == rotation || Surface.ROTATION_270 == rotation) {
-            bufferRect.offset(centerX - bufferRect.centerX(), centerY - bufferRect.centerY());
-            matrix.setRectToRect(viewRect, bufferRect, Matrix.ScaleToFit.FILL);
-            float scale = Math.max(
-                    (float) viewHeight / mPreviewSize.getHeight(),
-                    (float) viewWidth / mPreviewSize.getWidth());
-            matrix.postScale(scale, scale, centerX, centerY);
-            matrix.postRotate(90 * (rotation - 2), centerX, centerY);
-        } else if (Surface.ROTATION_180 == rotation) {
-            matrix.postRotate(180, centerX, centerY);
+        if (mStillOutput.isAttachPending()) {
+            return;
         }
-        mTextureView.setTransform(matrix);
+        if (mStillOutput.request(true, System.nanoTime())) {
+            // 单张拍照的深度不够连拍，换成连拍深度的输出后再开始
+            attachStillOutput(new Runnable() {
+                @Override
+                public void run() {
+                    startBurst();
+                }
+            });
+            return;
+        }
+        try {
+            int rotation = displayRotation(activity);
+            mBurstRequest = mRequestTemplates.getBurst(getOrientation(rotation));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        if (null == mBurstRequest) {
+            return;
+        }
+        mBurstNamer.startSession(new Date());
+        mBurstActive = true;
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mBurstController.start(System.nanoTime());
+                mBurstRunnable.run();
+            }
+        });
+        showToast("Burst started");
     }
 
     /**
-     * 启动静态图像捕获 - 拍照
+     * 停止连拍，已经提交的帧会继续保存
      */
-    private void takePicture() {
-        lockFocus();
+    private void stopBurst() {
+        mBurstActive = false;
+        markStillUsed();
+        showToast("Burst: " + mBurstNamer.getSequence() + " frames");
     }
 
     /**
      * 切换前后摄
      */
     private void fliCamera() {
-        Activity activity = getActivity();
-        CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
         try {
-            for (String cameraId : manager.getCameraIdList()) {
-                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
-                CameraCharacteristics mCharacteristics = manager.getCameraCharacteristics(mCameraId);
-                Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
-                Integer mFacing = mCharacteristics.get(CameraCharacteristics.LENS_FACING);
-                if (!facing.equals(mFacing)){
-                    Log.d("shilluLog", "fliCamera");
-                    mCameraId = cameraId;
-
-                    break;
-                }
+            CameraCapabilityIndex index = CameraCapabilityIndex.get(getActivity());
+            CameraCapabilityIndex.CameraInfo current = index.get(mCameraId);
+            if (null == current) {
+                return;
+            }
+            int opposite = current.facing == CameraCharacteristics.LENS_FACING_FRONT
+                    ? CameraCharacteristics.LENS_FACING_BACK : CameraCharacteristics.LENS_FACING_FRONT;
+            String cameraId = index.getCameraIdForFacing(opposite);
+            if (null != cameraId) {
+                Log.d("shilluLog", "fliCamera");
+                mSwitchLatency.onSwitchRequested(System.nanoTime());
+                mCameraId = cameraId;
+                // 生命周期控制器会先关闭当前相机，再打开新的相机并建立会话。
+                // 后台线程、SurfaceTexture 和预览 Surface 都保持不变，输出配置从 mOutputConfigs 复用
+                mLifecycle.open(cameraId);
+                mLifecycle.configure();
             }
         } catch (CameraAccessException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static CaptureStateMachine newCaptureStateMachine() {
+        CaptureStateMachine machine = new CaptureStateMachine();
+        machine.setTimeout(CaptureStateMachine.STATE_WAITING_LOCK,
+                TimeUnit.MILLISECONDS.toNanos(AF_LOCK_TIMEOUT_MS), CaptureStateMachine.FALLBACK_NEXT);
+        machine.setTimeout(CaptureStateMachine.STATE_WAITING_PRECAPTURE,
+                TimeUnit.MILLISECONDS.toNanos(PRECAPTURE_TIMEOUT_MS), CaptureStateMachine.FALLBACK_NEXT);
+        machine.setTimeout(CaptureStateMachine.STATE_WAITING_NON_PRECAPTURE,
+                TimeUnit.MILLISECONDS.toNanos(PRECAPTURE_TIMEOUT_MS), CaptureStateMachine.FALLBACK_CAPTURE);
+        return machine;
+    }
+
+    /**
+     * 执行状态机返回的动作，并按新的截止时间安排超时检查
+     *
+     * @param previous 处理这次结果之前的状态，用于延迟打点
+     */
+    private void onCaptureAction(int previous, int action) {
+        long now = System.nanoTime();
+        if (previous == CaptureStateMachine.STATE_WAITING_LOCK
+                && mCaptureState.getState() != CaptureStateMachine.STATE_WAITING_LOCK) {
+            mCaptureLatency.mark(mCaptureId, CaptureLatencyRecorder.Stage.AF_LOCKED, now);
+        }
+        switch (action) {
+            case CaptureStateMachine.ACTION_RUN_PRECAPTURE:
+                runPrecaptureSequence();
+                break;
+            case CaptureStateMachine.ACTION_CAPTURE_STILL:
+                if (previous == CaptureStateMachine.STATE_WAITING_NON_PRECAPTURE) {
+                    mCaptureLatency.mark(mCaptureId, CaptureLatencyRecorder.Stage.PRECAPTURE_END, now);
+                }
+                captureStillPicture();
+                break;
+            default:
+                break;
+        }
+        if (mCaptureState.getState() != previous) {
+            scheduleCaptureTimeoutCheck();
+        }
+    }
+
+    private void scheduleCaptureTimeoutCheck() {
+        Handler handler = mBackgroundHandler;
+        if (null == handler) {
+            return;
+        }
+        handler.removeCallbacks(mCaptureTimeoutCheck);
+        long deadline = mCaptureState.getDeadlineNs();
+        if (deadline >= 0) {
+            long delayMs = TimeUnit.NANOSECONDS.toMillis(Math.max(0, deadline - System.nanoTime()));
+            handler.postDelayed(mCaptureTimeoutCheck, delayMs + 1);
+        }
+    }
+
     /**
      * 将焦点锁定为静态图像捕获的第一步，是指在进行静态图像拍摄之前，首先将相机的焦点锁定在特定的位置上。
      * 在拍摄照片时，焦点的位置非常重要，因为它决定了照片中哪些元素会被清晰地呈现。
@@ -1010,11 +2332,15 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
     private void lockFocus() {
         try {
             // 这是告诉相机锁定焦点的方法
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START);
+            CaptureRequest request = mRequestTemplates.get(CaptureRequestTemplates.KIND_AF_TRIGGER);
+            if (null == request) {
+                return;
+            }
             // 告诉 mCaptureCallback 等待锁定
-            mState = STATE_WAITING_LOCK;
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, mBackgroundHandler);
-        } catch (CameraAccessException e) {
+            mCaptureState.startLock(System.nanoTime());
+            scheduleCaptureTimeoutCheck();
+            mCaptureSession.capture(request, mCaptureCallback, mBackgroundHandler);
+        } catch (Exception e) {
             e.printStackTrace();
         }
     }
@@ -1026,13 +2352,14 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
     private void runPrecaptureSequence() {
         try {
             // This is how to tell the camera to trigger.
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
-                    CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
-            // Tell #mCaptureCallback to wait for the precapture sequence to be set.
-            mState = STATE_WAITING_PRECAPTURE;
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
-                    mBackgroundHandler);
-        } catch (CameraAccessException e) {
+            CaptureRequest request = mRequestTemplates.get(CaptureRequestTemplates.KIND_PRECAPTURE);
+            if (null == request) {
+                return;
+            }
+            // mCaptureState 已经进入等待预拍照
+            mCaptureLatency.mark(mCaptureId, CaptureLatencyRecorder.Stage.PRECAPTURE_START, System.nanoTime());
+            mCaptureSession.capture(request, mCaptureCallback, mBackgroundHandler);
+        } catch (Exception e) {
             e.printStackTrace();
         }
     }
@@ -1054,38 +2381,39 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
             if (null == activity || null == mCameraDevice) {
                 return;
             }
-            // 这是用来拍照的CaptureRequest.Builder
-            final CaptureRequest.Builder captureBuilder =
-                    mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            captureBuilder.addTarget(mImageReader.getSurface());
-
-            // 使用与预览相同的AE and AF
-            captureBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-            setAutoFlash(captureBuilder);
-
-            // Orientation
-            int rotation = activity.getWindowManager().getDefaultDisplay().getRotation();
-            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, getOrientation(rotation));
-
-            CameraCaptureSession.CaptureCallback CaptureCallback = new CameraCaptureSession.CaptureCallback() {
-
-                @Override
-                public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-                    showToast("Saved: " + mFile);
-                    Log.d(TAG, mFile.toString());
-                    unlockFocus();
-                }
-            };
+            // 使用与预览相同的AE and AF，方向对应的请求在会话配置时已经构建好
+            int rotation = displayRotation(activity);
+            CaptureRequest request = mRequestTemplates.getStill(getOrientation(rotation));
+            if (null == request) {
+                return;
+            }
+            long now = System.nanoTime();
+            mCaptureLatency.mark(mCaptureId, CaptureLatencyRecorder.Stage.CAPTURE_STILL, now);
+            mFastShutter.onCaptureStill(now);
 
             mCaptureSession.stopRepeating();
             mCaptureSession.abortCaptures();
-            mCaptureSession.capture(captureBuilder.build(), CaptureCallback, null);
-        } catch (CameraAccessException e) {
+            mCaptureSession.capture(request, mStillCaptureCallback, null);
+        } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * 静态拍照完成后显示消息并释放对焦
+     */
+    private final CameraCaptureSession.CaptureCallback mStillCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            offerCaptureResult(result);
+            showToast("Saved: " + mFile);
+            Log.d(TAG, mFile.toString());
+            unlockFocus();
+            markStillUsed();
+        }
+    };
+
     /**
      *
      * 这段代码的作用是从指定的屏幕旋转中获取JPEG方向。
@@ -1117,15 +2445,18 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
      */
     private void unlockFocus() {
         try {
-            // 重置自动对焦触发器
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
-                    CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
-            setAutoFlash(mPreviewRequestBuilder);
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, mBackgroundHandler);
             // 之后，摄像头会回到正常的预览状态，也就是之前的状态。
-            mState = STATE_PREVIEW;
-            mCaptureSession.setRepeatingRequest(mPreviewRequest, mCaptureCallback, mBackgroundHandler);
-        } catch (CameraAccessException e) {
+            mCaptureState.reset();
+            mBackgroundHandler.removeCallbacks(mCaptureTimeoutCheck);
+            CaptureRequest cancel = mRequestTemplates.get(CaptureRequestTemplates.KIND_AF_CANCEL);
+            CaptureRequest preview = mRequestTemplates.get(CaptureRequestTemplates.KIND_PREVIEW);
+            if (null == cancel || null == preview) {
+                return;
+            }
+            // 重置自动对焦触发器
+            mCaptureSession.capture(cancel, mCaptureCallback, mBackgroundHandler);
+            mCaptureSession.setRepeatingRequest(preview, mCaptureCallback, mBackgroundHandler);
+        } catch (Exception e) {
             e.printStackTrace();
         }
     }
@@ -1134,7 +2465,11 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
     public void onClick(View view) {
         switch (view.getId()) {
             case R.id.picture: {
-                takePicture();
+                if (mBurstActive) {
+                    stopBurst();
+                } else {
+                    takePicture();
+                }
                 break;
             }
             case R.id.turn: {
@@ -1157,9 +2492,16 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
                  */
                 Activity activity = getActivity();
                 if (null != activity) {
+                    // 介绍之后附上拍照链路各阶段的延迟分位数，可以导出为 CSV
                     new AlertDialog.Builder(activity)
-                            .setMessage(R.string.intro_message)
+                            .setMessage(getString(R.string.intro_message).trim() + "\n\n" + mCaptureLatency.dump() + "\n" + mFramePacing + "\n" + mFastShutter + "\n" + mControls + "\n" + mTapFocus + "\n" + mRotationLatency + "\n" + mStartupTrace + "\n" + mStillOutput + "\n" + mExifJoiner + "\n" + mThumbnails + "\n" + mFramePool + "\n" + mAnalysis + ", meanLuma=" + mLumaAnalyzer.getMeanLuma())
                             .setPositiveButton(android.R.string.ok, null)
+                            .setNeutralButton(R.string.export_latency, new DialogInterface.OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialog, int which) {
+                                    exportCaptureLatency();
+                                }
+                            })
                             .show();
                 }
                 break;
@@ -1169,6 +2511,171 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
         }
     }
 
+    /**
+     * 在 I/O 线程把延迟统计导出到 capture_latency.csv
+     */
+    private void exportCaptureLatency() {
+        Activity activity = getActivity();
+        if (null == activity || null == mIoExecutor) {
+            return;
+        }
+        final File file = new File(activity.getExternalFilesDir(null), "capture_latency.csv");
+        mIoExecutor.submit(new CaptureIoExecutor.Task() {
+            @Override
+            public void run() {
+                try {
+                    mCaptureLatency.exportCsv(file);
+                    showToast("Exported: " + file);
+                } catch (IOException e) {
+                    Log.e(TAG, "exportCaptureLatency: ", e);
+                }
+            }
+
+            @Override
+            public void onDropped() {
+                Log.w(TAG, "exportCaptureLatency dropped");
+            }
+        });
+    }
+
+    /**
+     * 把 mControls 当前生效的参数写入请求，并用参数序号作为 tag，结果里据此判断参数是否已经生效
+     */
+    private void applyControls(CaptureRequest.Builder builder) {
+        int[] crop = new int[4];
+        int[] region = new int[ControlUpdateCoalescer.REGION_LENGTH];
+        synchronized (mControls) {
+            builder.setTag(mControls.getSequence());
+            builder.set(CaptureRequest.CONTROL_AF_MODE, mControls.getAfMode());
+            if (mControls.getZoom() > 1f) {
+                ControlUpdateCoalescer.cropRegion(mActiveArray, mControls.getZoom(), crop);
+                builder.set(CaptureRequest.SCALER_CROP_REGION, new Rect(crop[0], crop[1], crop[2], crop[3]));
+            }
+            if (mControls.getExposureCompensation() != 0) {
+                builder.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, mControls.getExposureCompensation());
+            }
+            if (mControls.getAfRegion(region)) {
+                builder.set(CaptureRequest.CONTROL_AF_REGIONS, new MeteringRectangle[]{
+                        new MeteringRectangle(new Rect(region[0], region[1], region[2], region[3]), region[4])});
+            }
+            if (mControls.getAeRegion(region)) {
+                builder.set(CaptureRequest.CONTROL_AE_REGIONS, new MeteringRectangle[]{
+                        new MeteringRectangle(new Rect(region[0], region[1], region[2], region[3]), region[4])});
+            }
+        }
+    }
+
+    /**
+     * 每帧结果到达时调用：记录参数生效延迟，有待提交的改动时重建预览请求
+     * <p>
+     * 拍照过程中（已经 stopRepeating）不提交，改动留到回到预览后的下一帧。
+     */
+    private void commitControls(CaptureResult result, long nowNs) {
+        Object tag = result.getRequest().getTag();
+        if (tag instanceof Long) {
+            mControls.onResult((Long) tag, nowNs);
+        }
+        if (mCaptureState.getState() == CaptureStateMachine.STATE_PICTURE_TAKEN) {
+            return;
+        }
+        CameraCaptureSession session = mCaptureSession;
+        if (null == session) {
+            return;
+        }
+        try {
+            if (mControls.commit(nowNs) >= 0) {
+                // 每类请求都带着这些参数，全部只标记为过期（不构建）；这里只重建重复的预览请求，
+                // 对焦触发、静态拍照、连拍等到下次用到时再按最新参数构建，捏合缩放时每帧只构建一个请求
+                mRequestTemplates.invalidate();
+                CaptureRequest preview = mRequestTemplates.get(CaptureRequestTemplates.KIND_PREVIEW);
+                if (null != preview) {
+                    session.setRepeatingRequest(preview, mCaptureCallback, mBackgroundHandler);
+                }
+            }
+            // 点击对焦的触发在区域生效之后单独发送
+            int trigger = mTapFocus.takePendingTrigger();
+            if (trigger != TapFocusController.TRIGGER_NONE) {
+                CaptureRequest request = mRequestTemplates.get(trigger == TapFocusController.TRIGGER_START
+                        ? CaptureRequestTemplates.KIND_AF_TRIGGER : CaptureRequestTemplates.KIND_AF_CANCEL);
+                if (null != request) {
+                    session.capture(request, mCaptureCallback, mBackgroundHandler);
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "commitControls failed", e);
+        }
+    }
+
+    /**
+     * 点击对焦 / 测光
+     * <p>
+     * 先用 configureTransform 矩阵的逆矩阵把 View 坐标还原到变换前的纹理坐标，再由 {@link MeteringRegions}
+     * 按 mSensorOrientation、前摄镜像和当前缩放换算成传感器坐标的区域。区域和 AF_MODE_AUTO 交给 mControls，
+     * 生效后由 commitControls 发送 AF_TRIGGER_START；锁定或超时后由 {@link TapFocusController} 决定何时恢复连续对焦。
+     */
+    private void tapToFocus(float x, float y) {
+        AutoFitTextureView view = mTextureView;
+        if (null == view || null == mCaptureSession || view.getWidth() == 0 || view.getHeight() == 0
+                || mCaptureState.getState() != CaptureStateMachine.STATE_PREVIEW
+                || (!mTapAfSupported && !mTapAeSupported)) {
+            return;
+        }
+        Matrix inverse = new Matrix();
+        if (!view.getTransform(null).invert(inverse)) {
+            return;
+        }
+        float[] point = {x, y};
+        inverse.mapPoints(point);
+        int[] crop = new int[4];
+        ControlUpdateCoalescer.cropRegion(mActiveArray, mControls.getZoom(), crop);
+        int[] region = new int[4];
+        MeteringRegions.map(point[0] / view.getWidth(), point[1] / view.getHeight(), mSensorOrientation,
+                mFrontFacing, crop, TAP_REGION_FRACTION, region);
+
+        long now = System.nanoTime();
+        if (mTapAeSupported) {
+            mControls.setAeRegion(region[0], region[1], region[2], region[3], MeteringRectangle.METERING_WEIGHT_MAX, now);
+        }
+        if (mTapAfSupported) {
+            mControls.setAfRegion(region[0], region[1], region[2], region[3], MeteringRectangle.METERING_WEIGHT_MAX, now);
+            mControls.setAfMode(CaptureRequest.CONTROL_AF_MODE_AUTO, now);
+            // 区域先放进 mControls，再登记触发，保证触发不会早于区域生效
+            mTapFocus.onTap(now);
+            scheduleTapFocusCheck();
+        }
+    }
+
+    /**
+     * 清除点击的区域，恢复连续对焦
+     */
+    private void clearTapFocusControls(long nowNs) {
+        mControls.setAfRegion(0, 0, 0, 0, 0, nowNs);
+        mControls.setAeRegion(0, 0, 0, 0, 0, nowNs);
+        mControls.setAfMode(CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE, nowNs);
+    }
+
+    private void scheduleTapFocusCheck() {
+        Handler handler = mBackgroundHandler;
+        if (null == handler) {
+            return;
+        }
+        handler.removeCallbacks(mTapFocusCheck);
+        long deadline = mTapFocus.getDeadlineNs();
+        if (deadline >= 0) {
+            long delayMs = TimeUnit.NANOSECONDS.toMillis(Math.max(0, deadline - System.nanoTime()));
+            handler.postDelayed(mTapFocusCheck, delayMs + 1);
+        }
+    }
+
+    private static boolean supportsAfMode(CameraCapabilityIndex.CameraInfo info, int afMode) {
+        for (int mode : info.afModes) {
+            if (mode == afMode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void setAutoFlash(CaptureRequest.Builder requestBuilder) {
         if (mFlashSupported) {
             requestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
@@ -1178,62 +2685,235 @@ public class Camera2BasicFragment extends Fragment implements View.OnClickListen
 
     /**
      * Saves a JPEG {@link Image} into the specified {@link File}.
+     * <p>
+     * 平面缓冲区直接交给 {@link PooledJpegWriter} 写入 FileChannel，不再拷贝到堆上的 byte[]。
      */
-    private static class ImageSaver implements Runnable {
+    private static class ImageSaver implements CaptureIoExecutor.Task {
 
         /**
          * The JPEG image
          */
         private final Image mImage;
+        /**
+         * mImage 所属 ImageReader 的延迟关闭，Image 关闭后归还
+         */
+        private final DeferredCloser mReader;
         /**
          * The file we save the image into.
          */
         private final File mFile;
+        /**
+         * 负责把平面数据写入文件
+         */
+        private final PooledJpegWriter mWriter;
+        /**
+         * 保存结束（无论成功、失败还是被丢弃）后的回调，可以为 null
+         */
+        private final Runnable mOnFinished;
+        /**
+         * 写完后在这里结算延迟，连拍时为 null
+         */
+        private final CaptureLatencyRecorder mLatency;
+        private final int mCaptureId;
+        /**
+         * 同一帧的拍摄参数，等不到结果时为 null，在提交给 I/O 执行器之前设置
+         */
+        private CaptureMetadata mMetadata;
+        /**
+         * 保存成功后更新缩略图，连拍时为 null
+         */
+        private ThumbnailCache mThumbnails;
 
-        ImageSaver(Image image, File file) {
+        ImageSaver(Image image, DeferredCloser reader, File file, PooledJpegWriter writer, Runnable onFinished,
+                   CaptureLatencyRecorder latency, int captureId) {
             mImage = image;
+            mReader = reader;
             mFile = file;
+            mWriter = writer;
+            mOnFinished = onFinished;
+            mLatency = latency;
+            mCaptureId = captureId;
+        }
+
+        void setMetadata(CaptureMetadata metadata) {
+            mMetadata = metadata;
+        }
+
+        void setThumbnails(ThumbnailCache thumbnails) {
+            mThumbnails = thumbnails;
         }
 
         @Override
         public void run() {
-            ByteBuffer buffer = mImage.getPlanes()[0].getBuffer();
-            byte[] bytes = new byte[buffer.remaining()];
-            buffer.get(bytes);
-            FileOutputStream output = null;
+            boolean saved = false;
             try {
-                output = new FileOutputStream(mFile);
-                output.write(bytes);
-            } catch (IOException e) {
-                e.printStackTrace();
+                ByteBuffer buffer = mImage.getPlanes()[0].getBuffer();
+                if (null != mMetadata) {
+                    mWriter.write(buffer, mMetadata, mFile);
+                } else {
+                    mWriter.write(buffer, mFile);
+                }
+                saved = true;
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "ImageSaver failed: " + mFile, e);
             } finally {
                 mImage.close();
-                if (null != output) {
-                    try {
-                        output.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                mReader.release();
+                if (null != mLatency) {
+                    if (saved) {
+                        mLatency.finish(mCaptureId, System.nanoTime());
+                    } else {
+                        mLatency.abandon(mCaptureId);
                     }
                 }
+                finish();
+            }
+            // 缩略图不计入拍照延迟，Image 已经还回去了
+            if (saved && null != mThumbnails) {
+                updateThumbnail(mThumbnails, mFile);
+            }
+        }
+
+        @Override
+        public void onDropped() {
+            Log.w(TAG, "ImageSaver dropped: " + mFile);
+            mImage.close();
+            mReader.release();
+            if (null != mLatency) {
+                mLatency.abandon(mCaptureId);
+            }
+            finish();
+        }
+
+        private void finish() {
+            if (null != mOnFinished) {
+                mOnFinished.run();
             }
         }
 
     }
 
     /**
-     * Compares two {@code Size}s based on their areas.
+     * 把 ZSL 缓冲中的 YUV_420_888 {@link Image} 编码成 JPEG 并写入文件。
+     * <p>
+     * 平面先按步长打包成 NV21（尽早把 Image 还给 ImageReader），再由 {@link JpegEncoder} 按 restart 段并行编码，
+     * 编码好的段按顺序直接流进 FileChannel。
+     * 像素保持传感器方向，按下快门时的方向写进 EXIF Orientation，和 HAL 的 JPEG 一样由查看器旋转。
      */
-    static class CompareSizesByArea implements Comparator<Size> {
+    private static class ZslImageSaver implements CaptureIoExecutor.Task {
+
+        private final Image mImage;
+        private final DeferredCloser mReader;
+        private final FrameBufferPool mPool;
+        private final File mFile;
+        private final JpegEncoder mEncoder;
+        private final CaptureLatencyRecorder mLatency;
+        private final int mCaptureId;
+        private final ThumbnailCache mThumbnails;
+        /**
+         * 按下快门时的 JPEG 方向（0、90、180、270）和墙钟时间
+         */
+        private final int mRotationDegrees;
+        private final long mCaptureTimeMillis;
+        /**
+         * 文件写完后的回调，失败或被丢弃时不调用，可以为 null
+         */
+        private final Runnable mOnSaved;
+        private boolean mImageClosed;
+
+        ZslImageSaver(Image image, DeferredCloser reader, FrameBufferPool pool, File file, JpegEncoder encoder,
+                      CaptureLatencyRecorder latency, int captureId, ThumbnailCache thumbnails,
+                      int rotationDegrees, long captureTimeMillis, Runnable onSaved) {
+            mImage = image;
+            mReader = reader;
+            mPool = pool;
+            mFile = file;
+            mEncoder = encoder;
+            mLatency = latency;
+            mCaptureId = captureId;
+            mThumbnails = thumbnails;
+            mRotationDegrees = rotationDegrees;
+            mCaptureTimeMillis = captureTimeMillis;
+            mOnSaved = onSaved;
+        }
+
+        @Override
+        public void run() {
+            FrameBuffer frame = null;
+            try {
+                int width = mImage.getWidth();
+                int height = mImage.getHeight();
+                Image.Plane[] planes = mImage.getPlanes();
+                // 打包进池里的缓冲，不再每张照片分配一个全尺寸数组
+                int size = YuvPacker.nv21Size(width, height);
+                frame = mPool.acquire(size);
+                YuvPacker.packNv21(planes[0].getBuffer(), planes[0].getRowStride(),
+                        planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                        width, height, frame.array());
+                long timestamp = mImage.getTimestamp();
+                frame.setFrame(ImageFormat.NV21, width, height, timestamp, size);
+                // 打包完就可以把 Image 还给 ImageReader 了
+                closeImage();
+
+                CaptureMetadata metadata = new CaptureMetadata(timestamp, mCaptureTimeMillis, -1, -1, -1, -1, false,
+                        mRotationDegrees, Build.MANUFACTURER, Build.MODEL);
+                ByteBuffer exif = ExifWriter.build(metadata, ExifWriter.orientationTag(mRotationDegrees));
+
+                FileChannel channel = FileChannel.open(mFile.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                try {
+                    mEncoder.encode(YuvConverter.Planes.packed(frame.data(), YuvConverter.Layout.NV21, width, height), exif, channel);
+                } finally {
+                    channel.close();
+                }
+                mLatency.finish(mCaptureId, System.nanoTime());
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "ZslImageSaver failed: " + mFile, e);
+                mLatency.abandon(mCaptureId);
+                return;
+            } finally {
+                closeImage();
+                if (null != frame) {
+                    frame.release();
+                }
+            }
+            if (null != mOnSaved) {
+                mOnSaved.run();
+            }
+            if (null != mThumbnails) {
+                updateThumbnail(mThumbnails, mFile);
+            }
+        }
 
         @Override
-        public int compare(Size lhs, Size rhs) {
-            // We cast here to ensure the multiplications won't overflow
-            return Long.signum((long) lhs.getWidth() * lhs.getHeight() -
-                    (long) rhs.getWidth() * rhs.getHeight());
+        public void onDropped() {
+            Log.w(TAG, "ZslImageSaver dropped: " + mFile);
+            closeImage();
+            mLatency.abandon(mCaptureId);
+        }
+
+        private void closeImage() {
+            if (!mImageClosed) {
+                mImageClosed = true;
+                mImage.close();
+                mReader.release();
+            }
         }
 
     }
 
+    /**
+     * 在 I/O 线程上生成或读出 file 的缩略图，结果经缓存的 Listener 交给界面；失败只影响缩略图
+     */
+    private static void updateThumbnail(ThumbnailCache thumbnails, File file) {
+        try {
+            thumbnails.getOrCreate(file);
+            Log.d(TAG, "thumbnail " + file.getName() + ": " + thumbnails);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "No thumbnail for " + file, e);
+        }
+    }
+
     /**
      * 显示错误消息对话框
      */
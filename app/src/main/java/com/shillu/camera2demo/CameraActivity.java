@@ -34,6 +34,10 @@ public class CameraActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        if (null == savedInstanceState) {
+            // 冷启动：相机枚举和打开设备在相机线程上提前开始，与下面的布局和 Fragment 创建并行
+            CameraStartup.begin(this);
+        }
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_camera);
         if (null == savedInstanceState) {
@@ -0,0 +1,398 @@
+package com.shillu.camera2demo;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+import android.util.Rational;
+import android.util.Size;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 相机能力索引
+ * <p>
+ * 原来每次打开相机，setUpCameraOutputs 都要遍历 getCameraIdList() 并逐个调用 getCameraCharacteristics，
+ * fliCamera() 在循环里还会重复查询当前相机，这些都是在 UI 线程上的 binder 调用。
+ * <p>
+ * 这里每个相机只查询一次，预先整理出：
+ * 1. 朝向到相机 ID 的映射；
+ * 2. 按面积降序排好的 JPEG、预览（SurfaceTexture）、YUV 尺寸表；
+ * 3. 闪光灯、AF 模式、测光区域数量、传感器方向、硬件级别等能力。
+ * 索引会以紧凑的二进制快照保存在 cacheDir 中，以 Build.FINGERPRINT 作为校验键，
+ * 系统没有升级时，之后的冷启动直接读快照，完全跳过相机枚举。
+ */
+public final class CameraCapabilityIndex {
+
+    private static final String TAG = "CameraCapabilityIndex";
+
+    /**
+     * 快照文件名
+     */
+    private static final String SNAPSHOT_FILE = "camera_capability_index.bin";
+
+    /**
+     * 快照格式版本，结构变化时递增，旧快照会被丢弃重新枚举
+     */
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * 进程内缓存，Fragment 重建时不需要再读快照
+     */
+    private static volatile CameraCapabilityIndex sInstance;
+
+    /**
+     * 单个相机的能力
+     */
+    public static final class CameraInfo {
+        public final String id;
+        public final int facing;
+        public final int sensorOrientation;
+        public final int hardwareLevel;
+        public final int timestampSource;
+        public final boolean flashSupported;
+        public final int[] afModes;
+        public final int maxAfRegions;
+        public final int maxAeRegions;
+        /**
+         * SENSOR_INFO_ACTIVE_ARRAY_SIZE：left, top, right, bottom
+         */
+        public final int[] activeArray;
+        public final float maxDigitalZoom;
+        public final int aeCompensationMin;
+        public final int aeCompensationMax;
+        public final int aeCompensationStepNumerator;
+        public final int aeCompensationStepDenominator;
+        public final SizeTable jpegSizes;
+        public final SizeTable previewSizes;
+        public final SizeTable yuvSizes;
+        /**
+         * 基于 previewSizes 的预览尺寸选择器，查询结果会被缓存
+         */
+        public final PreviewSizeSelector previewSizeSelector;
+
+        public CameraInfo(String id, int facing, int sensorOrientation, int hardwareLevel, int timestampSource,
+                          boolean flashSupported, int[] afModes, int maxAfRegions, int maxAeRegions,
+                          int[] activeArray, float maxDigitalZoom,
+                          int aeCompensationMin, int aeCompensationMax,
+                          int aeCompensationStepNumerator, int aeCompensationStepDenominator,
+                          SizeTable jpegSizes, SizeTable previewSizes, SizeTable yuvSizes) {
+            this.id = id;
+            this.facing = facing;
+            this.sensorOrientation = sensorOrientation;
+            this.hardwareLevel = hardwareLevel;
+            this.timestampSource = timestampSource;
+            this.flashSupported = flashSupported;
+            this.afModes = afModes;
+            this.maxAfRegions = maxAfRegions;
+            this.maxAeRegions = maxAeRegions;
+            this.activeArray = activeArray;
+            this.maxDigitalZoom = maxDigitalZoom;
+            this.aeCompensationMin = aeCompensationMin;
+            this.aeCompensationMax = aeCompensationMax;
+            this.aeCompensationStepNumerator = aeCompensationStepNumerator;
+            this.aeCompensationStepDenominator = aeCompensationStepDenominator;
+            this.jpegSizes = jpegSizes;
+            this.previewSizes = previewSizes;
+            this.yuvSizes = yuvSizes;
+            this.previewSizeSelector = new PreviewSizeSelector(previewSizes);
+        }
+
+        public boolean supportsAfMode(int mode) {
+            for (int afMode : afModes) {
+                if (afMode == mode) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 是否有可用的流配置，没有的相机不能用于预览和拍照
+         */
+        public boolean hasOutputs() {
+            return !jpegSizes.isEmpty() && !previewSizes.isEmpty();
+        }
+    }
+
+    private final Map<String, CameraInfo> mCameras;
+    private final Map<Integer, String> mFacingToId;
+
+    CameraCapabilityIndex(List<CameraInfo> cameras) {
+        Map<String, CameraInfo> byId = new LinkedHashMap<>();
+        Map<Integer, String> facingToId = new HashMap<>();
+        for (CameraInfo info : cameras) {
+            byId.put(info.id, info);
+            // 同一朝向有多个相机时，取 ID 列表中的第一个（通常是主摄）
+            if (!facingToId.containsKey(info.facing) && info.hasOutputs()) {
+                facingToId.put(info.facing, info.id);
+            }
+        }
+        mCameras = Collections.unmodifiableMap(byId);
+        mFacingToId = Collections.unmodifiableMap(facingToId);
+    }
+
+    /**
+     * 获取相机能力索引：优先使用进程内缓存，其次读取快照，最后才枚举相机并写快照。
+     */
+    public static CameraCapabilityIndex get(Context context) throws CameraAccessException {
+        CameraCapabilityIndex index = sInstance;
+        if (index != null) {
+            return index;
+        }
+        synchronized (CameraCapabilityIndex.class) {
+            if (sInstance != null) {
+                return sInstance;
+            }
+            File snapshot = new File(context.getCacheDir(), SNAPSHOT_FILE);
+            try {
+                index = readSnapshot(snapshot, Build.FINGERPRINT);
+            } catch (IOException e) {
+                Log.w(TAG, "readSnapshot: " + e);
+            }
+            if (index == null) {
+                CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+                index = query(manager);
+                writeSnapshot(index, snapshot, Build.FINGERPRINT);
+            }
+            sInstance = index;
+            return index;
+        }
+    }
+
+    /**
+     * 枚举所有相机，每个相机只调用一次 getCameraCharacteristics
+     */
+    static CameraCapabilityIndex query(CameraManager manager) throws CameraAccessException {
+        List<CameraInfo> cameras = new ArrayList<>();
+        for (String cameraId : manager.getCameraIdList()) {
+            cameras.add(toCameraInfo(cameraId, manager.getCameraCharacteristics(cameraId)));
+        }
+        return new CameraCapabilityIndex(cameras);
+    }
+
+    private static CameraInfo toCameraInfo(String cameraId, CameraCharacteristics characteristics) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        SizeTable jpeg = SizeTable.EMPTY;
+        SizeTable preview = SizeTable.EMPTY;
+        SizeTable yuv = SizeTable.EMPTY;
+        if (map != null) {
+            jpeg = toSizeTable(map.getOutputSizes(ImageFormat.JPEG));
+            preview = toSizeTable(map.getOutputSizes(SurfaceTexture.class));
+            yuv = toSizeTable(map.getOutputSizes(ImageFormat.YUV_420_888));
+        }
+        Rect activeArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        Range<Integer> aeRange = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_RANGE);
+        Rational aeStep = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_STEP);
+        int[] afModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        return new CameraInfo(cameraId,
+                intOrDefault(characteristics.get(CameraCharacteristics.LENS_FACING), CameraCharacteristics.LENS_FACING_EXTERNAL),
+                intOrDefault(characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION), 0),
+                intOrDefault(characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL),
+                        CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY),
+                intOrDefault(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE),
+                        CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_UNKNOWN),
+                Boolean.TRUE.equals(characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE)),
+                afModes == null ? new int[0] : afModes,
+                intOrDefault(characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AF), 0),
+                intOrDefault(characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AE), 0),
+                activeArray == null ? new int[4]
+                        : new int[]{activeArray.left, activeArray.top, activeArray.right, activeArray.bottom},
+                floatOrDefault(characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM), 1f),
+                aeRange == null ? 0 : aeRange.getLower(),
+                aeRange == null ? 0 : aeRange.getUpper(),
+                aeStep == null ? 0 : aeStep.getNumerator(),
+                aeStep == null ? 1 : aeStep.getDenominator(),
+                jpeg, preview, yuv);
+    }
+
+    private static SizeTable toSizeTable(Size[] sizes) {
+        if (sizes == null) {
+            return SizeTable.EMPTY;
+        }
+        int[] widths = new int[sizes.length];
+        int[] heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            widths[i] = sizes[i].getWidth();
+            heights[i] = sizes[i].getHeight();
+        }
+        return SizeTable.of(widths, heights);
+    }
+
+    private static int intOrDefault(Integer value, int defaultValue) {
+        return value == null ? defaultValue : value;
+    }
+
+    private static float floatOrDefault(Float value, float defaultValue) {
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * 所有相机 ID，顺序与 getCameraIdList() 一致
+     */
+    public List<String> getCameraIds() {
+        return new ArrayList<>(mCameras.keySet());
+    }
+
+    public CameraInfo get(String cameraId) {
+        return mCameras.get(cameraId);
+    }
+
+    /**
+     * @param facing CameraCharacteristics.LENS_FACING_*
+     * @return 该朝向的第一个可用相机 ID，没有时返回 null
+     */
+    public String getCameraIdForFacing(int facing) {
+        return mFacingToId.get(facing);
+    }
+
+    /**
+     * 第一个有可用输出的相机 ID，没有时返回 null
+     */
+    public String getDefaultCameraId() {
+        for (CameraInfo info : mCameras.values()) {
+            if (info.hasOutputs()) {
+                return info.id;
+            }
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------- 快照读写
+
+    /**
+     * 读取快照，文件不存在、版本或校验键不匹配时返回 null。
+     * 截断或损坏的快照（长度字段错乱会抛出各种 RuntimeException）先删掉再统一抛 IOException，调用方重新枚举
+     */
+    static CameraCapabilityIndex readSnapshot(File file, String key) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return readFrom(input, key);
+            } finally {
+                input.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    static void writeSnapshot(CameraCapabilityIndex index, File file, String key) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                index.writeTo(output, key);
+            } finally {
+                output.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "writeSnapshot: " + e);
+            tmp.delete();
+        }
+    }
+
+    void writeTo(DataOutputStream output, String key) throws IOException {
+        output.writeInt(SNAPSHOT_VERSION);
+        output.writeUTF(key);
+        output.writeInt(mCameras.size());
+        for (CameraInfo info : mCameras.values()) {
+            output.writeUTF(info.id);
+            output.writeInt(info.facing);
+            output.writeInt(info.sensorOrientation);
+            output.writeInt(info.hardwareLevel);
+            output.writeInt(info.timestampSource);
+            output.writeBoolean(info.flashSupported);
+            writeInts(output, info.afModes);
+            output.writeInt(info.maxAfRegions);
+            output.writeInt(info.maxAeRegions);
+            writeInts(output, info.activeArray);
+            output.writeFloat(info.maxDigitalZoom);
+            output.writeInt(info.aeCompensationMin);
+            output.writeInt(info.aeCompensationMax);
+            output.writeInt(info.aeCompensationStepNumerator);
+            output.writeInt(info.aeCompensationStepDenominator);
+            writeSizes(output, info.jpegSizes);
+            writeSizes(output, info.previewSizes);
+            writeSizes(output, info.yuvSizes);
+        }
+    }
+
+    static CameraCapabilityIndex readFrom(DataInputStream input, String key) throws IOException {
+        if (input.readInt() != SNAPSHOT_VERSION || !input.readUTF().equals(key)) {
+            return null;
+        }
+        int count = input.readInt();
+        List<CameraInfo> cameras = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            cameras.add(new CameraInfo(input.readUTF(), input.readInt(), input.readInt(), input.readInt(),
+                    input.readInt(), input.readBoolean(), readInts(input), input.readInt(), input.readInt(),
+                    readInts(input), input.readFloat(), input.readInt(), input.readInt(), input.readInt(),
+                    input.readInt(), readSizes(input), readSizes(input), readSizes(input)));
+        }
+        return new CameraCapabilityIndex(cameras);
+    }
+
+    private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+        output.writeShort(values.length);
+        for (int value : values) {
+            output.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream input) throws IOException {
+        int[] values = new int[input.readUnsignedShort()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = input.readInt();
+        }
+        return values;
+    }
+
+    private static void writeSizes(DataOutputStream output, SizeTable sizes) throws IOException {
+        output.writeShort(sizes.size());
+        for (int i = 0; i < sizes.size(); i++) {
+            output.writeShort(sizes.width(i));
+            output.writeShort(sizes.height(i));
+        }
+    }
+
+    private static SizeTable readSizes(DataInputStream input) throws IOException {
+        int count = input.readUnsignedShort();
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        for (int i = 0; i < count; i++) {
+            widths[i] = input.readUnsignedShort();
+            heights[i] = input.readUnsignedShort();
+        }
+        return SizeTable.of(widths, heights);
+    }
+}
@@ -0,0 +1,491 @@
+package com.shillu.camera2demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 非阻塞的相机生命周期控制器，替代原来 UI 线程上的 Semaphore
+ * <p>
+ * 原来 openCamera 在主线程 tryAcquire 最多 2.5 秒，onPause 里的 closeCamera 阻塞 acquire 之后同步关闭会话、设备和 ImageReader，
+ * 暂停、恢复都会卡住 UI。这里把 open / configure / close / reopen 都变成返回 {@link CompletableFuture} 的异步操作：
+ * <p>
+ * 1. 调用方只修改"期望状态"（打开哪个相机、是否需要会话），真正的动作全部投递到相机线程（{@link Scheduler}）上串行执行；
+ * 2. 相机线程上的协调循环比较期望状态和实际状态，每次只执行一步（关会话、关设备、开设备、建会话），
+ * 异步步骤完成后再继续下一步，因此操作天然串行，不需要锁；
+ * 3. 相互重叠的请求会被合并：连续多次 open 同一个相机只打开一次，close 之后又 open 会直接抵消；
+ * 4. 输出变化时 {@link #reconfigure()} 只重建会话，设备不关闭；
+ * 5. close 可以延迟执行，onPause 之后 {@link #DEFAULT_CLOSE_DELAY_MS} 毫秒内又 onResume，相机不会被真正关闭，预览直接继续。
+ * <p>
+ * 每个操作的 future 在协调循环空闲、实际状态满足该操作时完成；被后来的请求推翻的操作以 {@link CancellationException} 结束，
+ * 步骤失败时所有等待中的操作都以该异常结束，并通过 {@link Listener} 通知。
+ * <p>
+ * 内部状态只在相机线程上访问，公开方法可以在任意线程调用。
+ */
+public final class CameraLifecycleController {
+
+    /**
+     * onPause 到 onResume 之间允许合并的时间窗口
+     */
+    public static final long DEFAULT_CLOSE_DELAY_MS = 100;
+
+    /**
+     * 相机线程，Android 上由 Handler 实现
+     */
+    public interface Scheduler {
+        void post(Runnable task);
+
+        void postDelayed(Runnable task, long delayMs);
+
+        void remove(Runnable task);
+    }
+
+    /**
+     * 异步步骤的完成回调，可以在任意线程调用，只有第一次调用有效
+     */
+    public interface StepCallback {
+        void onSuccess();
+
+        void onFailure(Throwable error);
+    }
+
+    /**
+     * 真正操作相机的部分，所有方法都在相机线程上调用
+     */
+    public interface Backend {
+        /**
+         * 打开相机设备，打开后调用 callback
+         */
+        void openDevice(String cameraId, StepCallback callback) throws Exception;
+
+        /**
+         * 创建（或重新创建）捕获会话并开始预览，配置完成后调用 callback
+         */
+        void configureSession(StepCallback callback) throws Exception;
+
+        /**
+         * 同步关闭捕获会话
+         */
+        void closeSession();
+
+        /**
+         * 同步关闭相机设备以及和它绑定的输出
+         */
+        void closeDevice();
+    }
+
+    public enum Stage {
+        OPEN, CONFIGURE, DEVICE
+    }
+
+    public interface Listener {
+        /**
+         * 某一步失败，或者打开的设备断开、出错，在相机线程上调用
+         */
+        void onError(Stage stage, Throwable error);
+    }
+
+    /**
+     * 等待中的操作，实际状态满足 cameraId / session 时完成
+     */
+    private static final class Waiter {
+        final CompletableFuture<Void> future;
+        final String cameraId;
+        final boolean session;
+
+        Waiter(CompletableFuture<Void> future, String cameraId, boolean session) {
+            this.future = future;
+            this.cameraId = cameraId;
+            this.session = session;
+        }
+    }
+
+    private final Scheduler mScheduler;
+    private final Backend mBackend;
+    private final Listener mListener;
+
+    // 以下字段只在相机线程上访问
+
+    private String mDesiredId;
+    private boolean mDesiredSession;
+    /**
+     * reopen 每调用一次加一，和 mDeviceGeneration 不同时即使相机 id 相同也要重新打开
+     */
+    private int mDesiredGeneration;
+    /**
+     * reconfigure 每调用一次加一，和 mSessionGeneration 不同时即使会话存在也要重建
+     */
+    private int mDesiredSessionGeneration;
+
+    private String mActualId;
+    private boolean mActualSession;
+    private int mDeviceGeneration;
+    private int mSessionGeneration;
+
+    /**
+     * 正在执行的异步步骤的编号，过期步骤的回调会被丢弃
+     */
+    private int mStep;
+    private boolean mInFlight;
+    private boolean mClosePending;
+
+    private final List<Waiter> mWaiters = new ArrayList<>();
+
+    private volatile int mDeviceOpens;
+    private volatile int mDeviceCloses;
+    private volatile int mSessionConfigs;
+    private volatile int mCoalesced;
+
+    private final Runnable mDeferredClose = new Runnable() {
+        @Override
+        public void run() {
+            mClosePending = false;
+            mDesiredId = null;
+            mDesiredSession = false;
+            reconcile();
+        }
+    };
+
+    public CameraLifecycleController(Scheduler scheduler, Backend backend, Listener listener) {
+        mScheduler = scheduler;
+        mBackend = backend;
+        mListener = listener;
+    }
+
+    /**
+     * 打开相机，已经打开其他相机时先关闭
+     */
+    public CompletableFuture<Void> open(final String cameraId) {
+        if (null == cameraId) {
+            throw new IllegalArgumentException("cameraId must not be null");
+        }
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                cancelPendingClose();
+                if (!cameraId.equals(mDesiredId)) {
+                    mDesiredId = cameraId;
+                    mDesiredSession = false;
+                    cancelWaiters();
+                }
+                mWaiters.add(new Waiter(future, cameraId, false));
+                reconcile();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 在当前打开的相机上建立预览会话，必须在 {@link #open(String)} 之后调用；会话已经存在时直接完成
+     */
+    public CompletableFuture<Void> configure() {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (null == mDesiredId) {
+                    future.completeExceptionally(new IllegalStateException("configure() without open()"));
+                    return;
+                }
+                mDesiredSession = true;
+                mWaiters.add(new Waiter(future, mDesiredId, true));
+                reconcile();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 关闭相机
+     *
+     * @param delayMs 延迟多久才真正关闭，期间的 open 同一个相机会抵消这次关闭，future 以 {@link CancellationException} 结束
+     */
+    public CompletableFuture<Void> close(final long delayMs) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                mWaiters.add(new Waiter(future, null, false));
+                mScheduler.remove(mDeferredClose);
+                if (delayMs > 0 && null != mDesiredId) {
+                    mClosePending = true;
+                    mScheduler.postDelayed(mDeferredClose, delayMs);
+                } else {
+                    mDeferredClose.run();
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 在当前打开的相机上关闭并重新建立会话（例如输出变化），设备不关闭；必须在 {@link #open(String)} 之后调用
+     */
+    public CompletableFuture<Void> reconfigure() {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (null == mDesiredId) {
+                    future.completeExceptionally(new IllegalStateException("reconfigure() without open()"));
+                    return;
+                }
+                mDesiredSession = true;
+                mDesiredSessionGeneration++;
+                mWaiters.add(new Waiter(future, mDesiredId, true));
+                reconcile();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 关闭当前设备（即使 id 相同）后重新打开并建立会话
+     */
+    public CompletableFuture<Void> reopen(final String cameraId) {
+        if (null == cameraId) {
+            throw new IllegalArgumentException("cameraId must not be null");
+        }
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                cancelPendingClose();
+                cancelWaiters();
+                mDesiredId = cameraId;
+                mDesiredSession = true;
+                mDesiredGeneration++;
+                mWaiters.add(new Waiter(future, cameraId, true));
+                reconcile();
+            }
+        });
+        return future;
+    }
+
+    private void cancelPendingClose() {
+        if (mClosePending) {
+            mClosePending = false;
+            mScheduler.remove(mDeferredClose);
+            mCoalesced++;
+            // 被抵消的 close
+            for (int i = mWaiters.size() - 1; i >= 0; i--) {
+                Waiter waiter = mWaiters.get(i);
+                if (null == waiter.cameraId) {
+                    mWaiters.remove(i);
+                    waiter.future.completeExceptionally(new CancellationException("close coalesced with open"));
+                }
+            }
+        }
+    }
+
+    /**
+     * 期望状态被推翻，之前等待中的操作都不会再被满足
+     */
+    private void cancelWaiters() {
+        for (int i = 0; i < mWaiters.size(); i++) {
+            mWaiters.get(i).future.completeExceptionally(new CancellationException("superseded"));
+        }
+        mWaiters.clear();
+    }
+
+    /**
+     * 协调循环：在没有异步步骤进行时，向期望状态推进，直到一致或者开始一个异步步骤
+     */
+    private void reconcile() {
+        while (!mInFlight) {
+            boolean deviceStale = null != mActualId
+                    && (!mActualId.equals(mDesiredId) || mDeviceGeneration != mDesiredGeneration);
+            boolean sessionStale = mActualSession && mSessionGeneration != mDesiredSessionGeneration;
+            if (mActualSession && (deviceStale || sessionStale || !mDesiredSession)) {
+                mBackend.closeSession();
+                mActualSession = false;
+            } else if (deviceStale) {
+                mBackend.closeDevice();
+                mActualId = null;
+                mDeviceCloses++;
+            } else if (null == mActualId && null != mDesiredId) {
+                final String cameraId = mDesiredId;
+                final int generation = mDesiredGeneration;
+                startStep(Stage.OPEN, new Runnable() {
+                    @Override
+                    public void run() {
+                        mActualId = cameraId;
+                        mDeviceGeneration = generation;
+                        mDeviceOpens++;
+                    }
+                });
+            } else if (null != mActualId && mDesiredSession && !mActualSession) {
+                final int sessionGeneration = mDesiredSessionGeneration;
+                startStep(Stage.CONFIGURE, new Runnable() {
+                    @Override
+                    public void run() {
+                        mActualSession = true;
+                        mSessionGeneration = sessionGeneration;
+                        mSessionConfigs++;
+                    }
+                });
+            } else {
+                completeWaiters();
+                return;
+            }
+        }
+    }
+
+    private void startStep(final Stage stage, final Runnable onSuccess) {
+        final int step = ++mStep;
+        mInFlight = true;
+        StepCallback callback = new StepCallback() {
+            private boolean mDone;
+
+            @Override
+            public void onSuccess() {
+                finish(null);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                finish(null != error ? error : new IllegalStateException(stage + " failed"));
+            }
+
+            private void finish(final Throwable error) {
+                synchronized (this) {
+                    if (mDone) {
+                        return;
+                    }
+                    mDone = true;
+                }
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (step != mStep) {
+                            return;
+                        }
+                        mInFlight = false;
+                        if (null == error) {
+                            onSuccess.run();
+                        } else {
+                            fail(stage, error);
+                        }
+                        reconcile();
+                    }
+                });
+            }
+        };
+        try {
+            if (stage == Stage.OPEN) {
+                mBackend.openDevice(mDesiredId, callback);
+            } else {
+                mBackend.configureSession(callback);
+            }
+        } catch (Exception e) {
+            callback.onFailure(e);
+        }
+    }
+
+    /**
+     * 打开的设备断开或出错，由 Backend 在任意线程调用
+     */
+    public void onDeviceError(final Throwable error) {
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (null == mActualId) {
+                    return;
+                }
+                // 正在进行的配置步骤作废
+                mStep++;
+                mInFlight = false;
+                fail(Stage.DEVICE, error);
+                reconcile();
+            }
+        });
+    }
+
+    /**
+     * 步骤失败后放弃失败的那部分期望，避免无限重试
+     */
+    private void fail(Stage stage, Throwable error) {
+        if (stage == Stage.CONFIGURE) {
+            mDesiredSession = false;
+        } else {
+            mDesiredId = null;
+            mDesiredSession = false;
+            if (null != mActualId) {
+                mBackend.closeSession();
+                mBackend.closeDevice();
+                mActualSession = false;
+                mActualId = null;
+                mDeviceCloses++;
+            } else {
+                // 打开失败时设备并没有打开，只需要释放和它绑定的输出
+                mBackend.closeDevice();
+            }
+        }
+        for (int i = 0; i < mWaiters.size(); i++) {
+            mWaiters.get(i).future.completeExceptionally(error);
+        }
+        mWaiters.clear();
+        if (null != mListener) {
+            mListener.onError(stage, error);
+        }
+    }
+
+    /**
+     * 协调循环空闲时结算等待中的操作；延迟关闭还没执行时，close 的 future 继续等待
+     */
+    private void completeWaiters() {
+        for (int i = mWaiters.size() - 1; i >= 0; i--) {
+            Waiter waiter = mWaiters.get(i);
+            if (null == waiter.cameraId && mClosePending) {
+                continue;
+            }
+            mWaiters.remove(i);
+            boolean satisfied = null == waiter.cameraId
+                    ? null == mActualId
+                    : waiter.cameraId.equals(mActualId) && (!waiter.session || mActualSession);
+            if (satisfied) {
+                waiter.future.complete(null);
+            } else {
+                waiter.future.completeExceptionally(new CancellationException("superseded"));
+            }
+        }
+    }
+
+    /**
+     * 真正打开设备的次数
+     */
+    public int getDeviceOpens() {
+        return mDeviceOpens;
+    }
+
+    /**
+     * 真正关闭设备的次数
+     */
+    public int getDeviceCloses() {
+        return mDeviceCloses;
+    }
+
+    /**
+     * 建立会话的次数
+     */
+    public int getSessionConfigs() {
+        return mSessionConfigs;
+    }
+
+    /**
+     * 被后续 open 抵消的延迟 close 次数
+     */
+    public int getCoalescedCloses() {
+        return mCoalesced;
+    }
+
+    @Override
+    public String toString() {
+        return "CameraLifecycleController{opens=" + mDeviceOpens + ", closes=" + mDeviceCloses
+                + ", sessions=" + mSessionConfigs + ", coalesced=" + mCoalesced + '}';
+    }
+}
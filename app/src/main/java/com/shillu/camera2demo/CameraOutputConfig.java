@@ -0,0 +1,190 @@
+package com.shillu.camera2demo;
+
+import android.hardware.camera2.CameraMetadata;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 一个相机在某个 view 尺寸和屏幕方向下的输出配置
+ * <p>
+ * 原来每次打开相机都要重新算一遍：是否交换宽高、预览尺寸、JPEG 尺寸、ZSL 的 YUV 尺寸和缓冲帧数。
+ * 这些只取决于相机能力和显示条件，在前后摄之间来回切换时结果完全相同，
+ * 因此算一次之后按 {@link #key(String, int, int, int, int, int)} 缓存起来，切换时直接复用，只需要重新创建 ImageReader。
+ * <p>
+ * 不可变，计算过程只依赖 {@link CameraCapabilityIndex.CameraInfo}，可以在本地单元测试中运行。
+ */
+public final class CameraOutputConfig {
+
+    public final String cameraId;
+    public final int previewWidth;
+    public final int previewHeight;
+    public final int jpegWidth;
+    public final int jpegHeight;
+    /**
+     * ZSL 的 YUV 尺寸和缓冲帧数，zslCapacity 为 0 表示不使用 ZSL
+     */
+    public final int zslWidth;
+    public final int zslHeight;
+    public final int zslCapacity;
+    public final boolean zslRealtimeTimestamps;
+    /**
+     * 预览分析用的 YUV 尺寸，0 表示不带分析输出
+     */
+    public final int analysisWidth;
+    public final int analysisHeight;
+    public final int sensorOrientation;
+    public final boolean flashSupported;
+
+    CameraOutputConfig(String cameraId, int previewWidth, int previewHeight, int jpegWidth, int jpegHeight,
+                       int zslWidth, int zslHeight, int zslCapacity, boolean zslRealtimeTimestamps,
+                       int analysisWidth, int analysisHeight, int sensorOrientation, boolean flashSupported) {
+        this.cameraId = cameraId;
+        this.previewWidth = previewWidth;
+        this.previewHeight = previewHeight;
+        this.jpegWidth = jpegWidth;
+        this.jpegHeight = jpegHeight;
+        this.zslWidth = zslWidth;
+        this.zslHeight = zslHeight;
+        this.zslCapacity = zslCapacity;
+        this.zslRealtimeTimestamps = zslRealtimeTimestamps;
+        this.analysisWidth = analysisWidth;
+        this.analysisHeight = analysisHeight;
+        this.sensorOrientation = sensorOrientation;
+        this.flashSupported = flashSupported;
+    }
+
+    /**
+     * 缓存键，包含所有影响配置的输入
+     *
+     * @param displayRotation Surface.ROTATION_0 ~ ROTATION_270
+     */
+    public static String key(String cameraId, int viewWidth, int viewHeight, int displayRotation,
+                             int displayWidth, int displayHeight) {
+        return cameraId + '/' + viewWidth + 'x' + viewHeight + '/' + displayRotation + '/' + displayWidth + 'x' + displayHeight;
+    }
+
+    /**
+     * 计算输出配置，不带预览分析输出
+     */
+    public static CameraOutputConfig resolve(CameraCapabilityIndex.CameraInfo info,
+                                             int viewWidth, int viewHeight, int displayRotation,
+                                             int displayWidth, int displayHeight,
+                                             int maxPreviewWidth, int maxPreviewHeight, float aspectTolerance,
+                                             long zslBudgetBytes, int zslMaxFrames) {
+        return resolve(info, viewWidth, viewHeight, displayRotation, displayWidth, displayHeight,
+                maxPreviewWidth, maxPreviewHeight, aspectTolerance, zslBudgetBytes, zslMaxFrames, 0, 0);
+    }
+
+    /**
+     * 计算输出配置
+     *
+     * @param info            相机能力
+     * @param viewWidth       TextureView 宽度
+     * @param viewHeight      TextureView 高度
+     * @param displayRotation Surface.ROTATION_0 ~ ROTATION_270
+     * @param displayWidth    屏幕宽度
+     * @param displayHeight   屏幕高度
+     * @param maxPreviewWidth  预览宽度上限（横向）
+     * @param maxPreviewHeight 预览高度上限（横向）
+     * @param aspectTolerance 预览与 JPEG 宽高比允许的相对误差
+     * @param zslBudgetBytes  ZSL 缓冲的内存预算，0 表示关闭 ZSL
+     * @param zslMaxFrames    ZSL 缓冲帧数上限
+     * @param maxAnalysisWidth  预览分析 YUV 宽度上限（横向），0 表示不带分析输出
+     * @param maxAnalysisHeight 预览分析 YUV 高度上限（横向）
+     */
+    public static CameraOutputConfig resolve(CameraCapabilityIndex.CameraInfo info,
+                                             int viewWidth, int viewHeight, int displayRotation,
+                                             int displayWidth, int displayHeight,
+                                             int maxPreviewWidth, int maxPreviewHeight, float aspectTolerance,
+                                             long zslBudgetBytes, int zslMaxFrames,
+                                             int maxAnalysisWidth, int maxAnalysisHeight) {
+        if (!info.hasOutputs()) {
+            throw new IllegalStateException("Camera " + info.id + " has no usable outputs");
+        }
+        // 对于静态图想捕获，我们使用最大的可用大小（尺寸表已按面积降序排好）
+        int jpegWidth = info.jpegSizes.width(0);
+        int jpegHeight = info.jpegSizes.height(0);
+
+        // 找出是否需要交换尺寸以获得相对于传感器坐标的预览尺寸
+        boolean displayLandscape = displayRotation % 2 == 1;
+        boolean sensorLandscape = info.sensorOrientation % 180 == 0;
+        boolean swappedDimensions = displayLandscape == sensorLandscape;
+
+        int rotatedPreviewWidth = viewWidth;
+        int rotatedPreviewHeight = viewHeight;
+        int maxWidth = displayWidth;
+        int maxHeight = displayHeight;
+        if (swappedDimensions) {
+            rotatedPreviewWidth = viewHeight;
+            rotatedPreviewHeight = viewWidth;
+            maxWidth = displayHeight;
+            maxHeight = displayWidth;
+        }
+        maxWidth = Math.min(maxWidth, maxPreviewWidth);
+        maxHeight = Math.min(maxHeight, maxPreviewHeight);
+
+        int previewIndex = info.previewSizeSelector.select(rotatedPreviewWidth, rotatedPreviewHeight,
+                maxWidth, maxHeight, jpegWidth, jpegHeight, aspectTolerance);
+
+        // ZSL 只在 FULL 及以上的设备上开启，尺寸表按面积降序，第一个就是最大的 YUV 尺寸。
+        // FULL 保证的是 PRIV PREVIEW + YUV MAXIMUM，不包括再加一路 JPEG MAXIMUM，所以 ZSL 会话不带 JPEG 输出
+        boolean fullOrBetter = info.hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL
+                || info.hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_3;
+        int zslWidth = 0;
+        int zslHeight = 0;
+        int zslCapacity = 0;
+        if (zslBudgetBytes > 0 && fullOrBetter && !info.yuvSizes.isEmpty()) {
+            zslWidth = info.yuvSizes.width(0);
+            zslHeight = info.yuvSizes.height(0);
+            zslCapacity = ZslRingBuffer.capacityForBudget(zslBudgetBytes, (long) zslWidth * zslHeight * 3 / 2, zslMaxFrames);
+        }
+        int previewWidth = info.previewSizes.width(previewIndex);
+        int previewHeight = info.previewSizes.height(previewIndex);
+
+        // 预览 + YUV + JPEG 是所有硬件级别都保证的组合；ZSL 会话已经是 PRIV PREVIEW + YUV MAXIMUM，不再加分析流
+        int analysisIndex = -1;
+        if (maxAnalysisWidth > 0 && zslCapacity == 0) {
+            analysisIndex = selectAnalysisSize(info.yuvSizes, maxAnalysisWidth, maxAnalysisHeight,
+                    (float) previewWidth / previewHeight, aspectTolerance);
+        }
+        return new CameraOutputConfig(info.id, previewWidth, previewHeight,
+                jpegWidth, jpegHeight, zslWidth, zslHeight, zslCapacity,
+                info.timestampSource == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME,
+                analysisIndex < 0 ? 0 : info.yuvSizes.width(analysisIndex),
+                analysisIndex < 0 ? 0 : info.yuvSizes.height(analysisIndex),
+                info.sensorOrientation, info.flashSupported);
+    }
+
+    /**
+     * 不超过上限、宽高比与预览一致的最大 YUV 尺寸；没有比例一致的时退回不超过上限的最大尺寸
+     *
+     * @return 尺寸表中的下标，没有合适的返回 -1
+     */
+    static int selectAnalysisSize(SizeTable yuvSizes, int maxWidth, int maxHeight, float aspect, float aspectTolerance) {
+        int fallback = -1;
+        // 尺寸表按面积降序，第一个满足条件的就是最大的
+        for (int i = 0; i < yuvSizes.size(); i++) {
+            int width = yuvSizes.width(i);
+            int height = yuvSizes.height(i);
+            if (width > maxWidth || height > maxHeight) {
+                continue;
+            }
+            if (Math.abs((float) width / height - aspect) <= aspect * aspectTolerance) {
+                return i;
+            }
+            if (fallback < 0) {
+                fallback = i;
+            }
+        }
+        return fallback;
+    }
+
+    @Override
+    public String toString() {
+        return "CameraOutputConfig{" + cameraId
+                + ", preview=" + previewWidth + 'x' + previewHeight
+                + ", jpeg=" + jpegWidth + 'x' + jpegHeight
+                + ", zsl=" + zslWidth + 'x' + zslHeight + '*' + zslCapacity
+                + ", analysis=" + analysisWidth + 'x' + analysisHeight + '}';
+    }
+}
@@ -0,0 +1,186 @@
+package com.shillu.camera2demo;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 冷启动时在 CameraActivity.onCreate() 里提前枚举相机并打开默认相机
+ * <p>
+ * 原来的顺序是：Activity 创建、Fragment inflate 布局、TextureView 创建 SurfaceTexture，然后才开始枚举相机、打开设备，
+ * 打开设备（通常几十到上百毫秒）完全串行在 UI 初始化之后。这里在 Activity.onCreate() 就创建相机线程，
+ * 在上面构建 {@link CameraCapabilityIndex} 并打开默认相机，与 UI 线程上的布局和 TextureView 创建并行。
+ * <p>
+ * Fragment.onCreate() 用 {@link #take()} 接管这个相机线程（不再自己创建），生命周期控制器打开相机时
+ * 通过 {@link #adoptDevice(String, CameraDevice.StateCallback)} 接收已经打开（或正在打开）的设备，两条路径在 Surface 可用、
+ * 开始配置会话时汇合。各阶段的时间记在 {@link StartupTrace} 中。
+ * <p>
+ * 只在真正的冷启动（savedInstanceState 为空）且已经有相机权限时提前打开；其它情况 Fragment 按原来的方式打开。
+ */
+public final class CameraStartup {
+
+    private static final String TAG = "CameraStartup";
+
+    private static CameraStartup sPending;
+
+    private final StartupTrace mTrace;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private volatile DeviceHandoff<CameraDevice> mHandoff;
+
+    private CameraStartup(long startNs) {
+        mTrace = new StartupTrace(startNs);
+        mThread = new HandlerThread("CameraBackground");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * 在 CameraActivity.onCreate() 的最开始调用
+     */
+    public static void begin(Activity activity) {
+        long now = System.nanoTime();
+        final Context context = activity.getApplicationContext();
+        final CameraStartup startup;
+        synchronized (CameraStartup.class) {
+            if (null != sPending) {
+                // 上一次准备的还没有 Fragment 来取，继续用它
+                return;
+            }
+            startup = new CameraStartup(now);
+            sPending = startup;
+        }
+        if (ContextCompat.checkSelfPermission(context, Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED) {
+            startup.mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    startup.openDefaultCamera(context);
+                }
+            });
+        }
+    }
+
+    /**
+     * Fragment.onCreate() 调用，取走 {@link #begin(Activity)} 准备好的相机线程，之后由 Fragment 负责退出它
+     *
+     * @return 没有冷启动准备时返回 null
+     */
+    public static CameraStartup take() {
+        synchronized (CameraStartup.class) {
+            CameraStartup startup = sPending;
+            sPending = null;
+            return startup;
+        }
+    }
+
+    private void openDefaultCamera(Context context) {
+        try {
+            CameraCapabilityIndex index = CameraCapabilityIndex.get(context);
+            mTrace.mark(StartupTrace.Phase.INDEX_READY, System.nanoTime());
+            String cameraId = index.getDefaultCameraId();
+            if (null == cameraId) {
+                return;
+            }
+            final DeviceHandoff<CameraDevice> handoff = new DeviceHandoff<>(cameraId, new DeviceHandoff.Closer<CameraDevice>() {
+                @Override
+                public void close(CameraDevice device) {
+                    device.close();
+                }
+            });
+            mHandoff = handoff;
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            try {
+                manager.openCamera(cameraId, new CameraDevice.StateCallback() {
+                    @Override
+                    public void onOpened(@NonNull CameraDevice camera) {
+                        mTrace.mark(StartupTrace.Phase.DEVICE_OPENED, System.nanoTime());
+                        handoff.onOpened(camera);
+                    }
+
+                    @Override
+                    public void onDisconnected(@NonNull CameraDevice camera) {
+                        handoff.onDisconnected(camera);
+                    }
+
+                    @Override
+                    public void onError(@NonNull CameraDevice camera, int error) {
+                        handoff.onError(camera, error);
+                    }
+                }, mHandler);
+            } catch (Exception e) {
+                handoff.onOpenFailed();
+                throw e;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "early open failed", e);
+        }
+    }
+
+    public StartupTrace getTrace() {
+        return mTrace;
+    }
+
+    public HandlerThread getThread() {
+        return mThread;
+    }
+
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * 在相机线程上调用，接收提前打开的设备
+     *
+     * @return false 表示没有可接收的设备（没有提前打开、id 不同或者打开失败），调用方需要自己打开
+     */
+    public boolean adoptDevice(String cameraId, final CameraDevice.StateCallback callback) {
+        DeviceHandoff<CameraDevice> handoff = mHandoff;
+        if (null == handoff) {
+            return false;
+        }
+        mHandoff = null;
+        return handoff.adopt(cameraId, new DeviceHandoff.Callback<CameraDevice>() {
+            @Override
+            public void onOpened(CameraDevice device) {
+                callback.onOpened(device);
+            }
+
+            @Override
+            public void onDisconnected(CameraDevice device) {
+                callback.onDisconnected(device);
+            }
+
+            @Override
+            public void onError(CameraDevice device, int error) {
+                callback.onError(device, error);
+            }
+        });
+    }
+
+    /**
+     * 不再需要提前打开的设备：还没被接收时关闭它
+     */
+    public void release() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                DeviceHandoff<CameraDevice> handoff = mHandoff;
+                mHandoff = null;
+                if (null != handoff) {
+                    handoff.abandon();
+                }
+            }
+        });
+    }
+}
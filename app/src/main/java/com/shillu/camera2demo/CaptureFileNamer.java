@@ -0,0 +1,54 @@
+package com.shillu.camera2demo;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 连拍输出文件命名
+ * <p>
+ * 每一轮连拍生成一个时间戳前缀，例如 burst_20231017_153012，之后每帧按序号追加：
+ * burst_20231017_153012_0001.jpg、burst_20231017_153012_0002.jpg ……
+ * 序号在同一轮连拍内单调递增，文件按名字排序就是拍摄顺序。
+ */
+public final class CaptureFileNamer {
+
+    private final File mDirectory;
+    private final String mPrefix;
+    private String mSessionName;
+    private int mSequence;
+
+    public CaptureFileNamer(File directory, String prefix) {
+        mDirectory = directory;
+        mPrefix = prefix;
+    }
+
+    /**
+     * 开始新一轮连拍，序号从 1 重新开始
+     */
+    public synchronized void startSession(Date date) {
+        mSessionName = mPrefix + "_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(date);
+        mSequence = 0;
+    }
+
+    /**
+     * 取下一帧的输出文件
+     */
+    public synchronized File next() {
+        if (mSessionName == null) {
+            throw new IllegalStateException("startSession() has not been called");
+        }
+        mSequence++;
+        return new File(mDirectory, String.format(Locale.US, "%s_%04d.jpg", mSessionName, mSequence));
+    }
+
+    /**
+     * 本轮已经分配的帧数
+     */
+    public synchronized int getSequence() {
+        return mSequence;
+    }
+}
@@ -0,0 +1,316 @@
+package com.shillu.camera2demo;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 拍照 I/O 专用的有界多线程执行器
+ * <p>
+ * 原来 ImageSaver 是 post 到 mBackgroundHandler 上执行的，和预览帧回调、AF/AE 状态机共用一个 "CameraBackground" 线程，
+ * 磁盘写得慢时会拖慢对焦状态切换，甚至丢预览结果。
+ * 这里把保存任务放进独立的有界队列，由若干个工作线程消费，相机回调线程只负责入队。
+ * <p>
+ * 队列满时的背压策略：
+ * 1. BLOCK：入队方等待空位，最多等待 blockTimeoutMs，超时按拒绝处理；
+ * 2. DROP_OLDEST：丢弃队头最老的任务，给新任务腾位置；
+ * 3. FAIL_FAST：直接拒绝新任务。
+ * 被丢弃或拒绝的任务会回调 {@link Task#onDropped()}，调用方在这里释放资源（例如关闭 Image）。
+ * <p>
+ * 关闭后入队的任务（包括和 {@link #shutdown()} 同时入队、工作线程已经退出的）一律拒绝，保证每个任务要么执行、要么回调 onDropped()。
+ * <p>
+ * 队列深度、等待时间（入队到开始执行）、开始/成功/失败/丢弃/拒绝数量都可以通过 getter 读取。
+ */
+public final class CaptureIoExecutor {
+
+    /**
+     * 队列满时的背压策略
+     */
+    public enum BackpressurePolicy {
+        BLOCK,
+        DROP_OLDEST,
+        FAIL_FAST
+    }
+
+    /**
+     * 可以感知自己被丢弃的 I/O 任务
+     */
+    public interface Task extends Runnable {
+
+        /**
+         * 任务因背压或关闭而不会再执行时调用，用于释放任务持有的资源
+         */
+        void onDropped();
+    }
+
+    /**
+     * 队列中的一项，记录入队时间用于统计等待时长
+     */
+    private static final class Entry {
+        final Task mTask;
+        final long mEnqueueNanos;
+
+        Entry(Task task, long enqueueNanos) {
+            mTask = task;
+            mEnqueueNanos = enqueueNanos;
+        }
+    }
+
+    /**
+     * 工作线程空闲时检查关闭标记的间隔
+     */
+    private static final long IDLE_POLL_MS = 50;
+
+    private final ArrayBlockingQueue<Entry> mQueue;
+    private final BackpressurePolicy mPolicy;
+    private final long mBlockTimeoutMs;
+    private final Thread[] mWorkers;
+    private volatile boolean mShutdown;
+
+    private final AtomicLong mSubmitted = new AtomicLong();
+    private final AtomicLong mStarted = new AtomicLong();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxQueueDepth = new AtomicLong();
+
+    /**
+     * @param name           工作线程名前缀
+     * @param workers        工作线程数量
+     * @param queueCapacity  队列容量
+     * @param policy         队列满时的背压策略
+     * @param blockTimeoutMs BLOCK 策略下入队的最长等待时间
+     */
+    public CaptureIoExecutor(String name, int workers, int queueCapacity, BackpressurePolicy policy, long blockTimeoutMs) {
+        if (workers <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("workers and queueCapacity must be positive");
+        }
+        mQueue = new ArrayBlockingQueue<>(queueCapacity);
+        mPolicy = policy;
+        mBlockTimeoutMs = blockTimeoutMs;
+        mWorkers = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop();
+                }
+            }, name + "-" + i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * 提交一个 I/O 任务，不会因为磁盘慢而阻塞调用线程（BLOCK 策略最多阻塞 blockTimeoutMs）。
+     *
+     * @return true 表示已入队；false 表示被拒绝，此时 task.onDropped() 已经被调用
+     */
+    public boolean submit(Task task) {
+        if (mShutdown) {
+            reject(task);
+            return false;
+        }
+        Entry entry = new Entry(task, System.nanoTime());
+        boolean queued;
+        switch (mPolicy) {
+            case BLOCK:
+                try {
+                    queued = mQueue.offer(entry, mBlockTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    queued = false;
+                }
+                break;
+            case DROP_OLDEST:
+                queued = mQueue.offer(entry);
+                while (!queued) {
+                    Entry oldest = mQueue.poll();
+                    if (oldest != null) {
+                        mDropped.incrementAndGet();
+                        oldest.mTask.onDropped();
+                    }
+                    queued = mQueue.offer(entry);
+                }
+                break;
+            case FAIL_FAST:
+            default:
+                queued = mQueue.offer(entry);
+                break;
+        }
+        if (!queued) {
+            reject(task);
+            return false;
+        }
+        if (mShutdown && mQueue.remove(entry)) {
+            // 入队和关闭同时发生，工作线程可能已经看到空队列退出了，没人会再取这个任务
+            reject(task);
+            return false;
+        }
+        mSubmitted.incrementAndGet();
+        updateMax(mMaxQueueDepth, mQueue.size());
+        return true;
+    }
+
+    /**
+     * 停止接收新任务，已入队的任务会继续执行完，不阻塞调用线程
+     */
+    public void shutdown() {
+        mShutdown = true;
+    }
+
+    /**
+     * 等待所有工作线程退出
+     *
+     * @return true 表示在超时前全部退出
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : mWorkers) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) {
+                return !isAlive();
+            }
+            worker.join(remainingMs);
+        }
+        return !isAlive();
+    }
+
+    private boolean isAlive() {
+        for (Thread worker : mWorkers) {
+            if (worker.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void workerLoop() {
+        while (true) {
+            Entry entry;
+            try {
+                // 不用 interrupt 通知关闭：FileChannel 在线程被打断时会直接关闭，正在写的照片就坏了
+                entry = mQueue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                entry = null;
+            }
+            if (entry == null) {
+                if (mShutdown && mQueue.isEmpty()) {
+                    drainRejected();
+                    return;
+                }
+                continue;
+            }
+            long waited = System.nanoTime() - entry.mEnqueueNanos;
+            mStarted.incrementAndGet();
+            mTotalWaitNanos.addAndGet(waited);
+            updateMax(mMaxWaitNanos, waited);
+            try {
+                entry.mTask.run();
+                mCompleted.incrementAndGet();
+            } catch (RuntimeException e) {
+                mFailed.incrementAndGet();
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 工作线程退出时拒绝检查空队列之后才入队的任务，不让它们留在队列里
+     */
+    private void drainRejected() {
+        Entry entry;
+        while ((entry = mQueue.poll()) != null) {
+            reject(entry.mTask);
+        }
+    }
+
+    private void reject(Task task) {
+        mRejected.incrementAndGet();
+        task.onDropped();
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * 当前排队（尚未开始执行）的任务数
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    public long getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    public long getSubmittedCount() {
+        return mSubmitted.get();
+    }
+
+    /**
+     * 已开始执行的任务数，等于成功加失败
+     */
+    public long getStartedCount() {
+        return mStarted.get();
+    }
+
+    /**
+     * 正常执行完（没有抛出异常）的任务数
+     */
+    public long getCompletedCount() {
+        return mCompleted.get();
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    public long getRejectedCount() {
+        return mRejected.get();
+    }
+
+    public long getFailedCount() {
+        return mFailed.get();
+    }
+
+    /**
+     * 已开始执行的任务在队列中的平均等待时长
+     */
+    public long getAverageWaitNanos() {
+        long started = mStarted.get();
+        return started == 0 ? 0 : mTotalWaitNanos.get() / started;
+    }
+
+    public long getMaxWaitNanos() {
+        return mMaxWaitNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureIoExecutor{policy=" + mPolicy
+                + ", depth=" + getQueueDepth()
+                + ", maxDepth=" + getMaxQueueDepth()
+                + ", submitted=" + getSubmittedCount()
+                + ", started=" + getStartedCount()
+                + ", completed=" + getCompletedCount()
+                + ", failed=" + getFailedCount()
+                + ", dropped=" + getDroppedCount()
+                + ", rejected=" + getRejectedCount()
+                + ", avgWaitUs=" + TimeUnit.NANOSECONDS.toMicros(getAverageWaitNanos())
+                + ", maxWaitUs=" + TimeUnit.NANOSECONDS.toMicros(getMaxWaitNanos())
+                + '}';
+    }
+}
@@ -0,0 +1,212 @@
+package com.shillu.camera2demo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 拍照链路的延迟打点
+ * <p>
+ * 从点下拍照按钮到照片写完，依次经过 {@link Stage} 中的各个阶段。每次拍照用 {@link #begin(long)} 拿到一个编号，
+ * 各阶段用 {@link #mark(int, Stage, long)} 打上单调时间戳（System.nanoTime()），照片写完时 {@link #finish(int, long)}：
+ * 每个阶段相对上一个已打点阶段的耗时，以及总耗时，分别计入各自的 {@link LatencyHistogram}。
+ * 没有经过的阶段（例如 AE 已收敛时跳过预拍照，或者 ZSL 直接从缓冲取帧）不计数。
+ * <p>
+ * 打点数据放在预先分配的环形槽位里，连续拍照时前一张还没写完也不会互相覆盖；整个记录过程不分配对象。
+ * {@link #dump()} 和 {@link #exportCsv(File)} 用于查看和导出，只在需要时调用。
+ */
+public final class CaptureLatencyRecorder {
+
+    public enum Stage {
+        /**
+         * takePicture() 被调用
+         */
+        TAKE_PICTURE,
+        /**
+         * 自动对焦锁定
+         */
+        AF_LOCKED,
+        /**
+         * 开始预拍照（AE precapture）
+         */
+        PRECAPTURE_START,
+        /**
+         * 预拍照结束
+         */
+        PRECAPTURE_END,
+        /**
+         * captureStillPicture() 提交拍照请求
+         */
+        CAPTURE_STILL,
+        /**
+         * onImageAvailable() 拿到图像
+         */
+        IMAGE_AVAILABLE,
+        /**
+         * ImageSaver 写完文件
+         */
+        SAVED
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    /**
+     * 同时在途的拍照数上限，超过时最老的一张的打点被覆盖
+     */
+    private static final int SLOTS = 8;
+
+    private final int[] mSlotIds = new int[SLOTS];
+    private final long[][] mMarks = new long[SLOTS][STAGES.length];
+    private int mNextId;
+
+    /**
+     * 下标 0 是总耗时，下标 i 是阶段 i 相对上一个已打点阶段的耗时（TAKE_PICTURE 位置复用为总耗时）
+     */
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGES.length];
+
+    public CaptureLatencyRecorder() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+        Arrays.fill(mSlotIds, -1);
+    }
+
+    /**
+     * 开始一次拍照
+     *
+     * @return 拍照编号，后续打点都要带上
+     */
+    public synchronized int begin(long nowNs) {
+        int id = mNextId;
+        mNextId = (mNextId + 1) & Integer.MAX_VALUE;
+        int slot = id % SLOTS;
+        mSlotIds[slot] = id;
+        long[] marks = mMarks[slot];
+        Arrays.fill(marks, 0);
+        marks[Stage.TAKE_PICTURE.ordinal()] = nowNs;
+        return id;
+    }
+
+    /**
+     * 记录某个阶段的时间，编号无效或已被覆盖时忽略；同一阶段只记第一次
+     */
+    public synchronized void mark(int id, Stage stage, long nowNs) {
+        long[] marks = marksOf(id);
+        if (null != marks && marks[stage.ordinal()] == 0) {
+            marks[stage.ordinal()] = nowNs;
+        }
+    }
+
+    /**
+     * 照片写完，结算这次拍照
+     */
+    public synchronized void finish(int id, long nowNs) {
+        long[] marks = marksOf(id);
+        if (null == marks) {
+            return;
+        }
+        marks[Stage.SAVED.ordinal()] = nowNs;
+        long previous = marks[Stage.TAKE_PICTURE.ordinal()];
+        for (int i = 1; i < marks.length; i++) {
+            if (marks[i] != 0) {
+                mHistograms[i].record(marks[i] - previous);
+                previous = marks[i];
+            }
+        }
+        mHistograms[0].record(nowNs - marks[Stage.TAKE_PICTURE.ordinal()]);
+        mSlotIds[id % SLOTS] = -1;
+    }
+
+    /**
+     * 拍照失败或照片被丢弃，丢掉这次的打点
+     */
+    public synchronized void abandon(int id) {
+        if (null != marksOf(id)) {
+            mSlotIds[id % SLOTS] = -1;
+        }
+    }
+
+    private long[] marksOf(int id) {
+        if (id < 0) {
+            return null;
+        }
+        int slot = id % SLOTS;
+        return mSlotIds[slot] == id ? mMarks[slot] : null;
+    }
+
+    /**
+     * @param stage 阶段；TAKE_PICTURE 表示从点击到写完的总耗时
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    private static String rowName(Stage stage) {
+        return stage == Stage.TAKE_PICTURE ? "TOTAL" : stage.name();
+    }
+
+    /**
+     * 各阶段的分位数（毫秒），用于在应用内显示
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "%-16s %6s %8s %8s %8s %8s%n", "stage(ms)", "n", "p50", "p90", "p99", "max"));
+        for (int i = 1; i <= STAGES.length; i++) {
+            // 总耗时放在最后一行
+            Stage stage = STAGES[i % STAGES.length];
+            LatencyHistogram histogram = mHistograms[stage.ordinal()];
+            builder.append(String.format(Locale.US, "%-16s %6d %8.1f %8.1f %8.1f %8.1f%n", rowName(stage),
+                    histogram.getCount(), millis(histogram.getPercentile(50)), millis(histogram.getPercentile(90)),
+                    millis(histogram.getPercentile(99)), millis(histogram.getMax())));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 以 CSV 写出，时间单位为微秒
+     */
+    public void writeCsv(Writer writer) throws IOException {
+        writer.write("stage,count,min_us,p50_us,p90_us,p99_us,max_us,mean_us\n");
+        for (int i = 1; i <= STAGES.length; i++) {
+            Stage stage = STAGES[i % STAGES.length];
+            LatencyHistogram histogram = mHistograms[stage.ordinal()];
+            writer.write(rowName(stage) + ',' + histogram.getCount()
+                    + ',' + micros(histogram.getMin()) + ',' + micros(histogram.getPercentile(50))
+                    + ',' + micros(histogram.getPercentile(90)) + ',' + micros(histogram.getPercentile(99))
+                    + ',' + micros(histogram.getMax()) + ',' + micros(histogram.getMean()) + '\n');
+        }
+    }
+
+    /**
+     * 导出到文件，覆盖已有内容
+     */
+    public void exportCsv(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            writeCsv(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+}
@@ -0,0 +1,53 @@
+package com.shillu.camera2demo;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 一次拍照要写进 EXIF 的拍摄参数
+ * <p>
+ * 在 onCaptureCompleted() 里从 TotalCaptureResult 取出来，只保留基本类型和字符串，不持有 CaptureResult 本身。
+ * 未知的数值用负数（或 0）表示，{@link ExifWriter} 不写对应的标签。
+ */
+public final class CaptureMetadata {
+
+    /**
+     * SENSOR_TIMESTAMP，和 Image.getTimestamp() 相同，用于把结果和图像对上
+     */
+    public final long sensorTimestampNs;
+    /**
+     * 拍摄时的墙上时间，写成 DateTimeOriginal
+     */
+    public final long captureTimeMillis;
+    public final long exposureTimeNs;
+    public final int iso;
+    public final float focalLengthMm;
+    public final float aperture;
+    public final boolean flashFired;
+    /**
+     * 像素还需要顺时针旋转多少度才能正常显示；HAL 按 JPEG_ORIENTATION 处理过的照片为 0，-1 表示未知
+     */
+    public final int rotationDegrees;
+    public final String make;
+    public final String model;
+
+    public CaptureMetadata(long sensorTimestampNs, long captureTimeMillis, long exposureTimeNs, int iso,
+                           float focalLengthMm, float aperture, boolean flashFired, int rotationDegrees,
+                           String make, String model) {
+        this.sensorTimestampNs = sensorTimestampNs;
+        this.captureTimeMillis = captureTimeMillis;
+        this.exposureTimeNs = exposureTimeNs;
+        this.iso = iso;
+        this.focalLengthMm = focalLengthMm;
+        this.aperture = aperture;
+        this.flashFired = flashFired;
+        this.rotationDegrees = rotationDegrees;
+        this.make = make;
+        this.model = model;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureMetadata{ts=" + sensorTimestampNs + ", exposureNs=" + exposureTimeNs + ", iso=" + iso
+                + ", focal=" + focalLengthMm + ", f/" + aperture + ", rotation=" + rotationDegrees + '}';
+    }
+}
@@ -0,0 +1,208 @@
+package com.shillu.camera2demo;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 预编译的拍照请求模板
+ * <p>
+ * 原来 lockFocus / runPrecaptureSequence / unlockFocus 都在共享的 mPreviewRequestBuilder 上改触发器再 build()，
+ * UI 线程和回调线程同时改同一个 Builder，而且上一次设置的触发器会残留到下一次请求里；
+ * captureStillPicture 每拍一张都要 createCaptureRequest 并重新设置闪光灯和方向。
+ * <p>
+ * 这里每个会话配置好后由 {@link #prepare(Factory, int)} 一次性构建预览、对焦触发、取消对焦、预拍照请求，
+ * 静态拍照和连拍请求按 JPEG 方向缓存（四个方向各一份，首次用到时构建）。请求本身不可变（CaptureRequest），
+ * 之后各个线程只读取，不再共享可变的 Builder。会话关闭时 {@link #clear()}。
+ * 预览参数（缩放、曝光补偿、区域）变化时 {@link #invalidate(int)} 只把受影响的那类请求标记为过期，
+ * 过期的请求在下次用到时按新参数重建。
+ * <p>
+ * 构建（createCaptureRequest 是跨进程调用）不持有本类的锁：锁里只取工厂和版本号，构建完再回到锁里登记；
+ * 构建期间又失效了或者换了会话，构建结果只给这一次调用用，不进缓存。
+ * <p>
+ * 具体请求由 {@link Factory} 构建，本类不依赖相机 API，便于测试。
+ *
+ * @param <R> 请求类型，运行时为 CaptureRequest
+ */
+public final class CaptureRequestTemplates<R> {
+
+    /**
+     * 重复预览请求：连续对焦 + 自动闪光
+     */
+    public static final int KIND_PREVIEW = 0;
+    /**
+     * 预览请求 + AF_TRIGGER_START
+     */
+    public static final int KIND_AF_TRIGGER = 1;
+    /**
+     * 预览请求 + AF_TRIGGER_CANCEL
+     */
+    public static final int KIND_AF_CANCEL = 2;
+    /**
+     * 预览请求 + AE_PRECAPTURE_TRIGGER_START
+     */
+    public static final int KIND_PRECAPTURE = 3;
+    /**
+     * 静态拍照请求，只输出到 JPEG
+     */
+    public static final int KIND_STILL = 4;
+    /**
+     * 连拍请求，同时输出到预览和 JPEG
+     */
+    public static final int KIND_BURST = 5;
+
+    private static final int SESSION_KINDS = 4;
+    private static final int KINDS = 6;
+    private static final int ORIENTATIONS = 4;
+
+    /**
+     * 构建某一类请求
+     */
+    public interface Factory<R> {
+        /**
+         * @param kind            KIND_*
+         * @param jpegOrientation JPEG_ORIENTATION，只对 KIND_STILL / KIND_BURST 有意义
+         */
+        R create(int kind, int jpegOrientation) throws Exception;
+    }
+
+    private Factory<R> mFactory;
+    /**
+     * 按 [kind][方向] 缓存，会话级请求只用方向 0
+     */
+    private final Object[][] mCache = new Object[KINDS][ORIENTATIONS];
+    /**
+     * 缓存项构建时的版本，和 mVersion[kind] 不同就是过期了
+     */
+    private final long[][] mBuiltVersion = new long[KINDS][ORIENTATIONS];
+    private final long[] mVersion = new long[KINDS];
+    /**
+     * 每次 clear() 加一，工厂对象在各个会话之间是同一个，靠它判断构建期间换没换会话
+     */
+    private long mSession;
+    private int mBuilds;
+
+    /**
+     * 新会话配置完成：构建会话级请求，以及当前方向的静态拍照请求
+     *
+     * @param jpegOrientation 小于 0 表示会话没有 JPEG 输出，不预先构建静态拍照请求
+     */
+    public void prepare(Factory<R> factory, int jpegOrientation) throws Exception {
+        synchronized (this) {
+            clear();
+            mFactory = factory;
+        }
+        for (int kind = 0; kind < SESSION_KINDS; kind++) {
+            get(kind);
+        }
+        if (jpegOrientation >= 0) {
+            getStill(jpegOrientation);
+        }
+    }
+
+    /**
+     * 会话关闭，丢掉所有模板
+     */
+    public synchronized void clear() {
+        mFactory = null;
+        mSession++;
+        for (int kind = 0; kind < KINDS; kind++) {
+            for (int i = 0; i < ORIENTATIONS; i++) {
+                mCache[kind][i] = null;
+            }
+        }
+    }
+
+    /**
+     * 所有请求都标记为过期，下次用到时重建
+     */
+    public synchronized void invalidate() {
+        for (int kind = 0; kind < KINDS; kind++) {
+            mVersion[kind]++;
+        }
+    }
+
+    /**
+     * 一类请求标记为过期，下次用到时重建；KIND_STILL / KIND_BURST 包括所有方向
+     */
+    public synchronized void invalidate(int kind) {
+        if (kind < 0 || kind >= KINDS) {
+            throw new IllegalArgumentException("Bad kind: " + kind);
+        }
+        mVersion[kind]++;
+    }
+
+    public synchronized boolean isPrepared() {
+        return null != mFactory;
+    }
+
+    /**
+     * @param kind KIND_PREVIEW / KIND_AF_TRIGGER / KIND_AF_CANCEL / KIND_PRECAPTURE
+     * @return 请求，没有会话时为 null
+     */
+    public R get(int kind) throws Exception {
+        if (kind < 0 || kind >= SESSION_KINDS) {
+            throw new IllegalArgumentException("Not a session kind: " + kind);
+        }
+        return obtain(kind, 0);
+    }
+
+    /**
+     * @param jpegOrientation 0 / 90 / 180 / 270
+     * @return 静态拍照请求，没有会话时为 null
+     */
+    public R getStill(int jpegOrientation) throws Exception {
+        return obtain(KIND_STILL, indexOf(jpegOrientation));
+    }
+
+    /**
+     * @param jpegOrientation 0 / 90 / 180 / 270
+     * @return 连拍请求，没有会话时为 null
+     */
+    public R getBurst(int jpegOrientation) throws Exception {
+        return obtain(KIND_BURST, indexOf(jpegOrientation));
+    }
+
+    @SuppressWarnings("unchecked")
+    private R obtain(int kind, int index) throws Exception {
+        Factory<R> factory;
+        long session;
+        long version;
+        synchronized (this) {
+            factory = mFactory;
+            if (null == factory) {
+                return null;
+            }
+            session = mSession;
+            version = mVersion[kind];
+            if (null != mCache[kind][index] && mBuiltVersion[kind][index] == version) {
+                return (R) mCache[kind][index];
+            }
+            mBuilds++;
+        }
+        R request = factory.create(kind, index * 90);
+        synchronized (this) {
+            if (session != mSession) {
+                // 构建期间会话关闭了
+                return null;
+            }
+            if (version == mVersion[kind]) {
+                mCache[kind][index] = request;
+                mBuiltVersion[kind][index] = version;
+            }
+        }
+        return request;
+    }
+
+    private static int indexOf(int jpegOrientation) {
+        if (jpegOrientation < 0 || jpegOrientation % 90 != 0) {
+            throw new IllegalArgumentException("Bad JPEG orientation: " + jpegOrientation);
+        }
+        return (jpegOrientation / 90) % ORIENTATIONS;
+    }
+
+    /**
+     * 累计构建的请求数
+     */
+    public synchronized int getBuildCount() {
+        return mBuilds;
+    }
+}
@@ -0,0 +1,240 @@
+package com.shillu.camera2demo;
+
+import android.hardware.camera2.CaptureResult;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 拍照状态机：锁定对焦 -> （可选）预拍照 -> 拍照
+ * <p>
+ * 从 mCaptureCallback.process() 中抽出来，输入是基本类型的 AF / AE 状态（不可用时传 {@link #UNKNOWN}）和单调时间，
+ * 输出是调用方需要执行的动作（{@link #ACTION_RUN_PRECAPTURE}、{@link #ACTION_CAPTURE_STILL}），本身不接触任何相机 API，
+ * 可以在本地单元测试里用录下来的 AF / AE 序列回放。
+ * <p>
+ * 原来的状态机没有超时，AF 一直不到 FOCUSED_LOCKED / NOT_FOCUSED_LOCKED 时会永远停在等待锁定。
+ * 这里每个等待状态都有超时（{@link #setTimeout(int, long, int)}），超时后按该状态的兜底策略继续：
+ * {@link #FALLBACK_NEXT} 当作等待的条件已经满足，{@link #FALLBACK_CAPTURE} 直接拍照。
+ * 超时在每次收到结果时检查；结果不再到来时，调用方按 {@link #getDeadlineNs()} 定时调用 {@link #onTimeoutCheck(long)}。
+ * <p>
+ * 状态都是基本类型字段，运行时不分配对象。方法是同步的：快门在 UI 线程触发，结果在相机线程到达。
+ */
+public final class CaptureStateMachine {
+
+    /**
+     * 相机状态：显示相机预览
+     */
+    public static final int STATE_PREVIEW = 0;
+
+    /**
+     * 相机状态：等待焦点被锁定
+     */
+    public static final int STATE_WAITING_LOCK = 1;
+
+    /**
+     * 等待曝光被Precapture
+     */
+    public static final int STATE_WAITING_PRECAPTURE = 2;
+
+    /**
+     * 等待曝光的状态不是Precapture
+     */
+    public static final int STATE_WAITING_NON_PRECAPTURE = 3;
+
+    /**
+     * 相机状态：拍照
+     */
+    public static final int STATE_PICTURE_TAKEN = 4;
+
+    private static final int STATE_COUNT = 5;
+
+    /**
+     * AF / AE 状态不可用（CaptureResult 中为 null）
+     */
+    public static final int UNKNOWN = -1;
+
+    public static final int ACTION_NONE = 0;
+    public static final int ACTION_RUN_PRECAPTURE = 1;
+    public static final int ACTION_CAPTURE_STILL = 2;
+
+    /**
+     * 超时后当作等待的条件已经满足，按正常流程进入下一步
+     */
+    public static final int FALLBACK_NEXT = 0;
+    /**
+     * 超时后直接拍照
+     */
+    public static final int FALLBACK_CAPTURE = 1;
+
+    private static final long NO_TIMEOUT = -1;
+
+    private final long[] mTimeoutNs = new long[STATE_COUNT];
+    private final int[] mFallback = new int[STATE_COUNT];
+    private final int[] mTimeouts = new int[STATE_COUNT];
+
+    private int mState = STATE_PREVIEW;
+    private long mDeadlineNs = NO_TIMEOUT;
+
+    /**
+     * 最近一次结果里的 AE 状态，超时兜底时用来判断是否还需要预拍照
+     */
+    private int mLastAeState = UNKNOWN;
+
+    public CaptureStateMachine() {
+        for (int i = 0; i < STATE_COUNT; i++) {
+            mTimeoutNs[i] = NO_TIMEOUT;
+        }
+    }
+
+    /**
+     * 设置等待状态的超时
+     *
+     * @param state     STATE_WAITING_LOCK / STATE_WAITING_PRECAPTURE / STATE_WAITING_NON_PRECAPTURE
+     * @param timeoutNs 超时时间，小于 0 表示不超时
+     * @param fallback  {@link #FALLBACK_NEXT} 或 {@link #FALLBACK_CAPTURE}
+     */
+    public synchronized void setTimeout(int state, long timeoutNs, int fallback) {
+        if (state != STATE_WAITING_LOCK && state != STATE_WAITING_PRECAPTURE && state != STATE_WAITING_NON_PRECAPTURE) {
+            throw new IllegalArgumentException("Not a waiting state: " + state);
+        }
+        mTimeoutNs[state] = timeoutNs < 0 ? NO_TIMEOUT : timeoutNs;
+        mFallback[state] = fallback;
+    }
+
+    /**
+     * 快门按下，已经发出 AF_TRIGGER_START，开始等待对焦锁定
+     */
+    public synchronized void startLock(long nowNs) {
+        mLastAeState = UNKNOWN;
+        enter(STATE_WAITING_LOCK, nowNs);
+    }
+
+    /**
+     * 快速快门：场景已经收敛，不等待对焦和预拍照直接拍照
+     *
+     * @return false 表示当前不在预览状态（上一张还没拍完），不能拍照
+     */
+    public synchronized boolean startFastCapture() {
+        if (mState != STATE_PREVIEW) {
+            return false;
+        }
+        capture();
+        return true;
+    }
+
+    /**
+     * 拍照完成，回到预览
+     */
+    public synchronized void reset() {
+        mState = STATE_PREVIEW;
+        mDeadlineNs = NO_TIMEOUT;
+    }
+
+    /**
+     * 是否在等待 AF / AE，预览状态下调用方可以完全跳过读取 CaptureResult
+     */
+    public synchronized boolean isWaiting() {
+        return mState == STATE_WAITING_LOCK || mState == STATE_WAITING_PRECAPTURE || mState == STATE_WAITING_NON_PRECAPTURE;
+    }
+
+    /**
+     * 处理一帧结果
+     *
+     * @param afState CONTROL_AF_STATE，不可用时传 {@link #UNKNOWN}
+     * @param aeState CONTROL_AE_STATE，不可用时传 {@link #UNKNOWN}
+     * @return 调用方需要执行的动作
+     */
+    public synchronized int onResult(int afState, int aeState, long nowNs) {
+        mLastAeState = aeState;
+        switch (mState) {
+            case STATE_WAITING_LOCK:
+                if (afState == UNKNOWN) {
+                    // 定焦镜头没有 AF 状态
+                    return capture();
+                }
+                if (afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED
+                        || afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
+                    return afterLock(aeState, nowNs);
+                }
+                break;
+            case STATE_WAITING_PRECAPTURE:
+                if (aeState == UNKNOWN
+                        || aeState == CaptureResult.CONTROL_AE_STATE_PRECAPTURE
+                        || aeState == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED) {
+                    enter(STATE_WAITING_NON_PRECAPTURE, nowNs);
+                }
+                break;
+            case STATE_WAITING_NON_PRECAPTURE:
+                if (aeState != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
+                    return capture();
+                }
+                break;
+            default:
+                return ACTION_NONE;
+        }
+        return onTimeoutCheck(nowNs);
+    }
+
+    /**
+     * 检查当前等待状态是否超时
+     *
+     * @return 超时后需要执行的动作
+     */
+    public synchronized int onTimeoutCheck(long nowNs) {
+        if (mDeadlineNs == NO_TIMEOUT || nowNs < mDeadlineNs || !isWaiting()) {
+            return ACTION_NONE;
+        }
+        int state = mState;
+        mTimeouts[state]++;
+        if (mFallback[state] == FALLBACK_CAPTURE) {
+            return capture();
+        }
+        switch (state) {
+            case STATE_WAITING_LOCK:
+                return afterLock(mLastAeState, nowNs);
+            case STATE_WAITING_PRECAPTURE:
+                enter(STATE_WAITING_NON_PRECAPTURE, nowNs);
+                return ACTION_NONE;
+            default:
+                return capture();
+        }
+    }
+
+    private int afterLock(int aeState, long nowNs) {
+        // CONTROL_AE_STATE 在某些设备中可能为空
+        if (aeState == UNKNOWN || aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
+            return capture();
+        }
+        enter(STATE_WAITING_PRECAPTURE, nowNs);
+        return ACTION_RUN_PRECAPTURE;
+    }
+
+    private int capture() {
+        mState = STATE_PICTURE_TAKEN;
+        mDeadlineNs = NO_TIMEOUT;
+        return ACTION_CAPTURE_STILL;
+    }
+
+    private void enter(int state, long nowNs) {
+        mState = state;
+        long timeout = mTimeoutNs[state];
+        mDeadlineNs = timeout == NO_TIMEOUT ? NO_TIMEOUT : nowNs + timeout;
+    }
+
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * 当前等待状态的截止时间，没有超时时返回 -1
+     */
+    public synchronized long getDeadlineNs() {
+        return mDeadlineNs;
+    }
+
+    /**
+     * 某个等待状态累计超时的次数
+     */
+    public synchronized int getTimeoutCount(int state) {
+        return mTimeouts[state];
+    }
+}
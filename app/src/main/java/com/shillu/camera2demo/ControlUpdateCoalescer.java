@@ -0,0 +1,289 @@
+package com.shillu.camera2demo;
+
+import android.hardware.camera2.CaptureRequest;
+
+import java.util.Locale;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 合并预览参数更新：缩放、曝光补偿、对焦模式、对焦 / 测光区域
+ * <p>
+ * 手势过程中每个 UI 事件都调用一次 setRepeatingRequest 会把请求灌满 HAL。这里 UI 线程只改待提交的值（set*），
+ * 相机线程每帧结果到达时调用一次 {@link #commit(long)}：有改动就把待提交的值整体变为生效值，返回新的序号，
+ * 调用方据此重建预览请求并 setRepeatingRequest。这样每帧最多一次更新，两帧之间的多次改动合并为一次。
+ * <p>
+ * 生效值带一个递增的序号，调用方把它作为请求的 tag。结果里看到序号不小于某次提交的请求时，
+ * 记录从最早一次未生效的改动到此的耗时，即改动到生效的延迟。
+ * <p>
+ * 区域用 {left, top, right, bottom, weight} 表示，坐标是传感器有效像素阵列坐标，weight 为 0 表示不设置。
+ * 所有方法都是同步的：set* 在 UI 线程，commit / onResult 在相机线程，构建请求时读取生效值。
+ */
+public final class ControlUpdateCoalescer {
+
+    /**
+     * 区域数组长度：left, top, right, bottom, weight
+     */
+    public static final int REGION_LENGTH = 5;
+
+    private static final int DIRTY_ZOOM = 1;
+    private static final int DIRTY_EXPOSURE = 1 << 1;
+    private static final int DIRTY_AF_REGION = 1 << 2;
+    private static final int DIRTY_AE_REGION = 1 << 3;
+    private static final int DIRTY_AF_MODE = 1 << 4;
+
+    private static final int DEFAULT_AF_MODE = CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE;
+
+    private float mMaxZoom = 1f;
+    private int mMinExposure;
+    private int mMaxExposure;
+
+    private float mZoom = 1f;
+    private int mExposure;
+    private int mAfMode = DEFAULT_AF_MODE;
+    private final int[] mAfRegion = new int[REGION_LENGTH];
+    private final int[] mAeRegion = new int[REGION_LENGTH];
+
+    private float mPendingZoom = 1f;
+    private int mPendingExposure;
+    private int mPendingAfMode = DEFAULT_AF_MODE;
+    private final int[] mPendingAfRegion = new int[REGION_LENGTH];
+    private final int[] mPendingAeRegion = new int[REGION_LENGTH];
+    private int mDirty;
+    private long mPendingSinceNs;
+
+    private long mSequence;
+    private long mAwaitSequence;
+    private long mAwaitSinceNs;
+
+    private long mChanges;
+    private long mUpdates;
+    private final LatencyHistogram mEffectLatency = new LatencyHistogram();
+
+    /**
+     * 换了相机：设置取值范围并恢复默认值，之前的改动和区域都作废
+     *
+     * @param maxZoom     SCALER_AVAILABLE_MAX_DIGITAL_ZOOM
+     * @param minExposure CONTROL_AE_COMPENSATION_RANGE 下限
+     * @param maxExposure CONTROL_AE_COMPENSATION_RANGE 上限
+     */
+    public synchronized void reset(float maxZoom, int minExposure, int maxExposure) {
+        mMaxZoom = Math.max(1f, maxZoom);
+        mMinExposure = Math.min(0, minExposure);
+        mMaxExposure = Math.max(0, maxExposure);
+        mZoom = mPendingZoom = 1f;
+        mExposure = mPendingExposure = 0;
+        mAfMode = mPendingAfMode = DEFAULT_AF_MODE;
+        clear(mAfRegion);
+        clear(mAeRegion);
+        clear(mPendingAfRegion);
+        clear(mPendingAeRegion);
+        mDirty = 0;
+        mAwaitSequence = 0;
+    }
+
+    public synchronized void setZoom(float zoom, long nowNs) {
+        float clamped = Math.max(1f, Math.min(mMaxZoom, zoom));
+        if (clamped != mPendingZoom) {
+            mPendingZoom = clamped;
+            markDirty(DIRTY_ZOOM, nowNs);
+        }
+    }
+
+    public synchronized void setExposureCompensation(int exposure, long nowNs) {
+        int clamped = Math.max(mMinExposure, Math.min(mMaxExposure, exposure));
+        if (clamped != mPendingExposure) {
+            mPendingExposure = clamped;
+            markDirty(DIRTY_EXPOSURE, nowNs);
+        }
+    }
+
+    /**
+     * @param afMode CONTROL_AF_MODE_*，默认 CONTINUOUS_PICTURE
+     */
+    public synchronized void setAfMode(int afMode, long nowNs) {
+        if (afMode != mPendingAfMode) {
+            mPendingAfMode = afMode;
+            markDirty(DIRTY_AF_MODE, nowNs);
+        }
+    }
+
+    /**
+     * @param weight 0 表示清除区域
+     */
+    public synchronized void setAfRegion(int left, int top, int right, int bottom, int weight, long nowNs) {
+        if (setRegion(mPendingAfRegion, left, top, right, bottom, weight)) {
+            markDirty(DIRTY_AF_REGION, nowNs);
+        }
+    }
+
+    /**
+     * @param weight 0 表示清除区域
+     */
+    public synchronized void setAeRegion(int left, int top, int right, int bottom, int weight, long nowNs) {
+        if (setRegion(mPendingAeRegion, left, top, right, bottom, weight)) {
+            markDirty(DIRTY_AE_REGION, nowNs);
+        }
+    }
+
+    private void markDirty(int flag, long nowNs) {
+        if (mDirty == 0) {
+            mPendingSinceNs = nowNs;
+        }
+        mDirty |= flag;
+        mChanges++;
+    }
+
+    public synchronized boolean hasPending() {
+        return mDirty != 0;
+    }
+
+    /**
+     * 每帧调用一次：有待提交的改动时整体生效
+     *
+     * @return 新的序号，没有改动时返回 -1
+     */
+    public synchronized long commit(long nowNs) {
+        if (mDirty == 0) {
+            return -1;
+        }
+        mZoom = mPendingZoom;
+        mExposure = mPendingExposure;
+        mAfMode = mPendingAfMode;
+        System.arraycopy(mPendingAfRegion, 0, mAfRegion, 0, REGION_LENGTH);
+        System.arraycopy(mPendingAeRegion, 0, mAeRegion, 0, REGION_LENGTH);
+        mDirty = 0;
+        mSequence++;
+        mUpdates++;
+        if (mAwaitSequence == 0) {
+            // 上一次提交还没生效时保留更早的起点
+            mAwaitSinceNs = mPendingSinceNs;
+        }
+        mAwaitSequence = mSequence;
+        return mSequence;
+    }
+
+    /**
+     * 一帧结果到达
+     *
+     * @param requestSequence 结果对应请求的 tag（生成请求时的 {@link #getSequence()}）
+     */
+    public synchronized void onResult(long requestSequence, long nowNs) {
+        if (mAwaitSequence != 0 && requestSequence >= mAwaitSequence) {
+            mEffectLatency.record(Math.max(0, nowNs - mAwaitSinceNs));
+            mAwaitSequence = 0;
+        }
+    }
+
+    /**
+     * 当前生效值的序号，构建请求时作为 tag
+     */
+    public synchronized long getSequence() {
+        return mSequence;
+    }
+
+    public synchronized float getZoom() {
+        return mZoom;
+    }
+
+    public synchronized int getExposureCompensation() {
+        return mExposure;
+    }
+
+    public synchronized int getAfMode() {
+        return mAfMode;
+    }
+
+    /**
+     * @param out 长度至少为 {@link #REGION_LENGTH}
+     * @return false 表示没有设置对焦区域
+     */
+    public synchronized boolean getAfRegion(int[] out) {
+        System.arraycopy(mAfRegion, 0, out, 0, REGION_LENGTH);
+        return mAfRegion[4] > 0;
+    }
+
+    /**
+     * @param out 长度至少为 {@link #REGION_LENGTH}
+     * @return false 表示没有设置测光区域
+     */
+    public synchronized boolean getAeRegion(int[] out) {
+        System.arraycopy(mAeRegion, 0, out, 0, REGION_LENGTH);
+        return mAeRegion[4] > 0;
+    }
+
+    /**
+     * 累计的参数改动次数
+     */
+    public synchronized long getChanges() {
+        return mChanges;
+    }
+
+    /**
+     * 实际提交的更新次数
+     */
+    public synchronized long getUpdates() {
+        return mUpdates;
+    }
+
+    /**
+     * 被合并掉的改动次数
+     */
+    public synchronized long getCollapsed() {
+        return mChanges - mUpdates - (mDirty != 0 ? 1 : 0);
+    }
+
+    /**
+     * 改动到在结果中生效的延迟
+     */
+    public LatencyHistogram getEffectLatency() {
+        return mEffectLatency;
+    }
+
+    /**
+     * 按缩放倍数计算居中的 SCALER_CROP_REGION
+     *
+     * @param activeArray SENSOR_INFO_ACTIVE_ARRAY_SIZE：left, top, right, bottom
+     * @param out         left, top, right, bottom
+     */
+    public static void cropRegion(int[] activeArray, float zoom, int[] out) {
+        int width = activeArray[2] - activeArray[0];
+        int height = activeArray[3] - activeArray[1];
+        int cropWidth = Math.round(width / Math.max(1f, zoom));
+        int cropHeight = Math.round(height / Math.max(1f, zoom));
+        int left = activeArray[0] + (width - cropWidth) / 2;
+        int top = activeArray[1] + (height - cropHeight) / 2;
+        out[0] = left;
+        out[1] = top;
+        out[2] = left + cropWidth;
+        out[3] = top + cropHeight;
+    }
+
+    private static boolean setRegion(int[] region, int left, int top, int right, int bottom, int weight) {
+        if (weight <= 0) {
+            left = top = right = bottom = weight = 0;
+        }
+        if (region[0] == left && region[1] == top && region[2] == right && region[3] == bottom && region[4] == weight) {
+            return false;
+        }
+        region[0] = left;
+        region[1] = top;
+        region[2] = right;
+        region[3] = bottom;
+        region[4] = weight;
+        return true;
+    }
+
+    private static void clear(int[] region) {
+        for (int i = 0; i < REGION_LENGTH; i++) {
+            region[i] = 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "ControlUpdates{changes=%d, updates=%d, collapsed=%d, effectP50Ms=%.1f, effectP90Ms=%.1f}",
+                mChanges, mUpdates, getCollapsed(), mEffectLatency.getPercentile(50) / 1e6,
+                mEffectLatency.getPercentile(90) / 1e6);
+    }
+}
@@ -0,0 +1,83 @@
+package com.shillu.camera2demo;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 还有借出的对象时推迟关闭，用于 ImageReader
+ * <p>
+ * ImageReader.close() 会让从它取出的 Image 一起失效，已经交给 I/O 线程、还没写完的照片就丢了（或者抛 IllegalStateException）。
+ * 每个要交给其他线程的 Image 取出后调一次 {@link #acquire()}，Image 关闭后调一次 {@link #release()}；
+ * {@link #close()} 时还有借出就只做标记，最后一个 release() 时在那个线程上真正关闭。
+ */
+public final class DeferredCloser {
+
+    private final AutoCloseable mResource;
+    private int mOutstanding;
+    private boolean mClosing;
+    private boolean mClosed;
+
+    public DeferredCloser(AutoCloseable resource) {
+        mResource = resource;
+    }
+
+    /**
+     * 已经关闭时返回 false，这时取出的对象已经无效；close() 之后、真正关闭之前仍然可以借出，
+     * 会话重新配置时旧 ImageReader 上迟到的照片还要保存
+     */
+    public synchronized boolean acquire() {
+        if (mClosed) {
+            return false;
+        }
+        mOutstanding++;
+        return true;
+    }
+
+    public void release() {
+        synchronized (this) {
+            if (mOutstanding == 0) {
+                throw new IllegalStateException("release() without acquire()");
+            }
+            mOutstanding--;
+            if (!mClosing || mOutstanding > 0 || mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        closeResource();
+    }
+
+    /**
+     * 请求关闭，可以重复调用
+     */
+    public void close() {
+        synchronized (this) {
+            mClosing = true;
+            if (mOutstanding > 0 || mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        closeResource();
+    }
+
+    private void closeResource() {
+        try {
+            mResource.close();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized int getOutstanding() {
+        return mOutstanding;
+    }
+
+    public synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DeferredCloser{outstanding=" + mOutstanding + ", closing=" + mClosing + ", closed=" + mClosed + '}';
+    }
+}
@@ -0,0 +1,142 @@
+package com.shillu.camera2demo;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 提前打开的相机设备交给后来的使用者
+ * <p>
+ * 冷启动时 {@link CameraStartup} 在 Fragment 还没创建时就开始打开相机，这时还不知道谁来接收 onOpened()。
+ * 打开回调先记在这里；Fragment 的生命周期控制器要打开同一个相机时 {@link #adopt(String, Callback)}：
+ * 已经打开的立即回放 onOpened()，还在打开的等打开后转发，之后的断开、错误也一并转发，和自己调用 openCamera 没有区别。
+ * <p>
+ * 相机 id 不一致、打开失败、已经被接收过，adopt 返回 false，调用方按原来的方式打开。
+ * 没有人接收时 {@link #abandon()}：已经打开的设备立即关闭，还在打开的等打开后关闭，避免设备泄漏。
+ * 设备类型是泛型参数，方便在本地单元测试中验证。
+ */
+public final class DeviceHandoff<D> {
+
+    public interface Callback<D> {
+        void onOpened(D device);
+
+        void onDisconnected(D device);
+
+        void onError(D device, int error);
+    }
+
+    public interface Closer<D> {
+        void close(D device);
+    }
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_OPENED = 1;
+    private static final int STATE_ADOPTED = 2;
+    private static final int STATE_FAILED = 3;
+    private static final int STATE_ABANDONED = 4;
+
+    private final String mCameraId;
+    private final Closer<D> mCloser;
+
+    private int mState = STATE_PENDING;
+    private D mDevice;
+    private Callback<D> mCallback;
+
+    public DeviceHandoff(String cameraId, Closer<D> closer) {
+        mCameraId = cameraId;
+        mCloser = closer;
+    }
+
+    public String getCameraId() {
+        return mCameraId;
+    }
+
+    /**
+     * 接收提前打开的设备
+     *
+     * @return false 表示不能接收，调用方需要自己打开
+     */
+    public synchronized boolean adopt(String cameraId, Callback<D> callback) {
+        if (!mCameraId.equals(cameraId) || (mState != STATE_PENDING && mState != STATE_OPENED)) {
+            abandonLocked();
+            return false;
+        }
+        mCallback = callback;
+        boolean opened = mState == STATE_OPENED;
+        mState = STATE_ADOPTED;
+        if (opened) {
+            D device = mDevice;
+            mDevice = null;
+            callback.onOpened(device);
+        }
+        return true;
+    }
+
+    /**
+     * 没有人接收，释放设备
+     */
+    public synchronized void abandon() {
+        abandonLocked();
+    }
+
+    private void abandonLocked() {
+        if (mState == STATE_OPENED) {
+            D device = mDevice;
+            mDevice = null;
+            mCloser.close(device);
+        }
+        if (mState != STATE_ADOPTED) {
+            mState = STATE_ABANDONED;
+        }
+    }
+
+    public synchronized void onOpened(D device) {
+        switch (mState) {
+            case STATE_PENDING:
+                mDevice = device;
+                mState = STATE_OPENED;
+                break;
+            case STATE_ADOPTED:
+                mCallback.onOpened(device);
+                break;
+            default:
+                mCloser.close(device);
+                break;
+        }
+    }
+
+    public synchronized void onDisconnected(D device) {
+        if (mState == STATE_ADOPTED) {
+            mCallback.onDisconnected(device);
+        } else {
+            fail(device);
+        }
+    }
+
+    public synchronized void onError(D device, int error) {
+        if (mState == STATE_ADOPTED) {
+            mCallback.onError(device, error);
+        } else {
+            fail(device);
+        }
+    }
+
+    /**
+     * 还没有人接收时打开失败：关闭设备，之后的 adopt 返回 false
+     */
+    private void fail(D device) {
+        mDevice = null;
+        if (null != device) {
+            mCloser.close(device);
+        }
+        mState = STATE_FAILED;
+    }
+
+    /**
+     * 打开请求本身失败（例如 openCamera 抛出异常），没有设备可关闭。
+     * 打开和接收在同一个线程上，这时还不会有人接收。
+     */
+    public synchronized void onOpenFailed() {
+        if (mState != STATE_ADOPTED) {
+            mState = STATE_FAILED;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.shillu.camera2demo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 有上限的直接内存 ByteBuffer 池
+ * <p>
+ * 池里的每块缓冲区大小固定（chunkSize），最多同时存在 maxBuffers 块。
+ * acquire() 优先复用空闲缓冲区，不够时在上限内新分配，达到上限后阻塞等待其他线程 release()。
+ * 直接内存缓冲区写入 FileChannel 时不需要再经过 JVM 内部的临时拷贝，
+ * 所以当数据源本身是堆内存（或需要拼接多段数据）时，用这里的缓冲区做中转，可以避免每张照片都分配一次大数组。
+ */
+public final class DirectBufferPool {
+
+    /**
+     * 每块缓冲区的容量
+     */
+    private final int mChunkSize;
+
+    /**
+     * 最多同时分配的缓冲区数量
+     */
+    private final int mMaxBuffers;
+
+    /**
+     * 空闲缓冲区
+     */
+    private final ArrayDeque<ByteBuffer> mFree;
+
+    /**
+     * 借出中的缓冲区，按对象身份比较（ByteBuffer 的 equals 比较的是内容），用来拒绝重复归还
+     */
+    private final IdentityHashMap<ByteBuffer, Boolean> mLoaned;
+
+    /**
+     * 已分配（包括空闲和借出）的缓冲区数量
+     */
+    private int mAllocated;
+
+    /**
+     * 复用次数，用于统计池的命中情况
+     */
+    private long mReuseCount;
+
+    public DirectBufferPool(int chunkSize, int maxBuffers) {
+        if (chunkSize <= 0 || maxBuffers <= 0) {
+            throw new IllegalArgumentException("chunkSize and maxBuffers must be positive");
+        }
+        mChunkSize = chunkSize;
+        mMaxBuffers = maxBuffers;
+        mFree = new ArrayDeque<>(maxBuffers);
+        mLoaned = new IdentityHashMap<>(maxBuffers);
+    }
+
+    /**
+     * 借出一块已清空（position = 0, limit = capacity）的缓冲区，池满时阻塞等待。
+     *
+     * @return 直接内存缓冲区，用完后必须调用 {@link #release(ByteBuffer)} 归还
+     * @throws InterruptedException 等待期间线程被中断
+     */
+    public synchronized ByteBuffer acquire() throws InterruptedException {
+        while (mFree.isEmpty() && mAllocated >= mMaxBuffers) {
+            wait();
+        }
+        ByteBuffer buffer = mFree.pollFirst();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(mChunkSize);
+            mAllocated++;
+        } else {
+            mReuseCount++;
+        }
+        buffer.clear();
+        mLoaned.put(buffer, Boolean.TRUE);
+        return buffer;
+    }
+
+    /**
+     * 归还 {@link #acquire()} 借出的缓冲区。
+     * 同一块缓冲区归还两次会让它在空闲队列里出现两次、被两个写入方同时借走，所以直接抛异常
+     *
+     * @throws IllegalStateException 缓冲区不在借出状态（重复归还，或不是从本池借出的同规格缓冲区）
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != mChunkSize || !buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer does not belong to this pool");
+        }
+        if (null == mLoaned.remove(buffer)) {
+            throw new IllegalStateException("Buffer is not on loan from this pool");
+        }
+        mFree.addFirst(buffer);
+        notifyAll();
+    }
+
+    /**
+     * 丢弃所有空闲缓冲区，借出的缓冲区归还后仍会回到池中
+     */
+    public synchronized void trim() {
+        mAllocated -= mFree.size();
+        mFree.clear();
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public int getMaxBuffers() {
+        return mMaxBuffers;
+    }
+
+    public synchronized int getAllocatedCount() {
+        return mAllocated;
+    }
+
+    public synchronized int getFreeCount() {
+        return mFree.size();
+    }
+
+    public synchronized long getReuseCount() {
+        return mReuseCount;
+    }
+}
@@ -0,0 +1,601 @@
+package com.shillu.camera2demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 生成或合并 EXIF APP1 段，并找到它在 JPEG 字节流中的位置
+ * <p>
+ * 保存时不解码、不重新编码，也不把整个文件拷一遍：{@link #locate(ByteBuffer)} 只扫描 SOI 之后的 APPn 段头，
+ * 得到 [0, insertAt) 和 [resumeAt, limit) 两段原始数据，调用方用一次聚集写入（文件头片段、新的 APP1、剩余数据）
+ * 直接写进 FileChannel（见 {@link PooledJpegWriter#write(ByteBuffer, CaptureMetadata, java.nio.channels.GatheringByteChannel)}）。
+ * <p>
+ * 已经有 Exif APP1（多数 HAL 会写）时由 {@link #merge(ByteBuffer, Splice, CaptureMetadata)} 只补上缺少的标签：
+ * 原来的 TIFF 原样保留，缩略图、GPS、MakerNote 等按偏移引用的数据都不用搬动，新的 IFD0 和 Exif IFD 接在后面，
+ * 包含原来的全部条目和补充的条目，再把 TIFF 头指向新的 IFD0。已有的值（包括 Orientation，HAL 可能是用这个标签
+ * 而不是旋转像素来实现 JPEG_ORIENTATION 的）一律以 HAL 为准。
+ * 没有 Exif 时由 {@link #build(CaptureMetadata, int)} 生成一个新段插在 SOI（和紧跟的 JFIF APP0）之后，
+ * 方向取 {@link CaptureMetadata#rotationDegrees}。
+ * <p>
+ * 写出的 TIFF 是大端序，IFD0 放 Make、Model、Orientation、DateTime，Exif 子 IFD 放曝光、光圈、ISO、焦距、闪光灯、
+ * 拍摄时间和时区，ImageUniqueID 用传感器时间戳，方便以后和同一帧的其它输出对应。
+ */
+public final class ExifWriter {
+
+    private ExifWriter() {
+    }
+
+    /**
+     * 插入位置，偏移相对于传入 ByteBuffer 的 position
+     */
+    public static final class Splice {
+        /**
+         * 新 APP1 段之前保留的原始字节数；已有 Exif 时是它的起点
+         */
+        public final int insertAt;
+        /**
+         * 原始数据从这里继续，等于 insertAt 表示还没有 Exif，否则 [insertAt, resumeAt) 是已有的 Exif APP1
+         */
+        public final int resumeAt;
+        /**
+         * 已有 Exif 中的 Orientation 标签值 1 ~ 8，没有时为 0
+         */
+        public final int existingOrientation;
+
+        Splice(int insertAt, int resumeAt, int existingOrientation) {
+            this.insertAt = insertAt;
+            this.resumeAt = resumeAt;
+            this.existingOrientation = existingOrientation;
+        }
+
+        public boolean hasExif() {
+            return resumeAt > insertAt;
+        }
+    }
+
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+    private static final int TYPE_UNDEFINED = 7;
+
+    static final int TAG_MAKE = 0x010f;
+    static final int TAG_MODEL = 0x0110;
+    static final int TAG_ORIENTATION = 0x0112;
+    static final int TAG_DATE_TIME = 0x0132;
+    static final int TAG_EXIF_IFD = 0x8769;
+    static final int TAG_EXPOSURE_TIME = 0x829a;
+    static final int TAG_F_NUMBER = 0x829d;
+    static final int TAG_ISO = 0x8827;
+    static final int TAG_EXIF_VERSION = 0x9000;
+    static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
+    static final int TAG_FLASH = 0x9209;
+    static final int TAG_FOCAL_LENGTH = 0x920a;
+    static final int TAG_SUB_SEC_TIME_ORIGINAL = 0x9291;
+    static final int TAG_IMAGE_UNIQUE_ID = 0xa420;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    /**
+     * APP1 段的最大长度（长度字段 16 位，包括它自己）
+     */
+    private static final int MAX_SEGMENT = 0xffff;
+
+    /**
+     * 顺时针旋转角度对应的 EXIF Orientation
+     */
+    public static int orientationTag(int rotationDegrees) {
+        switch ((rotationDegrees % 360 + 360) % 360) {
+            case 90:
+                return 6;
+            case 180:
+                return 3;
+            case 270:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * EXIF Orientation 表示的像素还需要顺时针旋转的角度，镜像的取值（2、4、5、7）和未知的值按 0 处理
+     */
+    public static int rotationDegrees(int orientationTag) {
+        switch (orientationTag) {
+            case 6:
+                return 90;
+            case 3:
+                return 180;
+            case 8:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 扫描 SOI 之后连续的 APPn 段，找到插入位置，不改变 jpeg 的 position
+     *
+     * @throws IOException 不是 JPEG 或者段头不完整
+     */
+    public static Splice locate(ByteBuffer jpeg) throws IOException {
+        int base = jpeg.position();
+        int limit = jpeg.limit();
+        if (limit - base < 4 || (jpeg.get(base) & 0xff) != 0xff || (jpeg.get(base + 1) & 0xff) != 0xd8) {
+            throw new IOException("Not a JPEG stream");
+        }
+        int offset = 2;
+        int insertAt = 2;
+        while (base + offset + 4 <= limit) {
+            if ((jpeg.get(base + offset) & 0xff) != 0xff) {
+                throw new IOException("Expected marker at " + offset);
+            }
+            int marker = jpeg.get(base + offset + 1) & 0xff;
+            if (marker < 0xe0 || marker > 0xef) {
+                // 第一个不是 APPn 的段（DQT、SOF 等）
+                break;
+            }
+            int length = ((jpeg.get(base + offset + 2) & 0xff) << 8) | (jpeg.get(base + offset + 3) & 0xff);
+            int end = offset + 2 + length;
+            if (length < 2 || base + end > limit) {
+                throw new IOException("Truncated segment at " + offset);
+            }
+            if (marker == 0xe1 && isExif(jpeg, base + offset + 4, length - 2)) {
+                return new Splice(offset, end, readOrientation(jpeg, base + offset + 4 + EXIF_HEADER.length,
+                        length - 2 - EXIF_HEADER.length));
+            }
+            if (marker == 0xe0 && offset == 2) {
+                // JFIF 要求 APP0 紧跟 SOI，Exif 放在它后面
+                insertAt = end;
+            }
+            offset = end;
+        }
+        return new Splice(insertAt, insertAt, 0);
+    }
+
+    private static boolean isExif(ByteBuffer jpeg, int start, int length) {
+        if (length < EXIF_HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (jpeg.get(start + i) != EXIF_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读 IFD0 中的 Orientation，结构不对时返回 0
+     */
+    static int readOrientation(ByteBuffer jpeg, int tiff, int length) {
+        int index = orientationIndex(jpeg, tiff, length);
+        if (index < 0) {
+            return 0;
+        }
+        int value = readShort(jpeg, index, jpeg.get(tiff) == 'I');
+        return value >= 1 && value <= 8 ? value : 0;
+    }
+
+    /**
+     * IFD0 中 Orientation 值的绝对下标，没有时返回 -1
+     */
+    private static int orientationIndex(ByteBuffer jpeg, int tiff, int length) {
+        if (length < 8) {
+            return -1;
+        }
+        boolean little = jpeg.get(tiff) == 'I';
+        int ifd = readInt(jpeg, tiff + 4, little);
+        if (ifd < 8 || ifd + 2 > length) {
+            return -1;
+        }
+        int count = readShort(jpeg, tiff + ifd, little);
+        for (int i = 0; i < count && ifd + 2 + (i + 1) * 12 <= length; i++) {
+            int entry = tiff + ifd + 2 + i * 12;
+            if (readShort(jpeg, entry, little) == TAG_ORIENTATION && readShort(jpeg, entry + 2, little) == TYPE_SHORT) {
+                return entry + 8;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 像素已经转正之后把一个完整 APP1 段（从 0xFF 开始）中的 Orientation 改成 1，不是 Exif 段或者没有这个标签时不变
+     *
+     * @return 是否改了
+     */
+    static boolean resetOrientation(byte[] segment) {
+        ByteBuffer buffer = ByteBuffer.wrap(segment);
+        if (segment.length < 4 + EXIF_HEADER.length || (segment[1] & 0xff) != 0xe1
+                || !isExif(buffer, 4, segment.length - 4)) {
+            return false;
+        }
+        int tiff = 4 + EXIF_HEADER.length;
+        int index = orientationIndex(buffer, tiff, segment.length - tiff);
+        if (index < 0) {
+            return false;
+        }
+        boolean little = segment[tiff] == 'I';
+        segment[index] = (byte) (little ? 1 : 0);
+        segment[index + 1] = (byte) (little ? 0 : 1);
+        return true;
+    }
+
+    private static int readShort(ByteBuffer buffer, int index, boolean little) {
+        int a = buffer.get(index) & 0xff;
+        int b = buffer.get(index + 1) & 0xff;
+        return little ? (b << 8) | a : (a << 8) | b;
+    }
+
+    private static int readInt(ByteBuffer buffer, int index, boolean little) {
+        int high = readShort(buffer, index, little);
+        int low = readShort(buffer, index + 2, little);
+        return little ? (low << 16) | high : (high << 16) | low;
+    }
+
+    /**
+     * 生成完整的 APP1 段（从 0xFFE1 开始），position = 0
+     *
+     * @param orientation EXIF Orientation 1 ~ 8
+     */
+    public static ByteBuffer build(CaptureMetadata metadata, int orientation) {
+        List<Entry> ifd0 = new ArrayList<>();
+        List<Entry> exif = new ArrayList<>();
+        entries(metadata, orientation, ifd0, exif);
+        // 子 IFD 的偏移在排版时填写
+        Entry exifPointer = new Entry(TAG_EXIF_IFD, TYPE_LONG, 1, new byte[4]);
+        ifd0.add(exifPointer);
+
+        sort(ifd0);
+        sort(exif);
+        // TIFF 头 8 字节，IFD0 紧跟其后，然后是 Exif IFD
+        int ifd0Offset = 8;
+        int exifOffset = ifd0Offset + ifdSize(ifd0);
+        int tiffLength = exifOffset + ifdSize(exif);
+        ByteBuffer.wrap(exifPointer.value).putInt(exifOffset);
+
+        int segmentLength = 2 + EXIF_HEADER.length + tiffLength;
+        if (segmentLength > MAX_SEGMENT) {
+            throw new IllegalArgumentException("EXIF too large: " + segmentLength);
+        }
+        ByteBuffer out = ByteBuffer.allocate(2 + segmentLength);
+        out.putShort((short) 0xffe1);
+        out.putShort((short) segmentLength);
+        out.put(EXIF_HEADER);
+        int tiff = out.position();
+        out.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(ifd0Offset);
+        writeIfd(out, tiff, ifd0Offset, ifd0, 0);
+        writeIfd(out, tiff, exifOffset, exif, 0);
+        out.flip();
+        return out;
+    }
+
+    /**
+     * 把 metadata 中 splice 所指的 Exif APP1 里还没有的标签补进去，生成完整的 APP1 段（从 0xFFE1 开始），position = 0。
+     * 已有的条目和它们引用的数据逐字节保留，字节序沿用原来的。
+     *
+     * @return 不需要补充、结构看不懂或者合并后超出段长时返回 null，调用方应原样保留原来的段
+     */
+    public static ByteBuffer merge(ByteBuffer jpeg, Splice splice, CaptureMetadata metadata) {
+        if (!splice.hasExif()) {
+            throw new IllegalArgumentException("No Exif segment to merge into");
+        }
+        int tiff = jpeg.position() + splice.insertAt + 4 + EXIF_HEADER.length;
+        int length = splice.resumeAt - splice.insertAt - 4 - EXIF_HEADER.length;
+        if (length < 8) {
+            return null;
+        }
+        byte order = jpeg.get(tiff);
+        if (order != jpeg.get(tiff + 1) || (order != 'I' && order != 'M')) {
+            return null;
+        }
+        boolean little = order == 'I';
+        if (readShort(jpeg, tiff + 2, little) != 42) {
+            return null;
+        }
+        int ifd0Offset = readInt(jpeg, tiff + 4, little);
+        List<Entry> ifd0 = readIfd(jpeg, tiff, length, ifd0Offset, little);
+        if (null == ifd0) {
+            return null;
+        }
+        int nextIfd = readInt(jpeg, tiff + ifd0Offset + 2 + ifd0.size() * 12, little);
+        Entry oldPointer = find(ifd0, TAG_EXIF_IFD);
+        List<Entry> exif = new ArrayList<>();
+        if (null != oldPointer) {
+            exif = readIfd(jpeg, tiff, length, readInt(ByteBuffer.wrap(oldPointer.value), 0, little), little);
+            if (null == exif) {
+                return null;
+            }
+            ifd0.remove(oldPointer);
+        }
+
+        List<Entry> ourIfd0 = new ArrayList<>();
+        List<Entry> ourExif = new ArrayList<>();
+        entries(metadata, orientationTag(Math.max(0, metadata.rotationDegrees)), ourIfd0, ourExif);
+        int added = addMissing(ifd0, ourIfd0, little) + addMissing(exif, ourExif, little);
+        if (0 == added) {
+            return null;
+        }
+        Entry exifPointer = new Entry(TAG_EXIF_IFD, TYPE_LONG, 1, new byte[4]);
+        ifd0.add(exifPointer);
+        sort(ifd0);
+        sort(exif);
+
+        // 原来的 TIFF 之后按字对齐接 Exif IFD，再接 IFD0
+        int exifOffset = (length + 1) & ~1;
+        int newIfd0Offset = exifOffset + ifdSize(exif);
+        int tiffLength = newIfd0Offset + ifdSize(ifd0);
+        int segmentLength = 2 + EXIF_HEADER.length + tiffLength;
+        if (segmentLength > MAX_SEGMENT) {
+            return null;
+        }
+        ByteOrder byteOrder = little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        ByteBuffer.wrap(exifPointer.value).order(byteOrder).putInt(exifOffset);
+
+        ByteBuffer out = ByteBuffer.allocate(2 + segmentLength);
+        out.putShort((short) 0xffe1);
+        out.putShort((short) segmentLength);
+        out.put(EXIF_HEADER);
+        int start = out.position();
+        ByteBuffer original = jpeg.duplicate();
+        original.limit(tiff + length).position(tiff);
+        out.put(original);
+        if ((length & 1) != 0) {
+            out.put((byte) 0);
+        }
+        out.order(byteOrder);
+        out.putInt(start + 4, newIfd0Offset);
+        writeIfd(out, start, exifOffset, exif, 0);
+        // IFD1（缩略图）仍然接在 IFD0 后面
+        writeIfd(out, start, newIfd0Offset, ifd0, nextIfd);
+        out.order(ByteOrder.BIG_ENDIAN);
+        out.flip();
+        return out;
+    }
+
+    /**
+     * 读出一个 IFD 的条目，值或偏移字段原样保存，越界时返回 null
+     */
+    private static List<Entry> readIfd(ByteBuffer jpeg, int tiff, int length, int ifd, boolean little) {
+        if (ifd < 8 || ifd + 2 > length) {
+            return null;
+        }
+        int count = readShort(jpeg, tiff + ifd, little);
+        if (ifd + 2 + count * 12 + 4 > length) {
+            return null;
+        }
+        List<Entry> entries = new ArrayList<>(count + 8);
+        for (int i = 0; i < count; i++) {
+            int entry = tiff + ifd + 2 + i * 12;
+            byte[] field = new byte[4];
+            for (int j = 0; j < 4; j++) {
+                field[j] = jpeg.get(entry + 8 + j);
+            }
+            entries.add(new Entry(readShort(jpeg, entry, little), readShort(jpeg, entry + 2, little),
+                    readInt(jpeg, entry + 4, little), field, true));
+        }
+        return entries;
+    }
+
+    private static Entry find(List<Entry> entries, int tag) {
+        for (Entry entry : entries) {
+            if (entry.tag == tag) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 把 ours 中 entries 还没有的标签按目标字节序加进去，返回加了几个
+     */
+    private static int addMissing(List<Entry> entries, List<Entry> ours, boolean little) {
+        int added = 0;
+        for (Entry entry : ours) {
+            if (null == find(entries, entry.tag)) {
+                entries.add(little ? littleEndian(entry) : entry);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * build() 生成的值都是大端序，逐个 SHORT / LONG 换成小端序；RATIONAL 是两个 LONG，ASCII 和 UNDEFINED 不变
+     */
+    private static Entry littleEndian(Entry entry) {
+        int unit = entry.type == TYPE_SHORT ? 2 : entry.type == TYPE_LONG || entry.type == TYPE_RATIONAL ? 4 : 1;
+        if (unit == 1) {
+            return entry;
+        }
+        byte[] value = entry.value.clone();
+        for (int i = 0; i + unit <= value.length; i += unit) {
+            for (int j = 0; j < unit / 2; j++) {
+                byte swap = value[i + j];
+                value[i + j] = value[i + unit - 1 - j];
+                value[i + unit - 1 - j] = swap;
+            }
+        }
+        return new Entry(entry.tag, entry.type, entry.count, value);
+    }
+
+    /**
+     * 按 metadata 生成 IFD0 和 Exif IFD 的条目（不含 Exif IFD 指针），值是大端序
+     */
+    private static void entries(CaptureMetadata metadata, int orientation, List<Entry> ifd0, List<Entry> exif) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US);
+        TimeZone zone = TimeZone.getDefault();
+        format.setTimeZone(zone);
+        String dateTime = format.format(new Date(metadata.captureTimeMillis));
+
+        if (null != metadata.make) {
+            ifd0.add(ascii(TAG_MAKE, metadata.make));
+        }
+        if (null != metadata.model) {
+            ifd0.add(ascii(TAG_MODEL, metadata.model));
+        }
+        ifd0.add(new Entry(TAG_ORIENTATION, TYPE_SHORT, 1, shortValue(orientation)));
+        ifd0.add(ascii(TAG_DATE_TIME, dateTime));
+
+        if (metadata.exposureTimeNs > 0) {
+            exif.add(rational(TAG_EXPOSURE_TIME, exposureRational(metadata.exposureTimeNs)));
+        }
+        if (metadata.aperture > 0) {
+            exif.add(rational(TAG_F_NUMBER, new long[]{Math.round(metadata.aperture * 100), 100}));
+        }
+        if (metadata.iso > 0) {
+            exif.add(new Entry(TAG_ISO, TYPE_SHORT, 1, shortValue(Math.min(0xffff, metadata.iso))));
+        }
+        exif.add(new Entry(TAG_EXIF_VERSION, TYPE_UNDEFINED, 4, new byte[]{'0', '2', '3', '2'}));
+        exif.add(ascii(TAG_DATE_TIME_ORIGINAL, dateTime));
+        exif.add(ascii(TAG_OFFSET_TIME_ORIGINAL, timeZoneOffset(zone.getOffset(metadata.captureTimeMillis))));
+        // 0x1 闪光灯闪了，0x0 没闪
+        exif.add(new Entry(TAG_FLASH, TYPE_SHORT, 1, shortValue(metadata.flashFired ? 1 : 0)));
+        if (metadata.focalLengthMm > 0) {
+            exif.add(rational(TAG_FOCAL_LENGTH, new long[]{Math.round(metadata.focalLengthMm * 1000), 1000}));
+        }
+        exif.add(ascii(TAG_SUB_SEC_TIME_ORIGINAL, String.format(Locale.US, "%03d", metadata.captureTimeMillis % 1000)));
+        exif.add(ascii(TAG_IMAGE_UNIQUE_ID, String.format(Locale.US, "%032x", metadata.sensorTimestampNs)));
+    }
+
+    /**
+     * 曝光时间写成 1/n 秒（短于 1 秒时），否则写成纳秒精度的分数
+     */
+    static long[] exposureRational(long exposureNs) {
+        if (exposureNs < 1_000_000_000L) {
+            long denominator = Math.round(1e9 / exposureNs);
+            if (Math.abs(1e9 / denominator - exposureNs) <= exposureNs * 0.01) {
+                return new long[]{1, denominator};
+            }
+        }
+        // 分子分母都要放进 32 位
+        long numerator = exposureNs / 1000;
+        return new long[]{Math.min(0xffffffffL, numerator), 1_000_000};
+    }
+
+    static String timeZoneOffset(int offsetMillis) {
+        int minutes = Math.abs(offsetMillis) / 60000;
+        return String.format(Locale.US, "%c%02d:%02d", offsetMillis < 0 ? '-' : '+', minutes / 60, minutes % 60);
+    }
+
+    /**
+     * 一个 IFD 条目
+     */
+    private static final class Entry {
+        final int tag;
+        final int type;
+        final int count;
+        final byte[] value;
+        /**
+         * 从已有 IFD 读出的条目：value 是原样的 4 字节值或偏移字段，引用的数据留在原处
+         */
+        final boolean verbatim;
+
+        Entry(int tag, int type, int count, byte[] value) {
+            this(tag, type, count, value, false);
+        }
+
+        Entry(int tag, int type, int count, byte[] value, boolean verbatim) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+            this.verbatim = verbatim;
+        }
+
+        /**
+         * 值放不进 4 字节，要写在条目表之后
+         */
+        boolean isExternal() {
+            return !verbatim && value.length > 4;
+        }
+    }
+
+    private static Entry ascii(int tag, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        byte[] value = new byte[bytes.length + 1];
+        System.arraycopy(bytes, 0, value, 0, bytes.length);
+        return new Entry(tag, TYPE_ASCII, value.length, value);
+    }
+
+    private static Entry rational(int tag, long[] fraction) {
+        ByteBuffer value = ByteBuffer.allocate(8);
+        value.putInt((int) fraction[0]).putInt((int) fraction[1]);
+        return new Entry(tag, TYPE_RATIONAL, 1, value.array());
+    }
+
+    private static byte[] shortValue(int value) {
+        return new byte[]{(byte) (value >> 8), (byte) value};
+    }
+
+    private static void sort(List<Entry> entries) {
+        // TIFF 要求 IFD 中的标签升序排列
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Integer.compare(a.tag, b.tag);
+            }
+        });
+    }
+
+    /**
+     * 条目表加上放不进 4 字节的值，按字对齐
+     */
+    private static int ifdSize(List<Entry> entries) {
+        int size = 2 + entries.size() * 12 + 4;
+        for (Entry entry : entries) {
+            if (entry.isExternal()) {
+                size += (entry.value.length + 1) & ~1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 按 out 的字节序写一个 IFD，nextIfd 是下一个 IFD 的偏移，没有时为 0
+     */
+    private static void writeIfd(ByteBuffer out, int tiff, int ifdOffset, List<Entry> entries, int nextIfd) {
+        int data = ifdOffset + 2 + entries.size() * 12 + 4;
+        out.putShort((short) entries.size());
+        for (Entry entry : entries) {
+            out.putShort((short) entry.tag);
+            out.putShort((short) entry.type);
+            out.putInt(entry.count);
+            if (!entry.isExternal()) {
+                // 不满 4 字节的值左对齐
+                out.put(entry.value);
+                for (int i = entry.value.length; i < 4; i++) {
+                    out.put((byte) 0);
+                }
+            } else {
+                out.putInt(data);
+                data += (entry.value.length + 1) & ~1;
+            }
+        }
+        out.putInt(nextIfd);
+        for (Entry entry : entries) {
+            if (entry.isExternal()) {
+                out.put(entry.value);
+                if ((entry.value.length & 1) != 0) {
+                    out.put((byte) 0);
+                }
+            }
+        }
+        if (out.position() - tiff != data) {
+            throw new IllegalStateException("IFD layout mismatch");
+        }
+    }
+}
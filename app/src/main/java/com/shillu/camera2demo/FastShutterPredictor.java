@@ -0,0 +1,160 @@
+package com.shillu.camera2demo;
+
+import android.hardware.camera2.CaptureResult;
+
+import java.util.Locale;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 快速快门：预览已经稳定收敛时跳过对焦触发和预拍照
+ * <p>
+ * 每帧预览结果的 AF / AE 状态放进一个定长的基本类型环形数组。按下快门时，如果最近 {@link #STABLE_FRAMES} 帧
+ * AF 都处于 PASSIVE_FOCUSED / FOCUSED_LOCKED（或定焦镜头没有 AF 状态）、AE 都处于 CONVERGED / LOCKED，
+ * 并且最新一帧不超过 {@link #MAX_AGE_NS}，就认为场景已经收敛，可以直接提交拍照请求。
+ * FLASH_REQUIRED 不算收敛：需要闪光时仍然要走预拍照。
+ * <p>
+ * 同时统计走快速路径和普通路径的次数，以及两条路径从按下快门到提交拍照请求的耗时，
+ * 两者均值之差就是快速路径节省的时间。
+ */
+public final class FastShutterPredictor {
+
+    /**
+     * 连续多少帧收敛才认为稳定
+     */
+    public static final int STABLE_FRAMES = 3;
+
+    /**
+     * 最新一帧结果的最大年龄，超过时历史不可信（例如预览停了）
+     */
+    public static final long MAX_AGE_NS = 200_000_000L;
+
+    private final int[] mAfStates = new int[STABLE_FRAMES];
+    private final int[] mAeStates = new int[STABLE_FRAMES];
+    private int mHead;
+    private int mSize;
+    private long mLastResultNs;
+
+    private long mShutterNs = -1;
+    private boolean mShutterFast;
+    private long mFastCount;
+    private long mSlowCount;
+    private final LatencyHistogram mFastLatency = new LatencyHistogram();
+    private final LatencyHistogram mSlowLatency = new LatencyHistogram();
+
+    /**
+     * 一帧完整的预览结果
+     *
+     * @param afState CONTROL_AF_STATE，不可用时传 {@link CaptureStateMachine#UNKNOWN}
+     * @param aeState CONTROL_AE_STATE，不可用时传 {@link CaptureStateMachine#UNKNOWN}
+     */
+    public synchronized void onPreviewResult(int afState, int aeState, long nowNs) {
+        mAfStates[mHead] = afState;
+        mAeStates[mHead] = aeState;
+        mHead = (mHead + 1) % STABLE_FRAMES;
+        if (mSize < STABLE_FRAMES) {
+            mSize++;
+        }
+        mLastResultNs = nowNs;
+    }
+
+    /**
+     * 新会话开始或拍照参数变化，之前的历史作废
+     */
+    public synchronized void reset() {
+        mSize = 0;
+        mHead = 0;
+    }
+
+    /**
+     * 当前是否可以跳过对焦触发和预拍照
+     */
+    public synchronized boolean canSkip(long nowNs) {
+        if (mSize < STABLE_FRAMES || nowNs - mLastResultNs > MAX_AGE_NS) {
+            return false;
+        }
+        for (int i = 0; i < STABLE_FRAMES; i++) {
+            if (!isAfConverged(mAfStates[i]) || !isAeConverged(mAeStates[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAfConverged(int afState) {
+        return afState == CaptureStateMachine.UNKNOWN
+                || afState == CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED
+                || afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED;
+    }
+
+    private static boolean isAeConverged(int aeState) {
+        return aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED
+                || aeState == CaptureResult.CONTROL_AE_STATE_LOCKED;
+    }
+
+    /**
+     * 按下快门
+     *
+     * @param fast 是否走快速路径
+     */
+    public synchronized void onShutter(boolean fast, long nowNs) {
+        mShutterNs = nowNs;
+        mShutterFast = fast;
+        if (fast) {
+            mFastCount++;
+        } else {
+            mSlowCount++;
+        }
+    }
+
+    /**
+     * 提交了拍照请求，记录从按下快门到此的耗时
+     */
+    public synchronized void onCaptureStill(long nowNs) {
+        if (mShutterNs < 0) {
+            return;
+        }
+        (mShutterFast ? mFastLatency : mSlowLatency).record(nowNs - mShutterNs);
+        mShutterNs = -1;
+    }
+
+    public synchronized long getFastCount() {
+        return mFastCount;
+    }
+
+    public synchronized long getSlowCount() {
+        return mSlowCount;
+    }
+
+    /**
+     * 走快速路径的比例
+     */
+    public synchronized double getFastRatio() {
+        long total = mFastCount + mSlowCount;
+        return total == 0 ? 0 : (double) mFastCount / total;
+    }
+
+    /**
+     * 快速路径平均节省的时间（纳秒），任一路径还没有样本时返回 0
+     */
+    public synchronized long getSavedNs() {
+        if (mFastLatency.getCount() == 0 || mSlowLatency.getCount() == 0) {
+            return 0;
+        }
+        return mSlowLatency.getMean() - mFastLatency.getMean();
+    }
+
+    public LatencyHistogram getFastLatency() {
+        return mFastLatency;
+    }
+
+    public LatencyHistogram getSlowLatency() {
+        return mSlowLatency;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "FastShutter{fast=%d, slow=%d, ratio=%.0f%%, savedMs=%.1f}",
+                mFastCount, mSlowCount, getFastRatio() * 100, getSavedNs() / 1e6);
+    }
+}
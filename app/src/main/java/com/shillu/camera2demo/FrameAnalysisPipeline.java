@@ -0,0 +1,369 @@
+package com.shillu.camera2demo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 预览帧分析流水线：可插拔的分析器、每个分析器独立的背压和时间预算
+ * <p>
+ * 相机线程从分析用的 YUV ImageReader 取到一帧后，先问 {@link #shouldAccept(long)}：
+ * 距上一帧不到 minFrameIntervalNs、所有分析器都因为时间预算跳过这一帧，或者（BOUNDED 时）所有分析器的队列都满了，
+ * 就直接关闭 Image，连拷贝都省掉。
+ * 接受的帧拷贝进 {@link FrameBuffer}（拷完立即归还 Image）后 {@link #submit(FrameBuffer)}，
+ * 每个分析器各 retain 一次，同一块内存分发给所有分析器。
+ * <p>
+ * 每个分析器有自己的信箱，同一时间最多在工作线程池上运行一帧，因此分析器本身不需要线程安全，
+ * 一个慢的分析器也不会拖住其它分析器：
+ * 1. {@link Backpressure#KEEP_LATEST}：分析器忙时只保留最新的一帧，被替换掉的帧计为丢弃；
+ * 2. {@link Backpressure#BOUNDED}：最多排队 capacity 帧，满了丢弃最老的一帧。
+ * <p>
+ * 时间预算：分析器一帧的耗时超过预算时，它的跳帧步长翻倍（最多 {@link #MAX_STRIDE}），只分析每 stride 帧中的一帧；
+ * 连续 {@link #RECOVER_FRAMES} 帧都在预算内时步长减半。Java 代码不能被中途打断，
+ * 所以预算约束的是分析器占用工作线程的平均时间，而不是单帧时长。
+ * <p>
+ * submit 从不阻塞，工作线程由调用方提供（{@link Executor}），相机线程只做入队。
+ */
+public final class FrameAnalysisPipeline {
+
+    /**
+     * 可插拔的分析器，在工作线程上调用，同一个分析器不会并发调用
+     */
+    public interface Analyzer {
+        String getName();
+
+        /**
+         * 分析一帧，返回后帧缓冲由流水线释放，分析器不能继续持有它（需要保留时自己 retain）
+         */
+        void analyze(FrameBuffer frame) throws Exception;
+    }
+
+    public enum Backpressure {
+        KEEP_LATEST,
+        BOUNDED
+    }
+
+    /**
+     * 跳帧步长上限
+     */
+    public static final int MAX_STRIDE = 16;
+
+    /**
+     * 连续多少帧在预算内之后步长减半
+     */
+    public static final int RECOVER_FRAMES = 8;
+
+    /**
+     * 一个分析器的信箱和统计
+     */
+    private final class Slot implements Runnable {
+        final Analyzer analyzer;
+        final long budgetNs;
+        final ArrayDeque<FrameBuffer> pending = new ArrayDeque<>();
+        boolean running;
+        int stride = 1;
+        long sequence;
+        boolean wantsNext;
+        int withinBudget;
+
+        long processed;
+        long dropped;
+        long throttled;
+        long overruns;
+        long failures;
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Slot(Analyzer analyzer, long budgetNs) {
+            this.analyzer = analyzer;
+            this.budgetNs = budgetNs;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                FrameBuffer frame;
+                synchronized (FrameAnalysisPipeline.this) {
+                    frame = pending.pollFirst();
+                    if (null == frame || mShutdown) {
+                        running = false;
+                        if (null != frame) {
+                            frame.release();
+                        }
+                        return;
+                    }
+                }
+                long start = mClock.nanoTime();
+                boolean failed = false;
+                try {
+                    analyzer.analyze(frame);
+                } catch (Exception e) {
+                    failed = true;
+                } finally {
+                    frame.release();
+                }
+                onAnalyzed(this, mClock.nanoTime() - start, failed);
+            }
+        }
+    }
+
+    /**
+     * 时间来源，测试中可以替换
+     */
+    public interface Clock {
+        long nanoTime();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private final Executor mExecutor;
+    private final Backpressure mBackpressure;
+    private final int mCapacity;
+    private final long mMinFrameIntervalNs;
+    private final Clock mClock;
+    private final List<Slot> mSlots = new ArrayList<>();
+
+    private boolean mShutdown;
+    private long mLastAcceptedNs = Long.MIN_VALUE;
+    private long mOffered;
+    private long mSkipped;
+    private long mSubmitted;
+
+    /**
+     * @param executor           工作线程池
+     * @param backpressure       分析器忙时的策略
+     * @param capacity           BOUNDED 时每个分析器最多排队的帧数，KEEP_LATEST 时忽略
+     * @param minFrameIntervalNs 两帧之间的最小间隔（按帧时间戳），0 表示每帧都分析
+     */
+    public FrameAnalysisPipeline(Executor executor, Backpressure backpressure, int capacity, long minFrameIntervalNs, Clock clock) {
+        mExecutor = executor;
+        mBackpressure = backpressure;
+        mCapacity = backpressure == Backpressure.KEEP_LATEST ? 1 : Math.max(1, capacity);
+        mMinFrameIntervalNs = minFrameIntervalNs;
+        mClock = clock;
+    }
+
+    /**
+     * 加入一个分析器
+     *
+     * @param budgetNs 一帧的时间预算，0 表示不限
+     */
+    public synchronized void addAnalyzer(Analyzer analyzer, long budgetNs) {
+        mSlots.add(new Slot(analyzer, budgetNs));
+    }
+
+    /**
+     * 相机线程在拷贝一帧之前调用
+     *
+     * @param timestampNs Image.getTimestamp()
+     * @return false 表示这一帧不需要，直接关闭 Image
+     */
+    public synchronized boolean shouldAccept(long timestampNs) {
+        mOffered++;
+        if (mShutdown || mSlots.isEmpty()) {
+            mSkipped++;
+            return false;
+        }
+        if (mLastAcceptedNs != Long.MIN_VALUE && timestampNs - mLastAcceptedNs < mMinFrameIntervalNs) {
+            mSkipped++;
+            return false;
+        }
+        if (mBackpressure == Backpressure.BOUNDED) {
+            // 所有分析器的队列都满了，拷贝了也只是挤掉更老的帧，这一帧干脆不要
+            boolean anyRoom = false;
+            for (int i = 0; i < mSlots.size(); i++) {
+                if (mSlots.get(i).pending.size() < mCapacity) {
+                    anyRoom = true;
+                    break;
+                }
+            }
+            if (!anyRoom) {
+                mSkipped++;
+                return false;
+            }
+        }
+        mLastAcceptedNs = timestampNs;
+        // 按各自的步长决定哪些分析器要这一帧，结果由紧接着的 submit 使用
+        boolean wanted = false;
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.get(i);
+            slot.wantsNext = slot.sequence++ % slot.stride == 0;
+            if (slot.wantsNext) {
+                wanted = true;
+            } else {
+                slot.throttled++;
+            }
+        }
+        if (!wanted) {
+            mSkipped++;
+        }
+        return wanted;
+    }
+
+    /**
+     * 提交 {@link #shouldAccept(long)} 接受的一帧，接管调用方的引用（调用方不再 release），从不阻塞
+     */
+    public void submit(FrameBuffer frame) {
+        List<Slot> toStart = null;
+        synchronized (this) {
+            if (mShutdown) {
+                frame.release();
+                return;
+            }
+            mSubmitted++;
+            for (int i = 0; i < mSlots.size(); i++) {
+                Slot slot = mSlots.get(i);
+                if (!slot.wantsNext) {
+                    continue;
+                }
+                slot.wantsNext = false;
+                if (slot.pending.size() >= mCapacity) {
+                    slot.pending.pollFirst().release();
+                    slot.dropped++;
+                }
+                slot.pending.addLast(frame.retain());
+                if (!slot.running) {
+                    slot.running = true;
+                    if (null == toStart) {
+                        toStart = new ArrayList<>(mSlots.size());
+                    }
+                    toStart.add(slot);
+                }
+            }
+        }
+        // 调用方的引用，各分析器已经各自 retain
+        frame.release();
+        if (null != toStart) {
+            for (int i = 0; i < toStart.size(); i++) {
+                start(toStart.get(i));
+            }
+        }
+    }
+
+    private void start(Slot slot) {
+        try {
+            mExecutor.execute(slot);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                slot.running = false;
+                while (!slot.pending.isEmpty()) {
+                    slot.pending.pollFirst().release();
+                    slot.dropped++;
+                }
+            }
+        }
+    }
+
+    private synchronized void onAnalyzed(Slot slot, long elapsedNs, boolean failed) {
+        slot.processed++;
+        slot.latency.record(elapsedNs);
+        if (failed) {
+            slot.failures++;
+        }
+        if (slot.budgetNs <= 0) {
+            return;
+        }
+        if (elapsedNs > slot.budgetNs) {
+            slot.overruns++;
+            slot.withinBudget = 0;
+            slot.stride = Math.min(MAX_STRIDE, slot.stride * 2);
+        } else if (slot.stride > 1 && ++slot.withinBudget >= RECOVER_FRAMES) {
+            slot.withinBudget = 0;
+            slot.stride /= 2;
+        }
+    }
+
+    /**
+     * 不再接受新帧，释放排队中的帧；正在运行的分析器跑完当前帧后停止
+     */
+    public synchronized void shutdown() {
+        mShutdown = true;
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.get(i);
+            while (!slot.pending.isEmpty()) {
+                slot.pending.pollFirst().release();
+                slot.dropped++;
+            }
+        }
+    }
+
+    public synchronized long getOffered() {
+        return mOffered;
+    }
+
+    /**
+     * 拷贝之前就跳过的帧数（间隔不够或者没有空位）
+     */
+    public synchronized long getSkipped() {
+        return mSkipped;
+    }
+
+    public synchronized long getSubmitted() {
+        return mSubmitted;
+    }
+
+    private Slot find(String name) {
+        for (int i = 0; i < mSlots.size(); i++) {
+            if (mSlots.get(i).analyzer.getName().equals(name)) {
+                return mSlots.get(i);
+            }
+        }
+        throw new IllegalArgumentException("Unknown analyzer " + name);
+    }
+
+    public synchronized long getProcessed(String analyzer) {
+        return find(analyzer).processed;
+    }
+
+    /**
+     * 背压丢弃的帧数（被更新的帧替换或者挤出队列）
+     */
+    public synchronized long getDropped(String analyzer) {
+        return find(analyzer).dropped;
+    }
+
+    /**
+     * 因为超出时间预算而跳过的帧数
+     */
+    public synchronized long getThrottled(String analyzer) {
+        return find(analyzer).throttled;
+    }
+
+    public synchronized long getOverruns(String analyzer) {
+        return find(analyzer).overruns;
+    }
+
+    public synchronized long getFailures(String analyzer) {
+        return find(analyzer).failures;
+    }
+
+    public synchronized int getStride(String analyzer) {
+        return find(analyzer).stride;
+    }
+
+    public synchronized LatencyHistogram getLatency(String analyzer) {
+        return find(analyzer).latency;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder(String.format(Locale.US, "Analysis{offered=%d, skipped=%d, submitted=%d",
+                mOffered, mSkipped, mSubmitted));
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.get(i);
+            builder.append(String.format(Locale.US, ", %s={processed=%d, dropped=%d, throttled=%d, stride=%d, p90Ms=%.1f}",
+                    slot.analyzer.getName(), slot.processed, slot.dropped, slot.throttled, slot.stride,
+                    slot.latency.getPercentile(90) / 1e6));
+        }
+        return builder.append('}').toString();
+    }
+}
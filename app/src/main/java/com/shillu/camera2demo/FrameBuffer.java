@@ -0,0 +1,154 @@
+package com.shillu.camera2demo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 带引用计数的帧缓冲，从 {@link FrameBufferPool} 借出
+ * <p>
+ * 生产者从 Image 拷贝一次数据（拷完立即把 Image 还给 ImageReader，相机不会因为消费者慢而没有缓冲可用），
+ * 用 {@link #setFrame(int, int, int, long, int)} 写好格式信息，然后对每个额外的消费者 {@link #retain()} 一次再分发出去：
+ * 保存、分析、编码读的是同一块内存，不再拷贝。每个持有者用完调用一次 {@link #release()}，计数归零时缓冲回到池中。
+ * <p>
+ * 计数用 AtomicInteger，retain / release 可以在任意线程调用；释放之后再访问会抛出 IllegalStateException。
+ * 格式字段应在分发之前写好，分发（例如提交到执行器）本身保证了其它线程能看到。
+ */
+public final class FrameBuffer {
+
+    private final FrameBufferPool mPool;
+    private final ByteBuffer mBuffer;
+    private final int mBucket;
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+
+    /**
+     * 泄漏检测的跟踪对象，没有开启时为 null，只由池访问
+     */
+    FrameBufferPool.LeakTracker mTracker;
+
+    private int mFormat;
+    private int mWidth;
+    private int mHeight;
+    private long mTimestampNs;
+    private int mLength;
+
+    FrameBuffer(FrameBufferPool pool, ByteBuffer buffer, int bucket, int length) {
+        mPool = pool;
+        mBuffer = buffer;
+        mBucket = bucket;
+        mLength = length;
+    }
+
+    int getBucket() {
+        return mBucket;
+    }
+
+    ByteBuffer rawBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * 写入数据用的缓冲区，容量是所在桶的大小（不小于借出时要求的大小），position = 0
+     */
+    public ByteBuffer buffer() {
+        checkAlive();
+        return mBuffer;
+    }
+
+    /**
+     * 堆内存池的底层数组（偏移为 0），直接内存池返回 null
+     */
+    public byte[] array() {
+        checkAlive();
+        return mBuffer.hasArray() ? mBuffer.array() : null;
+    }
+
+    /**
+     * 读取数据用的视图：独立的 position / limit，[0, length)，不拷贝数据
+     */
+    public ByteBuffer data() {
+        checkAlive();
+        ByteBuffer view = mBuffer.duplicate();
+        view.clear();
+        view.limit(mLength);
+        return view;
+    }
+
+    /**
+     * @param format      ImageFormat，例如 NV21
+     * @param timestampNs Image.getTimestamp()
+     * @param length      有效数据的字节数
+     */
+    public void setFrame(int format, int width, int height, long timestampNs, int length) {
+        checkAlive();
+        if (length < 0 || length > mBuffer.capacity()) {
+            throw new IllegalArgumentException("length " + length + " exceeds capacity " + mBuffer.capacity());
+        }
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+        mTimestampNs = timestampNs;
+        mLength = length;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * 增加一个持有者
+     *
+     * @return this，方便链式传给下一个消费者
+     */
+    public FrameBuffer retain() {
+        while (true) {
+            int count = mRefCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("FrameBuffer already released");
+            }
+            if (mRefCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * 一个持有者用完，最后一个释放时回到池中
+     */
+    public void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            mPool.recycle(this);
+        } else if (count < 0) {
+            mRefCount.incrementAndGet();
+            throw new IllegalStateException("FrameBuffer released too many times");
+        }
+    }
+
+    public int getRefCount() {
+        return mRefCount.get();
+    }
+
+    private void checkAlive() {
+        if (mRefCount.get() <= 0) {
+            throw new IllegalStateException("FrameBuffer already released");
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.shillu.camera2demo;
+
+import android.content.ComponentCallbacks2;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 按大小分桶、带引用计数的帧缓冲池
+ * <p>
+ * 和 {@link DirectBufferPool} 的固定块大小不同，帧的大小随相机和格式变化（预览 YUV、ZSL 全尺寸 NV21、JPEG），
+ * 这里按大小分桶：不超过 minBucketBytes 的都落在最小的桶里，更大的按 2 的幂分段，每段再细分 4 档
+ * （例如 4MB 到 8MB 之间是 5MB、6MB、7MB、8MB），向上取整带来的浪费不超过 25%。
+ * 借出的是 {@link FrameBuffer}，引用计数归零时按桶回到空闲列表；空闲缓冲的总字节数超过 maxRetainedBytes 时直接丢弃。
+ * <p>
+ * 开启泄漏检测（调试版本）时，每次借出都记录调用栈，用弱引用跟踪 FrameBuffer：
+ * 对象被回收时计数还没归零就是泄漏，下一次 acquire 时报告给 {@link LeakListener}。泄漏的缓冲不回收再用，
+ * 因为消费者可能还拿着 {@link FrameBuffer#data()} 返回的视图。{@link #getOutstandingSites()} 可以列出还没释放的借出位置。
+ * <p>
+ * {@link #onTrimMemory(int)} 响应系统的内存压力，释放空闲缓冲；借出中的缓冲不受影响，归还时按当时的上限处理。
+ */
+public final class FrameBufferPool {
+
+    public interface LeakListener {
+        /**
+         * @param capacity       泄漏的缓冲容量
+         * @param allocationSite 借出时的调用栈
+         */
+        void onLeak(int capacity, Throwable allocationSite);
+    }
+
+    /**
+     * 泄漏检测：FrameBuffer 被回收时进入引用队列
+     */
+    static final class LeakTracker extends WeakReference<FrameBuffer> {
+        final int capacity;
+        final Throwable site;
+
+        LeakTracker(FrameBuffer frame, ReferenceQueue<FrameBuffer> queue, int capacity, Throwable site) {
+            super(frame, queue);
+            this.capacity = capacity;
+            this.site = site;
+        }
+    }
+
+    private static final int SUB_BUCKETS = 4;
+
+    /**
+     * 单块缓冲的上限，再大的桶容量会超出 int
+     */
+    private static final int MAX_SIZE = 1 << 30;
+
+    private final int mMinBucketBytes;
+    private final int mMinShift;
+    private final boolean mDirect;
+    private final long mMaxRetainedBytes;
+    private final LeakListener mLeakListener;
+    private final ReferenceQueue<FrameBuffer> mLeakQueue;
+    private final Map<LeakTracker, Boolean> mTrackers;
+
+    /**
+     * 每个桶一个空闲列表，第一次归还时创建
+     */
+    private final List<ArrayDeque<ByteBuffer>> mFree;
+    private long mRetainLimit;
+    private long mRetainedBytes;
+    private int mOutstanding;
+    private long mOutstandingBytes;
+
+    private long mAcquires;
+    private long mHits;
+    private long mDropped;
+    private long mTrimmedBytes;
+    private long mLeaks;
+
+    /**
+     * @param minBucketBytes   最小桶的容量，必须是 2 的幂且不小于 4
+     * @param maxRetainedBytes 空闲缓冲总字节数上限
+     * @param direct           是否使用直接内存（需要 array() 的消费者用堆内存）
+     * @param leakListener     非 null 时开启泄漏检测
+     */
+    @SuppressWarnings("unchecked")
+    public FrameBufferPool(int minBucketBytes, long maxRetainedBytes, boolean direct, LeakListener leakListener) {
+        if (minBucketBytes < 4 || Integer.bitCount(minBucketBytes) != 1) {
+            throw new IllegalArgumentException("minBucketBytes must be a power of two >= 4");
+        }
+        mMinBucketBytes = minBucketBytes;
+        mMinShift = Integer.numberOfTrailingZeros(minBucketBytes);
+        mDirect = direct;
+        mMaxRetainedBytes = maxRetainedBytes;
+        mRetainLimit = maxRetainedBytes;
+        mLeakListener = leakListener;
+        mLeakQueue = null == leakListener ? null : new ReferenceQueue<FrameBuffer>();
+        mTrackers = null == leakListener ? null : new IdentityHashMap<LeakTracker, Boolean>();
+        mFree = new ArrayList<>(Collections.<ArrayDeque<ByteBuffer>>nCopies(1 + (31 - mMinShift) * SUB_BUCKETS, null));
+    }
+
+    /**
+     * 大小对应的桶编号
+     */
+    static int bucketIndex(int size, int minBucketBytes) {
+        if (size <= minBucketBytes) {
+            return 0;
+        }
+        int minShift = Integer.numberOfTrailingZeros(minBucketBytes);
+        // 2^shift < size <= 2^(shift + 1)
+        int shift = 31 - Integer.numberOfLeadingZeros(size - 1);
+        int step = 1 << (shift - 2);
+        int units = (size + step - 1) / step;
+        return 1 + (shift - minShift) * SUB_BUCKETS + (units - SUB_BUCKETS - 1);
+    }
+
+    /**
+     * 桶的容量
+     */
+    static int bucketCapacity(int index, int minBucketBytes) {
+        if (index == 0) {
+            return minBucketBytes;
+        }
+        int minShift = Integer.numberOfTrailingZeros(minBucketBytes);
+        int k = index - 1;
+        int shift = minShift + k / SUB_BUCKETS;
+        int units = SUB_BUCKETS + 1 + k % SUB_BUCKETS;
+        return units << (shift - 2);
+    }
+
+    /**
+     * 借出一块至少 size 字节的缓冲，引用计数为 1，position = 0
+     */
+    public FrameBuffer acquire(int size) {
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("size out of range: " + size);
+        }
+        drainLeaks();
+        int index = bucketIndex(size, mMinBucketBytes);
+        int capacity = bucketCapacity(index, mMinBucketBytes);
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            mAcquires++;
+            ArrayDeque<ByteBuffer> free = mFree.get(index);
+            if (null != free) {
+                buffer = free.pollFirst();
+            }
+            if (null != buffer) {
+                mHits++;
+                mRetainedBytes -= capacity;
+            }
+            mOutstanding++;
+            mOutstandingBytes += capacity;
+        }
+        if (null == buffer) {
+            buffer = mDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+        buffer.clear();
+        FrameBuffer frame = new FrameBuffer(this, buffer, index, size);
+        if (null != mLeakListener) {
+            LeakTracker tracker = new LeakTracker(frame, mLeakQueue, capacity,
+                    new Throwable("FrameBuffer(" + size + ") acquired here"));
+            frame.mTracker = tracker;
+            synchronized (this) {
+                mTrackers.put(tracker, Boolean.TRUE);
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * 引用计数归零，由 {@link FrameBuffer#release()} 调用
+     */
+    void recycle(FrameBuffer frame) {
+        int index = frame.getBucket();
+        int capacity = bucketCapacity(index, mMinBucketBytes);
+        synchronized (this) {
+            LeakTracker tracker = frame.mTracker;
+            if (null != tracker) {
+                tracker.clear();
+                mTrackers.remove(tracker);
+                frame.mTracker = null;
+            }
+            mOutstanding--;
+            mOutstandingBytes -= capacity;
+            if (mRetainedBytes + capacity > mRetainLimit) {
+                mDropped++;
+                return;
+            }
+            ArrayDeque<ByteBuffer> free = mFree.get(index);
+            if (null == free) {
+                free = new ArrayDeque<>();
+                mFree.set(index, free);
+            }
+            free.addFirst(frame.rawBuffer());
+            mRetainedBytes += capacity;
+        }
+    }
+
+    /**
+     * 报告已经被回收但没有释放的 FrameBuffer
+     */
+    public void drainLeaks() {
+        if (null == mLeakQueue) {
+            return;
+        }
+        while (true) {
+            LeakTracker tracker = (LeakTracker) mLeakQueue.poll();
+            if (null == tracker) {
+                return;
+            }
+            synchronized (this) {
+                if (null == mTrackers.remove(tracker)) {
+                    continue;
+                }
+                mLeaks++;
+                mOutstanding--;
+                mOutstandingBytes -= tracker.capacity;
+            }
+            mLeakListener.onLeak(tracker.capacity, tracker.site);
+        }
+    }
+
+    /**
+     * 还没有释放的借出位置，只在开启泄漏检测时可用
+     */
+    public synchronized List<Throwable> getOutstandingSites() {
+        List<Throwable> sites = new ArrayList<>();
+        if (null != mTrackers) {
+            for (LeakTracker tracker : mTrackers.keySet()) {
+                sites.add(tracker.site);
+            }
+        }
+        return sites;
+    }
+
+    /**
+     * 响应 ComponentCallbacks2.onTrimMemory()
+     * <p>
+     * RUNNING_LOW 时空闲缓冲减到上限的一半；RUNNING_CRITICAL 以及界面不可见之后的各级别全部释放，
+     * 而且回到前台之前不再保留空闲缓冲（归还的直接丢弃），直到 {@link #restore()}。
+     */
+    public synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mRetainLimit = 0;
+            trimToLocked(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToLocked(mRetainLimit / 2);
+        }
+    }
+
+    /**
+     * 回到前台，恢复空闲缓冲上限
+     */
+    public synchronized void restore() {
+        mRetainLimit = mMaxRetainedBytes;
+    }
+
+    /**
+     * 释放所有空闲缓冲
+     */
+    public synchronized void trim() {
+        trimToLocked(0);
+    }
+
+    private void trimToLocked(long targetBytes) {
+        // 先丢大的
+        for (int index = mFree.size() - 1; index >= 0 && mRetainedBytes > targetBytes; index--) {
+            ArrayDeque<ByteBuffer> free = mFree.get(index);
+            if (null == free) {
+                continue;
+            }
+            int capacity = bucketCapacity(index, mMinBucketBytes);
+            while (!free.isEmpty() && mRetainedBytes > targetBytes) {
+                free.pollFirst();
+                mRetainedBytes -= capacity;
+                mTrimmedBytes += capacity;
+            }
+        }
+    }
+
+    public synchronized long getRetainedBytes() {
+        return mRetainedBytes;
+    }
+
+    public synchronized int getOutstanding() {
+        return mOutstanding;
+    }
+
+    public synchronized long getOutstandingBytes() {
+        return mOutstandingBytes;
+    }
+
+    public synchronized long getAcquires() {
+        return mAcquires;
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /**
+     * 归还时超过空闲上限而丢弃的次数
+     */
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+
+    public synchronized long getTrimmedBytes() {
+        return mTrimmedBytes;
+    }
+
+    public synchronized long getLeaks() {
+        return mLeaks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "FramePool{acquires=%d, hits=%d, outstanding=%d (%.1fMB), retained=%.1fMB, dropped=%d, trimmedMB=%.1f, leaks=%d}",
+                mAcquires, mHits, mOutstanding, mOutstandingBytes / (1024.0 * 1024.0), mRetainedBytes / (1024.0 * 1024.0),
+                mDropped, mTrimmedBytes / (1024.0 * 1024.0), mLeaks);
+    }
+}
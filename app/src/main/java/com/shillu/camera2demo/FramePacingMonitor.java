@@ -0,0 +1,200 @@
+package com.shillu.camera2demo;
+
+import java.util.Locale;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 预览帧节奏监控：实际帧率、帧间抖动、丢帧和管线深度
+ * <p>
+ * 数据来自预览的 CaptureCallback：
+ * 1. onCaptureStarted 时在途帧数加一，onCaptureCompleted / onCaptureFailed 时减一，完成时的在途帧数就是管线深度；
+ * 2. 相邻两帧 SENSOR_TIMESTAMP 之差是帧间隔，和 SENSOR_FRAME_DURATION 比较得到抖动，超过 1.5 倍帧时长算一次卡顿；
+ * 3. 完成帧的帧号不连续说明中间有帧丢了（onCaptureFailed 的帧也会留下空洞，另外单独计数）。
+ * <p>
+ * 最近 {@link #WINDOW} 帧的间隔、期望间隔和管线深度放在定长的基本类型环形数组中，
+ * 每帧只写数组不分配对象，帧率、抖动等统计在查询时才计算。
+ * 所有方法都是同步的：回调在相机线程，查询可以在任意线程。
+ */
+public final class FramePacingMonitor {
+
+    /**
+     * 统计窗口帧数
+     */
+    public static final int WINDOW = 120;
+
+    /**
+     * 帧间隔超过期望帧时长的这个倍数算一次卡顿
+     */
+    private static final double STUTTER_FACTOR = 1.5;
+
+    private final long[] mIntervals = new long[WINDOW];
+    private final long[] mExpected = new long[WINDOW];
+    private final int[] mDepths = new int[WINDOW];
+    private int mHead;
+    private int mSize;
+
+    private long mLastTimestamp = -1;
+    private long mLastFrameNumber = -1;
+    private int mInFlight;
+
+    private long mFrames;
+    private long mDropped;
+    private long mFailed;
+    private long mStutters;
+    private int mMaxDepth;
+
+    /**
+     * 新会话开始：之前的时间戳和帧号不再连续
+     */
+    public synchronized void onSessionStarted() {
+        mLastTimestamp = -1;
+        mLastFrameNumber = -1;
+        mInFlight = 0;
+    }
+
+    public synchronized void onFrameStarted(long frameNumber) {
+        mInFlight++;
+    }
+
+    public synchronized void onFrameFailed(long frameNumber) {
+        mFailed++;
+        mInFlight = Math.max(0, mInFlight - 1);
+    }
+
+    /**
+     * @param frameNumber   CaptureResult.getFrameNumber()
+     * @param timestampNs   SENSOR_TIMESTAMP
+     * @param frameDurationNs SENSOR_FRAME_DURATION，不可用时传 0
+     */
+    public synchronized void onFrameCompleted(long frameNumber, long timestampNs, long frameDurationNs) {
+        int depth = mInFlight;
+        mInFlight = Math.max(0, mInFlight - 1);
+        mFrames++;
+        if (depth > mMaxDepth) {
+            mMaxDepth = depth;
+        }
+        if (mLastFrameNumber >= 0 && frameNumber > mLastFrameNumber + 1) {
+            mDropped += frameNumber - mLastFrameNumber - 1;
+        }
+        if (mLastTimestamp >= 0 && timestampNs > mLastTimestamp) {
+            long interval = timestampNs - mLastTimestamp;
+            int index = (mHead + mSize) % WINDOW;
+            if (mSize == WINDOW) {
+                mHead = (mHead + 1) % WINDOW;
+            } else {
+                mSize++;
+            }
+            mIntervals[index] = interval;
+            mExpected[index] = frameDurationNs;
+            mDepths[index] = depth;
+            if (frameDurationNs > 0 && interval > frameDurationNs * STUTTER_FACTOR) {
+                mStutters++;
+            }
+        }
+        if (frameNumber > mLastFrameNumber) {
+            mLastFrameNumber = frameNumber;
+        }
+        if (timestampNs > mLastTimestamp) {
+            mLastTimestamp = timestampNs;
+        }
+    }
+
+    /**
+     * 窗口内的实际帧率，数据不足时返回 0
+     */
+    public synchronized double getFps() {
+        long total = 0;
+        for (int i = 0; i < mSize; i++) {
+            total += mIntervals[(mHead + i) % WINDOW];
+        }
+        return total == 0 ? 0 : mSize * 1e9 / total;
+    }
+
+    /**
+     * 窗口内帧间隔的标准差（纳秒）
+     */
+    public synchronized long getJitterNs() {
+        if (mSize < 2) {
+            return 0;
+        }
+        double mean = 0;
+        for (int i = 0; i < mSize; i++) {
+            mean += mIntervals[(mHead + i) % WINDOW];
+        }
+        mean /= mSize;
+        double variance = 0;
+        for (int i = 0; i < mSize; i++) {
+            double diff = mIntervals[(mHead + i) % WINDOW] - mean;
+            variance += diff * diff;
+        }
+        return (long) Math.sqrt(variance / mSize);
+    }
+
+    /**
+     * 窗口内帧间隔相对 SENSOR_FRAME_DURATION 的最大超出量（纳秒）
+     */
+    public synchronized long getMaxLatenessNs() {
+        long max = 0;
+        for (int i = 0; i < mSize; i++) {
+            int index = (mHead + i) % WINDOW;
+            if (mExpected[index] > 0) {
+                max = Math.max(max, mIntervals[index] - mExpected[index]);
+            }
+        }
+        return max;
+    }
+
+    public synchronized long getMaxIntervalNs() {
+        long max = 0;
+        for (int i = 0; i < mSize; i++) {
+            max = Math.max(max, mIntervals[(mHead + i) % WINDOW]);
+        }
+        return max;
+    }
+
+    /**
+     * 窗口内的平均管线深度
+     */
+    public synchronized double getAverageDepth() {
+        if (mSize == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 0; i < mSize; i++) {
+            total += mDepths[(mHead + i) % WINDOW];
+        }
+        return (double) total / mSize;
+    }
+
+    public synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    public synchronized long getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * 帧号空洞累计的丢帧数，包括 onCaptureFailed 的帧
+     */
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+
+    public synchronized long getFailed() {
+        return mFailed;
+    }
+
+    public synchronized long getStutters() {
+        return mStutters;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "FramePacing{fps=%.1f, jitterMs=%.2f, maxIntervalMs=%.1f, frames=%d, dropped=%d, failed=%d, stutters=%d, depth=%.1f/%d}",
+                getFps(), getJitterNs() / 1e6, getMaxIntervalNs() / 1e6, mFrames, mDropped, mFailed, mStutters,
+                getAverageDepth(), mMaxDepth);
+    }
+}
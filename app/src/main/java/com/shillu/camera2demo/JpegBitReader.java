@@ -0,0 +1,220 @@
+package com.shillu.camera2demo;
+
+import java.io.IOException;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description JPEG 熵编码数据的读取器：去掉 0xFF 之后的 0x00、Huffman 解码一个 8x8 块的量化系数，不做反量化和 IDCT
+ * <p>
+ * {@link JpegBitWriter} 的反向操作。按字节预读到一个 64 位的累加器里，遇到标记（RSTn、EOI）时停止预读、用 0 补齐，
+ * 由 {@link #restart()} 跳过 RSTn 继续。Huffman 码先查 9 位的前缀表，更长的码按 T.81 F.2.2.3 的规范码逐位比较。
+ * 不是线程安全的。
+ */
+public final class JpegBitReader {
+
+    private static final int LOOKAHEAD = 9;
+
+    /**
+     * 一张 Huffman 表的解码形式
+     */
+    static final class DecodeTable {
+        /**
+         * 9 位前缀 -> (码长 << 8) | 符号，0 表示码长超过 9 位
+         */
+        final int[] lookup = new int[1 << LOOKAHEAD];
+        /**
+         * 每个码长的最大码，没有这个长度的码时为 -1
+         */
+        final int[] maxCode = new int[18];
+        /**
+         * 码减去它就是符号在 values 中的下标
+         */
+        final int[] valueOffset = new int[17];
+        final int[] values;
+
+        /**
+         * @param bits   每个码长（1 ~ 16）的码个数
+         * @param values 按码长排列的符号
+         * @throws IOException 表的内容不是合法的前缀码
+         */
+        DecodeTable(int[] bits, int[] values) throws IOException {
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                valueOffset[length] = k - code;
+                for (int i = 0; i < bits[length - 1]; i++) {
+                    if (length <= LOOKAHEAD) {
+                        int shift = LOOKAHEAD - length;
+                        for (int fill = code << shift; fill < (code + 1) << shift; fill++) {
+                            lookup[fill] = (length << 8) | values[k];
+                        }
+                    }
+                    code++;
+                    k++;
+                }
+                if (code > 1 << length) {
+                    throw new IOException("Bad Huffman table");
+                }
+                maxCode[length] = bits[length - 1] > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+        }
+    }
+
+    private final byte[] mData;
+    private final int mEnd;
+    private int mPosition;
+    /**
+     * 左对齐的预读位，最高位是下一个要读的位
+     */
+    private long mBits;
+    private int mBitCount;
+    /**
+     * 预读时遇到的标记，-1 表示还没遇到
+     */
+    private int mMarker = -1;
+
+    /**
+     * @param offset 熵编码数据开始的位置（SOS 段之后）
+     */
+    public JpegBitReader(byte[] data, int offset, int end) {
+        mData = data;
+        mPosition = offset;
+        mEnd = end;
+    }
+
+    /**
+     * 预读到至少 57 位，遇到标记或者数据结束后补 0
+     */
+    private void fill() {
+        while (mBitCount <= 56) {
+            int b = 0;
+            if (mMarker < 0 && mPosition < mEnd) {
+                b = mData[mPosition] & 0xff;
+                if (b == 0xff) {
+                    int next = mPosition + 1 < mEnd ? mData[mPosition + 1] & 0xff : 0xd9;
+                    if (next == 0) {
+                        mPosition += 2;
+                    } else if (next == 0xff) {
+                        // 标记前的填充字节
+                        mPosition++;
+                        continue;
+                    } else {
+                        mMarker = next;
+                        b = 0;
+                    }
+                } else {
+                    mPosition++;
+                }
+            }
+            mBits |= (long) b << (56 - mBitCount);
+            mBitCount += 8;
+        }
+    }
+
+    private int decode(DecodeTable table) throws IOException {
+        int entry = table.lookup[(int) (mBits >>> (64 - LOOKAHEAD))];
+        if (entry != 0) {
+            int length = entry >> 8;
+            mBits <<= length;
+            mBitCount -= length;
+            return entry & 0xff;
+        }
+        int length = LOOKAHEAD + 1;
+        int code = (int) (mBits >>> (64 - length));
+        while (code > table.maxCode[length]) {
+            length++;
+            if (length > 16) {
+                throw new IOException("Bad Huffman code");
+            }
+            code = (int) (mBits >>> (64 - length));
+        }
+        mBits <<= length;
+        mBitCount -= length;
+        return table.values[code + table.valueOffset[length]];
+    }
+
+    /**
+     * 读 size 位附加位并按 T.81 F.2.2.1 还原成有符号数
+     */
+    private int receiveExtend(int size) {
+        if (size == 0) {
+            return 0;
+        }
+        int value = (int) (mBits >>> (64 - size));
+        mBits <<= size;
+        mBitCount -= size;
+        return value < 1 << (size - 1) ? value - (1 << size) + 1 : value;
+    }
+
+    /**
+     * 解码一个块，系数按自然顺序（行优先）写入 out[offset, offset + 64)，out 中这段必须全是 0
+     *
+     * @param previousDc 同一分量上一个块的 DC（restart 之后为 0）
+     * @return 这个块的 DC
+     * @throws IOException 数据损坏
+     */
+    public int readBlock(short[] out, int offset, int previousDc, DecodeTable dc, DecodeTable ac) throws IOException {
+        if (mBitCount < 32) {
+            fill();
+        }
+        int size = decode(dc);
+        if (size > 11) {
+            throw new IOException("Bad DC size " + size);
+        }
+        int dcValue = previousDc + receiveExtend(size);
+        out[offset] = (short) dcValue;
+        for (int k = 1; k < 64; k++) {
+            if (mBitCount < 32) {
+                fill();
+            }
+            int symbol = decode(ac);
+            int run = symbol >> 4;
+            size = symbol & 15;
+            if (size == 0) {
+                if (run != 15) {
+                    // EOB
+                    break;
+                }
+                // ZRL，循环的 k++ 补上第 16 个
+                k += 15;
+                continue;
+            }
+            k += run;
+            if (k > 63 || size > 10) {
+                throw new IOException("Bad AC symbol " + symbol);
+            }
+            out[offset + JpegTables.NATURAL_ORDER[k]] = (short) receiveExtend(size);
+        }
+        return dcValue;
+    }
+
+    /**
+     * restart 间隔到了：丢掉剩余的填充位，跳过 RSTn 标记
+     *
+     * @throws IOException 下一个标记不是 RSTn
+     */
+    public void restart() throws IOException {
+        mBits = 0;
+        mBitCount = 0;
+        if (mMarker < 0) {
+            // 预读还没到标记，向前找
+            while (mPosition + 1 < mEnd && !((mData[mPosition] & 0xff) == 0xff
+                    && (mData[mPosition + 1] & 0xff) != 0 && (mData[mPosition + 1] & 0xff) != 0xff)) {
+                mPosition++;
+            }
+            if (mPosition + 1 >= mEnd) {
+                throw new IOException("Missing restart marker");
+            }
+            mMarker = mData[mPosition + 1] & 0xff;
+        }
+        if (mMarker < 0xd0 || mMarker > 0xd7) {
+            throw new IOException("Expected restart marker, got 0x" + Integer.toHexString(mMarker));
+        }
+        mPosition += 2;
+        mMarker = -1;
+    }
+}
@@ -0,0 +1,151 @@
+package com.shillu.camera2demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description JPEG 熵编码数据的写入器：Huffman 编码一个 8x8 块、0xFF 后补 0x00、结束时用 1 补齐字节
+ * <p>
+ * 写进一块可增长的数组，一个写入器对应一个 restart 段（或者文件头），写完之后 {@link #writeTo(WritableByteChannel)} 一次写进通道。
+ * 不是线程安全的，每个任务用自己的写入器。
+ */
+public final class JpegBitWriter {
+
+    private byte[] mBytes;
+    private int mLength;
+    private long mBitBuffer;
+    private int mBitCount;
+
+    public JpegBitWriter(int initialCapacity) {
+        mBytes = new byte[Math.max(16, initialCapacity)];
+    }
+
+    private void ensure(int extra) {
+        if (mLength + extra > mBytes.length) {
+            mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length * 2, mLength + extra));
+        }
+    }
+
+    /**
+     * 写一个原始字节（标记、段内容），不做填充，调用前熵编码数据必须已经 {@link #flushBits()}
+     */
+    public void writeByte(int value) {
+        ensure(1);
+        mBytes[mLength++] = (byte) value;
+    }
+
+    public void writeShort(int value) {
+        writeByte(value >> 8);
+        writeByte(value);
+    }
+
+    public void writeBytes(byte[] data, int offset, int length) {
+        ensure(length);
+        System.arraycopy(data, offset, mBytes, mLength, length);
+        mLength += length;
+    }
+
+    /**
+     * 写入熵编码数据的低 count 位（count 不超过 32），输出的 0xFF 之后补 0x00
+     */
+    public void writeBits(int value, int count) {
+        if (count == 0) {
+            return;
+        }
+        mBitBuffer = (mBitBuffer << count) | (value & ((1L << count) - 1));
+        mBitCount += count;
+        while (mBitCount >= 8) {
+            int b = (int) (mBitBuffer >> (mBitCount - 8)) & 0xff;
+            ensure(2);
+            mBytes[mLength++] = (byte) b;
+            if (b == 0xff) {
+                mBytes[mLength++] = 0;
+            }
+            mBitCount -= 8;
+        }
+    }
+
+    /**
+     * 不满一个字节的部分用 1 补齐（restart 标记和 EOI 之前必须字节对齐）
+     */
+    public void flushBits() {
+        if (mBitCount > 0) {
+            writeBits(0x7f, 8 - mBitCount);
+        }
+        mBitBuffer = 0;
+    }
+
+    /**
+     * 系数值的附加位：正数原样，负数取 value - 1 的低位（T.81 F.1.2.1）
+     */
+    static int category(int value) {
+        int magnitude = value < 0 ? -value : value;
+        return 32 - Integer.numberOfLeadingZeros(magnitude);
+    }
+
+    /**
+     * Huffman 编码一个块
+     *
+     * @param coefficients 之字形顺序的量化系数
+     * @param previousDc   同一分量上一个块的 DC（restart 之后为 0）
+     * @return 这个块的 DC，作为下一个块的预测值
+     */
+    public int writeBlock(int[] coefficients, int previousDc, JpegTables.HuffmanTable dc, JpegTables.HuffmanTable ac) {
+        int dcValue = coefficients[0];
+        int diff = dcValue - previousDc;
+        int size = category(diff);
+        // Huffman 码和附加位合在一起写，码长不超过 16，附加位不超过 11
+        writeBits(dc.codes[size] << size | ((diff < 0 ? diff - 1 : diff) & ((1 << size) - 1)), dc.sizes[size] + size);
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[k];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                // ZRL：16 个 0
+                writeBits(ac.codes[0xf0], ac.sizes[0xf0]);
+                run -= 16;
+            }
+            size = category(value);
+            int symbol = (run << 4) | size;
+            writeBits(ac.codes[symbol] << size | ((value < 0 ? value - 1 : value) & ((1 << size) - 1)), ac.sizes[symbol] + size);
+            run = 0;
+        }
+        if (run > 0) {
+            // EOB
+            writeBits(ac.codes[0], ac.sizes[0]);
+        }
+        return dcValue;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * 写入通道，返回写入的字节数
+     */
+    public int writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(mBytes, 0, mLength);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return mLength;
+    }
+
+    /**
+     * 清空，复用底层数组
+     */
+    public void reset() {
+        mLength = 0;
+        mBitBuffer = 0;
+        mBitCount = 0;
+    }
+}
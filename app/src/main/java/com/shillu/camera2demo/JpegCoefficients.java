@@ -0,0 +1,411 @@
+package com.shillu.camera2demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 一张基线 JPEG 的量化 DCT 系数：只做 Huffman 解码，不做反量化和 IDCT
+ * <p>
+ * 旋转、裁剪（{@link JpegTransformer}）只是重新排列这些系数再 Huffman 编码一遍，像素不经过有损的 IDCT / DCT，结果是无损的。
+ * <p>
+ * 支持相机（HAL）和 {@link JpegEncoder} 输出的格式：SOF0 / SOF1 8 位精度、Huffman 编码、1 个或 3 个分量在同一次扫描里交错、
+ * 任意采样因子、可选的 restart 间隔。渐进式、算术编码、多次扫描的 JPEG 抛出 IOException。
+ * APPn 和 COM 段原样保留，重新编码时写回去（EXIF 等）。
+ * <p>
+ * 只需要逐块看一遍系数时（{@link JpegThumbnailer}）用 {@link BlockVisitor} 边解码边处理，不保留整张图的系数，
+ * 12MP 的照片省下约 36MB 的 short 数组。
+ */
+public final class JpegCoefficients {
+
+    /**
+     * 边解码边处理系数块
+     */
+    interface BlockVisitor {
+        /**
+         * 帧头和扫描头解析完、开始解码之前调用，这时 image 的系数数组为 null
+         */
+        void onHeader(JpegCoefficients image);
+
+        /**
+         * 一个块的量化系数，自然顺序在 coefficients[offset, offset + 64)，返回后会被清零复用
+         */
+        void onBlock(int component, int blockCol, int blockRow, short[] coefficients, int offset);
+    }
+
+    /**
+     * 一个颜色分量
+     */
+    public static final class Component {
+        public final int id;
+        /**
+         * 水平、垂直采样因子
+         */
+        public final int h;
+        public final int v;
+        final int quantId;
+        /**
+         * 系数块的列数、行数，按整 MCU 补齐
+         */
+        public final int blocksWide;
+        public final int blocksHigh;
+        /**
+         * 每块 64 个系数，自然顺序（行优先，第一行是垂直频率 0），块按行优先排列；用 {@link BlockVisitor} 解码时为 null
+         */
+        final short[] coefficients;
+        int dcTable;
+        int acTable;
+
+        Component(int id, int h, int v, int quantId, int blocksWide, int blocksHigh, boolean allocate) {
+            this.id = id;
+            this.h = h;
+            this.v = v;
+            this.quantId = quantId;
+            this.blocksWide = blocksWide;
+            this.blocksHigh = blocksHigh;
+            this.coefficients = allocate ? new short[blocksWide * blocksHigh * 64] : null;
+        }
+
+        /**
+         * 第 (blockCol, blockRow) 块在 {@link #coefficients} 中的起点
+         */
+        int blockOffset(int blockCol, int blockRow) {
+            return (blockRow * blocksWide + blockCol) * 64;
+        }
+    }
+
+    public final int width;
+    public final int height;
+    final int maxH;
+    final int maxV;
+    final int mcusWide;
+    final int mcusHigh;
+    final Component[] components;
+    /**
+     * 自然顺序的量化表，下标是 DQT 中的表号
+     */
+    final int[][] quant;
+    /**
+     * 完整的 APPn / COM 段（从 0xFF 开始），按原顺序
+     */
+    final List<byte[]> segments;
+
+    private JpegCoefficients(int width, int height, Component[] components, int[][] quant, List<byte[]> segments) {
+        this.width = width;
+        this.height = height;
+        int maxH = 1;
+        int maxV = 1;
+        for (Component component : components) {
+            maxH = Math.max(maxH, component.h);
+            maxV = Math.max(maxV, component.v);
+        }
+        this.maxH = maxH;
+        this.maxV = maxV;
+        this.mcusWide = (width + 8 * maxH - 1) / (8 * maxH);
+        this.mcusHigh = (height + 8 * maxV - 1) / (8 * maxV);
+        this.components = components;
+        this.quant = quant;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * MCU 的像素宽度，裁剪的起点必须是它的整数倍
+     */
+    public int getMcuWidth() {
+        return 8 * maxH;
+    }
+
+    public int getMcuHeight() {
+        return 8 * maxV;
+    }
+
+    public int getComponentCount() {
+        return components.length;
+    }
+
+    public Component getComponent(int index) {
+        return components[index];
+    }
+
+    /**
+     * 分量使用的量化表（自然顺序），用于反量化
+     */
+    public int[] getQuant(int index) {
+        return quant[components[index].quantId];
+    }
+
+    /**
+     * 建一个空的系数表，由调用方填系数后重新编码
+     *
+     * @param sampling 每个分量的 {id, h, v, quantId}
+     */
+    static JpegCoefficients create(int width, int height, int[][] sampling, int[][] quant, List<byte[]> segments,
+                                   boolean allocate) {
+        int maxH = 1;
+        int maxV = 1;
+        for (int[] component : sampling) {
+            maxH = Math.max(maxH, component[1]);
+            maxV = Math.max(maxV, component[2]);
+        }
+        int mcusWide = (width + 8 * maxH - 1) / (8 * maxH);
+        int mcusHigh = (height + 8 * maxV - 1) / (8 * maxV);
+        Component[] components = new Component[sampling.length];
+        for (int i = 0; i < sampling.length; i++) {
+            int[] c = sampling[i];
+            components[i] = new Component(c[0], c[1], c[2], c[3], mcusWide * c[1], mcusHigh * c[2], allocate);
+        }
+        return new JpegCoefficients(width, height, components, quant, segments);
+    }
+
+    /**
+     * 解码 jpeg 从 position 到 limit 的内容，不改变 position
+     *
+     * @throws IOException 不是 JPEG、数据损坏或者不支持的编码方式
+     */
+    public static JpegCoefficients read(ByteBuffer jpeg) throws IOException {
+        return read(jpeg, null);
+    }
+
+    /**
+     * 解码并把每个块交给 visitor，返回的对象只有帧头信息，不带系数
+     */
+    static JpegCoefficients read(ByteBuffer jpeg, BlockVisitor visitor) throws IOException {
+        byte[] data;
+        int offset;
+        int end;
+        if (jpeg.hasArray()) {
+            data = jpeg.array();
+            offset = jpeg.arrayOffset() + jpeg.position();
+            end = jpeg.arrayOffset() + jpeg.limit();
+        } else {
+            // 直接缓冲区（ImageReader 的 Image、映射的文件）复制一次，逐字节解码走数组比 ByteBuffer.get() 快
+            data = new byte[jpeg.remaining()];
+            jpeg.duplicate().get(data);
+            offset = 0;
+            end = data.length;
+        }
+        return read(data, offset, end, visitor);
+    }
+
+    static JpegCoefficients read(byte[] data, int offset, int end, BlockVisitor visitor) throws IOException {
+        if (end - offset < 4 || (data[offset] & 0xff) != 0xff || (data[offset + 1] & 0xff) != 0xd8) {
+            throw new IOException("Not a JPEG stream");
+        }
+        int[][] quant = new int[4][];
+        JpegBitReader.DecodeTable[] dcTables = new JpegBitReader.DecodeTable[4];
+        JpegBitReader.DecodeTable[] acTables = new JpegBitReader.DecodeTable[4];
+        List<byte[]> segments = new ArrayList<>();
+        int restartInterval = 0;
+        JpegCoefficients image = null;
+        int position = offset + 2;
+        while (true) {
+            if (position + 4 > end) {
+                throw new IOException("Unexpected end of JPEG");
+            }
+            if ((data[position] & 0xff) != 0xff) {
+                throw new IOException("Expected marker at " + (position - offset));
+            }
+            int marker = data[position + 1] & 0xff;
+            if (marker == 0xff) {
+                // 填充字节
+                position++;
+                continue;
+            }
+            if (marker == 0xd9) {
+                throw new IOException("No scan before EOI");
+            }
+            int length = ((data[position + 2] & 0xff) << 8) | (data[position + 3] & 0xff);
+            int start = position + 4;
+            int segmentEnd = position + 2 + length;
+            if (length < 2 || segmentEnd > end) {
+                throw new IOException("Truncated segment 0x" + Integer.toHexString(marker));
+            }
+            if ((marker >= 0xe0 && marker <= 0xef) || marker == 0xfe) {
+                byte[] segment = new byte[segmentEnd - position];
+                System.arraycopy(data, position, segment, 0, segment.length);
+                segments.add(segment);
+            } else if (marker == 0xdb) {
+                readQuant(data, start, segmentEnd, quant);
+            } else if (marker == 0xc4) {
+                readHuffman(data, start, segmentEnd, dcTables, acTables);
+            } else if (marker == 0xdd) {
+                restartInterval = ((data[start] & 0xff) << 8) | (data[start + 1] & 0xff);
+            } else if (marker == 0xc0 || marker == 0xc1) {
+                image = readFrame(data, start, quant, segments, null == visitor);
+            } else if (marker >= 0xc2 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+                throw new IOException("Unsupported JPEG process SOF" + (marker - 0xc0));
+            } else if (marker == 0xda) {
+                if (null == image) {
+                    throw new IOException("SOS before SOF");
+                }
+                readScanHeader(data, start, image, dcTables, acTables);
+                if (null != visitor) {
+                    visitor.onHeader(image);
+                }
+                image.decodeScan(data, segmentEnd, end, restartInterval, dcTables, acTables, visitor);
+                return image;
+            }
+            position = segmentEnd;
+        }
+    }
+
+    private static void readQuant(byte[] data, int position, int end, int[][] quant) throws IOException {
+        while (position < end) {
+            int precision = (data[position] & 0xff) >> 4;
+            int id = data[position] & 0x0f;
+            position++;
+            if (id > 3 || position + 64 * (precision + 1) > end) {
+                throw new IOException("Bad DQT");
+            }
+            int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                int value = data[position++] & 0xff;
+                if (precision != 0) {
+                    value = (value << 8) | (data[position++] & 0xff);
+                }
+                table[JpegTables.NATURAL_ORDER[k]] = value;
+            }
+            quant[id] = table;
+        }
+    }
+
+    private static void readHuffman(byte[] data, int position, int end, JpegBitReader.DecodeTable[] dcTables,
+                                    JpegBitReader.DecodeTable[] acTables) throws IOException {
+        while (position < end) {
+            int tableClass = (data[position] & 0xff) >> 4;
+            int id = data[position] & 0x0f;
+            position++;
+            if (id > 3 || position + 16 > end) {
+                throw new IOException("Bad DHT");
+            }
+            int[] bits = new int[16];
+            int count = 0;
+            for (int i = 0; i < 16; i++) {
+                bits[i] = data[position++] & 0xff;
+                count += bits[i];
+            }
+            if (count > 256 || position + count > end) {
+                throw new IOException("Bad DHT");
+            }
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = data[position++] & 0xff;
+            }
+            JpegBitReader.DecodeTable table = new JpegBitReader.DecodeTable(bits, values);
+            if (tableClass == 0) {
+                dcTables[id] = table;
+            } else {
+                acTables[id] = table;
+            }
+        }
+    }
+
+    private static JpegCoefficients readFrame(byte[] data, int position, int[][] quant, List<byte[]> segments,
+                                              boolean allocate) throws IOException {
+        int precision = data[position] & 0xff;
+        int height = ((data[position + 1] & 0xff) << 8) | (data[position + 2] & 0xff);
+        int width = ((data[position + 3] & 0xff) << 8) | (data[position + 4] & 0xff);
+        int count = data[position + 5] & 0xff;
+        if (precision != 8) {
+            throw new IOException("Unsupported precision " + precision);
+        }
+        if (width == 0 || height == 0) {
+            // 高度在 DNL 里给出，相机不会这样写
+            throw new IOException("Unsupported frame size " + width + "x" + height);
+        }
+        if (count != 1 && count != 3) {
+            throw new IOException("Unsupported component count " + count);
+        }
+        int[][] sampling = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int base = position + 6 + i * 3;
+            int factors = data[base + 1] & 0xff;
+            int h = factors >> 4;
+            int v = factors & 0x0f;
+            int quantId = data[base + 2] & 0x0f;
+            if (h < 1 || h > 4 || v < 1 || v > 4 || quantId > 3 || null == quant[quantId]) {
+                throw new IOException("Bad component " + i);
+            }
+            // 单个分量不交错，一个 MCU 就是一个块
+            sampling[i] = count == 1
+                    ? new int[]{data[base] & 0xff, 1, 1, quantId}
+                    : new int[]{data[base] & 0xff, h, v, quantId};
+        }
+        return create(width, height, sampling, quant, segments, allocate);
+    }
+
+    private static void readScanHeader(byte[] data, int position, JpegCoefficients image,
+                                       JpegBitReader.DecodeTable[] dcTables, JpegBitReader.DecodeTable[] acTables) throws IOException {
+        int count = data[position] & 0xff;
+        if (count != image.components.length) {
+            throw new IOException("Unsupported multi-scan JPEG");
+        }
+        for (int i = 0; i < count; i++) {
+            int id = data[position + 1 + i * 2] & 0xff;
+            int tables = data[position + 2 + i * 2] & 0xff;
+            Component component = image.components[i];
+            if (component.id != id) {
+                throw new IOException("Scan component order differs from frame");
+            }
+            component.dcTable = tables >> 4;
+            component.acTable = tables & 0x0f;
+            if (component.dcTable > 3 || component.acTable > 3
+                    || null == dcTables[component.dcTable] || null == acTables[component.acTable]) {
+                throw new IOException("Missing Huffman table for component " + id);
+            }
+        }
+    }
+
+    private void decodeScan(byte[] data, int offset, int end, int restartInterval,
+                            JpegBitReader.DecodeTable[] dcTables, JpegBitReader.DecodeTable[] acTables,
+                            BlockVisitor visitor) throws IOException {
+        JpegBitReader reader = new JpegBitReader(data, offset, end);
+        short[] scratch = null != visitor ? new short[64] : null;
+        int[] previousDc = new int[components.length];
+        int mcu = 0;
+        for (int mcuRow = 0; mcuRow < mcusHigh; mcuRow++) {
+            for (int mcuCol = 0; mcuCol < mcusWide; mcuCol++) {
+                if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                    reader.restart();
+                    for (int i = 0; i < previousDc.length; i++) {
+                        previousDc[i] = 0;
+                    }
+                }
+                for (int i = 0; i < components.length; i++) {
+                    Component component = components[i];
+                    JpegBitReader.DecodeTable dc = dcTables[component.dcTable];
+                    JpegBitReader.DecodeTable ac = acTables[component.acTable];
+                    for (int y = 0; y < component.v; y++) {
+                        for (int x = 0; x < component.h; x++) {
+                            int blockCol = mcuCol * component.h + x;
+                            int blockRow = mcuRow * component.v + y;
+                            if (null == visitor) {
+                                previousDc[i] = reader.readBlock(component.coefficients,
+                                        component.blockOffset(blockCol, blockRow), previousDc[i], dc, ac);
+                            } else {
+                                previousDc[i] = reader.readBlock(scratch, 0, previousDc[i], dc, ac);
+                                visitor.onBlock(i, blockCol, blockRow, scratch, 0);
+                                Arrays.fill(scratch, (short) 0);
+                            }
+                        }
+                    }
+                }
+                mcu++;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("JpegCoefficients{").append(width).append('x').append(height);
+        for (Component component : components) {
+            builder.append(", ").append(component.id).append(':').append(component.h).append('x').append(component.v);
+        }
+        return builder.append('}').toString();
+    }
+}
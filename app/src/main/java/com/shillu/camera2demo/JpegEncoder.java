@@ -0,0 +1,443 @@
+package com.shillu.camera2demo;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 纯 Java 的基线 JPEG 编码器，直接读 YUV 420 平面，按 restart 段并行编码，边编码边写入通道
+ * <p>
+ * 相机的 YUV_420_888 和 JFIF 用的是同一套全范围 YCbCr，4:2:0 的色度也正好对应 JPEG 的 2x2 采样，
+ * 所以不需要颜色转换和重采样：一个 MCU 是 16x16 像素，4 个 Y 块加 Cb、Cr 各一个块，直接从 {@link YuvConverter.Planes} 按步长取样，
+ * 右边和下边不满一个 MCU 的部分重复边缘像素。
+ * <p>
+ * 每 mcuRowsPerStrip 行 MCU 是一个 restart 段（DRI 标记），段与段之间 DC 预测清零、字节对齐，互不依赖，
+ * 可以在 ForkJoinPool 上同时编码；调用线程按顺序把编码好的段写进通道，同时在飞的段不超过 2 倍并行度，
+ * 整个文件不会同时出现在内存里。顺序编码和并行编码的输出逐字节相同。
+ * <p>
+ * 线程池关闭后提交的段退回到调用线程编码，正在保存的照片不会因此失败。
+ * DCT 是 IJG 的 AAN 浮点算法（jfdctflt），量化除数和 AAN 的缩放因子合并预先算好。编码器不可变，可以在多个线程间共享。
+ */
+public final class JpegEncoder {
+
+    /**
+     * 默认每个 restart 段的 MCU 行数，12MP 大约分成 24 段
+     */
+    public static final int DEFAULT_MCU_ROWS_PER_STRIP = 8;
+
+    private static final float[] AAN_SCALE = {
+            1.0f, 1.387039845f, 1.306562965f, 1.175875602f,
+            1.0f, 0.785694958f, 0.541196100f, 0.275899379f
+    };
+
+    private final ForkJoinPool mPool;
+    private final int mQuality;
+    private final int mMcuRowsPerStrip;
+    private final int[] mLumaQuant;
+    private final int[] mChromaQuant;
+    private final float[] mLumaDivisors;
+    private final float[] mChromaDivisors;
+
+    /**
+     * @param pool            并行编码用的线程池，null 表示在调用线程上顺序编码
+     * @param quality         1 ~ 100
+     * @param mcuRowsPerStrip 每个 restart 段的 MCU 行数
+     */
+    public JpegEncoder(ForkJoinPool pool, int quality, int mcuRowsPerStrip) {
+        mPool = pool;
+        mQuality = Math.max(1, Math.min(100, quality));
+        mMcuRowsPerStrip = Math.max(1, mcuRowsPerStrip);
+        mLumaQuant = JpegTables.scaleQuant(JpegTables.LUMA_QUANT, mQuality);
+        mChromaQuant = JpegTables.scaleQuant(JpegTables.CHROMA_QUANT, mQuality);
+        mLumaDivisors = divisors(mLumaQuant);
+        mChromaDivisors = divisors(mChromaQuant);
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    private static float[] divisors(int[] quant) {
+        float[] divisors = new float[64];
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                divisors[row * 8 + col] = 1.0f / (quant[row * 8 + col] * AAN_SCALE[row] * AAN_SCALE[col] * 8.0f);
+            }
+        }
+        return divisors;
+    }
+
+    /**
+     * 实际使用的每段 MCU 行数：DRI 的间隔是 16 位的 MCU 个数
+     */
+    int mcuRowsPerStrip(int width) {
+        int mcusPerRow = (width + 15) / 16;
+        return Math.max(1, Math.min(mMcuRowsPerStrip, 0xffff / mcusPerRow));
+    }
+
+    /**
+     * 编码一帧写入通道（例如 FileChannel），返回写入的字节数
+     */
+    public long encode(YuvConverter.Planes planes, WritableByteChannel channel) throws IOException {
+        return encode(planes, null, channel);
+    }
+
+    /**
+     * 同 {@link #encode(YuvConverter.Planes, WritableByteChannel)}，segment 是完整的 APPn 段
+     * （例如 {@link ExifWriter#build} 的结果），原样写在 APP0 之后，可以为 null；不改变 segment 的 position
+     */
+    public long encode(final YuvConverter.Planes planes, ByteBuffer segment, WritableByteChannel channel) throws IOException {
+        int width = planes.width;
+        int height = planes.height;
+        if (width > 0xffff || height > 0xffff) {
+            throw new IllegalArgumentException("Image too large for baseline JPEG: " + width + "x" + height);
+        }
+        int mcuRows = (height + 15) / 16;
+        final int rowsPerStrip = mcuRowsPerStrip(width);
+        int strips = (mcuRows + rowsPerStrip - 1) / rowsPerStrip;
+
+        JpegBitWriter header = new JpegBitWriter(1024);
+        writeHeader(header, width, height, strips > 1 ? rowsPerStrip * ((width + 15) / 16) : 0, segment);
+        long written = header.writeTo(channel);
+
+        int estimate = (int) Math.min(Integer.MAX_VALUE / 2, (long) width * rowsPerStrip * 16 / 4);
+        written += writeStrips(mPool, new StripSource() {
+            @Override
+            public void encodeStrip(int strip, int strips, JpegBitWriter out) {
+                JpegEncoder.this.encodeStrip(planes, strip, rowsPerStrip, strips, out);
+            }
+        }, strips, estimate, channel);
+
+        JpegBitWriter trailer = new JpegBitWriter(2);
+        trailer.writeShort(0xffd9);
+        written += trailer.writeTo(channel);
+        return written;
+    }
+
+    /**
+     * 编码一帧写入 ByteBuffer（从 position 开始），空间不够时抛出 BufferOverflowException
+     *
+     * @return 写入的字节数
+     */
+    public int encode(YuvConverter.Planes planes, final ByteBuffer out) {
+        WritableByteChannel channel = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int count = src.remaining();
+                if (count > out.remaining()) {
+                    throw new BufferOverflowException();
+                }
+                out.put(src);
+                return count;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try {
+            return (int) encode(planes, channel);
+        } catch (IOException e) {
+            // 写 ByteBuffer 不会有 IOException
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 编码一个 restart 段，不同的段可能在不同线程上同时调用
+     */
+    interface StripSource {
+        void encodeStrip(int strip, int strips, JpegBitWriter out);
+    }
+
+    /**
+     * 按顺序把 strips 个段写进通道：pool 为 null 时在调用线程逐段编码，否则同时在飞的段不超过 2 倍并行度
+     *
+     * @param estimate 每段输出字节数的估计，用作写入器的初始容量
+     * @return 写入的字节数
+     */
+    static long writeStrips(ForkJoinPool pool, StripSource source, int strips, int estimate,
+                            WritableByteChannel channel) throws IOException {
+        long written = 0;
+        if (null == pool || strips == 1) {
+            JpegBitWriter writer = new JpegBitWriter(estimate);
+            for (int strip = 0; strip < strips; strip++) {
+                writer.reset();
+                source.encodeStrip(strip, strips, writer);
+                written += writer.writeTo(channel);
+            }
+            return written;
+        }
+        int window = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<ForkJoinTask<JpegBitWriter>> inFlight = new ArrayDeque<>(window);
+        int next = 0;
+        try {
+            while (next < strips || !inFlight.isEmpty()) {
+                while (next < strips && inFlight.size() < window) {
+                    ForkJoinTask<JpegBitWriter> task = ForkJoinTask.adapt(new StripTask(source, next++, strips, estimate));
+                    try {
+                        pool.execute(task);
+                    } catch (RejectedExecutionException e) {
+                        // 线程池已经关闭（例如退出界面时还在保存），剩下的段在当前线程编码
+                        task.invoke();
+                    }
+                    inFlight.addLast(task);
+                }
+                written += inFlight.pollFirst().join().writeTo(channel);
+            }
+        } finally {
+            // 写入失败时取消还没开始的段
+            for (ForkJoinTask<JpegBitWriter> task : inFlight) {
+                task.cancel(false);
+            }
+        }
+        return written;
+    }
+
+    private static final class StripTask implements Callable<JpegBitWriter> {
+        private final StripSource mSource;
+        private final int mStrip;
+        private final int mStrips;
+        private final int mEstimate;
+
+        StripTask(StripSource source, int strip, int strips, int estimate) {
+            mSource = source;
+            mStrip = strip;
+            mStrips = strips;
+            mEstimate = estimate;
+        }
+
+        @Override
+        public JpegBitWriter call() {
+            JpegBitWriter writer = new JpegBitWriter(mEstimate);
+            mSource.encodeStrip(mStrip, mStrips, writer);
+            return writer;
+        }
+    }
+
+    private void writeHeader(JpegBitWriter out, int width, int height, int restartInterval, ByteBuffer segment) {
+        // SOI
+        out.writeShort(0xffd8);
+        // APP0 JFIF 1.01，没有缩略图
+        out.writeShort(0xffe0);
+        out.writeShort(16);
+        out.writeByte('J');
+        out.writeByte('F');
+        out.writeByte('I');
+        out.writeByte('F');
+        out.writeByte(0);
+        out.writeShort(0x0101);
+        out.writeByte(0);
+        out.writeShort(1);
+        out.writeShort(1);
+        out.writeByte(0);
+        out.writeByte(0);
+        if (null != segment) {
+            byte[] bytes = new byte[segment.remaining()];
+            segment.duplicate().get(bytes);
+            out.writeBytes(bytes, 0, bytes.length);
+        }
+        // DQT：0 号亮度、1 号色度，之字形顺序
+        out.writeShort(0xffdb);
+        out.writeShort(2 + 2 * 65);
+        writeQuant(out, 0, mLumaQuant);
+        writeQuant(out, 1, mChromaQuant);
+        // SOF0：Y 2x2 采样，Cb、Cr 1x1
+        out.writeShort(0xffc0);
+        out.writeShort(8 + 3 * 3);
+        out.writeByte(8);
+        out.writeShort(height);
+        out.writeShort(width);
+        out.writeByte(3);
+        out.writeByte(1);
+        out.writeByte(0x22);
+        out.writeByte(0);
+        out.writeByte(2);
+        out.writeByte(0x11);
+        out.writeByte(1);
+        out.writeByte(3);
+        out.writeByte(0x11);
+        out.writeByte(1);
+        // DHT
+        out.writeShort(0xffc4);
+        out.writeShort(2 + huffmanLength(JpegTables.DC_LUMA) + huffmanLength(JpegTables.AC_LUMA)
+                + huffmanLength(JpegTables.DC_CHROMA) + huffmanLength(JpegTables.AC_CHROMA));
+        writeHuffman(out, 0x00, JpegTables.DC_LUMA);
+        writeHuffman(out, 0x10, JpegTables.AC_LUMA);
+        writeHuffman(out, 0x01, JpegTables.DC_CHROMA);
+        writeHuffman(out, 0x11, JpegTables.AC_CHROMA);
+        if (restartInterval > 0) {
+            out.writeShort(0xffdd);
+            out.writeShort(4);
+            out.writeShort(restartInterval);
+        }
+        // SOS
+        out.writeShort(0xffda);
+        out.writeShort(6 + 2 * 3);
+        out.writeByte(3);
+        out.writeByte(1);
+        out.writeByte(0x00);
+        out.writeByte(2);
+        out.writeByte(0x11);
+        out.writeByte(3);
+        out.writeByte(0x11);
+        out.writeByte(0);
+        out.writeByte(63);
+        out.writeByte(0);
+    }
+
+    static void writeQuant(JpegBitWriter out, int id, int[] quant) {
+        out.writeByte(id);
+        for (int k = 0; k < 64; k++) {
+            out.writeByte(quant[JpegTables.NATURAL_ORDER[k]]);
+        }
+    }
+
+    static int huffmanLength(JpegTables.HuffmanTable table) {
+        return 1 + 16 + table.values.length;
+    }
+
+    static void writeHuffman(JpegBitWriter out, int classAndId, JpegTables.HuffmanTable table) {
+        out.writeByte(classAndId);
+        for (int i = 0; i < 16; i++) {
+            out.writeByte(table.bits[i]);
+        }
+        for (int value : table.values) {
+            out.writeByte(value);
+        }
+    }
+
+    /**
+     * 编码第 strip 段的 MCU 行，不是最后一段时末尾带 RSTn 标记
+     */
+    void encodeStrip(YuvConverter.Planes planes, int strip, int rowsPerStrip, int strips, JpegBitWriter out) {
+        int mcusPerRow = (planes.width + 15) / 16;
+        int mcuRows = (planes.height + 15) / 16;
+        int firstRow = strip * rowsPerStrip;
+        int lastRow = Math.min(mcuRows, firstRow + rowsPerStrip);
+        float[] samples = new float[64];
+        int[] coefficients = new int[64];
+        int dcY = 0;
+        int dcCb = 0;
+        int dcCr = 0;
+        for (int mcuRow = firstRow; mcuRow < lastRow; mcuRow++) {
+            for (int mcuCol = 0; mcuCol < mcusPerRow; mcuCol++) {
+                int x = mcuCol * 16;
+                int y = mcuRow * 16;
+                for (int block = 0; block < 4; block++) {
+                    sampleLuma(planes, x + (block & 1) * 8, y + (block >> 1) * 8, samples);
+                    forwardDct(samples, mLumaDivisors, coefficients);
+                    dcY = out.writeBlock(coefficients, dcY, JpegTables.DC_LUMA, JpegTables.AC_LUMA);
+                }
+                sampleChroma(planes, planes.u, planes.uBase, mcuCol * 8, mcuRow * 8, samples);
+                forwardDct(samples, mChromaDivisors, coefficients);
+                dcCb = out.writeBlock(coefficients, dcCb, JpegTables.DC_CHROMA, JpegTables.AC_CHROMA);
+                sampleChroma(planes, planes.v, planes.vBase, mcuCol * 8, mcuRow * 8, samples);
+                forwardDct(samples, mChromaDivisors, coefficients);
+                dcCr = out.writeBlock(coefficients, dcCr, JpegTables.DC_CHROMA, JpegTables.AC_CHROMA);
+            }
+        }
+        out.flushBits();
+        if (strip < strips - 1) {
+            out.writeByte(0xff);
+            out.writeByte(0xd0 + (strip & 7));
+        }
+    }
+
+    private static void sampleLuma(YuvConverter.Planes planes, int x, int y, float[] samples) {
+        ByteBuffer data = planes.y;
+        int maxX = planes.width - 1;
+        int maxY = planes.height - 1;
+        for (int row = 0; row < 8; row++) {
+            int base = planes.yBase + Math.min(y + row, maxY) * planes.yRowStride;
+            for (int col = 0; col < 8; col++) {
+                samples[row * 8 + col] = (data.get(base + Math.min(x + col, maxX)) & 0xff) - 128;
+            }
+        }
+    }
+
+    private static void sampleChroma(YuvConverter.Planes planes, ByteBuffer data, int start, int x, int y, float[] samples) {
+        int maxX = YuvConverter.chromaWidth(planes.width) - 1;
+        int maxY = YuvConverter.chromaHeight(planes.height) - 1;
+        for (int row = 0; row < 8; row++) {
+            int base = start + Math.min(y + row, maxY) * planes.uvRowStride;
+            for (int col = 0; col < 8; col++) {
+                samples[row * 8 + col] = (data.get(base + Math.min(x + col, maxX) * planes.uvPixelStride) & 0xff) - 128;
+            }
+        }
+    }
+
+    /**
+     * AAN 浮点 DCT，原地变换后按 divisors 量化，输出之字形顺序
+     */
+    static void forwardDct(float[] data, float[] divisors, int[] out) {
+        for (int pass = 0; pass < 2; pass++) {
+            // 第一遍处理行，第二遍处理列
+            int step = pass == 0 ? 1 : 8;
+            int next = pass == 0 ? 8 : 1;
+            for (int line = 0; line < 8; line++) {
+                int p = line * next;
+                float d0 = data[p];
+                float d1 = data[p + step];
+                float d2 = data[p + 2 * step];
+                float d3 = data[p + 3 * step];
+                float d4 = data[p + 4 * step];
+                float d5 = data[p + 5 * step];
+                float d6 = data[p + 6 * step];
+                float d7 = data[p + 7 * step];
+
+                float tmp0 = d0 + d7;
+                float tmp7 = d0 - d7;
+                float tmp1 = d1 + d6;
+                float tmp6 = d1 - d6;
+                float tmp2 = d2 + d5;
+                float tmp5 = d2 - d5;
+                float tmp3 = d3 + d4;
+                float tmp4 = d3 - d4;
+
+                // 偶数部分
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+                data[p] = tmp10 + tmp11;
+                data[p + 4 * step] = tmp10 - tmp11;
+                float z1 = (tmp12 + tmp13) * 0.707106781f;
+                data[p + 2 * step] = tmp13 + z1;
+                data[p + 6 * step] = tmp13 - z1;
+
+                // 奇数部分
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+                float z5 = (tmp10 - tmp12) * 0.382683433f;
+                float z2 = 0.541196100f * tmp10 + z5;
+                float z4 = 1.306562965f * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781f;
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+                data[p + 5 * step] = z13 + z2;
+                data[p + 3 * step] = z13 - z2;
+                data[p + step] = z11 + z4;
+                data[p + 7 * step] = z11 - z4;
+            }
+        }
+        for (int k = 0; k < 64; k++) {
+            int natural = JpegTables.NATURAL_ORDER[k];
+            out[k] = Math.round(data[natural] * divisors[natural]);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.shillu.camera2demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 直接从 JPEG 的低频 DCT 系数生成 1/2、1/4、1/8 的缩略图，不做全尺寸的 IDCT
+ * <p>
+ * 一个 8x8 块缩小 8/N 倍后是 NxN 个像素，正好是左上角 NxN 个系数做 N 点 IDCT 的结果（和 libjpeg 的 scale_denom 相同）：
+ * 1/8 只用 DC，1/4 用 2x2，1/2 用 4x4，其余系数只做 Huffman 解码然后丢掉。系数经 {@link JpegCoefficients.BlockVisitor}
+ * 逐块处理，不保存整张图的系数；12MP 照片的 1/8 缩略图主要花在 Huffman 解码上。
+ * <p>
+ * 输出 NV12（和 {@link YuvConverter}、{@link JpegEncoder} 共用一种布局），色度按采样因子最近邻取样，
+ * 按 Exif Orientation 转正。scale 为 1 时是完整解码，用来读回缓存里的小图。
+ */
+public final class JpegThumbnailer {
+
+    private JpegThumbnailer() {
+    }
+
+    /**
+     * 一张 NV12 缩略图
+     */
+    public static final class Thumbnail {
+        public final int width;
+        public final int height;
+        /**
+         * Y 平面 width x height，后面是交错的 CbCr，各 ceil(width / 2) x ceil(height / 2)
+         */
+        final byte[] nv12;
+
+        Thumbnail(int width, int height, byte[] nv12) {
+            this.width = width;
+            this.height = height;
+            this.nv12 = nv12;
+        }
+
+        public int sizeInBytes() {
+            return nv12.length;
+        }
+
+        public YuvConverter.Planes planes() {
+            return YuvConverter.Planes.packed(ByteBuffer.wrap(nv12), YuvConverter.Layout.NV12, width, height);
+        }
+
+        /**
+         * 转成 ARGB，可以直接交给 Bitmap.createBitmap()
+         */
+        public int[] toArgb() {
+            int[] argb = new int[width * height];
+            new YuvConverter(null, YuvConverter.DEFAULT_MIN_ROWS).toArgb(planes(), argb, 0, width);
+            return argb;
+        }
+
+        @Override
+        public String toString() {
+            return "Thumbnail{" + width + "x" + height + '}';
+        }
+    }
+
+    /**
+     * 长边不小于 minLongEdge 的最小缩放（8、4、2），都不够时返回 1（完整解码）
+     */
+    public static int scaleFor(int width, int height, int minLongEdge) {
+        int longEdge = Math.max(width, height);
+        for (int denominator = 8; denominator > 1; denominator >>= 1) {
+            if ((longEdge + denominator - 1) / denominator >= minLongEdge) {
+                return denominator;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * 按长边不小于 minLongEdge 选缩放，解码 jpeg 从 position 到 limit 的内容，不改变 position
+     */
+    public static Thumbnail decodeForSize(ByteBuffer jpeg, int minLongEdge) throws IOException {
+        return decode(jpeg, 0, minLongEdge);
+    }
+
+    /**
+     * @param scaleDenominator 1、2、4 或 8
+     */
+    public static Thumbnail decode(ByteBuffer jpeg, int scaleDenominator) throws IOException {
+        if (scaleDenominator != 1 && scaleDenominator != 2 && scaleDenominator != 4 && scaleDenominator != 8) {
+            throw new IllegalArgumentException("Unsupported scale 1/" + scaleDenominator);
+        }
+        return decode(jpeg, scaleDenominator, 0);
+    }
+
+    private static Thumbnail decode(ByteBuffer jpeg, int scaleDenominator, int minLongEdge) throws IOException {
+        int orientation = ExifWriter.locate(jpeg).existingOrientation;
+        ScaledVisitor visitor = new ScaledVisitor(scaleDenominator, minLongEdge);
+        JpegCoefficients.read(jpeg, visitor);
+        Thumbnail thumbnail = visitor.toThumbnail();
+        int rotation = ExifWriter.rotationDegrees(orientation);
+        return rotation == 0 ? thumbnail : rotate(thumbnail, rotation);
+    }
+
+    /**
+     * N 点 IDCT 的基函数，basis[x * N + u] = C(u) cos((2x + 1)uπ / 2N) / 2，两个方向相乘正好是 8 点 IDCT 的 1/4 C(u)C(v)
+     */
+    private static float[] basis(int n) {
+        float[] basis = new float[n * n];
+        for (int x = 0; x < n; x++) {
+            for (int u = 0; u < n; u++) {
+                double c = u == 0 ? Math.sqrt(0.5) : 1.0;
+                basis[x * n + u] = (float) (c * Math.cos((2 * x + 1) * u * Math.PI / (2 * n)) / 2);
+            }
+        }
+        return basis;
+    }
+
+    private static final class ScaledVisitor implements JpegCoefficients.BlockVisitor {
+        private final int mRequestedScale;
+        private final int mMinLongEdge;
+        private JpegCoefficients mImage;
+        /**
+         * 每个块输出 N x N 个像素
+         */
+        private int mN;
+        private float[] mBasis;
+        private byte[][] mPlanes;
+        private int[] mPlaneWidths;
+        private final float[] mDequantized = new float[64];
+        private final float[] mRows = new float[64];
+
+        ScaledVisitor(int scaleDenominator, int minLongEdge) {
+            mRequestedScale = scaleDenominator;
+            mMinLongEdge = minLongEdge;
+        }
+
+        @Override
+        public void onHeader(JpegCoefficients image) {
+            mImage = image;
+            int scale = mRequestedScale > 0 ? mRequestedScale : scaleFor(image.width, image.height, mMinLongEdge);
+            mN = 8 / scale;
+            mBasis = basis(mN);
+            int count = image.getComponentCount();
+            mPlanes = new byte[count][];
+            mPlaneWidths = new int[count];
+            for (int i = 0; i < count; i++) {
+                JpegCoefficients.Component component = image.getComponent(i);
+                mPlaneWidths[i] = component.blocksWide * mN;
+                mPlanes[i] = new byte[mPlaneWidths[i] * component.blocksHigh * mN];
+            }
+        }
+
+        @Override
+        public void onBlock(int component, int blockCol, int blockRow, short[] coefficients, int offset) {
+            int[] quant = mImage.getQuant(component);
+            byte[] plane = mPlanes[component];
+            int stride = mPlaneWidths[component];
+            int n = mN;
+            int base = blockRow * n * stride + blockCol * n;
+            if (n == 1) {
+                plane[base] = clamp(Math.round(coefficients[offset] * quant[0] / 8f) + 128);
+                return;
+            }
+            float[] f = mDequantized;
+            for (int v = 0; v < n; v++) {
+                for (int u = 0; u < n; u++) {
+                    f[v * 8 + u] = coefficients[offset + v * 8 + u] * quant[v * 8 + u];
+                }
+            }
+            // 先做行（水平频率 u -> x），再做列（垂直频率 v -> y）
+            float[] basis = mBasis;
+            float[] rows = mRows;
+            for (int v = 0; v < n; v++) {
+                for (int x = 0; x < n; x++) {
+                    float sum = 0;
+                    for (int u = 0; u < n; u++) {
+                        sum += basis[x * n + u] * f[v * 8 + u];
+                    }
+                    rows[v * 8 + x] = sum;
+                }
+            }
+            for (int y = 0; y < n; y++) {
+                for (int x = 0; x < n; x++) {
+                    float sum = 0;
+                    for (int v = 0; v < n; v++) {
+                        sum += basis[y * n + v] * rows[v * 8 + x];
+                    }
+                    plane[base + y * stride + x] = clamp(Math.round(sum) + 128);
+                }
+            }
+        }
+
+        /**
+         * 各分量按采样因子对齐到亮度，组装成 NV12
+         */
+        Thumbnail toThumbnail() {
+            JpegCoefficients image = mImage;
+            int width = (image.width * mN + 7) / 8;
+            int height = (image.height * mN + 7) / 8;
+            int chromaWidth = YuvConverter.chromaWidth(width);
+            int chromaHeight = YuvConverter.chromaHeight(height);
+            byte[] nv12 = new byte[width * height + 2 * chromaWidth * chromaHeight];
+            JpegCoefficients.Component luma = image.getComponent(0);
+            for (int y = 0; y < height; y++) {
+                int row = (y * luma.v / image.maxV) * mPlaneWidths[0];
+                for (int x = 0; x < width; x++) {
+                    nv12[y * width + x] = mPlanes[0][row + x * luma.h / image.maxH];
+                }
+            }
+            int chromaBase = width * height;
+            if (image.getComponentCount() < 3) {
+                // 灰度图
+                for (int i = chromaBase; i < nv12.length; i++) {
+                    nv12[i] = (byte) 128;
+                }
+                return new Thumbnail(width, height, nv12);
+            }
+            for (int c = 1; c <= 2; c++) {
+                JpegCoefficients.Component component = image.getComponent(c);
+                byte[] plane = mPlanes[c];
+                for (int y = 0; y < chromaHeight; y++) {
+                    int row = (2 * y * component.v / image.maxV) * mPlaneWidths[c];
+                    for (int x = 0; x < chromaWidth; x++) {
+                        nv12[chromaBase + (y * chromaWidth + x) * 2 + c - 1] = plane[row + 2 * x * component.h / image.maxH];
+                    }
+                }
+            }
+            return new Thumbnail(width, height, nv12);
+        }
+    }
+
+    private static byte clamp(int value) {
+        return (byte) (value < 0 ? 0 : (value > 255 ? 255 : value));
+    }
+
+    /**
+     * 顺时针旋转 NV12：Y 逐像素，CbCr 按对旋转
+     */
+    static Thumbnail rotate(Thumbnail source, int rotationDegrees) {
+        boolean transpose = rotationDegrees == 90 || rotationDegrees == 270;
+        int width = transpose ? source.height : source.width;
+        int height = transpose ? source.width : source.height;
+        byte[] nv12 = new byte[source.nv12.length];
+        rotatePlane(source.nv12, 0, source.width, source.height, 1, rotationDegrees, nv12, 0);
+        int chromaWidth = YuvConverter.chromaWidth(source.width);
+        int chromaHeight = YuvConverter.chromaHeight(source.height);
+        rotatePlane(source.nv12, source.width * source.height, chromaWidth, chromaHeight, 2, rotationDegrees,
+                nv12, width * height);
+        return new Thumbnail(width, height, nv12);
+    }
+
+    private static void rotatePlane(byte[] src, int srcBase, int width, int height, int pixelBytes, int rotation,
+                                    byte[] dst, int dstBase) {
+        int dstWidth = rotation == 90 || rotation == 270 ? height : width;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int dx;
+                int dy;
+                switch (rotation) {
+                    case 90:
+                        dx = height - 1 - y;
+                        dy = x;
+                        break;
+                    case 180:
+                        dx = width - 1 - x;
+                        dy = height - 1 - y;
+                        break;
+                    default:
+                        dx = y;
+                        dy = width - 1 - x;
+                        break;
+                }
+                int from = srcBase + (y * width + x) * pixelBytes;
+                int to = dstBase + (dy * dstWidth + dx) * pixelBytes;
+                for (int i = 0; i < pixelBytes; i++) {
+                    dst[to + i] = src[from + i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.shillu.camera2demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 在 DCT 域里无损地旋转（90 / 180 / 270 度）和按 MCU 对齐裁剪 JPEG，不解码像素
+ * <p>
+ * {@link JpegCoefficients} 只做 Huffman 解码，得到量化系数；输出的每个块取自源图的某个块：
+ * 转置交换系数的行列，水平镜像把奇数列（水平奇频率）的系数取反，垂直镜像把奇数行取反，
+ * 旋转 90 度 = 转置 + 水平镜像，270 度 = 转置 + 垂直镜像，180 度 = 两个镜像。量化表跟着转置，系数值本身不变，
+ * 所以结果解码出来和源图旋转后的像素一致（除了 IDCT 实现自身的舍入），比完整的解码、编码快得多，也没有二次压缩损失。
+ * <p>
+ * 限制和 jpegtran -trim 相同：裁剪起点必须落在 MCU 边界上；旋转后会翻到左边或上边的那条边如果不满一个 MCU 就裁掉
+ * （4:2:0 的 4000x3000 旋转 90 度得到 2992x4000），否则填充的像素会出现在画面里。
+ * <p>
+ * 输出用 Annex K 的标准 Huffman 表，按 restart 段写进通道，段的编码可以在 ForkJoinPool 上并行（和 {@link JpegEncoder} 相同）。
+ * APPn / COM 段原样复制，旋转时 Exif 的 Orientation 改成 1（像素已经转好了，看图软件不能再转一次）。
+ * 变换器不可变，可以在多个线程间共享。
+ */
+public final class JpegTransformer {
+
+    private final ForkJoinPool mPool;
+    private final int mMcuRowsPerStrip;
+
+    /**
+     * @param pool            并行编码用的线程池，null 表示在调用线程上顺序编码
+     * @param mcuRowsPerStrip 每个 restart 段的 MCU 行数
+     */
+    public JpegTransformer(ForkJoinPool pool, int mcuRowsPerStrip) {
+        mPool = pool;
+        mMcuRowsPerStrip = Math.max(1, mcuRowsPerStrip);
+    }
+
+    /**
+     * 整张图旋转
+     */
+    public long rotate(ByteBuffer jpeg, int rotationDegrees, WritableByteChannel out) throws IOException {
+        JpegCoefficients image = JpegCoefficients.read(jpeg);
+        return transform(image, 0, 0, image.width, image.height, rotationDegrees, out);
+    }
+
+    /**
+     * 按 Exif Orientation 把像素转正，没有 Exif 或者已经是正的时候只是重新编码
+     */
+    public long autoOrient(ByteBuffer jpeg, WritableByteChannel out) throws IOException {
+        int orientation = ExifWriter.locate(jpeg).existingOrientation;
+        return rotate(jpeg, ExifWriter.rotationDegrees(orientation), out);
+    }
+
+    /**
+     * 先裁剪（源图坐标）再顺时针旋转
+     *
+     * @throws IOException              解码或写入失败
+     * @throws IllegalArgumentException 裁剪起点不在 MCU 边界上、超出图像或者裁掉不满的 MCU 后为空
+     */
+    public long transform(ByteBuffer jpeg, int cropX, int cropY, int cropWidth, int cropHeight,
+                          int rotationDegrees, WritableByteChannel out) throws IOException {
+        return transform(JpegCoefficients.read(jpeg), cropX, cropY, cropWidth, cropHeight, rotationDegrees, out);
+    }
+
+    /**
+     * 处理 ImageSaver 保存的文件，结果写进 target（可以和 source 不同目录，不能是同一个文件）
+     */
+    public long transform(File source, File target, int cropX, int cropY, int cropWidth, int cropHeight,
+                          int rotationDegrees) throws IOException {
+        JpegCoefficients image = JpegCoefficients.read(ByteBuffer.wrap(Files.readAllBytes(source.toPath())));
+        FileChannel channel = FileChannel.open(target.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return transform(image, cropX, cropY, cropWidth, cropHeight, rotationDegrees, channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 已经解码的系数可以反复变换（例如先生成缩略图再旋转）
+     */
+    public long transform(JpegCoefficients image, int cropX, int cropY, int cropWidth, int cropHeight,
+                          int rotationDegrees, WritableByteChannel out) throws IOException {
+        final Layout layout = new Layout(image, cropX, cropY, cropWidth, cropHeight, rotationDegrees);
+        final int rowsPerStrip = Math.max(1, Math.min(mMcuRowsPerStrip, 0xffff / layout.mcusWide));
+        int strips = (layout.mcusHigh + rowsPerStrip - 1) / rowsPerStrip;
+
+        JpegBitWriter header = new JpegBitWriter(1024);
+        writeHeader(header, layout, strips > 1 ? rowsPerStrip * layout.mcusWide : 0);
+        long written = header.writeTo(out);
+
+        int blocksPerMcu = 0;
+        for (int i = 0; i < layout.h.length; i++) {
+            blocksPerMcu += layout.h[i] * layout.v[i];
+        }
+        // 每块平均 32 字节左右（高质量照片）
+        int estimate = (int) Math.min(Integer.MAX_VALUE / 2, (long) layout.mcusWide * rowsPerStrip * blocksPerMcu * 32);
+        written += JpegEncoder.writeStrips(mPool, new JpegEncoder.StripSource() {
+            @Override
+            public void encodeStrip(int strip, int strips, JpegBitWriter out) {
+                JpegTransformer.encodeStrip(layout, strip, rowsPerStrip, strips, out);
+            }
+        }, strips, estimate, out);
+
+        JpegBitWriter trailer = new JpegBitWriter(2);
+        trailer.writeShort(0xffd9);
+        written += trailer.writeTo(out);
+        return written;
+    }
+
+    /**
+     * 输出图像的几何关系：输出的每个块从源图的哪个块来、系数怎么重排
+     */
+    static final class Layout {
+        final JpegCoefficients source;
+        final int rotation;
+        final int width;
+        final int height;
+        /**
+         * 输出各分量的采样因子（90 / 270 度时水平、垂直互换）
+         */
+        final int[] h;
+        final int[] v;
+        final int mcusWide;
+        final int mcusHigh;
+        /**
+         * 裁剪区域左上角的源 MCU 坐标，以及区域的 MCU 列数、行数（被翻转的方向上是整数）
+         */
+        final int mcuX;
+        final int mcuY;
+        final int regionMcusWide;
+        final int regionMcusHigh;
+        /**
+         * 输出之字形下标 k 的系数取自源块自然顺序下标 sourceIndex[k]，乘以 sign[k]
+         */
+        final int[] sourceIndex = new int[64];
+        final int[] sign = new int[64];
+
+        Layout(JpegCoefficients source, int cropX, int cropY, int cropWidth, int cropHeight, int rotationDegrees) {
+            int rotation = ((rotationDegrees % 360) + 360) % 360;
+            if (rotation % 90 != 0) {
+                throw new IllegalArgumentException("Rotation must be a multiple of 90: " + rotationDegrees);
+            }
+            int mcuWidth = source.getMcuWidth();
+            int mcuHeight = source.getMcuHeight();
+            if (cropX < 0 || cropY < 0 || cropWidth <= 0 || cropHeight <= 0
+                    || cropX + cropWidth > source.width || cropY + cropHeight > source.height) {
+                throw new IllegalArgumentException("Crop " + cropX + "," + cropY + " " + cropWidth + "x" + cropHeight
+                        + " outside " + source.width + "x" + source.height);
+            }
+            if (cropX % mcuWidth != 0 || cropY % mcuHeight != 0) {
+                throw new IllegalArgumentException("Crop origin must be aligned to " + mcuWidth + "x" + mcuHeight + " MCUs");
+            }
+            // 翻到左边 / 上边的那条边不能有不满的 MCU
+            boolean flipX = rotation == 180 || rotation == 270;
+            boolean flipY = rotation == 90 || rotation == 180;
+            if (flipX) {
+                cropWidth = cropWidth / mcuWidth * mcuWidth;
+            }
+            if (flipY) {
+                cropHeight = cropHeight / mcuHeight * mcuHeight;
+            }
+            if (cropWidth == 0 || cropHeight == 0) {
+                throw new IllegalArgumentException("Crop is smaller than one MCU after trimming");
+            }
+            this.source = source;
+            this.rotation = rotation;
+            boolean transpose = rotation == 90 || rotation == 270;
+            width = transpose ? cropHeight : cropWidth;
+            height = transpose ? cropWidth : cropHeight;
+            int count = source.getComponentCount();
+            h = new int[count];
+            v = new int[count];
+            int maxH = 1;
+            int maxV = 1;
+            for (int i = 0; i < count; i++) {
+                JpegCoefficients.Component component = source.getComponent(i);
+                h[i] = transpose ? component.v : component.h;
+                v[i] = transpose ? component.h : component.v;
+                maxH = Math.max(maxH, h[i]);
+                maxV = Math.max(maxV, v[i]);
+            }
+            mcusWide = (width + 8 * maxH - 1) / (8 * maxH);
+            mcusHigh = (height + 8 * maxV - 1) / (8 * maxV);
+            mcuX = cropX / mcuWidth;
+            mcuY = cropY / mcuHeight;
+            regionMcusWide = (cropWidth + mcuWidth - 1) / mcuWidth;
+            regionMcusHigh = (cropHeight + mcuHeight - 1) / mcuHeight;
+
+            for (int k = 0; k < 64; k++) {
+                int natural = JpegTables.NATURAL_ORDER[k];
+                int row = natural >> 3;
+                int col = natural & 7;
+                sourceIndex[k] = transpose ? col * 8 + row : natural;
+                int parity;
+                switch (rotation) {
+                    case 90:
+                        parity = col;
+                        break;
+                    case 180:
+                        parity = row + col;
+                        break;
+                    case 270:
+                        parity = row;
+                        break;
+                    default:
+                        parity = 0;
+                        break;
+                }
+                sign[k] = (parity & 1) == 0 ? 1 : -1;
+            }
+        }
+
+        /**
+         * 第 i 个分量输出块 (blockCol, blockRow) 对应的源块在系数数组中的起点
+         */
+        int sourceOffset(int i, int blockCol, int blockRow) {
+            JpegCoefficients.Component component = source.getComponent(i);
+            int originX = mcuX * component.h;
+            int originY = mcuY * component.v;
+            int regionBlocksWide = regionMcusWide * component.h;
+            int regionBlocksHigh = regionMcusHigh * component.v;
+            int x;
+            int y;
+            switch (rotation) {
+                case 90:
+                    x = originX + blockRow;
+                    y = originY + regionBlocksHigh - 1 - blockCol;
+                    break;
+                case 180:
+                    x = originX + regionBlocksWide - 1 - blockCol;
+                    y = originY + regionBlocksHigh - 1 - blockRow;
+                    break;
+                case 270:
+                    x = originX + regionBlocksWide - 1 - blockRow;
+                    y = originY + blockCol;
+                    break;
+                default:
+                    x = originX + blockCol;
+                    y = originY + blockRow;
+                    break;
+            }
+            // 输出右边 / 下边补齐 MCU 的块可能超出裁剪区域，取源图里相邻的块即可，它们不会显示
+            x = Math.min(x, component.blocksWide - 1);
+            y = Math.min(y, component.blocksHigh - 1);
+            return component.blockOffset(x, y);
+        }
+
+        /**
+         * 输出的量化表（自然顺序），转置时跟着转置
+         */
+        int[] quant(int quantId) {
+            int[] table = source.quant[quantId];
+            if (rotation != 90 && rotation != 270) {
+                return table;
+            }
+            int[] transposed = new int[64];
+            for (int row = 0; row < 8; row++) {
+                for (int col = 0; col < 8; col++) {
+                    transposed[row * 8 + col] = table[col * 8 + row];
+                }
+            }
+            return transposed;
+        }
+    }
+
+    private static void writeHeader(JpegBitWriter out, Layout layout, int restartInterval) {
+        JpegCoefficients source = layout.source;
+        out.writeShort(0xffd8);
+        for (byte[] segment : source.segments) {
+            if (layout.rotation != 0) {
+                segment = segment.clone();
+                ExifWriter.resetOrientation(segment);
+            }
+            out.writeBytes(segment, 0, segment.length);
+        }
+
+        // DQT：用到的表，按表号
+        List<int[]> tables = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        boolean extended = false;
+        for (int id = 0; id < 4; id++) {
+            for (int i = 0; i < source.getComponentCount(); i++) {
+                if (source.getComponent(i).quantId == id) {
+                    int[] table = layout.quant(id);
+                    extended |= isExtended(table);
+                    tables.add(table);
+                    ids.add(id);
+                    break;
+                }
+            }
+        }
+        int quantLength = 2;
+        for (int[] table : tables) {
+            quantLength += 1 + 64 * (isExtended(table) ? 2 : 1);
+        }
+        out.writeShort(0xffdb);
+        out.writeShort(quantLength);
+        for (int t = 0; t < tables.size(); t++) {
+            int[] table = tables.get(t);
+            if (isExtended(table)) {
+                out.writeByte(0x10 | ids.get(t));
+                for (int k = 0; k < 64; k++) {
+                    out.writeShort(table[JpegTables.NATURAL_ORDER[k]]);
+                }
+            } else {
+                JpegEncoder.writeQuant(out, ids.get(t), table);
+            }
+        }
+
+        // SOF0，16 位量化表只能用扩展顺序的 SOF1
+        int count = source.getComponentCount();
+        out.writeShort(extended ? 0xffc1 : 0xffc0);
+        out.writeShort(8 + 3 * count);
+        out.writeByte(8);
+        out.writeShort(layout.height);
+        out.writeShort(layout.width);
+        out.writeByte(count);
+        for (int i = 0; i < count; i++) {
+            JpegCoefficients.Component component = source.getComponent(i);
+            out.writeByte(component.id);
+            out.writeByte((layout.h[i] << 4) | layout.v[i]);
+            out.writeByte(component.quantId);
+        }
+
+        // DHT：标准表，第一个分量用亮度表，其余用色度表
+        out.writeShort(0xffc4);
+        int huffmanLength = 2 + JpegEncoder.huffmanLength(JpegTables.DC_LUMA) + JpegEncoder.huffmanLength(JpegTables.AC_LUMA);
+        if (count > 1) {
+            huffmanLength += JpegEncoder.huffmanLength(JpegTables.DC_CHROMA) + JpegEncoder.huffmanLength(JpegTables.AC_CHROMA);
+        }
+        out.writeShort(huffmanLength);
+        JpegEncoder.writeHuffman(out, 0x00, JpegTables.DC_LUMA);
+        JpegEncoder.writeHuffman(out, 0x10, JpegTables.AC_LUMA);
+        if (count > 1) {
+            JpegEncoder.writeHuffman(out, 0x01, JpegTables.DC_CHROMA);
+            JpegEncoder.writeHuffman(out, 0x11, JpegTables.AC_CHROMA);
+        }
+        if (restartInterval > 0) {
+            out.writeShort(0xffdd);
+            out.writeShort(4);
+            out.writeShort(restartInterval);
+        }
+
+        out.writeShort(0xffda);
+        out.writeShort(6 + 2 * count);
+        out.writeByte(count);
+        for (int i = 0; i < count; i++) {
+            out.writeByte(source.getComponent(i).id);
+            out.writeByte(i == 0 ? 0x00 : 0x11);
+        }
+        out.writeByte(0);
+        out.writeByte(63);
+        out.writeByte(0);
+    }
+
+    private static boolean isExtended(int[] table) {
+        for (int value : table) {
+            if (value > 255) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 编码第 strip 段的输出 MCU 行，不是最后一段时末尾带 RSTn 标记
+     */
+    static void encodeStrip(Layout layout, int strip, int rowsPerStrip, int strips, JpegBitWriter out) {
+        int firstRow = strip * rowsPerStrip;
+        int lastRow = Math.min(layout.mcusHigh, firstRow + rowsPerStrip);
+        int count = layout.h.length;
+        int[] previousDc = new int[count];
+        int[] coefficients = new int[64];
+        int[] sourceIndex = layout.sourceIndex;
+        int[] sign = layout.sign;
+        for (int mcuRow = firstRow; mcuRow < lastRow; mcuRow++) {
+            for (int mcuCol = 0; mcuCol < layout.mcusWide; mcuCol++) {
+                for (int i = 0; i < count; i++) {
+                    short[] data = layout.source.getComponent(i).coefficients;
+                    JpegTables.HuffmanTable dc = i == 0 ? JpegTables.DC_LUMA : JpegTables.DC_CHROMA;
+                    JpegTables.HuffmanTable ac = i == 0 ? JpegTables.AC_LUMA : JpegTables.AC_CHROMA;
+                    for (int y = 0; y < layout.v[i]; y++) {
+                        for (int x = 0; x < layout.h[i]; x++) {
+                            int offset = layout.sourceOffset(i, mcuCol * layout.h[i] + x, mcuRow * layout.v[i] + y);
+                            for (int k = 0; k < 64; k++) {
+                                coefficients[k] = sign[k] * data[offset + sourceIndex[k]];
+                            }
+                            previousDc[i] = out.writeBlock(coefficients, previousDc[i], dc, ac);
+                        }
+                    }
+                }
+            }
+        }
+        out.flushBits();
+        if (strip < strips - 1) {
+            out.writeByte(0xff);
+            out.writeByte(0xd0 + (strip & 7));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.shillu.camera2demo;
+
+import java.util.Arrays;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 固定内存、记录时不分配对象的延迟直方图
+ * <p>
+ * 桶按"对数 + 线性"划分：小于 2^{@link #SUB_BUCKET_BITS} 的值每个值一个桶，
+ * 之后每个 2 的幂区间再线性分成 2^SUB_BUCKET_BITS 个桶，因此任何值落进桶后的相对误差不超过 1/32（约 3%）。
+ * 最大可记录 2^40 ns（约 18 分钟），更大的值按最大值计。
+ * <p>
+ * count、min、max、sum 是精确值，分位数取桶的中点并限制在 [min, max] 内。
+ * 所有方法都是同步的，可以在 UI 线程、相机线程和 I/O 线程同时记录。
+ */
+public final class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+    }
+
+    static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return mantissa << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long widthOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return 1;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return 1L << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * 记录一个值，负数按 0 计
+     */
+    public synchronized void record(long value) {
+        long clamped = Math.max(0, Math.min(value, MAX_VALUE));
+        mCounts[bucketOf(clamped)]++;
+        mCount++;
+        mSum += clamped;
+        if (clamped < mMin) {
+            mMin = clamped;
+        }
+        if (clamped > mMax) {
+            mMax = clamped;
+        }
+    }
+
+    /**
+     * @param percentile 0 ~ 100
+     * @return 对应分位数的估计值，没有数据时返回 0
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * mCount);
+        rank = Math.max(1, Math.min(rank, mCount));
+        if (rank == mCount) {
+            return mMax;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                long value = lowerBoundOf(i) + widthOf(i) / 2;
+                return Math.max(mMin, Math.min(value, mMax));
+            }
+        }
+        return mMax;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getMin() {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    public synchronized long getMean() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+}
@@ -0,0 +1,61 @@
+package com.shillu.camera2demo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 预览帧的平均亮度，作为 {@link FrameAnalysisPipeline} 的示例分析器
+ * <p>
+ * 帧是紧凑的 NV21（前 width * height 字节是 Y），按 sampleStep 在行列上隔点采样，1080p 每帧只读几万个字节。
+ * 结果写在 volatile 字段里，UI 线程随时可以读。
+ */
+public final class LumaAnalyzer implements FrameAnalysisPipeline.Analyzer {
+
+    public static final String NAME = "luma";
+
+    private final int mSampleStep;
+    private volatile int mMeanLuma = -1;
+    private volatile long mTimestampNs;
+
+    /**
+     * @param sampleStep 采样间隔（像素），1 表示逐点
+     */
+    public LumaAnalyzer(int sampleStep) {
+        mSampleStep = Math.max(1, sampleStep);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void analyze(FrameBuffer frame) {
+        ByteBuffer data = frame.data();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        long sum = 0;
+        int count = 0;
+        for (int row = mSampleStep / 2; row < height; row += mSampleStep) {
+            int base = row * width;
+            for (int col = mSampleStep / 2; col < width; col += mSampleStep) {
+                sum += data.get(base + col) & 0xff;
+                count++;
+            }
+        }
+        mMeanLuma = count == 0 ? -1 : (int) (sum / count);
+        mTimestampNs = frame.getTimestampNs();
+    }
+
+    /**
+     * 最近一帧的平均亮度 0 ~ 255，还没有分析过时返回 -1
+     */
+    public int getMeanLuma() {
+        return mMeanLuma;
+    }
+
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+}
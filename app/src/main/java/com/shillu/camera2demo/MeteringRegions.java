@@ -0,0 +1,72 @@
+package com.shillu.camera2demo;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 点击位置到传感器坐标的对焦 / 测光区域换算
+ * <p>
+ * 调用方先用 configureTransform 矩阵的逆矩阵把 View 坐标还原到变换前的纹理坐标，再除以 View 的宽高，
+ * 得到自然方向（ROTATION_0）下预览画面中的归一化位置 (u, v)。这里负责剩下的部分：
+ * 1. 前置摄像头的预览是镜像的，先左右翻转；
+ * 2. 按 SENSOR_ORIENTATION 把自然方向的坐标转到传感器坐标系
+ *    （例如后摄 90 度：传感器 x 对应画面的 v，传感器 y 对应 1 - u）；
+ * 3. 映射到当前的 SCALER_CROP_REGION（缩放后预览只显示裁剪区域），以该点为中心取一个方形区域并限制在裁剪区域内。
+ */
+public final class MeteringRegions {
+
+    private MeteringRegions() {
+    }
+
+    /**
+     * @param u                 自然方向下的归一化横坐标，0 ~ 1
+     * @param v                 自然方向下的归一化纵坐标，0 ~ 1
+     * @param sensorOrientation SENSOR_ORIENTATION：0 / 90 / 180 / 270
+     * @param mirrored          是否前置摄像头
+     * @param crop              当前裁剪区域（传感器有效像素阵列坐标）：left, top, right, bottom
+     * @param sizeFraction      区域边长占裁剪区域短边的比例
+     * @param out               left, top, right, bottom
+     */
+    public static void map(float u, float v, int sensorOrientation, boolean mirrored, int[] crop,
+                           float sizeFraction, int[] out) {
+        u = clamp01(u);
+        v = clamp01(v);
+        if (mirrored) {
+            u = 1f - u;
+        }
+        float sx;
+        float sy;
+        switch ((sensorOrientation % 360 + 360) % 360) {
+            case 90:
+                sx = v;
+                sy = 1f - u;
+                break;
+            case 180:
+                sx = 1f - u;
+                sy = 1f - v;
+                break;
+            case 270:
+                sx = 1f - v;
+                sy = u;
+                break;
+            default:
+                sx = u;
+                sy = v;
+                break;
+        }
+        int cropWidth = crop[2] - crop[0];
+        int cropHeight = crop[3] - crop[1];
+        int size = Math.max(1, Math.round(Math.min(cropWidth, cropHeight) * sizeFraction));
+        int centerX = crop[0] + Math.round(sx * cropWidth);
+        int centerY = crop[1] + Math.round(sy * cropHeight);
+        int left = Math.max(crop[0], Math.min(crop[2] - size, centerX - size / 2));
+        int top = Math.max(crop[1], Math.min(crop[3] - size, centerY - size / 2));
+        out[0] = left;
+        out[1] = top;
+        out[2] = Math.min(crop[2], left + size);
+        out[3] = Math.min(crop[3], top + size);
+    }
+
+    private static float clamp01(float value) {
+        return value < 0f ? 0f : (value > 1f ? 1f : value);
+    }
+}
@@ -0,0 +1,179 @@
+package com.shillu.camera2demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 不在堆上拷贝的 JPEG 写入器
+ * <p>
+ * 原来的 ImageSaver 每张照片都会 new 一个和 JPEG 一样大的 byte[]，把 Image 平面里的数据拷进去，再用 FileOutputStream 写出。
+ * 连拍时这些几 MB 的数组会频繁触发 GC。
+ * <p>
+ * 这里直接把平面的 ByteBuffer 交给 FileChannel：
+ * 1. 数据源是直接内存（Image.Plane 的缓冲区就是），直接 write，没有任何拷贝；
+ * 2. 数据源是堆内存，则从 {@link DirectBufferPool} 借一块固定大小的直接缓冲区分段中转，
+ *    避免 FileChannel 内部为整块堆数据临时分配同样大小的直接内存。
+ * <p>
+ * 需要写入拍摄参数时，{@link #write(ByteBuffer, CaptureMetadata, File)} 把 {@link ExifWriter} 生成的 APP1 段拼进字节流：
+ * 文件头片段、APP1、剩余数据一次聚集写入，不解码也不额外拷贝整个文件。HAL 已经写了 Exif 时只补上缺少的标签，
+ * 它的缩略图、GPS 和拍摄参数都保留。
+ * <p>
+ * 写入器本身没有可变状态，可以被多个保存线程共享。
+ */
+public final class PooledJpegWriter {
+
+    /**
+     * 默认中转缓冲区大小
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * 默认最多同时存在的中转缓冲区数量
+     */
+    public static final int DEFAULT_MAX_CHUNKS = 4;
+
+    private final DirectBufferPool mPool;
+
+    public PooledJpegWriter() {
+        this(new DirectBufferPool(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_CHUNKS));
+    }
+
+    public PooledJpegWriter(DirectBufferPool pool) {
+        mPool = pool;
+    }
+
+    public DirectBufferPool getPool() {
+        return mPool;
+    }
+
+    /**
+     * 把 src 中 position 到 limit 的数据写入 file（覆盖原有内容）。
+     * 写完后 src 的 position 会移动到 limit。
+     *
+     * @return 写入的字节数
+     */
+    public long write(ByteBuffer src, File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return write(src, channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 把 src 中 position 到 limit 的数据写入 channel。
+     *
+     * @return 写入的字节数
+     */
+    public long write(ByteBuffer src, WritableByteChannel channel) throws IOException {
+        long total = src.remaining();
+        if (src.isDirect()) {
+            writeFully(src, channel);
+            return total;
+        }
+
+        ByteBuffer chunk;
+        try {
+            chunk = mPool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a staging buffer", e);
+        }
+        try {
+            int limit = src.limit();
+            while (src.hasRemaining()) {
+                chunk.clear();
+                int n = Math.min(chunk.remaining(), src.remaining());
+                src.limit(src.position() + n);
+                chunk.put(src);
+                src.limit(limit);
+                chunk.flip();
+                writeFully(chunk, channel);
+            }
+        } finally {
+            mPool.release(chunk);
+        }
+        return total;
+    }
+
+    /**
+     * 把 src 中的 JPEG 写入 file，同时写入 metadata 对应的 EXIF（已有 Exif APP1 时合并进去，已有的标签不变）
+     *
+     * @return 写入的字节数
+     */
+    public long write(ByteBuffer src, CaptureMetadata metadata, File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return write(src, metadata, channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 把 src 中的 JPEG 写入 channel，同时写入 metadata 对应的 EXIF。写完后 src 的 position 会移动到 limit。
+     *
+     * @return 写入的字节数
+     */
+    public long write(ByteBuffer src, CaptureMetadata metadata, GatheringByteChannel channel) throws IOException {
+        ExifWriter.Splice splice;
+        try {
+            splice = ExifWriter.locate(src);
+        } catch (IOException e) {
+            // 不认识的数据原样写入，照片本身比拍摄参数重要
+            return write(src, (WritableByteChannel) channel);
+        }
+        ByteBuffer app1;
+        if (splice.hasExif()) {
+            app1 = ExifWriter.merge(src, splice, metadata);
+            if (null == app1) {
+                // 没有要补的标签，或者 HAL 的 Exif 看不懂：原样保留
+                return write(src, (WritableByteChannel) channel);
+            }
+        } else {
+            app1 = ExifWriter.build(metadata, ExifWriter.orientationTag(Math.max(0, metadata.rotationDegrees)));
+        }
+
+        ByteBuffer head = src.duplicate();
+        head.limit(src.position() + splice.insertAt);
+        ByteBuffer tail = src.duplicate();
+        tail.position(src.position() + splice.resumeAt);
+        long total = head.remaining() + app1.remaining() + tail.remaining();
+        if (src.isDirect()) {
+            // 文件头片段、APP1、剩余数据一次写入
+            writeFully(new ByteBuffer[]{head, app1, tail}, channel);
+        } else {
+            // 堆内存的剩余数据仍然经过中转缓冲，文件头和 APP1 只有几百字节
+            writeFully(new ByteBuffer[]{head, app1}, channel);
+            write(tail, channel);
+        }
+        src.position(src.limit());
+        return total;
+    }
+
+    private static void writeFully(ByteBuffer[] buffers, GatheringByteChannel channel) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    private static void writeFully(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
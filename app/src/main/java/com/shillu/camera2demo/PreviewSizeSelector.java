@@ -0,0 +1,152 @@
+package com.shillu.camera2demo;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 预览尺寸选择器，替代原来的 chooseOptimalSize
+ * <p>
+ * 原来的 chooseOptimalSize 每次都新建两个 ArrayList，线性扫描后再用 Collections.min/max 和新的 CompareSizesByArea 比较，
+ * 宽高比判断用的是整数除法 {@code option.getHeight() == option.getWidth() * h / w}，稍有偏差的尺寸会被漏掉。
+ * <p>
+ * 这里的做法：
+ * 1. 尺寸表（{@link SizeTable}）在构造时已经按面积降序排好，每个相机只排一次；
+ * 2. 一次扫描即可得到"够大的里面最小的"（最后一个够大的）和"不够大的里面最大的"（第一个不够大的）；
+ * 3. 宽高比按相对误差 tolerance 判断；
+ * 4. 结果放进一个以全部输入为键的小型直接映射缓存，相同的查询（旋转、重开相机）直接命中，查询过程不分配对象。
+ * <p>
+ * 选择规则与原来一致：在不超过 max 的、宽高比匹配的尺寸中，优先取能覆盖 view 的最小尺寸，
+ * 没有的话取最大的；都没有时退回到不超过 max 的最大尺寸，再没有就取最小的尺寸。
+ */
+public final class PreviewSizeSelector {
+
+    /**
+     * 缓存槽位数，必须是 2 的幂
+     */
+    private static final int CACHE_SLOTS = 16;
+
+    /**
+     * 每个缓存槽位存放的 int 数：7 个输入 + 1 个结果
+     */
+    private static final int SLOT_INTS = 8;
+
+    private final SizeTable mSizes;
+
+    /**
+     * 直接映射缓存，每个槽位依次是 viewW, viewH, maxW, maxH, aspectW, aspectH, toleranceBits, result
+     */
+    private final int[] mCache = new int[CACHE_SLOTS * SLOT_INTS];
+    private final boolean[] mCacheValid = new boolean[CACHE_SLOTS];
+
+    private long mHits;
+    private long mMisses;
+
+    public PreviewSizeSelector(SizeTable sizes) {
+        mSizes = sizes;
+    }
+
+    public SizeTable getSizes() {
+        return mSizes;
+    }
+
+    /**
+     * 选择预览尺寸
+     *
+     * @param viewWidth  需要覆盖的宽度（已按传感器方向交换过）
+     * @param viewHeight 需要覆盖的高度
+     * @param maxWidth   允许的最大宽度
+     * @param maxHeight  允许的最大高度
+     * @param aspectW    期望宽高比的宽
+     * @param aspectH    期望宽高比的高
+     * @param tolerance  宽高比允许的相对误差，0 表示必须完全一致
+     * @return 尺寸在 {@link #getSizes()} 中的下标，尺寸表为空时返回 -1
+     */
+    public synchronized int select(int viewWidth, int viewHeight, int maxWidth, int maxHeight,
+                                   int aspectW, int aspectH, float tolerance) {
+        if (mSizes.isEmpty()) {
+            return -1;
+        }
+        int toleranceBits = Float.floatToIntBits(tolerance);
+        int hash = viewWidth;
+        hash = hash * 31 + viewHeight;
+        hash = hash * 31 + maxWidth;
+        hash = hash * 31 + maxHeight;
+        hash = hash * 31 + aspectW;
+        hash = hash * 31 + aspectH;
+        hash = hash * 31 + toleranceBits;
+        hash ^= hash >>> 16;
+        int slot = hash & (CACHE_SLOTS - 1);
+        int base = slot * SLOT_INTS;
+        int[] cache = mCache;
+        if (mCacheValid[slot]
+                && cache[base] == viewWidth && cache[base + 1] == viewHeight
+                && cache[base + 2] == maxWidth && cache[base + 3] == maxHeight
+                && cache[base + 4] == aspectW && cache[base + 5] == aspectH
+                && cache[base + 6] == toleranceBits) {
+            mHits++;
+            return cache[base + 7];
+        }
+        mMisses++;
+        int result = compute(viewWidth, viewHeight, maxWidth, maxHeight, aspectW, aspectH, tolerance);
+        cache[base] = viewWidth;
+        cache[base + 1] = viewHeight;
+        cache[base + 2] = maxWidth;
+        cache[base + 3] = maxHeight;
+        cache[base + 4] = aspectW;
+        cache[base + 5] = aspectH;
+        cache[base + 6] = toleranceBits;
+        cache[base + 7] = result;
+        mCacheValid[slot] = true;
+        return result;
+    }
+
+    private int compute(int viewWidth, int viewHeight, int maxWidth, int maxHeight,
+                        int aspectW, int aspectH, float tolerance) {
+        SizeTable sizes = mSizes;
+        int smallestBigEnough = -1;
+        int largestNotBigEnough = -1;
+        int largestWithinMax = -1;
+        for (int i = 0; i < sizes.size(); i++) {
+            int w = sizes.width(i);
+            int h = sizes.height(i);
+            if (w > maxWidth || h > maxHeight) {
+                continue;
+            }
+            if (largestWithinMax < 0) {
+                largestWithinMax = i;
+            }
+            if (!aspectMatches(w, h, aspectW, aspectH, tolerance)) {
+                continue;
+            }
+            if (w >= viewWidth && h >= viewHeight) {
+                // 面积降序，后出现的够大的尺寸更小
+                smallestBigEnough = i;
+            } else if (largestNotBigEnough < 0) {
+                largestNotBigEnough = i;
+            }
+        }
+        if (smallestBigEnough >= 0) {
+            return smallestBigEnough;
+        }
+        if (largestNotBigEnough >= 0) {
+            return largestNotBigEnough;
+        }
+        return largestWithinMax >= 0 ? largestWithinMax : sizes.size() - 1;
+    }
+
+    /**
+     * |w/h - aspectW/aspectH| <= tolerance * aspectW/aspectH，交叉相乘避免除法
+     */
+    static boolean aspectMatches(int w, int h, int aspectW, int aspectH, float tolerance) {
+        long lhs = (long) w * aspectH;
+        long rhs = (long) h * aspectW;
+        return Math.abs(lhs - rhs) <= tolerance * rhs;
+    }
+
+    public synchronized long getCacheHits() {
+        return mHits;
+    }
+
+    public synchronized long getCacheMisses() {
+        return mMisses;
+    }
+}
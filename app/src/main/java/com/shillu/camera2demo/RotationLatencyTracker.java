@@ -0,0 +1,110 @@
+package com.shillu.camera2demo;
+
+import java.util.Locale;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 屏幕旋转延迟统计：从旋转到按新方向显示的第一帧预览
+ * <p>
+ * 旋转时不再重建 Activity，相机设备和会话保持不变，只重新计算 configureTransform。一次旋转分成两段：
+ * 旋转到新方向的变换矩阵生效（90 度旋转要等 TextureView 按新尺寸重新布局，180 度翻转尺寸不变、立即生效），
+ * 变换生效到下一帧预览显示出来。旋转过程中再次旋转（例如 90 度后马上又转了 90 度）从第一次开始计时。
+ * <p>
+ * 和 {@link SwitchLatencyTracker} 一样，{@link #onPreviewFrame(long)} 每帧都会调用，没有旋转在进行时只读一个 volatile 字段。
+ */
+public final class RotationLatencyTracker {
+
+    private volatile boolean mPending;
+    private long mRotatedAt;
+    private long mTransformedAt;
+
+    private int mCount;
+    private long mLastNs;
+    private long mLastTransformNs;
+    private long mLastFirstFrameNs;
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+
+    /**
+     * 屏幕方向变化
+     *
+     * @param needsLayout 是否要等 TextureView 重新布局（宽高互换）之后变换才生效
+     */
+    public synchronized void onRotation(long nowNs, boolean needsLayout) {
+        if (!mPending) {
+            mPending = true;
+            mRotatedAt = nowNs;
+        }
+        mTransformedAt = needsLayout ? 0 : nowNs;
+    }
+
+    /**
+     * TextureView 按新尺寸重新布局，变换矩阵已经更新
+     */
+    public synchronized void onTransformApplied(long nowNs) {
+        if (mPending && mTransformedAt == 0) {
+            mTransformedAt = nowNs;
+        }
+    }
+
+    /**
+     * 预览帧到达
+     *
+     * @return 这一帧是否结束了一次旋转
+     */
+    public boolean onPreviewFrame(long nowNs) {
+        if (!mPending) {
+            return false;
+        }
+        synchronized (this) {
+            if (!mPending || mTransformedAt == 0) {
+                return false;
+            }
+            mPending = false;
+            mLastNs = nowNs - mRotatedAt;
+            mLastTransformNs = mTransformedAt - mRotatedAt;
+            mLastFirstFrameNs = nowNs - mTransformedAt;
+            mLatency.record(mLastNs);
+            mCount++;
+            return true;
+        }
+    }
+
+    public synchronized void cancel() {
+        mPending = false;
+    }
+
+    public boolean isPending() {
+        return mPending;
+    }
+
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * 最近一次旋转到第一帧的总耗时
+     */
+    public synchronized long getLastLatencyNs() {
+        return mLastNs;
+    }
+
+    public synchronized long getLastTransformNs() {
+        return mLastTransformNs;
+    }
+
+    public synchronized long getLastFirstFrameNs() {
+        return mLastFirstFrameNs;
+    }
+
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "Rotation{count=%d, lastMs=%.1f (transform %.1f + frame %.1f), p90Ms=%.1f}",
+                mCount, mLastNs / 1e6, mLastTransformNs / 1e6, mLastFirstFrameNs / 1e6,
+                mLatency.getPercentile(90) / 1e6);
+    }
+}
@@ -0,0 +1,104 @@
+package com.shillu.camera2demo;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 按面积从大到小排好序的一组输出尺寸
+ * <p>
+ * 用两个 int 表示一个尺寸，避免在纯 Java 代码（以及本地单元测试）里依赖 android.util.Size。
+ * 构造时排序一次，之后只读，可以在多个线程之间共享。
+ */
+public final class SizeTable {
+
+    public static final SizeTable EMPTY = new SizeTable(new int[0], new int[0]);
+
+    private final int[] mWidths;
+    private final int[] mHeights;
+
+    private SizeTable(int[] widths, int[] heights) {
+        mWidths = widths;
+        mHeights = heights;
+    }
+
+    /**
+     * @param widths  宽度数组
+     * @param heights 高度数组，和 widths 一一对应
+     * @return 按面积降序排列的尺寸表，面积相同时宽度大的在前
+     */
+    public static SizeTable of(final int[] widths, final int[] heights) {
+        if (widths.length != heights.length) {
+            throw new IllegalArgumentException("widths and heights must have the same length");
+        }
+        int n = widths.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byArea = Long.compare((long) widths[b] * heights[b], (long) widths[a] * heights[a]);
+                return byArea != 0 ? byArea : Integer.compare(widths[b], widths[a]);
+            }
+        });
+        int[] sortedWidths = new int[n];
+        int[] sortedHeights = new int[n];
+        for (int i = 0; i < n; i++) {
+            sortedWidths[i] = widths[order[i]];
+            sortedHeights[i] = heights[order[i]];
+        }
+        return new SizeTable(sortedWidths, sortedHeights);
+    }
+
+    public int size() {
+        return mWidths.length;
+    }
+
+    public boolean isEmpty() {
+        return mWidths.length == 0;
+    }
+
+    public int width(int index) {
+        return mWidths[index];
+    }
+
+    public int height(int index) {
+        return mHeights[index];
+    }
+
+    public long area(int index) {
+        return (long) mWidths[index] * mHeights[index];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SizeTable)) {
+            return false;
+        }
+        SizeTable other = (SizeTable) o;
+        return Arrays.equals(mWidths, other.mWidths) && Arrays.equals(mHeights, other.mHeights);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(mWidths) + Arrays.hashCode(mHeights);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < mWidths.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(mWidths[i]).append('x').append(mHeights[i]);
+        }
+        return builder.append(']').toString();
+    }
+}
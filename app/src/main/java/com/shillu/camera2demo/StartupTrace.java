@@ -0,0 +1,133 @@
+package com.shillu.camera2demo;
+
+import java.util.Locale;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 冷启动打点：从 CameraActivity.onCreate() 到第一个 onCaptureCompleted()
+ * <p>
+ * 冷启动时相机枚举和打开设备在 {@link CameraStartup} 的后台线程上进行，和 Fragment 的布局、TextureView 的创建并行，
+ * 两条线在 Surface 可用之后汇合，接着配置会话。{@link Phase} 中的阶段不一定按声明顺序到达（通常设备先于 Surface 就绪），
+ * 每个阶段只记第一次，时间都相对 {@link Phase#ACTIVITY_CREATE}。
+ * <p>
+ * {@link #mark(Phase, long)} 在 UI 线程和相机线程上都会调用；{@link #isComplete()} 只读一个 volatile 字段，
+ * 预览每帧的结果回调里检查它的开销可以忽略。
+ */
+public final class StartupTrace {
+
+    public enum Phase {
+        /**
+         * CameraActivity.onCreate()，冷启动起点
+         */
+        ACTIVITY_CREATE,
+        /**
+         * 相机能力索引就绪（枚举所有相机并读取特性）
+         */
+        INDEX_READY,
+        /**
+         * CameraDevice.StateCallback.onOpened()
+         */
+        DEVICE_OPENED,
+        /**
+         * Fragment.onViewCreated()，布局已经 inflate
+         */
+        VIEW_CREATED,
+        /**
+         * TextureView 的 SurfaceTexture 可用
+         */
+        SURFACE_AVAILABLE,
+        /**
+         * 预览会话配置完成并提交了重复请求
+         */
+        SESSION_CONFIGURED,
+        /**
+         * 第一个预览帧的 onCaptureCompleted()，冷启动终点
+         */
+        FIRST_RESULT
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final long[] mMarks = new long[PHASES.length];
+    private volatile boolean mComplete;
+
+    /**
+     * @param startNs ACTIVITY_CREATE 的时间
+     */
+    public StartupTrace(long startNs) {
+        for (int i = 0; i < mMarks.length; i++) {
+            mMarks[i] = -1;
+        }
+        mMarks[Phase.ACTIVITY_CREATE.ordinal()] = startNs;
+    }
+
+    /**
+     * 记录一个阶段，重复记录或者已经结束时忽略
+     *
+     * @return 是否是第一次记录
+     */
+    public synchronized boolean mark(Phase phase, long nowNs) {
+        if (mComplete || mMarks[phase.ordinal()] >= 0) {
+            return false;
+        }
+        mMarks[phase.ordinal()] = nowNs;
+        if (phase == Phase.FIRST_RESULT) {
+            mComplete = true;
+        }
+        return true;
+    }
+
+    /**
+     * 是否已经收到第一帧结果
+     */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    /**
+     * 阶段相对 ACTIVITY_CREATE 的耗时，还没到达时返回 -1
+     */
+    public synchronized long getElapsedNs(Phase phase) {
+        long mark = mMarks[phase.ordinal()];
+        return mark < 0 ? -1 : mark - mMarks[Phase.ACTIVITY_CREATE.ordinal()];
+    }
+
+    /**
+     * 冷启动总耗时，还没结束时返回 -1
+     */
+    public long getTotalNs() {
+        return getElapsedNs(Phase.FIRST_RESULT);
+    }
+
+    /**
+     * 设备和 Surface 都就绪的时刻：两条并行路径汇合，可以开始配置会话；有一个还没到达时返回 -1
+     */
+    public synchronized long getJoinNs() {
+        long device = getElapsedNs(Phase.DEVICE_OPENED);
+        long surface = getElapsedNs(Phase.SURFACE_AVAILABLE);
+        return device < 0 || surface < 0 ? -1 : Math.max(device, surface);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("Startup{");
+        for (int i = 1; i < PHASES.length; i++) {
+            if (i > 1) {
+                builder.append(", ");
+            }
+            long elapsed = getElapsedNs(PHASES[i]);
+            builder.append(PHASES[i].name().toLowerCase(Locale.US)).append('=');
+            if (elapsed < 0) {
+                builder.append('-');
+            } else {
+                builder.append(String.format(Locale.US, "%.1f", elapsed / 1e6));
+            }
+        }
+        long join = getJoinNs();
+        if (join >= 0) {
+            builder.append(String.format(Locale.US, ", joinMs=%.1f", join / 1e6));
+        }
+        return builder.append('}').toString();
+    }
+}
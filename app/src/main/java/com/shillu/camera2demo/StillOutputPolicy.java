@@ -0,0 +1,192 @@
+package com.shillu.camera2demo;
+
+import java.util.Locale;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 全分辨率 JPEG ImageReader 的按需分配策略
+ * <p>
+ * 原来每个会话都带着最大 JPEG 尺寸、连拍深度的 ImageReader，只预览不拍照也一直占着几十到上百兆的 gralloc 内存。
+ * ImageReader 的 Surface 不能作为 OutputConfiguration 的延迟输出（只支持 SurfaceView / SurfaceTexture），
+ * 所以这里采用按需重新配置会话的方式，由本类决定每个会话带多深的 JPEG 输出：
+ * <p>
+ * 1. 换相机时按单张拍照深度估算常驻内存（每个缓冲按 width * height * 1.5 估算），不超过预算的小尺寸相机直接常驻，
+ * 和原来一样快门无额外延迟；超过预算的会话只有预览；
+ * 2. 拍照或连拍时 {@link #request(boolean, long)} 发现当前输出不够（没有，或者单张深度不够连拍），调用方重新配置会话，
+ * 配置完成后 {@link #onSessionConfigured(int, long)} 记录这次按需添加的延迟；
+ * 3. 最后一次使用后空闲超过 idleReleaseNs，{@link #shouldRelease(long)} 让调用方再次重新配置会话，回到常驻深度（可能是没有）。
+ * <p>
+ * 和其它统计类一样只用基本类型字段，方法是同步的：request 在 UI 线程，其余在相机线程。
+ */
+public final class StillOutputPolicy {
+
+    private final long mResidentBudgetBytes;
+    private final long mIdleReleaseNs;
+    private final int mSingleDepth;
+    private final int mBurstDepth;
+
+    private long mBufferBytes;
+    private int mResidentDepth;
+    private int mRequestedDepth;
+    private int mAttachedDepth;
+    private long mAttachRequestedNs = -1;
+    private long mLastUseNs;
+
+    private long mAttaches;
+    private long mReleases;
+    private final LatencyHistogram mAttachLatency = new LatencyHistogram();
+
+    /**
+     * @param residentBudgetBytes 预览期间允许常驻的 JPEG 缓冲内存
+     * @param idleReleaseNs       最后一次拍照后多久释放按需添加的输出
+     * @param singleDepth         单张拍照的 maxImages
+     * @param burstDepth          连拍的 maxImages
+     */
+    public StillOutputPolicy(long residentBudgetBytes, long idleReleaseNs, int singleDepth, int burstDepth) {
+        mResidentBudgetBytes = residentBudgetBytes;
+        mIdleReleaseNs = idleReleaseNs;
+        mSingleDepth = singleDepth;
+        mBurstDepth = Math.max(singleDepth, burstDepth);
+    }
+
+    /**
+     * 一个 JPEG 缓冲的估算大小，多数 HAL 的 android.jpeg.maxSize 不超过这个量级
+     */
+    public static long estimateBufferBytes(int width, int height) {
+        return (long) width * height * 3 / 2;
+    }
+
+    /**
+     * 换了相机（或者 JPEG 尺寸变了），之前的输出随设备一起关闭
+     */
+    public void onCameraConfigured(int jpegWidth, int jpegHeight) {
+        onCameraConfigured(jpegWidth, jpegHeight, false);
+    }
+
+    /**
+     * 同 {@link #onCameraConfigured(int, int)}
+     *
+     * @param zsl 这个相机启用了 ZSL：单张照片从 ZSL 缓冲编码，JPEG 输出从不常驻，只在连拍时按需添加
+     */
+    public synchronized void onCameraConfigured(int jpegWidth, int jpegHeight, boolean zsl) {
+        mBufferBytes = estimateBufferBytes(jpegWidth, jpegHeight);
+        mResidentDepth = !zsl && mBufferBytes * mSingleDepth <= mResidentBudgetBytes ? mSingleDepth : 0;
+        mRequestedDepth = mResidentDepth;
+        mAttachedDepth = 0;
+        mAttachRequestedNs = -1;
+    }
+
+    /**
+     * 下一次配置会话时 JPEG ImageReader 的 maxImages，0 表示不带 JPEG 输出
+     */
+    public synchronized int getDepth() {
+        return mRequestedDepth;
+    }
+
+    /**
+     * 要拍照（或连拍）
+     *
+     * @return true 表示当前会话的输出不够，调用方需要重新配置会话后再拍
+     */
+    public synchronized boolean request(boolean burst, long nowNs) {
+        mLastUseNs = nowNs;
+        int needed = burst ? mBurstDepth : mSingleDepth;
+        if (mAttachedDepth >= needed) {
+            return false;
+        }
+        mRequestedDepth = Math.max(mRequestedDepth, needed);
+        if (mAttachRequestedNs < 0) {
+            mAttachRequestedNs = nowNs;
+        }
+        return true;
+    }
+
+    /**
+     * 已经请求重新配置，会话还没配置好
+     */
+    public synchronized boolean isAttachPending() {
+        return mAttachRequestedNs >= 0;
+    }
+
+    /**
+     * 重新配置失败或者被取消
+     */
+    public synchronized void cancelAttach() {
+        mAttachRequestedNs = -1;
+        mRequestedDepth = Math.max(mResidentDepth, mAttachedDepth);
+    }
+
+    /**
+     * 会话配置完成
+     *
+     * @param depth 这个会话实际带的 maxImages，0 表示没有 JPEG 输出
+     */
+    public synchronized void onSessionConfigured(int depth, long nowNs) {
+        mAttachedDepth = depth;
+        if (mAttachRequestedNs >= 0 && depth >= mRequestedDepth) {
+            mAttachLatency.record(Math.max(0, nowNs - mAttachRequestedNs));
+            mAttaches++;
+            mAttachRequestedNs = -1;
+        }
+    }
+
+    /**
+     * 拍照完成或者连拍结束，空闲计时从这里重新开始
+     */
+    public synchronized void onUse(long nowNs) {
+        mLastUseNs = nowNs;
+    }
+
+    /**
+     * 按需添加的输出空闲超时
+     *
+     * @return true 表示调用方应当重新配置会话，回到常驻深度
+     */
+    public synchronized boolean shouldRelease(long nowNs) {
+        if (mAttachedDepth <= mResidentDepth || mAttachRequestedNs >= 0 || nowNs - mLastUseNs < mIdleReleaseNs) {
+            return false;
+        }
+        mRequestedDepth = mResidentDepth;
+        mReleases++;
+        return true;
+    }
+
+    /**
+     * 当前会话的 JPEG 缓冲估算占用
+     */
+    public synchronized long getAttachedBytes() {
+        return mBufferBytes * mAttachedDepth;
+    }
+
+    public synchronized int getAttachedDepth() {
+        return mAttachedDepth;
+    }
+
+    public synchronized int getResidentDepth() {
+        return mResidentDepth;
+    }
+
+    public synchronized long getAttaches() {
+        return mAttaches;
+    }
+
+    public synchronized long getReleases() {
+        return mReleases;
+    }
+
+    /**
+     * 从请求到带着 JPEG 输出的会话配置完成的延迟，即按需分配给快门增加的时间
+     */
+    public LatencyHistogram getAttachLatency() {
+        return mAttachLatency;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "StillOutput{resident=%d, attached=%d (%.1fMB), attaches=%d, releases=%d, attachP50Ms=%.1f}",
+                mResidentDepth, mAttachedDepth, getAttachedBytes() / (1024.0 * 1024.0), mAttaches, mReleases,
+                mAttachLatency.getPercentile(50) / 1e6);
+    }
+}
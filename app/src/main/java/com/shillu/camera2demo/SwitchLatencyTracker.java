@@ -0,0 +1,148 @@
+package com.shillu.camera2demo;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 前后摄切换延迟统计：从点击切换到新相机的第一帧预览
+ * <p>
+ * 一次切换分成三段：点击到新设备打开（包含关闭旧设备）、打开到会话配置完成、配置完成到第一帧显示出来。
+ * 切换过程中再次点击不会重新计时，总延迟从第一次点击算起。
+ * <p>
+ * 点击和第一帧在 UI 线程，打开和配置在相机线程，所以方法都是同步的；
+ * {@link #onPreviewFrame(long)} 每帧都会调用，没有切换在进行时只读一个 volatile 字段就返回。
+ * 时间统一使用 System.nanoTime()。
+ */
+public final class SwitchLatencyTracker {
+
+    private volatile boolean mPending;
+    private long mRequestedAt;
+    private long mOpenedAt;
+    private long mConfiguredAt;
+
+    private int mCount;
+    private long mTotalNs;
+    private long mMaxNs;
+    private long mLastNs;
+    private long mLastOpenNs;
+    private long mLastConfigureNs;
+    private long mLastFirstFrameNs;
+
+    /**
+     * 用户点击切换
+     */
+    public synchronized void onSwitchRequested(long nowNs) {
+        if (mPending) {
+            return;
+        }
+        mPending = true;
+        mRequestedAt = nowNs;
+        mOpenedAt = 0;
+        mConfiguredAt = 0;
+    }
+
+    /**
+     * 新设备已打开
+     */
+    public synchronized void onDeviceOpened(long nowNs) {
+        if (mPending) {
+            mOpenedAt = nowNs;
+            mConfiguredAt = 0;
+        }
+    }
+
+    /**
+     * 新会话已配置，开始出预览帧
+     */
+    public synchronized void onSessionConfigured(long nowNs) {
+        if (mPending && mOpenedAt != 0) {
+            mConfiguredAt = nowNs;
+        }
+    }
+
+    /**
+     * 预览帧到达
+     *
+     * @return 这一帧是否结束了一次切换
+     */
+    public boolean onPreviewFrame(long nowNs) {
+        if (!mPending) {
+            return false;
+        }
+        synchronized (this) {
+            // 会话配置完成之前的帧还来自旧相机
+            if (!mPending || mConfiguredAt == 0) {
+                return false;
+            }
+            mPending = false;
+            mLastNs = nowNs - mRequestedAt;
+            mLastOpenNs = mOpenedAt - mRequestedAt;
+            mLastConfigureNs = mConfiguredAt - mOpenedAt;
+            mLastFirstFrameNs = nowNs - mConfiguredAt;
+            mCount++;
+            mTotalNs += mLastNs;
+            mMaxNs = Math.max(mMaxNs, mLastNs);
+            return true;
+        }
+    }
+
+    /**
+     * 切换失败，丢弃这次计时
+     */
+    public synchronized void cancel() {
+        mPending = false;
+    }
+
+    public boolean isPending() {
+        return mPending;
+    }
+
+    public synchronized int getSwitchCount() {
+        return mCount;
+    }
+
+    public synchronized long getLastLatencyNs() {
+        return mLastNs;
+    }
+
+    public synchronized long getAverageLatencyNs() {
+        return mCount == 0 ? 0 : mTotalNs / mCount;
+    }
+
+    public synchronized long getMaxLatencyNs() {
+        return mMaxNs;
+    }
+
+    /**
+     * 最近一次切换中，点击到新设备打开的耗时
+     */
+    public synchronized long getLastOpenNs() {
+        return mLastOpenNs;
+    }
+
+    /**
+     * 最近一次切换中，设备打开到会话配置完成的耗时
+     */
+    public synchronized long getLastConfigureNs() {
+        return mLastConfigureNs;
+    }
+
+    /**
+     * 最近一次切换中，会话配置完成到第一帧的耗时
+     */
+    public synchronized long getLastFirstFrameNs() {
+        return mLastFirstFrameNs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SwitchLatency{count=" + mCount
+                + ", lastMs=" + TimeUnit.NANOSECONDS.toMillis(mLastNs)
+                + " (open=" + TimeUnit.NANOSECONDS.toMillis(mLastOpenNs)
+                + ", configure=" + TimeUnit.NANOSECONDS.toMillis(mLastConfigureNs)
+                + ", firstFrame=" + TimeUnit.NANOSECONDS.toMillis(mLastFirstFrameNs)
+                + "), avgMs=" + TimeUnit.NANOSECONDS.toMillis(getAverageLatencyNs())
+                + ", maxMs=" + TimeUnit.NANOSECONDS.toMillis(mMaxNs) + '}';
+    }
+}
@@ -0,0 +1,209 @@
+package com.shillu.camera2demo;
+
+import android.hardware.camera2.CaptureResult;
+
+import java.util.Locale;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 点击对焦的一次对焦周期：触发、等待锁定（有硬超时）、保持一段时间后回到连续对焦
+ * <p>
+ * 点击后调用方把对焦 / 测光区域和 AF_MODE_AUTO 交给 {@link ControlUpdateCoalescer}，
+ * 区域生效后用 {@link #takePendingTrigger()} 取出待发送的触发（AF_TRIGGER_START / CANCEL）单独 capture 一次。
+ * 只有看到带 AF_TRIGGER_START 的那一帧结果之后，FOCUSED_LOCKED / NOT_FOCUSED_LOCKED 才算这次点击的结果，
+ * 避免把上一次对焦留下的锁定状态当成这一次的；从点击到锁定的耗时计入 {@link #getTimeToLock()}。
+ * <p>
+ * 超时没有锁定，或者锁定后保持时间到了，{@link #onTimeoutCheck(long)} 返回 {@link #ACTION_RELEASE}，
+ * 调用方清除区域并恢复 CONTINUOUS_PICTURE，同时发送 AF_TRIGGER_CANCEL。
+ * 与 {@link CaptureStateMachine} 一样只用基本类型字段，方法是同步的。
+ */
+public final class TapFocusController {
+
+    public static final int STATE_IDLE = 0;
+    /**
+     * 已经点击，等待对焦锁定
+     */
+    public static final int STATE_FOCUSING = 1;
+    /**
+     * 已锁定（或确认无法对焦），保持点击的区域
+     */
+    public static final int STATE_LOCKED = 2;
+
+    public static final int TRIGGER_NONE = 0;
+    public static final int TRIGGER_START = 1;
+    public static final int TRIGGER_CANCEL = 2;
+
+    public static final int ACTION_NONE = 0;
+    /**
+     * 结束这次点击对焦，恢复连续对焦
+     */
+    public static final int ACTION_RELEASE = 1;
+
+    private final long mTimeoutNs;
+    private final long mHoldNs;
+
+    private int mState = STATE_IDLE;
+    private int mPendingTrigger = TRIGGER_NONE;
+    private boolean mTriggerSeen;
+    private long mTapNs;
+    private long mDeadlineNs = -1;
+
+    private long mTaps;
+    private long mFocused;
+    private long mNotFocused;
+    private long mTimeouts;
+    private long mSuperseded;
+    private long mLastTimeToLockNs = -1;
+    private final LatencyHistogram mTimeToLock = new LatencyHistogram();
+
+    /**
+     * @param timeoutNs 等待锁定的硬超时
+     * @param holdNs    锁定后保持点击区域的时间
+     */
+    public TapFocusController(long timeoutNs, long holdNs) {
+        mTimeoutNs = timeoutNs;
+        mHoldNs = holdNs;
+    }
+
+    /**
+     * 一次点击；上一次还没锁定时作废上一次
+     */
+    public synchronized void onTap(long nowNs) {
+        if (mState == STATE_FOCUSING) {
+            mSuperseded++;
+        }
+        mTaps++;
+        mState = STATE_FOCUSING;
+        mPendingTrigger = TRIGGER_START;
+        mTriggerSeen = false;
+        mTapNs = nowNs;
+        mDeadlineNs = nowNs + mTimeoutNs;
+    }
+
+    /**
+     * 取出待发送的触发，调用方应在点击的区域生效之后发送
+     *
+     * @return TRIGGER_NONE / TRIGGER_START / TRIGGER_CANCEL
+     */
+    public synchronized int takePendingTrigger() {
+        int trigger = mPendingTrigger;
+        mPendingTrigger = TRIGGER_NONE;
+        return trigger;
+    }
+
+    public synchronized boolean isActive() {
+        return mState != STATE_IDLE;
+    }
+
+    /**
+     * 一帧完整结果
+     *
+     * @param afState   CONTROL_AF_STATE，不可用时传 {@link CaptureStateMachine#UNKNOWN}
+     * @param afTrigger 这一帧请求的 CONTROL_AF_TRIGGER，不可用时传 {@link CaptureStateMachine#UNKNOWN}
+     * @return 调用方需要执行的动作
+     */
+    public synchronized int onResult(int afState, int afTrigger, long nowNs) {
+        if (mState == STATE_FOCUSING) {
+            if (afTrigger == CaptureResult.CONTROL_AF_TRIGGER_START) {
+                mTriggerSeen = true;
+            }
+            boolean focused = afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED;
+            if (mTriggerSeen && (focused || afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED)) {
+                if (focused) {
+                    mFocused++;
+                } else {
+                    mNotFocused++;
+                }
+                mLastTimeToLockNs = nowNs - mTapNs;
+                mTimeToLock.record(mLastTimeToLockNs);
+                mState = STATE_LOCKED;
+                mDeadlineNs = nowNs + mHoldNs;
+                return ACTION_NONE;
+            }
+        }
+        return onTimeoutCheck(nowNs);
+    }
+
+    /**
+     * 检查超时和保持时间
+     */
+    public synchronized int onTimeoutCheck(long nowNs) {
+        if (mState == STATE_IDLE || nowNs < mDeadlineNs) {
+            return ACTION_NONE;
+        }
+        if (mState == STATE_FOCUSING) {
+            mTimeouts++;
+        }
+        release();
+        return ACTION_RELEASE;
+    }
+
+    /**
+     * 立即结束（例如换相机），发送 CANCEL
+     */
+    public synchronized void release() {
+        mState = STATE_IDLE;
+        mDeadlineNs = -1;
+        mPendingTrigger = TRIGGER_CANCEL;
+    }
+
+    /**
+     * 会话重建，之前的状态和待发送的触发都作废
+     */
+    public synchronized void reset() {
+        mState = STATE_IDLE;
+        mDeadlineNs = -1;
+        mPendingTrigger = TRIGGER_NONE;
+    }
+
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * 当前状态的截止时间（等待锁定的超时或保持结束），空闲时返回 -1
+     */
+    public synchronized long getDeadlineNs() {
+        return mDeadlineNs;
+    }
+
+    public synchronized long getTaps() {
+        return mTaps;
+    }
+
+    public synchronized long getFocused() {
+        return mFocused;
+    }
+
+    public synchronized long getNotFocused() {
+        return mNotFocused;
+    }
+
+    public synchronized long getTimeouts() {
+        return mTimeouts;
+    }
+
+    public synchronized long getSuperseded() {
+        return mSuperseded;
+    }
+
+    /**
+     * 最近一次点击到锁定的耗时，还没有时返回 -1
+     */
+    public synchronized long getLastTimeToLockNs() {
+        return mLastTimeToLockNs;
+    }
+
+    public LatencyHistogram getTimeToLock() {
+        return mTimeToLock;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "TapFocus{taps=%d, focused=%d, notFocused=%d, timeouts=%d, superseded=%d, lockP50Ms=%.1f, lockMaxMs=%.1f}",
+                mTaps, mFocused, mNotFocused, mTimeouts, mSuperseded,
+                mTimeToLock.getPercentile(50) / 1e6, mTimeToLock.getMax() / 1e6);
+    }
+}
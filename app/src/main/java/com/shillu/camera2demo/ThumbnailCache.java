@@ -0,0 +1,421 @@
+package com.shillu.camera2demo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 照片缩略图的两级缓存：按字节计数的内存 LRU，加上带索引文件的磁盘 LRU，重启后缩略图直接从磁盘读出
+ * <p>
+ * 键是源文件的绝对路径，同时记录源文件的长度和修改时间，照片被覆盖（例如单拍总是写同一个文件）后旧的缩略图自动失效。
+ * 缺失时用 {@link JpegThumbnailer} 从源文件的低频系数生成，长边不小于 minLongEdge。
+ * <p>
+ * 磁盘上每张缩略图是 {@link JpegEncoder} 编码的小 JPEG（文件名是键的 SHA-1），读回时完整解码（{@link JpegThumbnailer} 的 1/1）。
+ * 索引文件 {@link #INDEX_NAME} 每行一条：源文件长度、修改时间、缓存文件名、缓存文件字节数、键，按最近使用从旧到新排列；
+ * 增删时先写临时文件再改名，中途被杀也不会留下半个索引；读只更新内存中的顺序，下次增删时一起写回。
+ * 索引里有但文件丢了的条目按缺失处理。
+ * <p>
+ * 内存部分和磁盘部分各有一把锁，生成缩略图在锁外进行。应该在 I/O 线程调用 {@link #getOrCreate(File)}，
+ * {@link #getCached(File)} 只查内存，可以在 UI 线程调用。
+ */
+public final class ThumbnailCache {
+
+    static final String INDEX_NAME = "index";
+    private static final String INDEX_VERSION = "thumbnails-1";
+    private static final int DISK_QUALITY = 85;
+
+    /**
+     * 生成或者从磁盘读出缩略图后的回调，在调用 {@link #getOrCreate(File)} 的线程上执行
+     */
+    public interface Listener {
+        void onThumbnail(File source, JpegThumbnailer.Thumbnail thumbnail);
+    }
+
+    private static final class MemoryEntry {
+        final JpegThumbnailer.Thumbnail thumbnail;
+        final long sourceLength;
+        final long sourceModified;
+
+        MemoryEntry(JpegThumbnailer.Thumbnail thumbnail, long sourceLength, long sourceModified) {
+            this.thumbnail = thumbnail;
+            this.sourceLength = sourceLength;
+            this.sourceModified = sourceModified;
+        }
+    }
+
+    private static final class DiskEntry {
+        final long sourceLength;
+        final long sourceModified;
+        final String fileName;
+        final long bytes;
+
+        DiskEntry(long sourceLength, long sourceModified, String fileName, long bytes) {
+            this.sourceLength = sourceLength;
+            this.sourceModified = sourceModified;
+            this.fileName = fileName;
+            this.bytes = bytes;
+        }
+    }
+
+    private final File mDirectory;
+    private final long mMaxMemoryBytes;
+    private final long mMaxDiskBytes;
+    private final int mMinLongEdge;
+    private final Listener mListener;
+    private final JpegEncoder mEncoder = new JpegEncoder(null, DISK_QUALITY, JpegEncoder.DEFAULT_MCU_ROWS_PER_STRIP);
+
+    /**
+     * 访问顺序的 LinkedHashMap，最久没用的在前
+     */
+    private final LinkedHashMap<String, MemoryEntry> mMemory = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMemoryBytes;
+
+    private final Object mDiskLock = new Object();
+    private LinkedHashMap<String, DiskEntry> mDisk;
+    private long mDiskBytes;
+
+    private long mMemoryHits;
+    private long mDiskHits;
+    private long mMisses;
+
+    /**
+     * @param directory      缓存目录（例如 getCacheDir() 下的子目录），不存在时创建
+     * @param maxMemoryBytes 内存中缩略图像素数据的上限
+     * @param maxDiskBytes   磁盘上缩略图文件的上限，不含索引
+     * @param minLongEdge    生成的缩略图长边至少这么多像素
+     * @param listener       可以为 null
+     */
+    public ThumbnailCache(File directory, long maxMemoryBytes, long maxDiskBytes, int minLongEdge, Listener listener) {
+        mDirectory = directory;
+        mMaxMemoryBytes = maxMemoryBytes;
+        mMaxDiskBytes = maxDiskBytes;
+        mMinLongEdge = minLongEdge;
+        mListener = listener;
+    }
+
+    private static String key(File source) {
+        return source.getAbsolutePath();
+    }
+
+    /**
+     * 只查内存，源文件已经变了时返回 null
+     */
+    public JpegThumbnailer.Thumbnail getCached(File source) {
+        long length = source.length();
+        long modified = source.lastModified();
+        synchronized (this) {
+            MemoryEntry entry = mMemory.get(key(source));
+            if (null != entry && entry.sourceLength == length && entry.sourceModified == modified) {
+                mMemoryHits++;
+                return entry.thumbnail;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 依次查内存、磁盘，都没有时从源文件生成并写进两级缓存
+     *
+     * @throws IOException 源文件读不出来或者不是支持的 JPEG
+     */
+    public JpegThumbnailer.Thumbnail getOrCreate(File source) throws IOException {
+        JpegThumbnailer.Thumbnail thumbnail = getCached(source);
+        if (null != thumbnail) {
+            notifyListener(source, thumbnail);
+            return thumbnail;
+        }
+        long length = source.length();
+        long modified = source.lastModified();
+        thumbnail = readDisk(key(source), length, modified);
+        if (null != thumbnail) {
+            synchronized (this) {
+                mDiskHits++;
+            }
+            putMemory(key(source), new MemoryEntry(thumbnail, length, modified));
+            notifyListener(source, thumbnail);
+            return thumbnail;
+        }
+        synchronized (this) {
+            mMisses++;
+        }
+        thumbnail = JpegThumbnailer.decodeForSize(ByteBuffer.wrap(Files.readAllBytes(source.toPath())), mMinLongEdge);
+        put(source, length, modified, thumbnail);
+        notifyListener(source, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * 保存照片时已经有了 JPEG 数据，直接生成缩略图，不用再读一遍文件
+     *
+     * @param jpeg 刚写进 source 的内容，position 不变
+     */
+    public JpegThumbnailer.Thumbnail create(File source, ByteBuffer jpeg) throws IOException {
+        JpegThumbnailer.Thumbnail thumbnail = JpegThumbnailer.decodeForSize(jpeg, mMinLongEdge);
+        put(source, source.length(), source.lastModified(), thumbnail);
+        notifyListener(source, thumbnail);
+        return thumbnail;
+    }
+
+    private void put(File source, long length, long modified, JpegThumbnailer.Thumbnail thumbnail) throws IOException {
+        putMemory(key(source), new MemoryEntry(thumbnail, length, modified));
+        writeDisk(key(source), length, modified, thumbnail);
+    }
+
+    /**
+     * 源文件删除时调用
+     */
+    public void remove(File source) throws IOException {
+        String key = key(source);
+        synchronized (this) {
+            MemoryEntry entry = mMemory.remove(key);
+            if (null != entry) {
+                mMemoryBytes -= entry.thumbnail.sizeInBytes();
+            }
+        }
+        synchronized (mDiskLock) {
+            loadIndexLocked();
+            DiskEntry entry = mDisk.remove(key);
+            if (null != entry) {
+                deleteLocked(entry);
+                writeIndexLocked();
+            }
+        }
+    }
+
+    /**
+     * 内存紧张时（onTrimMemory）清空内存部分，磁盘部分不变
+     */
+    public synchronized void clearMemory() {
+        mMemory.clear();
+        mMemoryBytes = 0;
+    }
+
+    private void notifyListener(File source, JpegThumbnailer.Thumbnail thumbnail) {
+        if (null != mListener) {
+            mListener.onThumbnail(source, thumbnail);
+        }
+    }
+
+    private synchronized void putMemory(String key, MemoryEntry entry) {
+        MemoryEntry previous = mMemory.remove(key);
+        if (null != previous) {
+            mMemoryBytes -= previous.thumbnail.sizeInBytes();
+        }
+        int size = entry.thumbnail.sizeInBytes();
+        if (size > mMaxMemoryBytes) {
+            // 比整个缓存还大的不放进内存
+            return;
+        }
+        mMemory.put(key, entry);
+        mMemoryBytes += size;
+        Iterator<MemoryEntry> eldest = mMemory.values().iterator();
+        while (mMemoryBytes > mMaxMemoryBytes) {
+            mMemoryBytes -= eldest.next().thumbnail.sizeInBytes();
+            eldest.remove();
+        }
+    }
+
+    private JpegThumbnailer.Thumbnail readDisk(String key, long length, long modified) throws IOException {
+        synchronized (mDiskLock) {
+            loadIndexLocked();
+            DiskEntry entry = mDisk.get(key);
+            if (null == entry) {
+                return null;
+            }
+            File file = new File(mDirectory, entry.fileName);
+            if (entry.sourceLength != length || entry.sourceModified != modified || !file.isFile()) {
+                // 源文件变了或者缓存文件被系统清掉了
+                mDisk.remove(key);
+                deleteLocked(entry);
+                writeIndexLocked();
+                return null;
+            }
+            try {
+                return JpegThumbnailer.decode(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), 1);
+            } catch (IOException e) {
+                mDisk.remove(key);
+                deleteLocked(entry);
+                writeIndexLocked();
+                return null;
+            }
+        }
+    }
+
+    private void writeDisk(String key, long length, long modified, JpegThumbnailer.Thumbnail thumbnail) throws IOException {
+        synchronized (mDiskLock) {
+            loadIndexLocked();
+            String fileName = fileName(key);
+            File file = new File(mDirectory, fileName);
+            FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            long bytes;
+            try {
+                bytes = mEncoder.encode(thumbnail.planes(), channel);
+            } finally {
+                channel.close();
+            }
+            DiskEntry previous = mDisk.remove(key);
+            if (null != previous) {
+                mDiskBytes -= previous.bytes;
+            }
+            mDisk.put(key, new DiskEntry(length, modified, fileName, bytes));
+            mDiskBytes += bytes;
+            Iterator<DiskEntry> eldest = mDisk.values().iterator();
+            while (mDiskBytes > mMaxDiskBytes && eldest.hasNext()) {
+                DiskEntry entry = eldest.next();
+                eldest.remove();
+                deleteLocked(entry);
+            }
+            writeIndexLocked();
+        }
+    }
+
+    private void deleteLocked(DiskEntry entry) {
+        mDiskBytes -= entry.bytes;
+        File file = new File(mDirectory, entry.fileName);
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * 第一次访问磁盘时读索引，格式不对就当作空缓存重新开始
+     */
+    private void loadIndexLocked() throws IOException {
+        if (null != mDisk) {
+            return;
+        }
+        mDisk = new LinkedHashMap<>(16, 0.75f, true);
+        mDiskBytes = 0;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        File index = new File(mDirectory, INDEX_NAME);
+        if (!index.isFile()) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), StandardCharsets.UTF_8));
+        try {
+            if (!INDEX_VERSION.equals(reader.readLine())) {
+                return;
+            }
+            String line;
+            while (null != (line = reader.readLine())) {
+                // 路径里可能有空格，用制表符分隔，键放在最后
+                String[] fields = line.split("\t", 5);
+                if (fields.length != 5) {
+                    continue;
+                }
+                try {
+                    DiskEntry entry = new DiskEntry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            fields[2], Long.parseLong(fields[3]));
+                    mDisk.put(fields[4], entry);
+                    mDiskBytes += entry.bytes;
+                } catch (NumberFormatException e) {
+                    // 跳过坏掉的行
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void writeIndexLocked() throws IOException {
+        File temporary = new File(mDirectory, INDEX_NAME + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8);
+        try {
+            writer.write(INDEX_VERSION);
+            writer.write('\n');
+            for (Map.Entry<String, DiskEntry> item : mDisk.entrySet()) {
+                DiskEntry entry = item.getValue();
+                writer.write(entry.sourceLength + "\t" + entry.sourceModified + "\t" + entry.fileName + "\t"
+                        + entry.bytes + "\t" + item.getKey() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        File index = new File(mDirectory, INDEX_NAME);
+        if (!temporary.renameTo(index)) {
+            throw new IOException("Cannot replace " + index);
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2 + 4);
+            for (byte b : digest) {
+                builder.append(String.format(Locale.US, "%02x", b & 0xff));
+            }
+            return builder.append(".jpg").toString();
+        } catch (NoSuchAlgorithmException e) {
+            // 每个 JVM 和 Android 都有 SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized long getMemoryBytes() {
+        return mMemoryBytes;
+    }
+
+    public synchronized int getMemoryCount() {
+        return mMemory.size();
+    }
+
+    public long getDiskBytes() {
+        synchronized (mDiskLock) {
+            return mDiskBytes;
+        }
+    }
+
+    /**
+     * 磁盘上的条目，从最久没用到最近使用
+     */
+    List<String> getDiskKeys() throws IOException {
+        synchronized (mDiskLock) {
+            loadIndexLocked();
+            return new ArrayList<>(mDisk.keySet());
+        }
+    }
+
+    public synchronized long getMemoryHits() {
+        return mMemoryHits;
+    }
+
+    public synchronized long getDiskHits() {
+        return mDiskHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    @Override
+    public String toString() {
+        long diskBytes = getDiskBytes();
+        synchronized (this) {
+            return String.format(Locale.US, "Thumbnails{memory=%d/%dKB, disk=%dKB, hits=%d+%d, misses=%d}",
+                    mMemory.size(), mMemoryBytes / 1024, diskBytes / 1024, mMemoryHits, mDiskHits, mMisses);
+        }
+    }
+}
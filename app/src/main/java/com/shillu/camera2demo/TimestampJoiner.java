@@ -0,0 +1,197 @@
+package com.shillu.camera2demo;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 按传感器时间戳把 ImageReader 的图像和 onCaptureCompleted() 的结果配成对
+ * <p>
+ * 同一帧的 Image.getTimestamp() 和 SENSOR_TIMESTAMP 相同，但两者从不同的回调到达，先后顺序不确定，连拍时还会交错。
+ * 先到的一方按时间戳暂存，另一方到达时交给 {@link Listener#onJoined(long, Object, Object)}。
+ * <p>
+ * 图像不能一直等：结果丢失（例如请求失败）时超过 maxWaitNs 或者暂存的图像超过 capacity，最老的图像交给
+ * {@link Listener#onUnmatched(long, Object)}（照片照常保存，只是没有拍摄参数）；等不到图像的结果按同样的规则直接丢弃。
+ * <p>
+ * 方法是同步的，回调在锁外、在调用方的线程上执行。
+ */
+public final class TimestampJoiner<I, R> {
+
+    public interface Listener<I, R> {
+        void onJoined(long timestampNs, I item, R result);
+
+        /**
+         * 等不到结果的图像（超时、被挤出或者 {@link #clear()}）
+         */
+        void onUnmatched(long timestampNs, I item);
+    }
+
+    private static final class Pending<T> {
+        final T value;
+        final long arrivedNs;
+
+        Pending(T value, long arrivedNs) {
+            this.value = value;
+            this.arrivedNs = arrivedNs;
+        }
+    }
+
+    private final int mCapacity;
+    private final long mMaxWaitNs;
+    private final Listener<I, R> mListener;
+    private final LinkedHashMap<Long, Pending<I>> mItems = new LinkedHashMap<>();
+    private final LinkedHashMap<Long, Pending<R>> mResults = new LinkedHashMap<>();
+
+    private long mJoined;
+    private long mUnmatched;
+    private long mOrphanResults;
+    private final LatencyHistogram mWait = new LatencyHistogram();
+
+    /**
+     * @param capacity  每一方最多暂存的个数
+     * @param maxWaitNs 一方等另一方的最长时间
+     */
+    public TimestampJoiner(int capacity, long maxWaitNs, Listener<I, R> listener) {
+        mCapacity = Math.max(1, capacity);
+        mMaxWaitNs = maxWaitNs;
+        mListener = listener;
+    }
+
+    public void offerItem(long timestampNs, I item, long nowNs) {
+        R result = null;
+        List<Map.Entry<Long, I>> unmatched;
+        synchronized (this) {
+            unmatched = expireLocked(nowNs);
+            Pending<R> pending = mResults.remove(timestampNs);
+            if (null != pending) {
+                result = pending.value;
+                recordJoinLocked(nowNs - pending.arrivedNs);
+            } else {
+                mItems.put(timestampNs, new Pending<>(item, nowNs));
+                if (mItems.size() > mCapacity) {
+                    unmatched.add(evictOldestItemLocked());
+                }
+            }
+        }
+        dispatchUnmatched(unmatched);
+        if (null != result) {
+            mListener.onJoined(timestampNs, item, result);
+        }
+    }
+
+    public void offerResult(long timestampNs, R result, long nowNs) {
+        I item = null;
+        List<Map.Entry<Long, I>> unmatched;
+        synchronized (this) {
+            unmatched = expireLocked(nowNs);
+            Pending<I> pending = mItems.remove(timestampNs);
+            if (null != pending) {
+                item = pending.value;
+                recordJoinLocked(nowNs - pending.arrivedNs);
+            } else {
+                mResults.put(timestampNs, new Pending<>(result, nowNs));
+                if (mResults.size() > mCapacity) {
+                    Iterator<Pending<R>> oldest = mResults.values().iterator();
+                    oldest.next();
+                    oldest.remove();
+                    mOrphanResults++;
+                }
+            }
+        }
+        dispatchUnmatched(unmatched);
+        if (null != item) {
+            mListener.onJoined(timestampNs, item, result);
+        }
+    }
+
+    /**
+     * 处理超时的一方，调用方在最后一次 offer 之后 maxWaitNs 左右调用一次
+     */
+    public void expire(long nowNs) {
+        List<Map.Entry<Long, I>> unmatched;
+        synchronized (this) {
+            unmatched = expireLocked(nowNs);
+        }
+        dispatchUnmatched(unmatched);
+    }
+
+    /**
+     * 关闭相机时调用：暂存的图像全部按没有结果处理，结果丢弃
+     */
+    public void clear() {
+        List<Map.Entry<Long, I>> unmatched = new ArrayList<>();
+        synchronized (this) {
+            while (!mItems.isEmpty()) {
+                unmatched.add(evictOldestItemLocked());
+            }
+            mOrphanResults += mResults.size();
+            mResults.clear();
+        }
+        dispatchUnmatched(unmatched);
+    }
+
+    public synchronized int getPendingItems() {
+        return mItems.size();
+    }
+
+    public synchronized int getPendingResults() {
+        return mResults.size();
+    }
+
+    public synchronized long getJoined() {
+        return mJoined;
+    }
+
+    public synchronized long getUnmatched() {
+        return mUnmatched;
+    }
+
+    public synchronized long getOrphanResults() {
+        return mOrphanResults;
+    }
+
+    private void recordJoinLocked(long waitedNs) {
+        mJoined++;
+        mWait.record(Math.max(0, waitedNs));
+    }
+
+    private List<Map.Entry<Long, I>> expireLocked(long nowNs) {
+        List<Map.Entry<Long, I>> unmatched = new ArrayList<>();
+        // 两个表都按到达顺序排列，从头检查到第一个没超时的即可
+        while (!mItems.isEmpty() && nowNs - mItems.values().iterator().next().arrivedNs > mMaxWaitNs) {
+            unmatched.add(evictOldestItemLocked());
+        }
+        Iterator<Pending<R>> results = mResults.values().iterator();
+        while (results.hasNext() && nowNs - results.next().arrivedNs > mMaxWaitNs) {
+            results.remove();
+            mOrphanResults++;
+        }
+        return unmatched;
+    }
+
+    private Map.Entry<Long, I> evictOldestItemLocked() {
+        Iterator<Map.Entry<Long, Pending<I>>> iterator = mItems.entrySet().iterator();
+        Map.Entry<Long, Pending<I>> oldest = iterator.next();
+        iterator.remove();
+        mUnmatched++;
+        return new AbstractMap.SimpleImmutableEntry<>(oldest.getKey(), oldest.getValue().value);
+    }
+
+    private void dispatchUnmatched(List<Map.Entry<Long, I>> unmatched) {
+        for (int i = 0; i < unmatched.size(); i++) {
+            mListener.onUnmatched(unmatched.get(i).getKey(), unmatched.get(i).getValue());
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "Joiner{joined=%d, unmatched=%d, orphanResults=%d, waitP90Ms=%.1f}",
+                mJoined, mUnmatched, mOrphanResults, mWait.getPercentile(90) / 1e6);
+    }
+}
@@ -0,0 +1,278 @@
+package com.shillu.camera2demo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description YUV 420 转 ARGB / RGB，按行分块在 ForkJoinPool 上并行
+ * <p>
+ * 输入用 {@link Planes} 描述：Y、U（Cb）、V（Cr）三个平面各自的起点（ByteBuffer 的 position）、rowStride 和色度的 pixelStride，
+ * 和 Image.getPlanes() 一一对应，行尾的填充字节被跳过；打包好的 NV21 / NV12 / I420 用 {@link Planes#packed(ByteBuffer, Layout, int, int)}
+ * 描述同一块内存，不拷贝。
+ * <p>
+ * 系数是 JFIF 全范围 BT.601（相机的 YUV_420_888 和 JPEG 用的都是这一套），放大 2^16 后取整，逐像素只做整数乘加和移位，
+ * 同一行相邻两个像素共用一组色度，色度项每两个像素算一次。结果与线程数、分块方式无关，逐位相同。
+ * <p>
+ * 并行按行二分，分界对齐到偶数行（两行亮度共用一行色度），不超过 minRowsPerTask 行的块在当前线程直接转换。
+ * 只读输入（ByteBuffer 的绝对读取不改变 position），各任务写输出数组中互不重叠的行。
+ */
+public final class YuvConverter {
+
+    /**
+     * 打包的 YUV 420 布局
+     */
+    public enum Layout {
+        /**
+         * Y 平面之后是 VU 交错（Android 的 ImageFormat.NV21）
+         */
+        NV21,
+        /**
+         * Y 平面之后是 UV 交错
+         */
+        NV12,
+        /**
+         * Y、U、V 三个平面依次排列（YUV_420_888 在多数设备上的 planar 形式）
+         */
+        I420
+    }
+
+    /**
+     * 三个平面的位置和步长，只读
+     */
+    public static final class Planes {
+        final ByteBuffer y;
+        final int yBase;
+        final int yRowStride;
+        final ByteBuffer u;
+        final int uBase;
+        final ByteBuffer v;
+        final int vBase;
+        final int uvRowStride;
+        final int uvPixelStride;
+        public final int width;
+        public final int height;
+
+        private Planes(ByteBuffer y, int yBase, int yRowStride, ByteBuffer u, int uBase, ByteBuffer v, int vBase,
+                       int uvRowStride, int uvPixelStride, int width, int height) {
+            this.y = y;
+            this.yBase = yBase;
+            this.yRowStride = yRowStride;
+            this.u = u;
+            this.uBase = uBase;
+            this.v = v;
+            this.vBase = vBase;
+            this.uvRowStride = uvRowStride;
+            this.uvPixelStride = uvPixelStride;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * 对应 Image.getPlanes()：planes[0] 是 Y，planes[1] 是 U，planes[2] 是 V，U / V 的 rowStride、pixelStride 相同
+         */
+        public static Planes of(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v,
+                                int uvRowStride, int uvPixelStride, int width, int height) {
+            if (width <= 0 || height <= 0 || yRowStride < width || uvPixelStride < 1
+                    || uvRowStride < (chromaWidth(width) - 1) * uvPixelStride + 1) {
+                throw new IllegalArgumentException("Invalid plane geometry " + width + "x" + height);
+            }
+            return new Planes(y, y.position(), yRowStride, u, u.position(), v, v.position(),
+                    uvRowStride, uvPixelStride, width, height);
+        }
+
+        /**
+         * 从 data 的 position 开始、紧凑排列的一帧（没有行尾填充），例如 {@link YuvPacker} 打包的 NV21
+         */
+        public static Planes packed(ByteBuffer data, Layout layout, int width, int height) {
+            if (data.remaining() < YuvPacker.nv21Size(width, height)) {
+                throw new IllegalArgumentException("Buffer too small for " + width + "x" + height);
+            }
+            int base = data.position();
+            int chroma = base + width * height;
+            int chromaWidth = chromaWidth(width);
+            switch (layout) {
+                case NV21:
+                    return new Planes(data, base, width, data, chroma + 1, data, chroma, 2 * chromaWidth, 2, width, height);
+                case NV12:
+                    return new Planes(data, base, width, data, chroma, data, chroma + 1, 2 * chromaWidth, 2, width, height);
+                case I420:
+                    return new Planes(data, base, width, data, chroma, data, chroma + chromaWidth * chromaHeight(height),
+                            chromaWidth, 1, width, height);
+                default:
+                    throw new IllegalArgumentException("Unknown layout " + layout);
+            }
+        }
+    }
+
+    /**
+     * 定点系数的小数位数
+     */
+    static final int SHIFT = 16;
+    private static final int HALF = 1 << (SHIFT - 1);
+
+    /**
+     * 1.402、0.344136、0.714136、1.772 乘以 2^16 取整
+     */
+    static final int CR_TO_R = 91881;
+    static final int CB_TO_G = 22554;
+    static final int CR_TO_G = 46802;
+    static final int CB_TO_B = 116130;
+
+    /**
+     * 默认每个任务至少处理的行数，1080p 一帧大约分成 32 块
+     */
+    public static final int DEFAULT_MIN_ROWS = 32;
+
+    private static final int OUTPUT_ARGB = 0;
+    private static final int OUTPUT_RGB = 1;
+
+    private final ForkJoinPool mPool;
+    private final int mMinRows;
+
+    /**
+     * @param pool           并行用的线程池，null 表示在调用线程上顺序转换
+     * @param minRowsPerTask 不再拆分的块的行数
+     */
+    public YuvConverter(ForkJoinPool pool, int minRowsPerTask) {
+        mPool = pool;
+        // 分界对齐到偶数行
+        mMinRows = Math.max(2, (minRowsPerTask + 1) & ~1);
+    }
+
+    static int chromaWidth(int width) {
+        return (width + 1) / 2;
+    }
+
+    static int chromaHeight(int height) {
+        return (height + 1) / 2;
+    }
+
+    /**
+     * 转换为 ARGB_8888（alpha 为 0xff），可直接用于 Bitmap.setPixels()
+     *
+     * @param out    输出数组
+     * @param offset 第一个像素在 out 中的下标
+     * @param stride 输出的行步长（像素），不小于宽度
+     */
+    public void toArgb(Planes planes, int[] out, int offset, int stride) {
+        checkOutput(planes, out.length, offset, stride, 1);
+        run(planes, OUTPUT_ARGB, out, null, offset, stride);
+    }
+
+    /**
+     * 转换为每像素 3 字节的 R、G、B
+     *
+     * @param out    输出数组
+     * @param offset 第一个像素在 out 中的字节下标
+     * @param stride 输出的行步长（字节），不小于宽度 * 3
+     */
+    public void toRgb(Planes planes, byte[] out, int offset, int stride) {
+        checkOutput(planes, out.length, offset, stride, 3);
+        run(planes, OUTPUT_RGB, null, out, offset, stride);
+    }
+
+    private static void checkOutput(Planes planes, int length, int offset, int stride, int bytesPerPixel) {
+        if (offset < 0 || stride < planes.width * bytesPerPixel
+                || (long) offset + (long) stride * (planes.height - 1) + (long) planes.width * bytesPerPixel > length) {
+            throw new IllegalArgumentException("Output too small for " + planes.width + "x" + planes.height);
+        }
+    }
+
+    private void run(Planes planes, int output, int[] argb, byte[] rgb, int offset, int stride) {
+        if (null == mPool || planes.height <= mMinRows) {
+            convertRows(planes, 0, planes.height, output, argb, rgb, offset, stride);
+        } else {
+            mPool.invoke(new RowTask(planes, 0, planes.height, output, argb, rgb, offset, stride, mMinRows));
+        }
+    }
+
+    /**
+     * 按行二分的任务
+     */
+    private static final class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Planes mPlanes;
+        private final int mStart;
+        private final int mEnd;
+        private final int mOutput;
+        private final int[] mArgb;
+        private final byte[] mRgb;
+        private final int mOffset;
+        private final int mStride;
+        private final int mMinRows;
+
+        RowTask(Planes planes, int start, int end, int output, int[] argb, byte[] rgb, int offset, int stride, int minRows) {
+            mPlanes = planes;
+            mStart = start;
+            mEnd = end;
+            mOutput = output;
+            mArgb = argb;
+            mRgb = rgb;
+            mOffset = offset;
+            mStride = stride;
+            mMinRows = minRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart <= mMinRows) {
+                convertRows(mPlanes, mStart, mEnd, mOutput, mArgb, mRgb, mOffset, mStride);
+                return;
+            }
+            // 起点总是偶数，行数大于 minRows（至少 3）时中点落在 (mStart, mEnd) 之内
+            int middle = mStart + (((mEnd - mStart + 1) >>> 1) & ~1);
+            invokeAll(new RowTask(mPlanes, mStart, middle, mOutput, mArgb, mRgb, mOffset, mStride, mMinRows),
+                    new RowTask(mPlanes, middle, mEnd, mOutput, mArgb, mRgb, mOffset, mStride, mMinRows));
+        }
+    }
+
+    static void convertRows(Planes planes, int start, int end, int output, int[] argb, byte[] rgb, int offset, int stride) {
+        ByteBuffer y = planes.y;
+        ByteBuffer u = planes.u;
+        ByteBuffer v = planes.v;
+        int width = planes.width;
+        int pixelStride = planes.uvPixelStride;
+        for (int row = start; row < end; row++) {
+            int yIndex = planes.yBase + row * planes.yRowStride;
+            int chromaRow = (row >> 1) * planes.uvRowStride;
+            int uIndex = planes.uBase + chromaRow;
+            int vIndex = planes.vBase + chromaRow;
+            int out = offset + row * stride;
+            for (int col = 0; col < width; col += 2) {
+                int cb = (u.get(uIndex) & 0xff) - 128;
+                int cr = (v.get(vIndex) & 0xff) - 128;
+                uIndex += pixelStride;
+                vIndex += pixelStride;
+                int rTerm = (CR_TO_R * cr + HALF) >> SHIFT;
+                int gTerm = (-CB_TO_G * cb - CR_TO_G * cr + HALF) >> SHIFT;
+                int bTerm = (CB_TO_B * cb + HALF) >> SHIFT;
+                int pixels = Math.min(2, width - col);
+                for (int i = 0; i < pixels; i++) {
+                    int luma = y.get(yIndex++) & 0xff;
+                    int r = clamp(luma + rTerm);
+                    int g = clamp(luma + gTerm);
+                    int b = clamp(luma + bTerm);
+                    if (output == OUTPUT_ARGB) {
+                        argb[out++] = 0xff000000 | (r << 16) | (g << 8) | b;
+                    } else {
+                        rgb[out++] = (byte) r;
+                        rgb[out++] = (byte) g;
+                        rgb[out++] = (byte) b;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        // 绝大多数像素不越界，只比较一次
+        if ((value & ~0xff) == 0) {
+            return value;
+        }
+        return value < 0 ? 0 : 255;
+    }
+}
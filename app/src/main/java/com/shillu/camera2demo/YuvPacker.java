@@ -0,0 +1,85 @@
+package com.shillu.camera2demo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 把 YUV_420_888 的三个平面打包成紧凑的 NV21
+ * <p>
+ * Image.Plane 的数据带有 rowStride（每行字节数，可能大于宽度）和 pixelStride（同一行相邻像素的间隔，
+ * U/V 平面交织存储时为 2），不能直接当成 NV21 使用。这里按步长逐行拷贝：
+ * 先是 width * height 的 Y，然后是 V、U 交替排列的 (width / 2) * (height / 2) 对色度。
+ * 不会改变传入 ByteBuffer 的 position。
+ * <p>
+ * 每一帧分析和 ZSL 都要调用，不做任何分配：Y 和 V 平面各 duplicate 一次，之后只移动它的 position 整行批量读取；
+ * pixelStride 为 1 或 2 时 V 整行读进输出再摆到偶数位置，只有 U 逐个字节读取。
+ */
+public final class YuvPacker {
+
+    private YuvPacker() {
+    }
+
+    /**
+     * 打包后的 NV21 字节数
+     */
+    public static int nv21Size(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * @param y             Y 平面
+     * @param yRowStride    Y 平面的 rowStride
+     * @param u             U（Cb）平面
+     * @param v             V（Cr）平面
+     * @param uvRowStride   U/V 平面的 rowStride
+     * @param uvPixelStride U/V 平面的 pixelStride
+     * @param width         图像宽度
+     * @param height        图像高度
+     * @param out           输出数组，长度至少为 {@link #nv21Size(int, int)}
+     */
+    public static void packNv21(ByteBuffer y, int yRowStride,
+                                ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                                int width, int height, byte[] out) {
+        if (out.length < nv21Size(width, height)) {
+            throw new IllegalArgumentException("Output buffer too small");
+        }
+        int offset = 0;
+        int yBase = y.position();
+        ByteBuffer yLine = y.duplicate();
+        for (int row = 0; row < height; row++) {
+            yLine.position(yBase + row * yRowStride);
+            yLine.get(out, offset, width);
+            offset += width;
+        }
+
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int uBase = u.position();
+        int vBase = v.position();
+        ByteBuffer vLine = v.duplicate();
+        for (int row = 0; row < chromaHeight; row++) {
+            int rowStart = row * uvRowStride;
+            if (uvPixelStride == 1) {
+                // V 整行读到这一行输出的前半段，再从后往前摆到偶数位置（目标下标不小于来源，不会覆盖还没摆的值）
+                vLine.position(vBase + rowStart);
+                vLine.get(out, offset, chromaWidth);
+                for (int col = chromaWidth - 1; col > 0; col--) {
+                    out[offset + 2 * col] = out[offset + col];
+                }
+            } else if (uvPixelStride == 2) {
+                // 一次读出 V 行的 2 * chromaWidth - 1 个字节，V 正好落在偶数位置，奇数位置下面用 U 覆盖
+                vLine.position(vBase + rowStart);
+                vLine.get(out, offset, 2 * chromaWidth - 1);
+            } else {
+                for (int col = 0; col < chromaWidth; col++) {
+                    out[offset + 2 * col] = v.get(vBase + rowStart + col * uvPixelStride);
+                }
+            }
+            for (int col = 0; col < chromaWidth; col++) {
+                out[offset + 2 * col + 1] = u.get(uBase + rowStart + col * uvPixelStride);
+            }
+            offset += 2 * chromaWidth;
+        }
+    }
+}
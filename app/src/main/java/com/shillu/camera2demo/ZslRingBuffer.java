@@ -0,0 +1,146 @@
+package com.shillu.camera2demo;
+
+/**
+ * @author shillu
+ * @version 1.0
+ * @description 零延迟拍照（ZSL）用的带时间戳环形缓冲
+ * <p>
+ * 预览期间相机持续把全分辨率帧送进这里，缓冲只保留最近 capacity 帧，新帧进来时最老的一帧被挤出并交给 {@link Releaser} 释放。
+ * 按下快门时用 {@link #takeClosest(long)} 取出时间戳离快门时刻最近的一帧，这一帧从缓冲中移除，由调用方负责释放。
+ * <p>
+ * 缓冲的内存占用由 {@link #capacityForBudget(long, long, int)} 按预算换算成帧数，保证有上限。
+ * 所有方法都是同步的，可以在相机回调线程入帧、在 UI 线程取帧。
+ *
+ * @param <T> 帧的类型，例如 android.media.Image
+ */
+public final class ZslRingBuffer<T> {
+
+    /**
+     * 帧被挤出或清空时的释放回调
+     */
+    public interface Releaser<T> {
+        void release(T frame);
+    }
+
+    private final long[] mTimestamps;
+    private final Object[] mFrames;
+    private final Releaser<T> mReleaser;
+
+    /**
+     * 最老一帧所在的下标
+     */
+    private int mHead;
+    private int mSize;
+
+    public ZslRingBuffer(int capacity, Releaser<T> releaser) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mTimestamps = new long[capacity];
+        mFrames = new Object[capacity];
+        mReleaser = releaser;
+    }
+
+    /**
+     * 根据内存预算计算缓冲能容纳的帧数
+     *
+     * @param budgetBytes 允许缓冲占用的最大字节数
+     * @param frameBytes  单帧字节数
+     * @param maxFrames   帧数上限
+     * @return 帧数，0 表示预算连一帧都放不下
+     */
+    public static int capacityForBudget(long budgetBytes, long frameBytes, int maxFrames) {
+        if (frameBytes <= 0) {
+            throw new IllegalArgumentException("frameBytes must be positive");
+        }
+        return (int) Math.min(maxFrames, Math.max(0, budgetBytes / frameBytes));
+    }
+
+    /**
+     * 放入一帧，缓冲已满时最老的一帧会被释放
+     */
+    public synchronized void add(long timestampNs, T frame) {
+        int capacity = mFrames.length;
+        if (mSize == capacity) {
+            release(mHead);
+            mHead = (mHead + 1) % capacity;
+            mSize--;
+        }
+        int tail = (mHead + mSize) % capacity;
+        mTimestamps[tail] = timestampNs;
+        mFrames[tail] = frame;
+        mSize++;
+    }
+
+    /**
+     * 取出时间戳离 timestampNs 最近的一帧，并把它从缓冲中移除
+     *
+     * @return 最近的一帧，缓冲为空时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T takeClosest(long timestampNs) {
+        if (mSize == 0) {
+            return null;
+        }
+        int capacity = mFrames.length;
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < mSize; i++) {
+            int index = (mHead + i) % capacity;
+            long distance = Math.abs(mTimestamps[index] - timestampNs);
+            if (distance <= bestDistance) {
+                // 距离相同时取更新的一帧
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        int bestIndex = (mHead + best) % capacity;
+        T frame = (T) mFrames[bestIndex];
+        // 把后面的帧往前挪一格，保持时间顺序
+        for (int i = best; i < mSize - 1; i++) {
+            int to = (mHead + i) % capacity;
+            int from = (to + 1) % capacity;
+            mTimestamps[to] = mTimestamps[from];
+            mFrames[to] = mFrames[from];
+        }
+        mSize--;
+        mFrames[(mHead + mSize) % capacity] = null;
+        return frame;
+    }
+
+    /**
+     * 最新一帧的时间戳，缓冲为空时返回 -1
+     */
+    public synchronized long getLatestTimestamp() {
+        return mSize == 0 ? -1 : mTimestamps[(mHead + mSize - 1) % mFrames.length];
+    }
+
+    /**
+     * 释放所有帧
+     */
+    public synchronized void clear() {
+        int capacity = mFrames.length;
+        for (int i = 0; i < mSize; i++) {
+            release((mHead + i) % capacity);
+        }
+        mHead = 0;
+        mSize = 0;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public int capacity() {
+        return mFrames.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void release(int index) {
+        T frame = (T) mFrames[index];
+        mFrames[index] = null;
+        if (null != frame && null != mReleaser) {
+            mReleaser.release(frame);
+        }
+    }
+}
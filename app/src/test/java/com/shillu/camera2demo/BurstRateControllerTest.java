@@ -0,0 +1,106 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * BurstRateController 和 CaptureFileNamer 的本地单元测试
+ */
+public class BurstRateControllerTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void acquireBurst_neverExceedsRingDepth() {
+        BurstRateController controller = new BurstRateController(30, 6, 10);
+        controller.start(0);
+        int total = 0;
+        for (int i = 0; i < 5; i++) {
+            total += controller.acquireBurst();
+        }
+        assertEquals(6, total);
+        assertEquals(6, controller.getInFlight());
+        assertEquals(0, controller.acquireBurst());
+
+        controller.onFrameFinished();
+        assertEquals(1, controller.acquireBurst());
+    }
+
+    @Test
+    public void fastDrain_keepsTargetRate() {
+        BurstRateController controller = new BurstRateController(10, 8, 8);
+        controller.start(0);
+        long now = 0;
+        for (int round = 0; round < 20; round++) {
+            int size = controller.acquireBurst();
+            for (int i = 0; i < size; i++) {
+                controller.onFrameFinished();
+            }
+            now += controller.onBurstCompleted(now, size);
+        }
+        assertEquals(10, controller.getCurrentFps(), 1e-9);
+        assertEquals(0, controller.getInFlight());
+    }
+
+    @Test
+    public void slowDrain_adaptsToIoRate() {
+        BurstRateController controller = new BurstRateController(20, 8, 8);
+        controller.start(0);
+        long now = 0;
+        double ioFps = 4;
+        double ioBudget = 0;
+        for (int round = 0; round < 200; round++) {
+            int size = controller.acquireBurst();
+            long delay = controller.onBurstCompleted(now, size);
+            // 模拟 I/O 以 4 帧/秒的速度消化
+            ioBudget += ioFps * delay / SECOND;
+            while (ioBudget >= 1 && controller.getInFlight() > 0) {
+                controller.onFrameFinished();
+                ioBudget -= 1;
+            }
+            now += delay;
+        }
+        assertTrue("fps=" + controller.getCurrentFps(), controller.getCurrentFps() < 20);
+        assertTrue("fps=" + controller.getCurrentFps(),
+                controller.getCurrentFps() <= controller.getDrainFps() * 1.25 + 1e-9);
+        assertEquals(ioFps, controller.getDrainFps(), 1.5);
+        assertTrue(controller.getInFlight() <= 8);
+    }
+
+    @Test
+    public void onBurstCompleted_delayMatchesRate() {
+        BurstRateController controller = new BurstRateController(10, 8, 8);
+        controller.start(0);
+        int size = controller.acquireBurst();
+        for (int i = 0; i < size; i++) {
+            controller.onFrameFinished();
+        }
+        // 100ms 内保存完，保存速度远高于目标帧率，不会限制速率
+        long delay = controller.onBurstCompleted(SECOND / 10, size);
+        assertEquals(size * SECOND / 10, delay, SECOND / 1000);
+    }
+
+    @Test
+    public void fileNamer_numbersFramesSequentially() {
+        CaptureFileNamer namer = new CaptureFileNamer(new File("/tmp"), "burst");
+        namer.startSession(new Date(0));
+        File first = namer.next();
+        File second = namer.next();
+        assertTrue(first.getName().matches("burst_\\d{8}_\\d{6}_0001\\.jpg"));
+        assertTrue(second.getName().endsWith("_0002.jpg"));
+        assertTrue(first.getName().compareTo(second.getName()) < 0);
+        assertEquals(2, namer.getSequence());
+
+        namer.startSession(new Date(0));
+        assertTrue(namer.next().getName().endsWith("_0001.jpg"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void fileNamer_requiresSession() {
+        new CaptureFileNamer(new File("/tmp"), "burst").next();
+    }
+}
@@ -0,0 +1,158 @@
+package com.shillu.camera2demo;
+
+import android.hardware.camera2.CameraCharacteristics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * CameraCapabilityIndex 和 SizeTable 的本地单元测试
+ */
+public class CameraCapabilityIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static CameraCapabilityIndex.CameraInfo camera(String id, int facing, SizeTable jpeg) {
+        return new CameraCapabilityIndex.CameraInfo(id, facing, 90,
+                CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL,
+                CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME,
+                true, new int[]{0, 1, 4}, 1, 1, new int[]{0, 0, 4032, 3024}, 8f, -12, 12, 1, 6,
+                jpeg,
+                SizeTable.of(new int[]{1920, 1280, 640}, new int[]{1080, 720, 480}),
+                SizeTable.of(new int[]{4032}, new int[]{3024}));
+    }
+
+    private static CameraCapabilityIndex sampleIndex() {
+        SizeTable jpeg = SizeTable.of(new int[]{1920, 4032, 640}, new int[]{1080, 3024, 480});
+        return new CameraCapabilityIndex(Arrays.asList(
+                camera("0", CameraCharacteristics.LENS_FACING_BACK, jpeg),
+                camera("1", CameraCharacteristics.LENS_FACING_FRONT, jpeg),
+                camera("2", CameraCharacteristics.LENS_FACING_BACK, jpeg),
+                camera("3", CameraCharacteristics.LENS_FACING_EXTERNAL, SizeTable.EMPTY)));
+    }
+
+    @Test
+    public void sizeTable_sortsByAreaDescending() {
+        SizeTable table = SizeTable.of(new int[]{640, 4032, 1920, 1440}, new int[]{480, 3024, 1080, 1440});
+        assertEquals("[4032x3024, 1920x1080, 1440x1440, 640x480]", table.toString());
+        assertEquals(4032L * 3024, table.area(0));
+    }
+
+    @Test
+    public void facingMap_picksFirstCameraWithOutputs() {
+        CameraCapabilityIndex index = sampleIndex();
+        assertEquals("0", index.getCameraIdForFacing(CameraCharacteristics.LENS_FACING_BACK));
+        assertEquals("1", index.getCameraIdForFacing(CameraCharacteristics.LENS_FACING_FRONT));
+        assertNull(index.getCameraIdForFacing(CameraCharacteristics.LENS_FACING_EXTERNAL));
+        assertEquals("0", index.getDefaultCameraId());
+        assertEquals(Arrays.asList("0", "1", "2", "3"), index.getCameraIds());
+    }
+
+    @Test
+    public void cameraInfo_capabilities() {
+        CameraCapabilityIndex.CameraInfo info = sampleIndex().get("0");
+        assertTrue(info.supportsAfMode(4));
+        assertFalse(info.supportsAfMode(3));
+        assertEquals(4032, info.jpegSizes.width(0));
+        assertTrue(info.hasOutputs());
+        assertFalse(sampleIndex().get("3").hasOutputs());
+    }
+
+    @Test
+    public void snapshot_roundTrip() throws Exception {
+        CameraCapabilityIndex index = sampleIndex();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes), "fingerprint");
+
+        CameraCapabilityIndex restored = CameraCapabilityIndex.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "fingerprint");
+        assertNotNull(restored);
+        assertEquals(index.getCameraIds(), restored.getCameraIds());
+        for (String id : index.getCameraIds()) {
+            CameraCapabilityIndex.CameraInfo a = index.get(id);
+            CameraCapabilityIndex.CameraInfo b = restored.get(id);
+            assertEquals(a.facing, b.facing);
+            assertEquals(a.sensorOrientation, b.sensorOrientation);
+            assertEquals(a.hardwareLevel, b.hardwareLevel);
+            assertEquals(a.timestampSource, b.timestampSource);
+            assertEquals(a.flashSupported, b.flashSupported);
+            assertArrayEquals(a.afModes, b.afModes);
+            assertArrayEquals(a.activeArray, b.activeArray);
+            assertEquals(a.maxDigitalZoom, b.maxDigitalZoom, 0f);
+            assertEquals(a.aeCompensationMin, b.aeCompensationMin);
+            assertEquals(a.aeCompensationStepDenominator, b.aeCompensationStepDenominator);
+            assertEquals(a.jpegSizes, b.jpegSizes);
+            assertEquals(a.previewSizes, b.previewSizes);
+            assertEquals(a.yuvSizes, b.yuvSizes);
+        }
+        assertEquals("0", restored.getCameraIdForFacing(CameraCharacteristics.LENS_FACING_BACK));
+    }
+
+    @Test
+    public void snapshot_rejectsDifferentKey() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sampleIndex().writeTo(new DataOutputStream(bytes), "old-build");
+        assertNull(CameraCapabilityIndex.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "new-build"));
+    }
+
+    private static void writeFile(File file, byte[] data, int length) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data, 0, length);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void assertUnreadableAndDeleted(File file) {
+        try {
+            CameraCapabilityIndex.readSnapshot(file, "fingerprint");
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void snapshot_fileRoundTrip() throws Exception {
+        File file = new File(folder.getRoot(), "snapshot");
+        CameraCapabilityIndex.writeSnapshot(sampleIndex(), file, "fingerprint");
+        CameraCapabilityIndex restored = CameraCapabilityIndex.readSnapshot(file, "fingerprint");
+        assertNotNull(restored);
+        assertEquals(sampleIndex().getCameraIds(), restored.getCameraIds());
+        assertTrue(file.isFile());
+    }
+
+    @Test
+    public void snapshot_corruptedFileDeleted() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sampleIndex().writeTo(new DataOutputStream(bytes), "fingerprint");
+        byte[] valid = bytes.toByteArray();
+
+        // 截断：EOFException
+        File file = new File(folder.getRoot(), "snapshot");
+        writeFile(file, valid, valid.length / 2);
+        assertUnreadableAndDeleted(file);
+
+        // 相机数量是负数：IllegalArgumentException
+        // 版本号 4 字节，校验键 2 字节长度加内容，后面紧跟相机数量
+        int countAt = 4 + 2 + "fingerprint".length();
+        valid[countAt] = valid[countAt + 1] = valid[countAt + 2] = valid[countAt + 3] = (byte) 0xff;
+        writeFile(file, valid, valid.length);
+        assertUnreadableAndDeleted(file);
+    }
+}
@@ -0,0 +1,363 @@
+package com.shillu.camera2demo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * CameraLifecycleController 的本地单元测试，用手动推进的虚拟时钟代替相机线程
+ */
+public class CameraLifecycleControllerTest {
+
+    /**
+     * 单线程的虚拟时钟调度器，runUntilIdle / advance 时才执行任务
+     */
+    static final class ManualScheduler implements CameraLifecycleController.Scheduler {
+        private static final class Entry {
+            final Runnable task;
+            final long due;
+
+            Entry(Runnable task, long due) {
+                this.task = task;
+                this.due = due;
+            }
+        }
+
+        private final List<Entry> mQueue = new ArrayList<>();
+        private long mNow;
+
+        @Override
+        public void post(Runnable task) {
+            mQueue.add(new Entry(task, mNow));
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            mQueue.add(new Entry(task, mNow + delayMs));
+        }
+
+        @Override
+        public void remove(Runnable task) {
+            for (int i = mQueue.size() - 1; i >= 0; i--) {
+                if (mQueue.get(i).task == task) {
+                    mQueue.remove(i);
+                }
+            }
+        }
+
+        void advance(long ms) {
+            long target = mNow + ms;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mQueue.size(); i++) {
+                    if (mQueue.get(i).due <= target && (next < 0 || mQueue.get(i).due < mQueue.get(next).due)) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                Entry entry = mQueue.remove(next);
+                mNow = Math.max(mNow, entry.due);
+                entry.task.run();
+            }
+            mNow = target;
+        }
+
+        void runUntilIdle() {
+            advance(0);
+        }
+    }
+
+    /**
+     * 记录调用顺序的后端，打开和配置的完成由测试手动触发
+     */
+    static final class FakeBackend implements CameraLifecycleController.Backend {
+        final List<String> mCalls = new ArrayList<>();
+        CameraLifecycleController.StepCallback mPendingOpen;
+        CameraLifecycleController.StepCallback mPendingConfigure;
+
+        @Override
+        public void openDevice(String cameraId, CameraLifecycleController.StepCallback callback) {
+            mCalls.add("open " + cameraId);
+            mPendingOpen = callback;
+        }
+
+        @Override
+        public void configureSession(CameraLifecycleController.StepCallback callback) {
+            mCalls.add("configure");
+            mPendingConfigure = callback;
+        }
+
+        @Override
+        public void closeSession() {
+            mCalls.add("closeSession");
+        }
+
+        @Override
+        public void closeDevice() {
+            mCalls.add("closeDevice");
+        }
+
+        void opened() {
+            CameraLifecycleController.StepCallback callback = mPendingOpen;
+            mPendingOpen = null;
+            callback.onSuccess();
+        }
+
+        void configured() {
+            CameraLifecycleController.StepCallback callback = mPendingConfigure;
+            mPendingConfigure = null;
+            callback.onSuccess();
+        }
+    }
+
+    private ManualScheduler mScheduler;
+    private FakeBackend mBackend;
+    private List<CameraLifecycleController.Stage> mErrors;
+    private CameraLifecycleController mController;
+
+    @Before
+    public void setUp() {
+        mScheduler = new ManualScheduler();
+        mBackend = new FakeBackend();
+        mErrors = new ArrayList<>();
+        mController = new CameraLifecycleController(mScheduler, mBackend, new CameraLifecycleController.Listener() {
+            @Override
+            public void onError(CameraLifecycleController.Stage stage, Throwable error) {
+                mErrors.add(stage);
+            }
+        });
+    }
+
+    private void openAndConfigure(String cameraId) {
+        mController.open(cameraId);
+        mController.configure();
+        mScheduler.runUntilIdle();
+        mBackend.opened();
+        mScheduler.runUntilIdle();
+        mBackend.configured();
+        mScheduler.runUntilIdle();
+    }
+
+    @Test
+    public void openThenConfigure_completesInOrder() {
+        CompletableFuture<Void> open = mController.open("0");
+        CompletableFuture<Void> configure = mController.configure();
+        // 调用线程不执行任何相机操作
+        assertTrue(mBackend.mCalls.isEmpty());
+
+        mScheduler.runUntilIdle();
+        assertEquals("[open 0]", mBackend.mCalls.toString());
+        assertFalse(open.isDone());
+
+        mBackend.opened();
+        mScheduler.runUntilIdle();
+        assertEquals("[open 0, configure]", mBackend.mCalls.toString());
+        assertFalse(open.isDone());
+
+        mBackend.configured();
+        mScheduler.runUntilIdle();
+        assertTrue(open.isDone() && !open.isCompletedExceptionally());
+        assertTrue(configure.isDone() && !configure.isCompletedExceptionally());
+        assertEquals(1, mController.getDeviceOpens());
+        assertEquals(1, mController.getSessionConfigs());
+    }
+
+    @Test
+    public void reconfigure_rebuildsSessionOnSameDevice() {
+        openAndConfigure("0");
+        mBackend.mCalls.clear();
+
+        CompletableFuture<Void> first = mController.reconfigure();
+        mScheduler.runUntilIdle();
+        assertEquals("[closeSession, configure]", mBackend.mCalls.toString());
+        // 配置进行中再次 reconfigure：这次完成后还要再重建一次
+        CompletableFuture<Void> second = mController.reconfigure();
+        mScheduler.runUntilIdle();
+        mBackend.configured();
+        mScheduler.runUntilIdle();
+        assertEquals("[closeSession, configure, closeSession, configure]", mBackend.mCalls.toString());
+        assertFalse(first.isDone());
+
+        mBackend.configured();
+        mScheduler.runUntilIdle();
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+        assertEquals(1, mController.getDeviceOpens());
+        assertEquals(0, mController.getDeviceCloses());
+        assertEquals(3, mController.getSessionConfigs());
+    }
+
+    @Test
+    public void reconfigureWithoutOpen_fails() {
+        CompletableFuture<Void> future = mController.reconfigure();
+        mScheduler.runUntilIdle();
+        assertTrue(future.isCompletedExceptionally());
+        assertTrue(mBackend.mCalls.isEmpty());
+    }
+
+    @Test
+    public void pauseResumeWithinWindow_doesNotTearDown() {
+        openAndConfigure("0");
+        mBackend.mCalls.clear();
+
+        CompletableFuture<Void> close = mController.close(CameraLifecycleController.DEFAULT_CLOSE_DELAY_MS);
+        mScheduler.advance(60);
+        CompletableFuture<Void> open = mController.open("0");
+        CompletableFuture<Void> configure = mController.configure();
+        mScheduler.advance(200);
+
+        assertTrue(mBackend.mCalls.isEmpty());
+        assertTrue(close.isCancelled());
+        assertTrue(open.isDone() && !open.isCompletedExceptionally());
+        assertTrue(configure.isDone() && !configure.isCompletedExceptionally());
+        assertEquals(1, mController.getCoalescedCloses());
+        assertEquals(0, mController.getDeviceCloses());
+    }
+
+    @Test
+    public void pauseWithoutResume_closesAfterWindow() throws Exception {
+        openAndConfigure("0");
+        mBackend.mCalls.clear();
+
+        CompletableFuture<Void> close = mController.close(CameraLifecycleController.DEFAULT_CLOSE_DELAY_MS);
+        mScheduler.advance(CameraLifecycleController.DEFAULT_CLOSE_DELAY_MS - 1);
+        assertTrue(mBackend.mCalls.isEmpty());
+        assertFalse(close.isDone());
+
+        mScheduler.advance(1);
+        assertEquals("[closeSession, closeDevice]", mBackend.mCalls.toString());
+        assertNull(close.get());
+        assertEquals(1, mController.getDeviceCloses());
+    }
+
+    @Test
+    public void repeatedOpens_coalesceIntoOneDeviceOpen() {
+        CompletableFuture<Void> first = mController.open("0");
+        CompletableFuture<Void> second = mController.open("0");
+        mScheduler.runUntilIdle();
+        mController.open("0");
+        mScheduler.runUntilIdle();
+        mBackend.opened();
+        mScheduler.runUntilIdle();
+
+        assertEquals("[open 0]", mBackend.mCalls.toString());
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+    }
+
+    @Test
+    public void switchCamera_closesCurrentBeforeOpeningNext() {
+        openAndConfigure("0");
+        mBackend.mCalls.clear();
+
+        mController.open("1");
+        mController.configure();
+        mScheduler.runUntilIdle();
+        assertEquals("[closeSession, closeDevice, open 1]", mBackend.mCalls.toString());
+        mBackend.opened();
+        mScheduler.runUntilIdle();
+        mBackend.configured();
+        mScheduler.runUntilIdle();
+        assertEquals("[closeSession, closeDevice, open 1, configure]", mBackend.mCalls.toString());
+    }
+
+    @Test
+    public void openWhileOpening_supersedesEarlierRequest() {
+        CompletableFuture<Void> first = mController.open("0");
+        mScheduler.runUntilIdle();
+        CompletableFuture<Void> second = mController.open("1");
+        mScheduler.runUntilIdle();
+        // 正在打开的步骤必须先结束，操作严格串行
+        assertEquals("[open 0]", mBackend.mCalls.toString());
+        assertTrue(first.isCancelled());
+
+        mBackend.opened();
+        mScheduler.runUntilIdle();
+        assertEquals("[open 0, closeDevice, open 1]", mBackend.mCalls.toString());
+        mBackend.opened();
+        mScheduler.runUntilIdle();
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+    }
+
+    @Test
+    public void reopen_reopensSameCamera() {
+        openAndConfigure("0");
+        mBackend.mCalls.clear();
+
+        CompletableFuture<Void> reopen = mController.reopen("0");
+        mScheduler.runUntilIdle();
+        mBackend.opened();
+        mScheduler.runUntilIdle();
+        mBackend.configured();
+        mScheduler.runUntilIdle();
+
+        assertEquals("[closeSession, closeDevice, open 0, configure]", mBackend.mCalls.toString());
+        assertTrue(reopen.isDone() && !reopen.isCompletedExceptionally());
+    }
+
+    @Test
+    public void openFailure_failsWaitersAndNotifies() {
+        CompletableFuture<Void> open = mController.open("0");
+        CompletableFuture<Void> configure = mController.configure();
+        mScheduler.runUntilIdle();
+        mBackend.mPendingOpen.onFailure(new IllegalStateException("boom"));
+        mScheduler.runUntilIdle();
+
+        assertTrue(open.isCompletedExceptionally());
+        assertTrue(configure.isCompletedExceptionally());
+        try {
+            open.get();
+            fail();
+        } catch (InterruptedException | ExecutionException e) {
+            assertEquals("boom", e.getCause().getMessage());
+        }
+        assertEquals("[OPEN]", mErrors.toString());
+        assertEquals("[open 0, closeDevice]", mBackend.mCalls.toString());
+    }
+
+    @Test
+    public void deviceError_duringConfigure_dropsStaleCallback() {
+        mController.open("0");
+        mController.configure();
+        mScheduler.runUntilIdle();
+        mBackend.opened();
+        mScheduler.runUntilIdle();
+        CameraLifecycleController.StepCallback staleConfigure = mBackend.mPendingConfigure;
+
+        mController.onDeviceError(new IllegalStateException("disconnected"));
+        mScheduler.runUntilIdle();
+        staleConfigure.onSuccess();
+        mScheduler.runUntilIdle();
+
+        assertEquals("[DEVICE]", mErrors.toString());
+        assertEquals(0, mController.getSessionConfigs());
+        assertEquals(1, mController.getDeviceCloses());
+
+        // 之后还可以重新打开
+        mController.open("0");
+        mScheduler.runUntilIdle();
+        assertEquals("open 0", mBackend.mCalls.get(mBackend.mCalls.size() - 1));
+    }
+
+    @Test
+    public void immediateClose_whileOpening_closesAfterOpen() throws Exception {
+        mController.open("0");
+        mScheduler.runUntilIdle();
+        CompletableFuture<Void> close = mController.close(0);
+        mScheduler.runUntilIdle();
+        assertFalse(close.isDone());
+
+        mBackend.opened();
+        mScheduler.runUntilIdle();
+        assertNull(close.get());
+        assertEquals("[open 0, closeDevice]", mBackend.mCalls.toString());
+    }
+}
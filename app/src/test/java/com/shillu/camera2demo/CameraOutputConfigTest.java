@@ -0,0 +1,111 @@
+package com.shillu.camera2demo;
+
+import android.hardware.camera2.CameraCharacteristics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * CameraOutputConfig 的本地单元测试
+ */
+public class CameraOutputConfigTest {
+
+    private static final int ROTATION_0 = 0;
+    private static final int ROTATION_90 = 1;
+
+    private static final long MB = 1024 * 1024;
+
+    private static CameraCapabilityIndex.CameraInfo camera(int sensorOrientation, int hardwareLevel) {
+        return new CameraCapabilityIndex.CameraInfo("0", CameraCharacteristics.LENS_FACING_BACK, sensorOrientation,
+                hardwareLevel, CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME,
+                true, new int[]{0, 1, 4}, 1, 1, new int[]{0, 0, 4032, 3024}, 8f, -12, 12, 1, 6,
+                SizeTable.of(new int[]{4032, 1920}, new int[]{3024, 1080}),
+                SizeTable.of(PreviewSizeSelectorTest.PREVIEW_WIDTHS, PreviewSizeSelectorTest.PREVIEW_HEIGHTS),
+                SizeTable.of(new int[]{4032}, new int[]{3024}));
+    }
+
+    @Test
+    public void portraitDisplay_swapsViewForLandscapeSensor() {
+        CameraOutputConfig config = CameraOutputConfig.resolve(
+                camera(90, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL),
+                1080, 1440, ROTATION_0, 1080, 2340, 1920, 1080, 0.01f, 0, 4);
+        assertEquals(1440, config.previewWidth);
+        assertEquals(1080, config.previewHeight);
+        assertEquals(4032, config.jpegWidth);
+        assertEquals(3024, config.jpegHeight);
+        assertEquals(90, config.sensorOrientation);
+        assertTrue(config.flashSupported);
+    }
+
+    @Test
+    public void landscapeDisplay_keepsViewForLandscapeSensor() {
+        CameraOutputConfig config = CameraOutputConfig.resolve(
+                camera(90, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL),
+                1440, 1080, ROTATION_90, 2340, 1080, 1920, 1080, 0.01f, 0, 4);
+        assertEquals(1440, config.previewWidth);
+        assertEquals(1080, config.previewHeight);
+    }
+
+    @Test
+    public void zsl_onlyOnFullHardwareWithinBudget() {
+        // 4032x3024 的 YUV 每帧约 17.4MB
+        CameraOutputConfig full = CameraOutputConfig.resolve(
+                camera(90, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL),
+                1080, 1440, ROTATION_0, 1080, 2340, 1920, 1080, 0.01f, 64 * MB, 4);
+        assertEquals(3, full.zslCapacity);
+        assertEquals(4032, full.zslWidth);
+        assertTrue(full.zslRealtimeTimestamps);
+
+        CameraOutputConfig limited = CameraOutputConfig.resolve(
+                camera(90, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LIMITED),
+                1080, 1440, ROTATION_0, 1080, 2340, 1920, 1080, 0.01f, 64 * MB, 4);
+        assertEquals(0, limited.zslCapacity);
+
+        CameraOutputConfig disabled = CameraOutputConfig.resolve(
+                camera(90, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL),
+                1080, 1440, ROTATION_0, 1080, 2340, 1920, 1080, 0.01f, 0, 4);
+        assertEquals(0, disabled.zslCapacity);
+    }
+
+    @Test
+    public void analysis_largestMatchingAspectWithinLimit() {
+        SizeTable yuv = SizeTable.of(new int[]{1920, 1280, 640, 640, 320}, new int[]{1080, 960, 480, 360, 240});
+        assertEquals(2, CameraOutputConfig.selectAnalysisSize(yuv, 640, 480, 4f / 3, 0.01f));
+        assertEquals(3, CameraOutputConfig.selectAnalysisSize(yuv, 640, 480, 16f / 9, 0.01f));
+        // 没有比例一致的，退回上限内最大的
+        assertEquals(2, CameraOutputConfig.selectAnalysisSize(yuv, 640, 480, 2f, 0.01f));
+        assertEquals(-1, CameraOutputConfig.selectAnalysisSize(yuv, 160, 120, 4f / 3, 0.01f));
+    }
+
+    @Test
+    public void analysis_disabledWhenZslOrNoSmallYuv() {
+        // 测试相机只有 4032x3024 的 YUV，超出分析上限
+        CameraOutputConfig noSmall = CameraOutputConfig.resolve(
+                camera(90, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL),
+                1080, 1440, ROTATION_0, 1080, 2340, 1920, 1080, 0.01f, 0, 4, 640, 480);
+        assertEquals(0, noSmall.analysisWidth);
+
+        CameraOutputConfig unlimited = CameraOutputConfig.resolve(
+                camera(90, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL),
+                1080, 1440, ROTATION_0, 1080, 2340, 1920, 1080, 0.01f, 0, 4, 4032, 3024);
+        assertEquals(4032, unlimited.analysisWidth);
+        assertEquals(3024, unlimited.analysisHeight);
+
+        // ZSL 已经占用了 YUV 流
+        CameraOutputConfig zsl = CameraOutputConfig.resolve(
+                camera(90, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL),
+                1080, 1440, ROTATION_0, 1080, 2340, 1920, 1080, 0.01f, 64 * MB, 4, 4032, 3024);
+        assertEquals(3, zsl.zslCapacity);
+        assertEquals(0, zsl.analysisWidth);
+    }
+
+    @Test
+    public void key_distinguishesAllInputs() {
+        String key = CameraOutputConfig.key("0", 1080, 1440, ROTATION_0, 1080, 2340);
+        assertEquals(key, CameraOutputConfig.key("0", 1080, 1440, ROTATION_0, 1080, 2340));
+        assertNotEquals(key, CameraOutputConfig.key("1", 1080, 1440, ROTATION_0, 1080, 2340));
+        assertNotEquals(key, CameraOutputConfig.key("0", 1080, 1440, ROTATION_90, 1080, 2340));
+        assertNotEquals(key, CameraOutputConfig.key("0", 1440, 1080, ROTATION_0, 1080, 2340));
+    }
+}
@@ -0,0 +1,232 @@
+package com.shillu.camera2demo;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * CaptureIoExecutor 的本地单元测试
+ */
+public class CaptureIoExecutorTest {
+
+    private CaptureIoExecutor mExecutor;
+
+    @After
+    public void tearDown() throws Exception {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+            mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 记录执行和丢弃情况的测试任务，可以被 gate 挡住
+     */
+    private static class RecordingTask implements CaptureIoExecutor.Task {
+        final int mId;
+        final CountDownLatch mGate;
+        final List<Integer> mRun;
+        final List<Integer> mDropped;
+
+        RecordingTask(int id, CountDownLatch gate, List<Integer> run, List<Integer> dropped) {
+            mId = id;
+            mGate = gate;
+            mRun = run;
+            mDropped = dropped;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mGate.await();
+            } catch (InterruptedException ignored) {
+            }
+            mRun.add(mId);
+        }
+
+        @Override
+        public void onDropped() {
+            mDropped.add(mId);
+        }
+    }
+
+    @Test
+    public void submit_runsAllTasksOnWorkers() throws Exception {
+        mExecutor = new CaptureIoExecutor("test", 3, 16, CaptureIoExecutor.BackpressurePolicy.FAIL_FAST, 0);
+        List<Integer> run = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch open = new CountDownLatch(0);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(mExecutor.submit(new RecordingTask(i, open, run, dropped)));
+        }
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(10, run.size());
+        assertTrue(dropped.isEmpty());
+        assertEquals(10, mExecutor.getCompletedCount());
+        assertEquals(0, mExecutor.getQueueDepth());
+    }
+
+    @Test
+    public void failFast_rejectsWhenQueueFull() throws Exception {
+        mExecutor = new CaptureIoExecutor("test", 1, 1, CaptureIoExecutor.BackpressurePolicy.FAIL_FAST, 0);
+        List<Integer> run = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        assertTrue(mExecutor.submit(new RecordingTask(0, gate, run, dropped)));
+        waitForQueueDepth(0);
+        assertTrue(mExecutor.submit(new RecordingTask(1, gate, run, dropped)));
+        assertFalse(mExecutor.submit(new RecordingTask(2, gate, run, dropped)));
+
+        assertEquals(Collections.singletonList(2), dropped);
+        assertEquals(1, mExecutor.getRejectedCount());
+        gate.countDown();
+    }
+
+    @Test
+    public void dropOldest_evictsQueueHead() throws Exception {
+        mExecutor = new CaptureIoExecutor("test", 1, 2, CaptureIoExecutor.BackpressurePolicy.DROP_OLDEST, 0);
+        List<Integer> run = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        mExecutor.submit(new RecordingTask(0, gate, run, dropped));
+        waitForQueueDepth(0);
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(mExecutor.submit(new RecordingTask(i, gate, run, dropped)));
+        }
+        assertEquals(2, mExecutor.getQueueDepth());
+        assertEquals(2, mExecutor.getMaxQueueDepth());
+        gate.countDown();
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(1, 2), dropped);
+        assertEquals(Arrays.asList(0, 3, 4), run);
+        assertEquals(2, mExecutor.getDroppedCount());
+    }
+
+    @Test
+    public void block_waitsThenRejectsAfterTimeout() throws Exception {
+        mExecutor = new CaptureIoExecutor("test", 1, 1, CaptureIoExecutor.BackpressurePolicy.BLOCK, 30);
+        List<Integer> run = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        mExecutor.submit(new RecordingTask(0, gate, run, dropped));
+        waitForQueueDepth(0);
+        mExecutor.submit(new RecordingTask(1, gate, run, dropped));
+
+        long start = System.nanoTime();
+        assertFalse(mExecutor.submit(new RecordingTask(2, gate, run, dropped)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(25));
+        assertEquals(Collections.singletonList(2), dropped);
+        gate.countDown();
+    }
+
+    @Test
+    public void metrics_recordWaitTime() throws Exception {
+        mExecutor = new CaptureIoExecutor("test", 1, 4, CaptureIoExecutor.BackpressurePolicy.FAIL_FAST, 0);
+        List<Integer> run = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        mExecutor.submit(new RecordingTask(0, gate, run, dropped));
+        waitForQueueDepth(0);
+        mExecutor.submit(new RecordingTask(1, new CountDownLatch(0), run, dropped));
+        Thread.sleep(20);
+        gate.countDown();
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertTrue(mExecutor.getMaxWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(15));
+        assertTrue(mExecutor.getAverageWaitNanos() > 0);
+    }
+
+    @Test
+    public void submit_afterShutdown_isRejected() {
+        mExecutor = new CaptureIoExecutor("test", 1, 1, CaptureIoExecutor.BackpressurePolicy.BLOCK, 10);
+        mExecutor.shutdown();
+        List<Integer> dropped = new ArrayList<>();
+        assertFalse(mExecutor.submit(new RecordingTask(0, new CountDownLatch(0), new ArrayList<Integer>(), dropped)));
+        assertEquals(Collections.singletonList(0), dropped);
+    }
+
+    @Test
+    public void failedTasks_countedSeparately() throws Exception {
+        mExecutor = new CaptureIoExecutor("test", 1, 4, CaptureIoExecutor.BackpressurePolicy.FAIL_FAST, 0);
+        List<Integer> run = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+        mExecutor.submit(new RecordingTask(0, new CountDownLatch(0), run, dropped) {
+            @Override
+            public void run() {
+                throw new IllegalStateException("disk full");
+            }
+        });
+        mExecutor.submit(new RecordingTask(1, new CountDownLatch(0), run, dropped));
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(2, mExecutor.getStartedCount());
+        assertEquals(1, mExecutor.getCompletedCount());
+        assertEquals(1, mExecutor.getFailedCount());
+        assertEquals(Collections.singletonList(1), run);
+    }
+
+    @Test
+    public void submitRacingShutdown_everyTaskRunsOrIsDropped() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final CaptureIoExecutor executor = new CaptureIoExecutor("race", 2, 64,
+                    CaptureIoExecutor.BackpressurePolicy.FAIL_FAST, 0);
+            final List<Integer> run = Collections.synchronizedList(new ArrayList<Integer>());
+            final List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch open = new CountDownLatch(0);
+            int submitters = 4;
+            final int perSubmitter = 50;
+            Thread[] threads = new Thread[submitters];
+            for (int t = 0; t < submitters; t++) {
+                final int base = t * perSubmitter;
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int i = 0; i < perSubmitter; i++) {
+                            executor.submit(new RecordingTask(base + i, open, run, dropped));
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            start.countDown();
+            executor.shutdown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(submitters * perSubmitter, run.size() + dropped.size());
+            assertEquals(0, executor.getQueueDepth());
+        }
+    }
+
+    private void waitForQueueDepth(int depth) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (mExecutor.getQueueDepth() != depth && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(depth, mExecutor.getQueueDepth());
+    }
+}
@@ -0,0 +1,114 @@
+package com.shillu.camera2demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * CaptureLatencyRecorder 和 LatencyHistogram 的本地单元测试
+ */
+public class CaptureLatencyRecorderTest {
+
+    private static final long MS = 1000_000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void histogram_bucketsAreContiguousAndBounded() {
+        int previous = -1;
+        for (long value = 0; value < 1 << 16; value++) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            long lower = LatencyHistogram.lowerBoundOf(bucket);
+            assertTrue(value >= lower && value < lower + LatencyHistogram.widthOf(bucket));
+            previous = bucket;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(LatencyHistogram.MAX_VALUE));
+    }
+
+    @Test
+    public void histogram_percentilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * MS);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(MS, histogram.getMin());
+        assertEquals(1000 * MS, histogram.getMax());
+        assertEquals(500 * MS + MS / 2, histogram.getMean());
+        assertEquals(500 * MS, histogram.getPercentile(50), 500 * MS / 32.0);
+        assertEquals(990 * MS, histogram.getPercentile(99), 990 * MS / 32.0);
+        assertEquals(1000 * MS, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void recorder_stageDeltasSkipMissingStages() {
+        CaptureLatencyRecorder recorder = new CaptureLatencyRecorder();
+        int id = recorder.begin(0);
+        recorder.mark(id, CaptureLatencyRecorder.Stage.AF_LOCKED, 100 * MS);
+        // 没有预拍照
+        recorder.mark(id, CaptureLatencyRecorder.Stage.CAPTURE_STILL, 110 * MS);
+        recorder.mark(id, CaptureLatencyRecorder.Stage.IMAGE_AVAILABLE, 300 * MS);
+        recorder.finish(id, 340 * MS);
+
+        assertEquals(100 * MS, recorder.getHistogram(CaptureLatencyRecorder.Stage.AF_LOCKED).getMax());
+        assertEquals(0, recorder.getHistogram(CaptureLatencyRecorder.Stage.PRECAPTURE_START).getCount());
+        assertEquals(10 * MS, recorder.getHistogram(CaptureLatencyRecorder.Stage.CAPTURE_STILL).getMax());
+        assertEquals(190 * MS, recorder.getHistogram(CaptureLatencyRecorder.Stage.IMAGE_AVAILABLE).getMax(), 190 * MS / 32.0);
+        assertEquals(40 * MS, recorder.getHistogram(CaptureLatencyRecorder.Stage.SAVED).getMax());
+        assertEquals(340 * MS, recorder.getHistogram(CaptureLatencyRecorder.Stage.TAKE_PICTURE).getMax());
+    }
+
+    @Test
+    public void recorder_overlappingCapturesAndAbandon() {
+        CaptureLatencyRecorder recorder = new CaptureLatencyRecorder();
+        int first = recorder.begin(0);
+        int second = recorder.begin(50 * MS);
+        recorder.abandon(first);
+        // 被放弃的拍照不再计数
+        recorder.finish(first, 100 * MS);
+        recorder.finish(second, 80 * MS);
+        recorder.finish(second, 90 * MS);
+
+        LatencyHistogram total = recorder.getHistogram(CaptureLatencyRecorder.Stage.TAKE_PICTURE);
+        assertEquals(1, total.getCount());
+        assertEquals(30 * MS, total.getMax());
+        // 未知编号直接忽略
+        recorder.mark(-1, CaptureLatencyRecorder.Stage.AF_LOCKED, 1);
+        recorder.finish(12345, 1);
+        assertEquals(1, total.getCount());
+    }
+
+    @Test
+    public void recorder_dumpAndExport() throws Exception {
+        CaptureLatencyRecorder recorder = new CaptureLatencyRecorder();
+        int id = recorder.begin(0);
+        recorder.finish(id, 20 * MS);
+
+        String dump = recorder.dump();
+        assertTrue(dump.contains("TOTAL"));
+        assertTrue(dump.contains("PRECAPTURE_END"));
+
+        StringWriter writer = new StringWriter();
+        recorder.writeCsv(writer);
+        assertTrue(writer.toString().contains("TOTAL,1,20000,"));
+
+        File file = mFolder.newFile("latency.csv");
+        recorder.exportCsv(file);
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(1 + CaptureLatencyRecorder.Stage.values().length, lines.size());
+        assertTrue(lines.get(0).startsWith("stage,count"));
+    }
+}
@@ -0,0 +1,211 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * CaptureRequestTemplates 的本地单元测试
+ */
+public class CaptureRequestTemplatesTest {
+
+    /**
+     * 用字符串代替 CaptureRequest，记录构建次数
+     */
+    private static final class FakeFactory implements CaptureRequestTemplates.Factory<String> {
+        int created;
+        String session = "s1";
+
+        @Override
+        public String create(int kind, int jpegOrientation) {
+            created++;
+            return session + ":" + kind + "@" + jpegOrientation;
+        }
+    }
+
+    @Test
+    public void prepare_buildsSessionRequestsAndCurrentStillOnce() throws Exception {
+        CaptureRequestTemplates<String> templates = new CaptureRequestTemplates<>();
+        FakeFactory factory = new FakeFactory();
+        templates.prepare(factory, 90);
+        assertEquals(5, factory.created);
+
+        // 之后每次拍照只取用，不再构建
+        for (int i = 0; i < 10; i++) {
+            assertEquals("s1:" + CaptureRequestTemplates.KIND_PREVIEW + "@0", templates.get(CaptureRequestTemplates.KIND_PREVIEW));
+            assertEquals("s1:" + CaptureRequestTemplates.KIND_AF_TRIGGER + "@0", templates.get(CaptureRequestTemplates.KIND_AF_TRIGGER));
+            assertEquals("s1:" + CaptureRequestTemplates.KIND_STILL + "@90", templates.getStill(90));
+        }
+        assertEquals(5, factory.created);
+        assertSame(templates.getStill(90), templates.getStill(90));
+    }
+
+    @Test
+    public void prepareWithoutStillOutput_skipsStill() throws Exception {
+        CaptureRequestTemplates<String> templates = new CaptureRequestTemplates<>();
+        FakeFactory factory = new FakeFactory();
+        // 会话没有 JPEG 输出时只构建预览相关的请求
+        templates.prepare(factory, -1);
+        assertEquals(4, factory.created);
+    }
+
+    @Test
+    public void orientedRequests_areBuiltOncePerRotation() throws Exception {
+        CaptureRequestTemplates<String> templates = new CaptureRequestTemplates<>();
+        FakeFactory factory = new FakeFactory();
+        templates.prepare(factory, 0);
+        assertEquals("s1:" + CaptureRequestTemplates.KIND_STILL + "@270", templates.getStill(270));
+        assertEquals("s1:" + CaptureRequestTemplates.KIND_BURST + "@270", templates.getBurst(270));
+        templates.getStill(270);
+        templates.getBurst(270);
+        assertEquals(7, factory.created);
+        assertEquals(7, templates.getBuildCount());
+        // 360 等同于 0
+        assertSame(templates.getStill(0), templates.getStill(360));
+    }
+
+    @Test
+    public void newSession_replacesAllTemplates() throws Exception {
+        CaptureRequestTemplates<String> templates = new CaptureRequestTemplates<>();
+        FakeFactory factory = new FakeFactory();
+        templates.prepare(factory, 0);
+        templates.getBurst(90);
+
+        factory.session = "s2";
+        templates.prepare(factory, 0);
+        assertEquals("s2:" + CaptureRequestTemplates.KIND_PRECAPTURE + "@0", templates.get(CaptureRequestTemplates.KIND_PRECAPTURE));
+        assertEquals("s2:" + CaptureRequestTemplates.KIND_BURST + "@90", templates.getBurst(90));
+    }
+
+    @Test
+    public void clear_returnsNullUntilPrepared() throws Exception {
+        CaptureRequestTemplates<String> templates = new CaptureRequestTemplates<>();
+        assertFalse(templates.isPrepared());
+        assertNull(templates.get(CaptureRequestTemplates.KIND_PREVIEW));
+        assertNull(templates.getStill(0));
+
+        templates.prepare(new FakeFactory(), 0);
+        assertTrue(templates.isPrepared());
+        templates.clear();
+        assertNull(templates.get(CaptureRequestTemplates.KIND_AF_CANCEL));
+        assertNull(templates.getBurst(90));
+    }
+
+    @Test
+    public void invalidate_rebuildsLazilyWithNewParameters() throws Exception {
+        CaptureRequestTemplates<String> templates = new CaptureRequestTemplates<>();
+        FakeFactory factory = new FakeFactory();
+        templates.prepare(factory, 0);
+        factory.session = "zoomed";
+        templates.invalidate();
+        assertEquals(5, factory.created);
+        // 只有用到的请求才重建
+        assertEquals("zoomed:" + CaptureRequestTemplates.KIND_PREVIEW + "@0", templates.get(CaptureRequestTemplates.KIND_PREVIEW));
+        assertEquals(6, factory.created);
+        assertEquals("zoomed:" + CaptureRequestTemplates.KIND_STILL + "@0", templates.getStill(0));
+        assertEquals(7, factory.created);
+    }
+
+    @Test
+    public void invalidateKind_keepsOtherTemplates() throws Exception {
+        CaptureRequestTemplates<String> templates = new CaptureRequestTemplates<>();
+        FakeFactory factory = new FakeFactory();
+        templates.prepare(factory, 90);
+        templates.getBurst(90);
+        assertEquals(6, factory.created);
+        factory.session = "zoomed";
+        templates.invalidate(CaptureRequestTemplates.KIND_PREVIEW);
+        assertEquals("zoomed:" + CaptureRequestTemplates.KIND_PREVIEW + "@0", templates.get(CaptureRequestTemplates.KIND_PREVIEW));
+        // 其它请求没有过期，不重建
+        assertEquals("s1:" + CaptureRequestTemplates.KIND_AF_TRIGGER + "@0", templates.get(CaptureRequestTemplates.KIND_AF_TRIGGER));
+        assertEquals("s1:" + CaptureRequestTemplates.KIND_STILL + "@90", templates.getStill(90));
+        assertEquals(7, factory.created);
+        // 静态拍照的所有方向一起过期
+        templates.invalidate(CaptureRequestTemplates.KIND_STILL);
+        assertEquals("zoomed:" + CaptureRequestTemplates.KIND_STILL + "@90", templates.getStill(90));
+        assertEquals("s1:" + CaptureRequestTemplates.KIND_BURST + "@90", templates.getBurst(90));
+        assertEquals(8, factory.created);
+    }
+
+    @Test
+    public void pinch_rebuildsOnlyPreviewPerFrame() throws Exception {
+        CaptureRequestTemplates<String> templates = new CaptureRequestTemplates<>();
+        FakeFactory factory = new FakeFactory();
+        templates.prepare(factory, 90);
+        templates.getBurst(90);
+        int prepared = factory.created;
+        // 相当于 commitControls：每帧全部标记过期，只取预览
+        for (int frame = 0; frame < 30; frame++) {
+            factory.session = "zoom" + frame;
+            templates.invalidate();
+            assertEquals("zoom" + frame + ":" + CaptureRequestTemplates.KIND_PREVIEW + "@0",
+                    templates.get(CaptureRequestTemplates.KIND_PREVIEW));
+        }
+        assertEquals(prepared + 30, factory.created);
+        // 按快门时静态拍照请求带着最后一帧的参数构建一次
+        assertEquals("zoom29:" + CaptureRequestTemplates.KIND_STILL + "@90", templates.getStill(90));
+        assertEquals(prepared + 31, factory.created);
+    }
+
+    @Test
+    public void build_runsOutsideLockAndIsNotCachedWhenStale() throws Exception {
+        final CaptureRequestTemplates<String> templates = new CaptureRequestTemplates<>();
+        final int[] version = new int[1];
+        final boolean[] lockFree = new boolean[1];
+        templates.prepare(new CaptureRequestTemplates.Factory<String>() {
+            @Override
+            public String create(int kind, int jpegOrientation) throws Exception {
+                if (kind == CaptureRequestTemplates.KIND_STILL && !lockFree[0]) {
+                    // 构建期间另一个线程可以拿到锁，并且让这个请求失效
+                    Thread other = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            templates.invalidate(CaptureRequestTemplates.KIND_STILL);
+                            lockFree[0] = true;
+                        }
+                    });
+                    other.start();
+                    other.join(2000);
+                }
+                return "v" + version[0]++ + ":" + kind;
+            }
+        }, -1);
+        String first = templates.getStill(0);
+        assertTrue(lockFree[0]);
+        // 构建期间失效了：这次调用仍然拿到结果，但下次会按新参数重建
+        assertNotEquals(first, templates.getStill(0));
+        String second = templates.getStill(0);
+        assertSame(second, templates.getStill(0));
+    }
+
+    @Test
+    public void clearDuringBuild_returnsNull() throws Exception {
+        final CaptureRequestTemplates<String> templates = new CaptureRequestTemplates<>();
+        final FakeFactory inner = new FakeFactory();
+        final boolean[] cleared = new boolean[1];
+        templates.prepare(new CaptureRequestTemplates.Factory<String>() {
+            @Override
+            public String create(int kind, int jpegOrientation) {
+                if (kind == CaptureRequestTemplates.KIND_BURST && !cleared[0]) {
+                    cleared[0] = true;
+                    templates.clear();
+                }
+                return inner.create(kind, jpegOrientation);
+            }
+        }, -1);
+        assertNull(templates.getBurst(0));
+        assertFalse(templates.isPrepared());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void get_rejectsOrientedKind() throws Exception {
+        new CaptureRequestTemplates<String>().get(CaptureRequestTemplates.KIND_STILL);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getStill_rejectsBadOrientation() throws Exception {
+        CaptureRequestTemplates<String> templates = new CaptureRequestTemplates<>();
+        templates.prepare(new FakeFactory(), 0);
+        templates.getStill(45);
+    }
+}
@@ -0,0 +1,164 @@
+package com.shillu.camera2demo;
+
+import android.hardware.camera2.CaptureResult;
+
+import org.junit.Test;
+
+import static com.shillu.camera2demo.CaptureStateMachine.*;
+import static org.junit.Assert.*;
+
+/**
+ * CaptureStateMachine 的本地单元测试：回放录下来的 AF / AE 序列
+ */
+public class CaptureStateMachineTest {
+
+    private static final long MS = 1000_000L;
+
+    private static final int AF_SCAN = CaptureResult.CONTROL_AF_STATE_ACTIVE_SCAN;
+    private static final int AF_LOCKED = CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED;
+    private static final int AF_NOT_LOCKED = CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED;
+    private static final int AE_SEARCHING = CaptureResult.CONTROL_AE_STATE_SEARCHING;
+    private static final int AE_CONVERGED = CaptureResult.CONTROL_AE_STATE_CONVERGED;
+    private static final int AE_PRECAPTURE = CaptureResult.CONTROL_AE_STATE_PRECAPTURE;
+    private static final int AE_FLASH_REQUIRED = CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED;
+
+    /**
+     * 每行是一帧结果：{afState, aeState, 距上一帧的毫秒数}
+     */
+    private static int[] replay(CaptureStateMachine machine, int[][] frames) {
+        int[] actions = new int[frames.length];
+        long now = 0;
+        machine.startLock(now);
+        for (int i = 0; i < frames.length; i++) {
+            now += frames[i][2] * MS;
+            actions[i] = machine.onResult(frames[i][0], frames[i][1], now);
+        }
+        return actions;
+    }
+
+    private static CaptureStateMachine withTimeouts() {
+        CaptureStateMachine machine = new CaptureStateMachine();
+        machine.setTimeout(STATE_WAITING_LOCK, 1000 * MS, FALLBACK_NEXT);
+        machine.setTimeout(STATE_WAITING_PRECAPTURE, 500 * MS, FALLBACK_NEXT);
+        machine.setTimeout(STATE_WAITING_NON_PRECAPTURE, 500 * MS, FALLBACK_CAPTURE);
+        return machine;
+    }
+
+    @Test
+    public void focusLocksWithConvergedAe_capturesWithoutPrecapture() {
+        CaptureStateMachine machine = withTimeouts();
+        int[] actions = replay(machine, new int[][]{
+                {AF_SCAN, AE_CONVERGED, 33},
+                {AF_SCAN, AE_CONVERGED, 33},
+                {AF_LOCKED, AE_CONVERGED, 33},
+                {AF_LOCKED, AE_CONVERGED, 33},
+        });
+        assertArrayEquals(new int[]{ACTION_NONE, ACTION_NONE, ACTION_CAPTURE_STILL, ACTION_NONE}, actions);
+        assertEquals(STATE_PICTURE_TAKEN, machine.getState());
+        assertFalse(machine.isWaiting());
+        assertEquals(-1, machine.getDeadlineNs());
+    }
+
+    @Test
+    public void flashRequired_runsPrecaptureThenCaptures() {
+        CaptureStateMachine machine = withTimeouts();
+        int[] actions = replay(machine, new int[][]{
+                {AF_SCAN, AE_FLASH_REQUIRED, 33},
+                {AF_NOT_LOCKED, AE_FLASH_REQUIRED, 33},
+                // 预拍照请求还没生效
+                {AF_NOT_LOCKED, AE_SEARCHING, 33},
+                {AF_NOT_LOCKED, AE_PRECAPTURE, 33},
+                {AF_NOT_LOCKED, AE_PRECAPTURE, 33},
+                {AF_NOT_LOCKED, AE_CONVERGED, 33},
+        });
+        assertArrayEquals(new int[]{ACTION_NONE, ACTION_RUN_PRECAPTURE, ACTION_NONE, ACTION_NONE, ACTION_NONE,
+                ACTION_CAPTURE_STILL}, actions);
+        assertEquals(0, machine.getTimeoutCount(STATE_WAITING_LOCK));
+        assertEquals(0, machine.getTimeoutCount(STATE_WAITING_PRECAPTURE));
+    }
+
+    @Test
+    public void focusNeverLocks_timesOutAndFollowsAe() {
+        CaptureStateMachine machine = withTimeouts();
+        int[][] frames = new int[40][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new int[]{AF_SCAN, AE_CONVERGED, 33};
+        }
+        int[] actions = replay(machine, frames);
+        // 第 31 帧时超过 1000ms
+        assertEquals(ACTION_CAPTURE_STILL, actions[30]);
+        for (int i = 0; i < 30; i++) {
+            assertEquals(ACTION_NONE, actions[i]);
+        }
+        assertEquals(1, machine.getTimeoutCount(STATE_WAITING_LOCK));
+    }
+
+    @Test
+    public void focusTimeoutWithDarkScene_stillRunsPrecapture() {
+        CaptureStateMachine machine = withTimeouts();
+        machine.startLock(0);
+        assertEquals(ACTION_NONE, machine.onResult(AF_SCAN, AE_SEARCHING, 100 * MS));
+        // 结果停了，由定时检查触发
+        assertEquals(ACTION_NONE, machine.onTimeoutCheck(999 * MS));
+        assertEquals(ACTION_RUN_PRECAPTURE, machine.onTimeoutCheck(1000 * MS));
+        assertEquals(STATE_WAITING_PRECAPTURE, machine.getState());
+        assertEquals(1500 * MS, machine.getDeadlineNs());
+    }
+
+    @Test
+    public void precaptureNeverStarts_fallsThroughToCapture() {
+        CaptureStateMachine machine = withTimeouts();
+        machine.startLock(0);
+        assertEquals(ACTION_RUN_PRECAPTURE, machine.onResult(AF_LOCKED, AE_SEARCHING, 100 * MS));
+        // AE 一直在 SEARCHING，预拍照没有开始
+        assertEquals(ACTION_NONE, machine.onResult(AF_LOCKED, AE_SEARCHING, 500 * MS));
+        assertEquals(ACTION_NONE, machine.onResult(AF_LOCKED, AE_SEARCHING, 600 * MS));
+        assertEquals(STATE_WAITING_NON_PRECAPTURE, machine.getState());
+        assertEquals(1, machine.getTimeoutCount(STATE_WAITING_PRECAPTURE));
+        // AE 卡在 PRECAPTURE，等待结束也超时
+        assertEquals(ACTION_NONE, machine.onResult(AF_LOCKED, AE_PRECAPTURE, 700 * MS));
+        assertEquals(ACTION_CAPTURE_STILL, machine.onResult(AF_LOCKED, AE_PRECAPTURE, 1100 * MS));
+        assertEquals(1, machine.getTimeoutCount(STATE_WAITING_NON_PRECAPTURE));
+    }
+
+    @Test
+    public void missingAfOrAe_behaveLikeTheOriginalCallback() {
+        CaptureStateMachine machine = new CaptureStateMachine();
+        machine.startLock(0);
+        // 定焦镜头没有 AF 状态，直接拍照
+        assertEquals(ACTION_CAPTURE_STILL, machine.onResult(UNKNOWN, UNKNOWN, 1));
+
+        machine.reset();
+        machine.startLock(0);
+        // AE 状态为空时不做预拍照
+        assertEquals(ACTION_CAPTURE_STILL, machine.onResult(AF_LOCKED, UNKNOWN, 1));
+    }
+
+    @Test
+    public void withoutTimeouts_waitsForever() {
+        CaptureStateMachine machine = new CaptureStateMachine();
+        machine.startLock(0);
+        assertEquals(-1, machine.getDeadlineNs());
+        assertEquals(ACTION_NONE, machine.onResult(AF_SCAN, AE_CONVERGED, Long.MAX_VALUE / 2));
+        assertEquals(ACTION_NONE, machine.onTimeoutCheck(Long.MAX_VALUE));
+        assertEquals(STATE_WAITING_LOCK, machine.getState());
+    }
+
+    @Test
+    public void previewState_ignoresResults() {
+        CaptureStateMachine machine = withTimeouts();
+        assertEquals(ACTION_NONE, machine.onResult(AF_LOCKED, AE_CONVERGED, 0));
+        assertEquals(STATE_PREVIEW, machine.getState());
+
+        machine.startLock(0);
+        machine.onResult(AF_LOCKED, AE_CONVERGED, 1);
+        machine.reset();
+        assertEquals(STATE_PREVIEW, machine.getState());
+        assertEquals(ACTION_NONE, machine.onTimeoutCheck(Long.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setTimeout_rejectsNonWaitingState() {
+        new CaptureStateMachine().setTimeout(STATE_PREVIEW, MS, FALLBACK_NEXT);
+    }
+}
@@ -0,0 +1,144 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * StartupTrace 和 DeviceHandoff 的本地单元测试
+ */
+public class ColdStartTest {
+
+    private static final long MS = 1000_000L;
+
+    private static final class Device {
+        final String id;
+        boolean closed;
+
+        Device(String id) {
+            this.id = id;
+        }
+    }
+
+    private static final DeviceHandoff.Closer<Device> CLOSER = new DeviceHandoff.Closer<Device>() {
+        @Override
+        public void close(Device device) {
+            device.closed = true;
+        }
+    };
+
+    private static final class RecordingCallback implements DeviceHandoff.Callback<Device> {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onOpened(Device device) {
+            events.add("opened " + device.id);
+        }
+
+        @Override
+        public void onDisconnected(Device device) {
+            events.add("disconnected " + device.id);
+        }
+
+        @Override
+        public void onError(Device device, int error) {
+            events.add("error " + device.id + " " + error);
+        }
+    }
+
+    @Test
+    public void trace_phasesRelativeToActivityCreate() {
+        StartupTrace trace = new StartupTrace(1000 * MS);
+        assertTrue(trace.mark(StartupTrace.Phase.INDEX_READY, 1010 * MS));
+        // 设备先于 Surface 就绪：汇合时间取较晚的那个
+        trace.mark(StartupTrace.Phase.DEVICE_OPENED, 1080 * MS);
+        trace.mark(StartupTrace.Phase.VIEW_CREATED, 1060 * MS);
+        assertEquals(-1, trace.getJoinNs());
+        trace.mark(StartupTrace.Phase.SURFACE_AVAILABLE, 1120 * MS);
+        assertEquals(120 * MS, trace.getJoinNs());
+        assertFalse(trace.mark(StartupTrace.Phase.DEVICE_OPENED, 1500 * MS));
+        assertEquals(80 * MS, trace.getElapsedNs(StartupTrace.Phase.DEVICE_OPENED));
+
+        trace.mark(StartupTrace.Phase.SESSION_CONFIGURED, 1200 * MS);
+        assertFalse(trace.isComplete());
+        assertEquals(-1, trace.getTotalNs());
+        assertTrue(trace.mark(StartupTrace.Phase.FIRST_RESULT, 1260 * MS));
+        assertTrue(trace.isComplete());
+        assertEquals(260 * MS, trace.getTotalNs());
+        assertFalse(trace.mark(StartupTrace.Phase.FIRST_RESULT, 1300 * MS));
+        assertTrue(trace.toString().contains("first_result=260.0"));
+    }
+
+    @Test
+    public void trace_reopenAfterCompleteIsIgnored() {
+        StartupTrace trace = new StartupTrace(0);
+        trace.mark(StartupTrace.Phase.FIRST_RESULT, 300 * MS);
+        // 冷启动结束后的重新打开不再计入
+        assertFalse(trace.mark(StartupTrace.Phase.DEVICE_OPENED, 400 * MS));
+        assertEquals(-1, trace.getElapsedNs(StartupTrace.Phase.DEVICE_OPENED));
+    }
+
+    @Test
+    public void handoff_adoptAfterOpenReplaysOpened() {
+        DeviceHandoff<Device> handoff = new DeviceHandoff<>("0", CLOSER);
+        Device device = new Device("0");
+        handoff.onOpened(device);
+        RecordingCallback callback = new RecordingCallback();
+        assertTrue(handoff.adopt("0", callback));
+        handoff.onError(device, 3);
+        assertEquals("[opened 0, error 0 3]", callback.events.toString());
+        assertFalse(device.closed);
+        // 只能接收一次
+        assertFalse(handoff.adopt("0", new RecordingCallback()));
+    }
+
+    @Test
+    public void handoff_adoptWhileOpeningForwardsLater() {
+        DeviceHandoff<Device> handoff = new DeviceHandoff<>("0", CLOSER);
+        RecordingCallback callback = new RecordingCallback();
+        assertTrue(handoff.adopt("0", callback));
+        assertTrue(callback.events.isEmpty());
+        handoff.onOpened(new Device("0"));
+        assertEquals("[opened 0]", callback.events.toString());
+    }
+
+    @Test
+    public void handoff_otherCameraClosesEarlyDevice() {
+        DeviceHandoff<Device> handoff = new DeviceHandoff<>("0", CLOSER);
+        Device device = new Device("0");
+        handoff.onOpened(device);
+        RecordingCallback callback = new RecordingCallback();
+        assertFalse(handoff.adopt("1", callback));
+        assertTrue(device.closed);
+        assertTrue(callback.events.isEmpty());
+    }
+
+    @Test
+    public void handoff_abandonWhileOpeningClosesOnOpen() {
+        DeviceHandoff<Device> handoff = new DeviceHandoff<>("0", CLOSER);
+        handoff.abandon();
+        Device device = new Device("0");
+        handoff.onOpened(device);
+        assertTrue(device.closed);
+        assertFalse(handoff.adopt("0", new RecordingCallback()));
+    }
+
+    @Test
+    public void handoff_failureBeforeAdoptFallsBack() {
+        DeviceHandoff<Device> handoff = new DeviceHandoff<>("0", CLOSER);
+        Device device = new Device("0");
+        handoff.onOpened(device);
+        handoff.onDisconnected(device);
+        assertTrue(device.closed);
+        RecordingCallback callback = new RecordingCallback();
+        assertFalse(handoff.adopt("0", callback));
+        assertTrue(callback.events.isEmpty());
+
+        DeviceHandoff<Device> failed = new DeviceHandoff<>("0", CLOSER);
+        failed.onOpenFailed();
+        assertFalse(failed.adopt("0", callback));
+    }
+}
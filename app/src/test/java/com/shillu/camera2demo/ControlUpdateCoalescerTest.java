@@ -0,0 +1,116 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * ControlUpdateCoalescer 的本地单元测试
+ */
+public class ControlUpdateCoalescerTest {
+
+    private static final long MS = 1000_000L;
+
+    private static ControlUpdateCoalescer newCoalescer() {
+        ControlUpdateCoalescer coalescer = new ControlUpdateCoalescer();
+        coalescer.reset(8f, -12, 12);
+        return coalescer;
+    }
+
+    @Test
+    public void gesture_collapsesToOneUpdatePerFrame() {
+        ControlUpdateCoalescer coalescer = newCoalescer();
+        // 一帧 33ms 内来了 4 个缩放事件
+        float zoom = 1f;
+        for (int i = 0; i < 4; i++) {
+            zoom *= 1.1f;
+            coalescer.setZoom(zoom, i * 8 * MS);
+        }
+        assertEquals(1f, coalescer.getZoom(), 0f);
+        long sequence = coalescer.commit(33 * MS);
+        assertEquals(1, sequence);
+        assertEquals(zoom, coalescer.getZoom(), 1e-6f);
+        // 下一帧没有改动
+        assertEquals(-1, coalescer.commit(66 * MS));
+
+        assertEquals(4, coalescer.getChanges());
+        assertEquals(1, coalescer.getUpdates());
+        assertEquals(3, coalescer.getCollapsed());
+    }
+
+    @Test
+    public void effectLatency_measuredFromFirstChangeToTaggedResult() {
+        ControlUpdateCoalescer coalescer = newCoalescer();
+        coalescer.setExposureCompensation(3, 10 * MS);
+        coalescer.setExposureCompensation(4, 20 * MS);
+        long sequence = coalescer.commit(33 * MS);
+        // 管线里还有旧参数的帧
+        coalescer.onResult(0, 66 * MS);
+        coalescer.onResult(0, 100 * MS);
+        assertEquals(0, coalescer.getEffectLatency().getCount());
+        coalescer.onResult(sequence, 133 * MS);
+        coalescer.onResult(sequence, 166 * MS);
+        assertEquals(1, coalescer.getEffectLatency().getCount());
+        assertEquals(123 * MS, coalescer.getEffectLatency().getMax());
+        assertEquals(4, coalescer.getExposureCompensation());
+    }
+
+    @Test
+    public void overlappingCommits_keepEarliestUnseenChange() {
+        ControlUpdateCoalescer coalescer = newCoalescer();
+        coalescer.setZoom(2f, 0);
+        coalescer.commit(33 * MS);
+        coalescer.setZoom(3f, 40 * MS);
+        long second = coalescer.commit(66 * MS);
+        // 第二次提交的结果先到，起点仍是第一次改动
+        coalescer.onResult(second, 150 * MS);
+        assertEquals(150 * MS, coalescer.getEffectLatency().getMax());
+    }
+
+    @Test
+    public void values_areClampedAndNoOpsIgnored() {
+        ControlUpdateCoalescer coalescer = newCoalescer();
+        coalescer.setZoom(0.5f, 0);
+        coalescer.setExposureCompensation(0, 0);
+        assertFalse(coalescer.hasPending());
+        coalescer.setZoom(100f, 0);
+        coalescer.setExposureCompensation(-100, 0);
+        coalescer.commit(1);
+        assertEquals(8f, coalescer.getZoom(), 0f);
+        assertEquals(-12, coalescer.getExposureCompensation());
+    }
+
+    @Test
+    public void regions_setClearAndResetOnCameraSwitch() {
+        ControlUpdateCoalescer coalescer = newCoalescer();
+        int[] region = new int[ControlUpdateCoalescer.REGION_LENGTH];
+        assertFalse(coalescer.getAfRegion(region));
+
+        coalescer.setAfRegion(10, 20, 110, 120, 1000, 0);
+        coalescer.setAeRegion(10, 20, 110, 120, 500, 0);
+        coalescer.commit(1);
+        assertTrue(coalescer.getAfRegion(region));
+        assertArrayEquals(new int[]{10, 20, 110, 120, 1000}, region);
+        assertTrue(coalescer.getAeRegion(region));
+        assertEquals(500, region[4]);
+
+        coalescer.setAfRegion(1, 2, 3, 4, 0, 0);
+        coalescer.commit(2);
+        assertFalse(coalescer.getAfRegion(region));
+
+        coalescer.setZoom(2f, 0);
+        coalescer.reset(4f, -6, 6);
+        assertFalse(coalescer.hasPending());
+        assertFalse(coalescer.getAeRegion(region));
+        assertEquals(1f, coalescer.getZoom(), 0f);
+    }
+
+    @Test
+    public void cropRegion_centersOnActiveArray() {
+        int[] crop = new int[4];
+        ControlUpdateCoalescer.cropRegion(new int[]{0, 0, 4000, 3000}, 2f, crop);
+        assertArrayEquals(new int[]{1000, 750, 3000, 2250}, crop);
+        ControlUpdateCoalescer.cropRegion(new int[]{8, 8, 4008, 3008}, 1f, crop);
+        assertArrayEquals(new int[]{8, 8, 4008, 3008}, crop);
+    }
+}
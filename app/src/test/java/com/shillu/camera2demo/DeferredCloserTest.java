@@ -0,0 +1,97 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * DeferredCloser 的本地单元测试
+ */
+public class DeferredCloserTest {
+
+    private static final class CountingResource implements AutoCloseable {
+        final AtomicInteger closes = new AtomicInteger();
+
+        @Override
+        public void close() {
+            closes.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void closeWithoutOutstanding_closesImmediately() {
+        CountingResource resource = new CountingResource();
+        DeferredCloser closer = new DeferredCloser(resource);
+        closer.close();
+        closer.close();
+        assertEquals(1, resource.closes.get());
+        assertTrue(closer.isClosed());
+        assertFalse(closer.acquire());
+    }
+
+    @Test
+    public void closeWaitsForLastRelease() {
+        CountingResource resource = new CountingResource();
+        DeferredCloser closer = new DeferredCloser(resource);
+        assertTrue(closer.acquire());
+        assertTrue(closer.acquire());
+        closer.close();
+        assertEquals(0, resource.closes.get());
+        // 关闭请求之后迟到的照片仍然可以借出
+        assertTrue(closer.acquire());
+        closer.release();
+        closer.release();
+        assertEquals(0, resource.closes.get());
+        closer.release();
+        assertEquals(1, resource.closes.get());
+        assertTrue(closer.isClosed());
+        assertEquals(0, closer.getOutstanding());
+    }
+
+    @Test
+    public void releaseWithoutClose_keepsOpen() {
+        CountingResource resource = new CountingResource();
+        DeferredCloser closer = new DeferredCloser(resource);
+        assertTrue(closer.acquire());
+        closer.release();
+        assertEquals(0, resource.closes.get());
+        assertFalse(closer.isClosed());
+        try {
+            closer.release();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void lastReleaseOnWorkerThread_closesOnce() throws InterruptedException {
+        final CountingResource resource = new CountingResource();
+        final DeferredCloser closer = new DeferredCloser(resource);
+        int workers = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            assertTrue(closer.acquire());
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    closer.release();
+                    done.countDown();
+                }
+            }).start();
+        }
+        closer.close();
+        start.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, resource.closes.get());
+    }
+}
@@ -0,0 +1,101 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * DirectBufferPool 的本地单元测试
+ */
+public class DirectBufferPoolTest {
+
+    @Test
+    public void acquire_returnsClearedDirectBuffer() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(64, 2);
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        assertEquals(64, buffer.capacity());
+        buffer.putInt(42);
+        pool.release(buffer);
+
+        ByteBuffer again = pool.acquire();
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(64, again.limit());
+        assertEquals(1, pool.getReuseCount());
+        assertEquals(1, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void acquire_blocksWhenExhausted() throws Exception {
+        final DirectBufferPool pool = new DirectBufferPool(16, 1);
+        ByteBuffer first = pool.acquire();
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final AtomicReference<ByteBuffer> second = new AtomicReference<>();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    second.set(pool.acquire());
+                    acquired.countDown();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        waiter.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        pool.release(first);
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        assertSame(first, second.get());
+        assertEquals(1, pool.getAllocatedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void release_rejectsForeignBuffer() {
+        new DirectBufferPool(16, 1).release(ByteBuffer.allocate(16));
+    }
+
+    @Test
+    public void release_rejectsSecondRelease() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(16, 2);
+        ByteBuffer buffer = pool.acquire();
+        pool.release(buffer);
+        try {
+            pool.release(buffer);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(1, pool.getFreeCount());
+        // 重复归还没有生效，两次借出拿到的是不同的缓冲区
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        assertSame(buffer, first);
+        assertNotSame(first, second);
+        assertEquals(2, pool.getAllocatedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_rejectsSameSizeBufferNotAcquired() {
+        new DirectBufferPool(16, 1).release(ByteBuffer.allocateDirect(16));
+    }
+
+    @Test
+    public void trim_dropsFreeBuffers() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(16, 2);
+        ByteBuffer a = pool.acquire();
+        ByteBuffer b = pool.acquire();
+        pool.release(a);
+        pool.trim();
+        assertEquals(1, pool.getAllocatedCount());
+        assertEquals(0, pool.getFreeCount());
+        pool.release(b);
+        assertEquals(1, pool.getFreeCount());
+    }
+}
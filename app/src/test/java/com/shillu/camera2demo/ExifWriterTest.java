@@ -0,0 +1,343 @@
+package com.shillu.camera2demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * ExifWriter 和 PooledJpegWriter 写 EXIF 的本地单元测试
+ */
+public class ExifWriterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static CaptureMetadata metadata(int rotation) {
+        return new CaptureMetadata(123_456_789L, 1_700_000_000_123L, 10_000_000L, 400,
+                4.38f, 1.8f, true, rotation, "shillu", "demo");
+    }
+
+    /**
+     * JpegEncoder 输出的 JPEG（SOI 之后是 JFIF APP0）
+     */
+    private static byte[] encodedJpeg() throws IOException {
+        byte[] frame = JpegEncoderTest.syntheticNv12(64, 48, 7);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new JpegEncoder(null, 90, 2).encode(
+                YuvConverter.Planes.packed(ByteBuffer.wrap(frame), YuvConverter.Layout.NV12, 64, 48),
+                Channels.newChannel(output));
+        return output.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            output.write(part, 0, part.length);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 在 IFD 中找到 tag 的条目，返回条目在 tiff 中的偏移，没有时返回 -1；同时检查标签升序
+     */
+    private static int findTag(ByteBuffer tiff, int ifd, int tag) {
+        int count = tiff.getShort(ifd) & 0xffff;
+        int previous = -1;
+        int found = -1;
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            int current = tiff.getShort(entry) & 0xffff;
+            assertTrue("tags sorted", current > previous);
+            previous = current;
+            if (current == tag) {
+                found = entry;
+            }
+        }
+        return found;
+    }
+
+    private static String ascii(ByteBuffer tiff, int entry) {
+        int count = tiff.getInt(entry + 4);
+        int offset = count <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+        byte[] bytes = new byte[count - 1];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = tiff.get(offset + i);
+        }
+        assertEquals(0, tiff.get(offset + count - 1));
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static long[] rational(ByteBuffer tiff, int entry) {
+        int offset = tiff.getInt(entry + 8);
+        return new long[]{tiff.getInt(offset) & 0xffffffffL, tiff.getInt(offset + 4) & 0xffffffffL};
+    }
+
+    @Test
+    public void build_writesSortedIfdsWithValues() {
+        ByteBuffer app1 = ExifWriter.build(metadata(0), 6);
+        assertEquals(0xffe1, app1.getShort(0) & 0xffff);
+        assertEquals(app1.remaining() - 2, app1.getShort(2) & 0xffff);
+        assertEquals("Exif", new String(bytes((ByteBuffer) app1.duplicate().position(4).limit(8)), StandardCharsets.US_ASCII));
+        app1.position(10);
+        ByteBuffer tiff = app1.slice();
+        assertEquals('M', tiff.get(0));
+        assertEquals(42, tiff.getShort(2));
+        int ifd0 = tiff.getInt(4);
+
+        assertEquals("shillu", ascii(tiff, findTag(tiff, ifd0, ExifWriter.TAG_MAKE)));
+        assertEquals("demo", ascii(tiff, findTag(tiff, ifd0, ExifWriter.TAG_MODEL)));
+        assertEquals(6, tiff.getShort(findTag(tiff, ifd0, ExifWriter.TAG_ORIENTATION) + 8));
+        String dateTime = ascii(tiff, findTag(tiff, ifd0, ExifWriter.TAG_DATE_TIME));
+        assertTrue(dateTime, dateTime.matches("\\d{4}:\\d{2}:\\d{2} \\d{2}:\\d{2}:\\d{2}"));
+
+        int exif = tiff.getInt(findTag(tiff, ifd0, ExifWriter.TAG_EXIF_IFD) + 8);
+        assertArrayEquals(new long[]{1, 100}, rational(tiff, findTag(tiff, exif, ExifWriter.TAG_EXPOSURE_TIME)));
+        assertArrayEquals(new long[]{180, 100}, rational(tiff, findTag(tiff, exif, ExifWriter.TAG_F_NUMBER)));
+        assertArrayEquals(new long[]{4380, 1000}, rational(tiff, findTag(tiff, exif, ExifWriter.TAG_FOCAL_LENGTH)));
+        assertEquals(400, tiff.getShort(findTag(tiff, exif, ExifWriter.TAG_ISO) + 8));
+        assertEquals(1, tiff.getShort(findTag(tiff, exif, ExifWriter.TAG_FLASH) + 8));
+        assertEquals(dateTime, ascii(tiff, findTag(tiff, exif, ExifWriter.TAG_DATE_TIME_ORIGINAL)));
+        assertEquals("123", ascii(tiff, findTag(tiff, exif, ExifWriter.TAG_SUB_SEC_TIME_ORIGINAL)));
+        assertEquals(String.format("%032x", 123_456_789L), ascii(tiff, findTag(tiff, exif, ExifWriter.TAG_IMAGE_UNIQUE_ID)));
+        assertTrue(ascii(tiff, findTag(tiff, exif, ExifWriter.TAG_OFFSET_TIME_ORIGINAL)).matches("[+-]\\d{2}:\\d{2}"));
+    }
+
+    @Test
+    public void build_skipsUnknownValues() {
+        CaptureMetadata unknown = new CaptureMetadata(1, 0, -1, -1, -1, -1, false, -1, null, null);
+        ByteBuffer app1 = ExifWriter.build(unknown, 1);
+        app1.position(10);
+        ByteBuffer tiff = app1.slice();
+        int ifd0 = tiff.getInt(4);
+        assertEquals(-1, findTag(tiff, ifd0, ExifWriter.TAG_MAKE));
+        int exif = tiff.getInt(findTag(tiff, ifd0, ExifWriter.TAG_EXIF_IFD) + 8);
+        assertEquals(-1, findTag(tiff, exif, ExifWriter.TAG_EXPOSURE_TIME));
+        assertEquals(-1, findTag(tiff, exif, ExifWriter.TAG_ISO));
+        assertEquals(0, tiff.getShort(findTag(tiff, exif, ExifWriter.TAG_FLASH) + 8));
+    }
+
+    @Test
+    public void exposureAndOffset_formatting() {
+        assertArrayEquals(new long[]{1, 60}, ExifWriter.exposureRational(16_666_667L));
+        assertArrayEquals(new long[]{2_000_000, 1_000_000}, ExifWriter.exposureRational(2_000_000_000L));
+        assertEquals("+08:00", ExifWriter.timeZoneOffset(8 * 3_600_000));
+        assertEquals("-03:30", ExifWriter.timeZoneOffset(-(3 * 60 + 30) * 60_000));
+        assertEquals(1, ExifWriter.orientationTag(0));
+        assertEquals(6, ExifWriter.orientationTag(90));
+        assertEquals(3, ExifWriter.orientationTag(-180));
+        assertEquals(8, ExifWriter.orientationTag(270));
+    }
+
+    @Test
+    public void locate_placesAfterJfifOrSoi() throws IOException {
+        byte[] jpeg = encodedJpeg();
+        // SOI + APP0(16 字节)
+        ExifWriter.Splice splice = ExifWriter.locate(ByteBuffer.wrap(jpeg));
+        assertEquals(2 + 2 + 16, splice.insertAt);
+        assertEquals(splice.insertAt, splice.resumeAt);
+        assertEquals(0, splice.existingOrientation);
+
+        byte[] noApp0 = concat(new byte[]{(byte) 0xff, (byte) 0xd8}, Arrays.copyOfRange(jpeg, 20, jpeg.length));
+        splice = ExifWriter.locate(ByteBuffer.wrap(noApp0));
+        assertEquals(2, splice.insertAt);
+        assertEquals(2, splice.resumeAt);
+
+        try {
+            ExifWriter.locate(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void locate_findsExistingExif() throws IOException {
+        byte[] jpeg = encodedJpeg();
+        byte[] halExif = bytes(ExifWriter.build(metadata(0), 8));
+        byte[] withExif = concat(Arrays.copyOf(jpeg, 20), halExif, Arrays.copyOfRange(jpeg, 20, jpeg.length));
+        // 前面放一段无关数据，检查 position 不为 0 时的偏移
+        ByteBuffer src = ByteBuffer.wrap(concat(new byte[5], withExif));
+        src.position(5);
+        ExifWriter.Splice splice = ExifWriter.locate(src);
+        assertEquals(20, splice.insertAt);
+        assertEquals(20 + halExif.length, splice.resumeAt);
+        assertEquals(8, splice.existingOrientation);
+        assertTrue(splice.hasExif());
+        assertEquals(5, src.position());
+    }
+
+    private static final byte[] HAL_THUMBNAIL = {(byte) 0xff, (byte) 0xd8, 1, 2, 3, 4, 5, 6, (byte) 0xff, (byte) 0xd9};
+
+    /**
+     * 模拟 HAL 写的小端序 Exif APP1：IFD0 有 Make、Orientation、Exif 和 GPS 指针，Exif IFD 有 ISO 和曝光时间，
+     * 还有 GPS IFD 和带缩略图的 IFD1，都按偏移引用
+     */
+    private static byte[] halExif() {
+        ByteBuffer tiff = ByteBuffer.allocate(168).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        // IFD0 @8，4 个条目，到 62
+        tiff.putShort((short) 4);
+        tiff.putShort((short) ExifWriter.TAG_MAKE).putShort((short) 2).putInt(9).putInt(62);
+        tiff.putShort((short) ExifWriter.TAG_ORIENTATION).putShort((short) 3).putInt(1).putShort((short) 8).putShort((short) 0);
+        tiff.putShort((short) ExifWriter.TAG_EXIF_IFD).putShort((short) 4).putInt(1).putInt(72);
+        tiff.putShort((short) 0x8825).putShort((short) 4).putInt(1).putInt(110);
+        tiff.putInt(128);
+        tiff.put("hal-make".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 0);
+        // Exif IFD @72，到 102，曝光时间 @102
+        tiff.putShort((short) 2);
+        tiff.putShort((short) ExifWriter.TAG_EXPOSURE_TIME).putShort((short) 5).putInt(1).putInt(102);
+        tiff.putShort((short) ExifWriter.TAG_ISO).putShort((short) 3).putInt(1).putShort((short) 100).putShort((short) 0);
+        tiff.putInt(0);
+        tiff.putInt(1).putInt(50);
+        // GPS IFD @110，GPSVersionID 2.3.0.0
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0).putShort((short) 1).putInt(4).put(new byte[]{2, 3, 0, 0});
+        tiff.putInt(0);
+        // IFD1 @128，缩略图 @158
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(158);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(HAL_THUMBNAIL.length);
+        tiff.putInt(0);
+        tiff.put(HAL_THUMBNAIL);
+        assertFalse(tiff.hasRemaining());
+
+        ByteBuffer app1 = ByteBuffer.allocate(2 + 2 + 6 + 168);
+        app1.putShort((short) 0xffe1).putShort((short) (app1.capacity() - 2));
+        app1.put(new byte[]{'E', 'x', 'i', 'f', 0, 0}).put(tiff.array());
+        return app1.array();
+    }
+
+    @Test
+    public void writer_mergesIntoHalExifKeepingEverything() throws IOException {
+        byte[] jpeg = encodedJpeg();
+        byte[] hal = halExif();
+        byte[] withExif = concat(Arrays.copyOf(jpeg, 20), hal, Arrays.copyOfRange(jpeg, 20, jpeg.length));
+        File file = mFolder.newFile();
+        long written = new PooledJpegWriter(new DirectBufferPool(1024, 1)).write(ByteBuffer.wrap(withExif), metadata(90), file);
+        byte[] actual = Files.readAllBytes(file.toPath());
+        assertEquals(actual.length, written);
+
+        ExifWriter.Splice splice = ExifWriter.locate(ByteBuffer.wrap(actual));
+        assertEquals(20, splice.insertAt);
+        // HAL 的方向不变
+        assertEquals(8, splice.existingOrientation);
+        // 后面的图像数据原样保留
+        assertArrayEquals(Arrays.copyOfRange(jpeg, 20, jpeg.length), Arrays.copyOfRange(actual, splice.resumeAt, actual.length));
+        // 原来的 TIFF 除了 IFD0 偏移都没动
+        byte[] segment = Arrays.copyOfRange(actual, splice.insertAt, splice.resumeAt);
+        assertEquals(segment.length - 2, ((segment[2] & 0xff) << 8) | (segment[3] & 0xff));
+        assertArrayEquals(Arrays.copyOfRange(hal, 10 + 8, hal.length), Arrays.copyOfRange(segment, 10 + 8, hal.length));
+
+        ByteBuffer tiff = ByteBuffer.wrap(segment, 10, segment.length - 10).slice().order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals('I', tiff.get(0));
+        int ifd0 = tiff.getInt(4);
+        assertTrue(ifd0 >= 168);
+        // 已有的值以 HAL 为准，缺少的补上
+        assertEquals("hal-make", ascii(tiff, findTag(tiff, ifd0, ExifWriter.TAG_MAKE)));
+        assertEquals("demo", ascii(tiff, findTag(tiff, ifd0, ExifWriter.TAG_MODEL)));
+        assertEquals(8, tiff.getShort(findTag(tiff, ifd0, ExifWriter.TAG_ORIENTATION) + 8));
+        assertEquals(110, tiff.getInt(findTag(tiff, ifd0, 0x8825) + 8));
+        int exif = tiff.getInt(findTag(tiff, ifd0, ExifWriter.TAG_EXIF_IFD) + 8);
+        assertEquals(100, tiff.getShort(findTag(tiff, exif, ExifWriter.TAG_ISO) + 8));
+        assertArrayEquals(new long[]{1, 50}, rational(tiff, findTag(tiff, exif, ExifWriter.TAG_EXPOSURE_TIME)));
+        assertArrayEquals(new long[]{180, 100}, rational(tiff, findTag(tiff, exif, ExifWriter.TAG_F_NUMBER)));
+        assertArrayEquals(new long[]{4380, 1000}, rational(tiff, findTag(tiff, exif, ExifWriter.TAG_FOCAL_LENGTH)));
+        assertEquals(String.format("%032x", 123_456_789L), ascii(tiff, findTag(tiff, exif, ExifWriter.TAG_IMAGE_UNIQUE_ID)));
+        // IFD1 和缩略图还在原处
+        int countIfd0 = tiff.getShort(ifd0) & 0xffff;
+        int ifd1 = tiff.getInt(ifd0 + 2 + countIfd0 * 12);
+        assertEquals(128, ifd1);
+        int thumbnail = tiff.getInt(findTag(tiff, ifd1, 0x0201) + 8);
+        byte[] thumbnailBytes = new byte[HAL_THUMBNAIL.length];
+        ((ByteBuffer) tiff.duplicate().position(thumbnail)).get(thumbnailBytes);
+        assertArrayEquals(HAL_THUMBNAIL, thumbnailBytes);
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(actual));
+        assertNotNull(image);
+        assertEquals(64, image.getWidth());
+    }
+
+    @Test
+    public void writer_completeHalExif_writesUnchanged() throws IOException {
+        byte[] jpeg = encodedJpeg();
+        // 另一组参数生成的完整 Exif：没有要补的标签，原样写出
+        CaptureMetadata hal = new CaptureMetadata(42L, 1_600_000_000_000L, 5_000_000L, 800,
+                5.0f, 2.2f, false, 0, "hal", "device");
+        byte[] withExif = concat(Arrays.copyOf(jpeg, 20), bytes(ExifWriter.build(hal, 3)),
+                Arrays.copyOfRange(jpeg, 20, jpeg.length));
+        File file = mFolder.newFile();
+        assertEquals(withExif.length, new PooledJpegWriter().write(ByteBuffer.wrap(withExif), metadata(90), file));
+        assertArrayEquals(withExif, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void merge_unreadableExif_returnsNull() throws IOException {
+        byte[] jpeg = encodedJpeg();
+        byte[] hal = halExif();
+        // IFD0 偏移指到段外
+        hal[10 + 4] = (byte) 0xf0;
+        ByteBuffer src = ByteBuffer.wrap(concat(Arrays.copyOf(jpeg, 20), hal, Arrays.copyOfRange(jpeg, 20, jpeg.length)));
+        assertNull(ExifWriter.merge(src, ExifWriter.locate(src), metadata(0)));
+    }
+
+    private void assertSpliced(byte[] jpeg, ByteBuffer src) throws IOException {
+        PooledJpegWriter writer = new PooledJpegWriter(new DirectBufferPool(1024, 1));
+        File file = mFolder.newFile();
+        long written = writer.write(src, metadata(90), file);
+        assertFalse(src.hasRemaining());
+
+        byte[] app1 = bytes(ExifWriter.build(metadata(90), 6));
+        byte[] expected = concat(Arrays.copyOf(jpeg, 20), app1, Arrays.copyOfRange(jpeg, 20, jpeg.length));
+        byte[] actual = Files.readAllBytes(file.toPath());
+        assertEquals(expected.length, written);
+        // DateTime 等取默认时区，两次生成结果相同
+        assertArrayEquals(expected, actual);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(actual));
+        assertNotNull(image);
+        assertEquals(64, image.getWidth());
+        assertEquals(48, image.getHeight());
+    }
+
+    @Test
+    public void writer_splicesExifIntoHeapSource() throws IOException {
+        byte[] jpeg = encodedJpeg();
+        assertSpliced(jpeg, ByteBuffer.wrap(jpeg));
+    }
+
+    @Test
+    public void writer_splicesExifIntoDirectSource() throws IOException {
+        byte[] jpeg = encodedJpeg();
+        ByteBuffer direct = ByteBuffer.allocateDirect(jpeg.length);
+        direct.put(jpeg).flip();
+        assertSpliced(jpeg, direct);
+    }
+
+    @Test
+    public void writer_notJpeg_writesUnchanged() throws IOException {
+        byte[] data = {1, 2, 3, 4, 5};
+        File file = mFolder.newFile();
+        assertEquals(5, new PooledJpegWriter().write(ByteBuffer.wrap(data), metadata(0), file));
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+    }
+}
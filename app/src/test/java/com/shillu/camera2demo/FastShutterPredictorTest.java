@@ -0,0 +1,101 @@
+package com.shillu.camera2demo;
+
+import android.hardware.camera2.CaptureResult;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * FastShutterPredictor 的本地单元测试
+ */
+public class FastShutterPredictorTest {
+
+    private static final long MS = 1000_000L;
+
+    private static void feed(FastShutterPredictor predictor, int frames, int af, int ae, long startNs) {
+        for (int i = 0; i < frames; i++) {
+            predictor.onPreviewResult(af, ae, startNs + i * 33 * MS);
+        }
+    }
+
+    @Test
+    public void stableConvergence_allowsSkip() {
+        FastShutterPredictor predictor = new FastShutterPredictor();
+        feed(predictor, FastShutterPredictor.STABLE_FRAMES - 1,
+                CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED, CaptureResult.CONTROL_AE_STATE_CONVERGED, 0);
+        long last = (FastShutterPredictor.STABLE_FRAMES - 2) * 33 * MS;
+        assertFalse(predictor.canSkip(last));
+
+        predictor.onPreviewResult(CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED,
+                CaptureResult.CONTROL_AE_STATE_LOCKED, last + 33 * MS);
+        assertTrue(predictor.canSkip(last + 40 * MS));
+        // 预览停了，历史过期
+        assertFalse(predictor.canSkip(last + 33 * MS + FastShutterPredictor.MAX_AGE_NS + 1));
+    }
+
+    @Test
+    public void anyUnconvergedFrameInWindow_blocksSkip() {
+        FastShutterPredictor predictor = new FastShutterPredictor();
+        feed(predictor, 10, CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED, CaptureResult.CONTROL_AE_STATE_CONVERGED, 0);
+        predictor.onPreviewResult(CaptureResult.CONTROL_AF_STATE_PASSIVE_SCAN, CaptureResult.CONTROL_AE_STATE_CONVERGED, 400 * MS);
+        feed(predictor, FastShutterPredictor.STABLE_FRAMES - 1,
+                CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED, CaptureResult.CONTROL_AE_STATE_CONVERGED, 433 * MS);
+        assertFalse(predictor.canSkip(500 * MS));
+        // 扫描帧滑出窗口后恢复
+        predictor.onPreviewResult(CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED, CaptureResult.CONTROL_AE_STATE_CONVERGED, 500 * MS);
+        assertTrue(predictor.canSkip(500 * MS));
+    }
+
+    @Test
+    public void flashRequiredOrMissingAe_neverSkips() {
+        FastShutterPredictor predictor = new FastShutterPredictor();
+        feed(predictor, 5, CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED, CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED, 0);
+        assertFalse(predictor.canSkip(4 * 33 * MS));
+        feed(predictor, 5, CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED, CaptureStateMachine.UNKNOWN, 0);
+        assertFalse(predictor.canSkip(4 * 33 * MS));
+        // 定焦镜头没有 AF 状态，只看 AE
+        feed(predictor, 5, CaptureStateMachine.UNKNOWN, CaptureResult.CONTROL_AE_STATE_CONVERGED, 0);
+        assertTrue(predictor.canSkip(4 * 33 * MS));
+    }
+
+    @Test
+    public void reset_dropsHistory() {
+        FastShutterPredictor predictor = new FastShutterPredictor();
+        feed(predictor, 5, CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED, CaptureResult.CONTROL_AE_STATE_CONVERGED, 0);
+        predictor.reset();
+        assertFalse(predictor.canSkip(4 * 33 * MS));
+    }
+
+    @Test
+    public void metrics_countPathsAndSavedLatency() {
+        FastShutterPredictor predictor = new FastShutterPredictor();
+        predictor.onShutter(false, 0);
+        predictor.onCaptureStill(300 * MS);
+        predictor.onShutter(true, 1000 * MS);
+        predictor.onCaptureStill(1002 * MS);
+        predictor.onShutter(true, 2000 * MS);
+        predictor.onCaptureStill(2002 * MS);
+        // 没有对应快门的提交不计数
+        predictor.onCaptureStill(3000 * MS);
+
+        assertEquals(2, predictor.getFastCount());
+        assertEquals(1, predictor.getSlowCount());
+        assertEquals(2.0 / 3, predictor.getFastRatio(), 1e-9);
+        assertEquals(2, predictor.getFastLatency().getCount());
+        assertEquals(298 * MS, predictor.getSavedNs(), 300 * MS / 32.0);
+        assertTrue(predictor.toString().contains("fast=2"));
+    }
+
+    @Test
+    public void stateMachine_fastCaptureOnlyFromPreview() {
+        CaptureStateMachine machine = new CaptureStateMachine();
+        assertTrue(machine.startFastCapture());
+        assertEquals(CaptureStateMachine.STATE_PICTURE_TAKEN, machine.getState());
+        assertFalse(machine.startFastCapture());
+        machine.reset();
+        machine.startLock(0);
+        assertFalse(machine.startFastCapture());
+        assertEquals(CaptureStateMachine.STATE_WAITING_LOCK, machine.getState());
+    }
+}
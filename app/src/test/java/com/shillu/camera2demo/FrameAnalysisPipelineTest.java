@@ -0,0 +1,328 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameAnalysisPipeline 的本地单元测试，工作线程池用手动执行的队列代替
+ */
+public class FrameAnalysisPipelineTest {
+
+    private static final long MS = 1_000_000L;
+
+    /**
+     * 提交的任务先排队，runAll() 时才在当前线程执行
+     */
+    private static final class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        boolean rejecting;
+
+        @Override
+        public void execute(Runnable command) {
+            if (rejecting) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+        }
+    }
+
+    private static final class FakeClock implements FrameAnalysisPipeline.Clock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    /**
+     * 记录分析过的帧时间戳，每帧让时钟前进 costNs
+     */
+    private static final class RecordingAnalyzer implements FrameAnalysisPipeline.Analyzer {
+        final String name;
+        final FakeClock clock;
+        long costNs;
+        boolean failing;
+        final List<Long> timestamps = new ArrayList<>();
+
+        RecordingAnalyzer(String name, FakeClock clock) {
+            this.name = name;
+            this.clock = clock;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void analyze(FrameBuffer frame) throws Exception {
+            timestamps.add(frame.getTimestampNs());
+            clock.now += costNs;
+            if (failing) {
+                throw new Exception("analyzer failed");
+            }
+        }
+    }
+
+    private final FrameBufferPool mPool = new FrameBufferPool(1024, 1024 * 1024, false, null);
+
+    /**
+     * 模拟相机线程：问过流水线之后再拷贝、提交
+     */
+    private boolean offer(FrameAnalysisPipeline pipeline, long timestampNs) {
+        if (!pipeline.shouldAccept(timestampNs)) {
+            return false;
+        }
+        FrameBuffer frame = mPool.acquire(64);
+        frame.setFrame(17, 8, 8, timestampNs, 64);
+        pipeline.submit(frame);
+        return true;
+    }
+
+    @Test
+    public void keepLatest_replacesPendingFrameWhileBusy() {
+        ManualExecutor executor = new ManualExecutor();
+        FakeClock clock = new FakeClock();
+        FrameAnalysisPipeline pipeline = new FrameAnalysisPipeline(executor,
+                FrameAnalysisPipeline.Backpressure.KEEP_LATEST, 4, 0, clock);
+        RecordingAnalyzer analyzer = new RecordingAnalyzer("a", clock);
+        pipeline.addAnalyzer(analyzer, 0);
+
+        // 工作线程还没跑，后到的帧替换掉排队的帧
+        for (long ts = 1; ts <= 5; ts++) {
+            assertTrue(offer(pipeline, ts));
+        }
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+
+        assertEquals(1, analyzer.timestamps.size());
+        assertEquals(5L, (long) analyzer.timestamps.get(0));
+        assertEquals(1, pipeline.getProcessed("a"));
+        assertEquals(4, pipeline.getDropped("a"));
+        assertEquals(5, pipeline.getSubmitted());
+        assertEquals(0, mPool.getOutstanding());
+    }
+
+    @Test
+    public void bounded_queuesUpToCapacityThenSkipsBeforeCopy() {
+        ManualExecutor executor = new ManualExecutor();
+        FakeClock clock = new FakeClock();
+        FrameAnalysisPipeline pipeline = new FrameAnalysisPipeline(executor,
+                FrameAnalysisPipeline.Backpressure.BOUNDED, 3, 0, clock);
+        RecordingAnalyzer analyzer = new RecordingAnalyzer("a", clock);
+        pipeline.addAnalyzer(analyzer, 0);
+
+        assertTrue(offer(pipeline, 1));
+        assertTrue(offer(pipeline, 2));
+        assertTrue(offer(pipeline, 3));
+        // 队列满了，拷贝之前就跳过
+        assertFalse(offer(pipeline, 4));
+        assertEquals(3, mPool.getOutstanding());
+        executor.runAll();
+
+        assertEquals(3, analyzer.timestamps.size());
+        assertEquals(1L, (long) analyzer.timestamps.get(0));
+        assertEquals(3L, (long) analyzer.timestamps.get(2));
+        assertEquals(4, pipeline.getOffered());
+        assertEquals(1, pipeline.getSkipped());
+        assertEquals(0, pipeline.getDropped("a"));
+        assertEquals(0, mPool.getOutstanding());
+    }
+
+    @Test
+    public void bounded_slowAnalyzerDropsOldestWithoutStallingOthers() {
+        ManualExecutor executor = new ManualExecutor();
+        FakeClock clock = new FakeClock();
+        FrameAnalysisPipeline pipeline = new FrameAnalysisPipeline(executor,
+                FrameAnalysisPipeline.Backpressure.BOUNDED, 2, 0, clock);
+        RecordingAnalyzer fast = new RecordingAnalyzer("fast", clock);
+        RecordingAnalyzer slow = new RecordingAnalyzer("slow", clock);
+        pipeline.addAnalyzer(fast, 0);
+        pipeline.addAnalyzer(slow, 0);
+
+        // 第一帧时两个任务按加入顺序排列，fast 的立即执行，slow 的压住不执行，模拟一直忙着的工作线程
+        assertTrue(offer(pipeline, 1));
+        executor.tasks.poll().run();
+        Runnable slowTask = executor.tasks.poll();
+        assertTrue(executor.tasks.isEmpty());
+        for (long ts = 2; ts <= 4; ts++) {
+            assertTrue(offer(pipeline, ts));
+            // slow 还在运行，只有 fast 的任务
+            assertEquals(1, executor.tasks.size());
+            executor.runAll();
+        }
+        assertEquals(4, fast.timestamps.size());
+        assertEquals(0, slow.timestamps.size());
+        slowTask.run();
+
+        // slow 只保留了最新的两帧
+        assertEquals(2, slow.timestamps.size());
+        assertEquals(3L, (long) slow.timestamps.get(0));
+        assertEquals(4L, (long) slow.timestamps.get(1));
+        assertEquals(2, pipeline.getDropped("slow"));
+        assertEquals(0, pipeline.getDropped("fast"));
+        assertEquals(0, mPool.getOutstanding());
+    }
+
+    @Test
+    public void minInterval_skipsFramesBeforeCopy() {
+        ManualExecutor executor = new ManualExecutor();
+        FakeClock clock = new FakeClock();
+        FrameAnalysisPipeline pipeline = new FrameAnalysisPipeline(executor,
+                FrameAnalysisPipeline.Backpressure.KEEP_LATEST, 1, 66 * MS, clock);
+        RecordingAnalyzer analyzer = new RecordingAnalyzer("a", clock);
+        pipeline.addAnalyzer(analyzer, 0);
+
+        // 30fps 的预览，大约每两帧分析一帧
+        int accepted = 0;
+        for (int i = 0; i < 30; i++) {
+            if (offer(pipeline, i * 33_333_333L)) {
+                accepted++;
+            }
+            executor.runAll();
+        }
+        assertEquals(15, accepted);
+        assertEquals(15, pipeline.getSkipped());
+        assertEquals(15, pipeline.getProcessed("a"));
+        assertEquals(0, mPool.getAcquires() - accepted);
+    }
+
+    @Test
+    public void budget_overrunIncreasesStrideAndRecovers() {
+        ManualExecutor executor = new ManualExecutor();
+        FakeClock clock = new FakeClock();
+        FrameAnalysisPipeline pipeline = new FrameAnalysisPipeline(executor,
+                FrameAnalysisPipeline.Backpressure.KEEP_LATEST, 1, 0, clock);
+        RecordingAnalyzer slow = new RecordingAnalyzer("slow", clock);
+        RecordingAnalyzer cheap = new RecordingAnalyzer("cheap", clock);
+        pipeline.addAnalyzer(slow, 8 * MS);
+        pipeline.addAnalyzer(cheap, 8 * MS);
+
+        slow.costNs = 20 * MS;
+        long ts = 0;
+        for (int i = 0; i < 64; i++) {
+            offer(pipeline, ts++);
+            executor.runAll();
+        }
+        assertEquals(FrameAnalysisPipeline.MAX_STRIDE, pipeline.getStride("slow"));
+        assertTrue(pipeline.getThrottled("slow") > 0);
+        assertEquals(pipeline.getProcessed("slow"), pipeline.getOverruns("slow"));
+        // 超预算的分析器不影响其它分析器
+        assertEquals(1, pipeline.getStride("cheap"));
+        assertEquals(64, pipeline.getProcessed("cheap"));
+
+        // 变快之后每 RECOVER_FRAMES 帧在预算内步长减半
+        slow.costNs = MS;
+        for (int i = 0; i < 2000 && pipeline.getStride("slow") > 1; i++) {
+            offer(pipeline, ts++);
+            executor.runAll();
+        }
+        assertEquals(1, pipeline.getStride("slow"));
+        assertEquals(0, mPool.getOutstanding());
+    }
+
+    @Test
+    public void allThrottled_skipsBeforeCopy() {
+        ManualExecutor executor = new ManualExecutor();
+        FakeClock clock = new FakeClock();
+        FrameAnalysisPipeline pipeline = new FrameAnalysisPipeline(executor,
+                FrameAnalysisPipeline.Backpressure.KEEP_LATEST, 1, 0, clock);
+        RecordingAnalyzer slow = new RecordingAnalyzer("slow", clock);
+        slow.costNs = 20 * MS;
+        pipeline.addAnalyzer(slow, 8 * MS);
+
+        assertTrue(offer(pipeline, 0));
+        executor.runAll();
+        assertEquals(2, pipeline.getStride("slow"));
+        // 唯一的分析器跳过这一帧，不需要拷贝
+        assertFalse(offer(pipeline, 1));
+        assertEquals(1, mPool.getAcquires());
+        assertEquals(1, pipeline.getThrottled("slow"));
+    }
+
+    @Test
+    public void failures_areCountedAndFramesReleased() {
+        ManualExecutor executor = new ManualExecutor();
+        FakeClock clock = new FakeClock();
+        FrameAnalysisPipeline pipeline = new FrameAnalysisPipeline(executor,
+                FrameAnalysisPipeline.Backpressure.KEEP_LATEST, 1, 0, clock);
+        RecordingAnalyzer analyzer = new RecordingAnalyzer("a", clock);
+        analyzer.failing = true;
+        pipeline.addAnalyzer(analyzer, 0);
+
+        for (long ts = 0; ts < 3; ts++) {
+            offer(pipeline, ts);
+            executor.runAll();
+        }
+        assertEquals(3, pipeline.getFailures("a"));
+        assertEquals(3, pipeline.getProcessed("a"));
+        assertEquals(0, mPool.getOutstanding());
+    }
+
+    @Test
+    public void rejectedAndShutdown_releaseFrames() {
+        ManualExecutor executor = new ManualExecutor();
+        FakeClock clock = new FakeClock();
+        FrameAnalysisPipeline pipeline = new FrameAnalysisPipeline(executor,
+                FrameAnalysisPipeline.Backpressure.BOUNDED, 4, 0, clock);
+        RecordingAnalyzer analyzer = new RecordingAnalyzer("a", clock);
+        pipeline.addAnalyzer(analyzer, 0);
+
+        executor.rejecting = true;
+        assertTrue(offer(pipeline, 0));
+        assertEquals(1, pipeline.getDropped("a"));
+        assertEquals(0, mPool.getOutstanding());
+
+        executor.rejecting = false;
+        assertTrue(offer(pipeline, 1));
+        assertTrue(offer(pipeline, 2));
+        assertEquals(2, mPool.getOutstanding());
+        pipeline.shutdown();
+        assertEquals(0, mPool.getOutstanding());
+        assertFalse(offer(pipeline, 3));
+        // 已经提交的任务醒来后直接退出
+        executor.runAll();
+        assertTrue(analyzer.timestamps.isEmpty());
+    }
+
+    @Test
+    public void luma_meanOfSampledYPlane() throws Exception {
+        int width = 16;
+        int height = 8;
+        FrameBuffer frame = mPool.acquire(YuvPacker.nv21Size(width, height));
+        byte[] data = frame.array();
+        for (int i = 0; i < width * height; i++) {
+            data[i] = (byte) ((i / width) < height / 2 ? 200 : 100);
+        }
+        // 色度平面不参与计算
+        for (int i = width * height; i < YuvPacker.nv21Size(width, height); i++) {
+            data[i] = (byte) 255;
+        }
+        frame.setFrame(17, width, height, 99L, YuvPacker.nv21Size(width, height));
+
+        LumaAnalyzer analyzer = new LumaAnalyzer(1);
+        assertEquals(-1, analyzer.getMeanLuma());
+        analyzer.analyze(frame);
+        assertEquals(150, analyzer.getMeanLuma());
+        assertEquals(99L, analyzer.getTimestampNs());
+
+        LumaAnalyzer sampled = new LumaAnalyzer(4);
+        sampled.analyze(frame);
+        assertEquals(150, sampled.getMeanLuma());
+        frame.release();
+    }
+}
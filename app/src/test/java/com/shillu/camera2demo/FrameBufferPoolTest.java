@@ -0,0 +1,170 @@
+package com.shillu.camera2demo;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameBufferPool 和 FrameBuffer 的本地单元测试
+ */
+public class FrameBufferPoolTest {
+
+    private static final int KB = 1024;
+    private static final int MB = 1024 * 1024;
+
+    @Test
+    public void buckets_roundUpByQuarterOctaves() {
+        assertEquals(64 * KB, FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(1, 64 * KB), 64 * KB));
+        assertEquals(64 * KB, FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(64 * KB, 64 * KB), 64 * KB));
+        assertEquals(80 * KB, FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(64 * KB + 1, 64 * KB), 64 * KB));
+        assertEquals(128 * KB, FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(128 * KB, 64 * KB), 64 * KB));
+        // 4000x3000 NV21 = 18000000 字节，落在 20MB 的桶里
+        int nv21 = YuvPacker.nv21Size(4000, 3000);
+        int capacity = FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(nv21, 64 * KB), 64 * KB);
+        assertEquals(20 * MB, capacity);
+        // 桶编号随大小单调，容量不小于要求且浪费不超过 25%
+        int previous = 0;
+        for (int size = 1; size < 64 * MB; size = size * 3 / 2 + 1) {
+            int index = FrameBufferPool.bucketIndex(size, 4 * KB);
+            int bucket = FrameBufferPool.bucketCapacity(index, 4 * KB);
+            assertTrue(index >= previous);
+            assertTrue(bucket >= size);
+            assertTrue(size <= 4 * KB || bucket <= size * 1.25 + 1);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void fanOut_sharesOneBufferUntilLastRelease() {
+        FrameBufferPool pool = new FrameBufferPool(64 * KB, 8 * MB, false, null);
+        FrameBuffer frame = pool.acquire(100 * KB);
+        byte[] array = frame.array();
+        frame.buffer().put(0, (byte) 42);
+        frame.setFrame(17, 320, 240, 1234L, 100 * KB);
+
+        // 保存、分析、编码三个消费者
+        frame.retain().retain();
+        assertEquals(3, frame.getRefCount());
+        ByteBuffer a = frame.data();
+        ByteBuffer b = frame.data();
+        a.position(10);
+        assertEquals(0, b.position());
+        assertEquals(42, b.get(0));
+        assertEquals(100 * KB, b.remaining());
+
+        frame.release();
+        frame.release();
+        assertEquals(1, pool.getOutstanding());
+        assertEquals(0, pool.getRetainedBytes());
+        frame.release();
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(112 * KB, pool.getRetainedBytes());
+
+        try {
+            frame.data();
+            fail("released frame must not be readable");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            frame.release();
+            fail("double release must throw");
+        } catch (IllegalStateException expected) {
+        }
+
+        // 同一个桶的下一次借出复用
+        FrameBuffer again = pool.acquire(110 * KB);
+        assertSame(array, again.array());
+        assertEquals(1, pool.getHits());
+        again.release();
+    }
+
+    @Test
+    public void retainedLimit_dropsOverflow() {
+        FrameBufferPool pool = new FrameBufferPool(MB, 2 * MB, true, null);
+        FrameBuffer first = pool.acquire(MB);
+        FrameBuffer second = pool.acquire(MB);
+        FrameBuffer third = pool.acquire(MB);
+        assertTrue(first.buffer().isDirect());
+        first.release();
+        second.release();
+        third.release();
+        assertEquals(2 * MB, pool.getRetainedBytes());
+        assertEquals(1, pool.getDropped());
+    }
+
+    @Test
+    public void trimMemory_releasesIdleBuffers() {
+        FrameBufferPool pool = new FrameBufferPool(MB, 16 * MB, false, null);
+        List<FrameBuffer> frames = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            frames.add(pool.acquire(2 * MB));
+        }
+        FrameBuffer busy = pool.acquire(MB);
+        for (FrameBuffer frame : frames) {
+            frame.release();
+        }
+        assertEquals(8 * MB, pool.getRetainedBytes());
+
+        pool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(8 * MB, pool.getRetainedBytes());
+        pool.trim();
+        assertEquals(0, pool.getRetainedBytes());
+
+        FrameBuffer idle = pool.acquire(2 * MB);
+        idle.release();
+        pool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(0, pool.getRetainedBytes());
+        // 界面不可见期间归还的直接丢弃，借出中的不受影响
+        busy.release();
+        assertEquals(0, pool.getRetainedBytes());
+        pool.restore();
+        pool.acquire(MB).release();
+        assertEquals(MB, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void runningLow_halvesIdleBuffers() {
+        FrameBufferPool pool = new FrameBufferPool(MB, 8 * MB, false, null);
+        List<FrameBuffer> frames = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            frames.add(pool.acquire(MB));
+        }
+        for (FrameBuffer frame : frames) {
+            frame.release();
+        }
+        pool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(4 * MB, pool.getRetainedBytes());
+        assertEquals(4 * MB, pool.getTrimmedBytes());
+    }
+
+    @Test
+    public void leakDetection_reportsUnreleasedFrames() throws Exception {
+        final List<Throwable> leaks = new ArrayList<>();
+        FrameBufferPool pool = new FrameBufferPool(KB, MB, false, new FrameBufferPool.LeakListener() {
+            @Override
+            public void onLeak(int capacity, Throwable allocationSite) {
+                leaks.add(allocationSite);
+            }
+        });
+        FrameBuffer kept = pool.acquire(KB);
+        pool.acquire(KB);
+        assertEquals(2, pool.getOutstandingSites().size());
+
+        for (int i = 0; i < 20 && leaks.isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(10);
+            pool.drainLeaks();
+        }
+        assertEquals(1, leaks.size());
+        assertEquals(1, pool.getLeaks());
+        assertEquals(1, pool.getOutstanding());
+        kept.release();
+        assertTrue(pool.getOutstandingSites().isEmpty());
+    }
+}
@@ -0,0 +1,78 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * FramePacingMonitor 的本地单元测试
+ */
+public class FramePacingMonitorTest {
+
+    private static final long FRAME_NS = 33_333_333L;
+
+    private static void steady(FramePacingMonitor monitor, long firstFrame, long firstTimestamp, int frames) {
+        for (int i = 0; i < frames; i++) {
+            monitor.onFrameStarted(firstFrame + i);
+            monitor.onFrameCompleted(firstFrame + i, firstTimestamp + i * FRAME_NS, FRAME_NS);
+        }
+    }
+
+    @Test
+    public void steadyStream_hasNoJitterOrDrops() {
+        FramePacingMonitor monitor = new FramePacingMonitor();
+        steady(monitor, 0, 1_000_000_000L, 61);
+        assertEquals(30.0, monitor.getFps(), 0.01);
+        assertEquals(0, monitor.getJitterNs());
+        assertEquals(0, monitor.getDropped());
+        assertEquals(0, monitor.getStutters());
+        assertEquals(61, monitor.getFrames());
+        assertEquals(1.0, monitor.getAverageDepth(), 0.001);
+    }
+
+    @Test
+    public void frameNumberGap_countsDroppedAndStutter() {
+        FramePacingMonitor monitor = new FramePacingMonitor();
+        steady(monitor, 0, 0, 10);
+        // 帧 10、11 丢失，帧 12 的时间戳晚了三个帧时长
+        monitor.onFrameCompleted(12, 12 * FRAME_NS, FRAME_NS);
+        assertEquals(2, monitor.getDropped());
+        assertEquals(1, monitor.getStutters());
+        assertEquals(3 * FRAME_NS, monitor.getMaxIntervalNs());
+        assertEquals(2 * FRAME_NS, monitor.getMaxLatenessNs());
+        assertTrue(monitor.getJitterNs() > 0);
+    }
+
+    @Test
+    public void failedFrames_releasePipelineSlot() {
+        FramePacingMonitor monitor = new FramePacingMonitor();
+        monitor.onFrameStarted(0);
+        monitor.onFrameStarted(1);
+        monitor.onFrameStarted(2);
+        monitor.onFrameFailed(0);
+        monitor.onFrameCompleted(1, 100, FRAME_NS);
+        assertEquals(2, monitor.getMaxDepth());
+        assertEquals(1, monitor.getFailed());
+    }
+
+    @Test
+    public void window_keepsOnlyRecentIntervals() {
+        FramePacingMonitor monitor = new FramePacingMonitor();
+        // 先是 15fps，然后一整个窗口的 30fps
+        for (int i = 0; i < 20; i++) {
+            monitor.onFrameCompleted(i, i * 2 * FRAME_NS, 2 * FRAME_NS);
+        }
+        steady(monitor, 20, 40 * FRAME_NS, FramePacingMonitor.WINDOW + 1);
+        assertEquals(30.0, monitor.getFps(), 0.01);
+    }
+
+    @Test
+    public void newSession_doesNotCountGapAcrossSessions() {
+        FramePacingMonitor monitor = new FramePacingMonitor();
+        steady(monitor, 0, 0, 5);
+        monitor.onSessionStarted();
+        steady(monitor, 100, 10_000 * FRAME_NS, 5);
+        assertEquals(0, monitor.getDropped());
+        assertEquals(FRAME_NS, monitor.getMaxIntervalNs());
+    }
+}
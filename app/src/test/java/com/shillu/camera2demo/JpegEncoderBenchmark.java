@@ -0,0 +1,160 @@
+package com.shillu.camera2demo;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * {@link JpegEncoder} 和 JDK 自带的 ImageIO JPEG 编码器（libjpeg 的 Java 移植，作为参考实现）的吞吐量对比。
+ * <p>
+ * JpegEncoder 直接读 NV12 平面；ImageIO 只接受 RGB 的 BufferedImage，转换在 setUp 中完成，不计入时间，
+ * 所以对 ImageIO 是偏宽松的比较。输出写进丢弃数据的通道 / 复用的内存流，不测磁盘。
+ * 运行 main() 即可，megapixels 一列是每秒编码的百万像素数，threads = 1 是顺序编码。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JpegEncoderBenchmark {
+
+    @Param({"1920x1080", "4000x3000"})
+    public String mSize;
+
+    @Param({"1", "4"})
+    public int mThreads;
+
+    private static final int QUALITY = 95;
+
+    private ForkJoinPool mPool;
+    private JpegEncoder mEncoder;
+    private YuvConverter.Planes mPlanes;
+    private BufferedImage mImage;
+    private ImageWriter mImageWriter;
+    private ImageWriteParam mWriteParam;
+    private final ByteArrayOutputStream mReferenceOutput = new ByteArrayOutputStream();
+
+    /**
+     * 丢弃写入的数据，只统计字节数
+     */
+    private static final class NullChannel implements WritableByteChannel {
+        long bytes;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = src.remaining();
+            src.position(src.limit());
+            bytes += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final NullChannel mChannel = new NullChannel();
+
+    /**
+     * 以百万像素为单位统计吞吐量
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class PixelCounter {
+        public double megapixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megapixels = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] parts = mSize.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        byte[] frame = JpegEncoderTest.syntheticNv12(width, height, 7);
+        mPlanes = YuvConverter.Planes.packed(ByteBuffer.wrap(frame), YuvConverter.Layout.NV12, width, height);
+        mPool = mThreads > 1 ? new ForkJoinPool(mThreads) : null;
+        mEncoder = new JpegEncoder(mPool, QUALITY, JpegEncoder.DEFAULT_MCU_ROWS_PER_STRIP);
+
+        int[] argb = new int[width * height];
+        new YuvConverter(null, YuvConverter.DEFAULT_MIN_ROWS).toArgb(mPlanes, argb, 0, width);
+        mImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        mImage.setRGB(0, 0, width, height, argb, 0, width);
+        mImageWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+        mWriteParam = mImageWriter.getDefaultWriteParam();
+        mWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        mWriteParam.setCompressionQuality(QUALITY / 100f);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mImageWriter.dispose();
+        if (null != mPool) {
+            mPool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public long jpegEncoder(PixelCounter counter) throws IOException {
+        long written = mEncoder.encode(mPlanes, mChannel);
+        counter.megapixels += mPlanes.width * mPlanes.height / 1e6;
+        return written;
+    }
+
+    /**
+     * ImageIO 不能并行，threads 参数对它无效
+     */
+    @Benchmark
+    public int imageIoReference(PixelCounter counter) throws IOException {
+        mReferenceOutput.reset();
+        MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(mReferenceOutput);
+        mImageWriter.setOutput(output);
+        mImageWriter.write(null, new IIOImage(mImage, null, null), mWriteParam);
+        output.close();
+        counter.megapixels += mPlanes.width * mPlanes.height / 1e6;
+        return mReferenceOutput.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JpegEncoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,280 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * JpegEncoder 的本地单元测试：用 JDK 的 ImageIO 解码输出，和 YuvConverter 的转换结果比较
+ */
+public class JpegEncoderTest {
+
+    /**
+     * 平滑的渐变加一点噪声，接近相机画面
+     */
+    static byte[] syntheticNv12(int width, int height, long seed) {
+        Random random = new Random(seed);
+        byte[] frame = new byte[YuvPacker.nv21Size(width, height)];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int value = 40 + (col * 160) / Math.max(1, width) + (row * 40) / Math.max(1, height) + random.nextInt(5);
+                frame[row * width + col] = (byte) value;
+            }
+        }
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        for (int row = 0; row < chromaHeight; row++) {
+            for (int col = 0; col < chromaWidth; col++) {
+                int index = width * height + 2 * (row * chromaWidth + col);
+                frame[index] = (byte) (100 + (row * 60) / chromaHeight);
+                frame[index + 1] = (byte) (150 - (col * 50) / chromaWidth);
+            }
+        }
+        return frame;
+    }
+
+    private static YuvConverter.Planes planes(byte[] frame, int width, int height) {
+        return YuvConverter.Planes.packed(ByteBuffer.wrap(frame), YuvConverter.Layout.NV12, width, height);
+    }
+
+    private static byte[] encode(JpegEncoder encoder, YuvConverter.Planes planes) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(output);
+        long written = encoder.encode(planes, channel);
+        assertEquals(output.size(), written);
+        return output.toByteArray();
+    }
+
+    private static double psnr(byte[] jpeg, YuvConverter.Planes planes) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(image);
+        assertEquals(planes.width, image.getWidth());
+        assertEquals(planes.height, image.getHeight());
+        int[] expected = new int[planes.width * planes.height];
+        new YuvConverter(null, 2).toArgb(planes, expected, 0, planes.width);
+        double squared = 0;
+        for (int row = 0; row < planes.height; row++) {
+            for (int col = 0; col < planes.width; col++) {
+                int a = expected[row * planes.width + col];
+                int b = image.getRGB(col, row);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int diff = ((a >> shift) & 0xff) - ((b >> shift) & 0xff);
+                    squared += diff * diff;
+                }
+            }
+        }
+        double mse = squared / (3.0 * planes.width * planes.height);
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+    }
+
+    private static int countRestartMarkers(byte[] jpeg) {
+        int count = 0;
+        for (int i = 0; i + 1 < jpeg.length; i++) {
+            if ((jpeg[i] & 0xff) == 0xff && (jpeg[i + 1] & 0xff) >= 0xd0 && (jpeg[i + 1] & 0xff) <= 0xd7) {
+                assertEquals(0xd0 + (count & 7), jpeg[i + 1] & 0xff);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void quantTables_scaleLikeIjg() {
+        assertArrayEquals(JpegTables.LUMA_QUANT, JpegTables.scaleQuant(JpegTables.LUMA_QUANT, 50));
+        for (int value : JpegTables.scaleQuant(JpegTables.CHROMA_QUANT, 100)) {
+            assertEquals(1, value);
+        }
+        assertEquals(255, JpegTables.scaleQuant(JpegTables.CHROMA_QUANT, 1)[63]);
+        assertEquals(8, JpegTables.scaleQuant(JpegTables.LUMA_QUANT, 75)[0]);
+    }
+
+    @Test
+    public void huffmanTables_matchAnnexK() {
+        int total = 0;
+        for (int count : JpegTables.AC_LUMA_BITS) {
+            total += count;
+        }
+        assertEquals(JpegTables.AC_LUMA_VALUES.length, total);
+        total = 0;
+        for (int count : JpegTables.AC_CHROMA_BITS) {
+            total += count;
+        }
+        assertEquals(JpegTables.AC_CHROMA_VALUES.length, total);
+        // EOB 是 1010，ZRL 是 11111111001
+        assertEquals(4, JpegTables.AC_LUMA.sizes[0x00]);
+        assertEquals(0xa, JpegTables.AC_LUMA.codes[0x00]);
+        assertEquals(11, JpegTables.AC_LUMA.sizes[0xf0]);
+        assertEquals(0x7f9, JpegTables.AC_LUMA.codes[0xf0]);
+    }
+
+    @Test
+    public void bitWriter_stuffsAndPadsWithOnes() {
+        JpegBitWriter writer = new JpegBitWriter(4);
+        writer.writeBits(0xff, 8);
+        writer.writeBits(0x1, 3);
+        writer.flushBits();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            writer.writeTo(Channels.newChannel(output));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        assertArrayEquals(new byte[]{(byte) 0xff, 0, (byte) 0x3f}, output.toByteArray());
+        assertEquals(0, JpegBitWriter.category(0));
+        assertEquals(1, JpegBitWriter.category(-1));
+        assertEquals(11, JpegBitWriter.category(2047));
+    }
+
+    @Test
+    public void decodesCloseToSource() throws IOException {
+        for (int[] size : new int[][]{{16, 16}, {37, 21}, {320, 240}}) {
+            int width = size[0];
+            int height = size[1];
+            YuvConverter.Planes planes = planes(syntheticNv12(width, height, width), width, height);
+            byte[] jpeg = encode(new JpegEncoder(null, 95, JpegEncoder.DEFAULT_MCU_ROWS_PER_STRIP), planes);
+            assertEquals(0xff, jpeg[0] & 0xff);
+            assertEquals(0xd8, jpeg[1] & 0xff);
+            assertEquals(0xd9, jpeg[jpeg.length - 1] & 0xff);
+            double psnr = psnr(jpeg, planes);
+            assertTrue(width + "x" + height + " psnr " + psnr, psnr > 35);
+        }
+    }
+
+    @Test
+    public void lowerQuality_smallerFile() throws IOException {
+        YuvConverter.Planes planes = planes(syntheticNv12(320, 240, 1), 320, 240);
+        byte[] high = encode(new JpegEncoder(null, 95, 4), planes);
+        byte[] low = encode(new JpegEncoder(null, 30, 4), planes);
+        assertTrue(low.length < high.length);
+        assertTrue(psnr(low, planes) > 28);
+    }
+
+    @Test
+    public void exifSegment_followsApp0() throws IOException {
+        YuvConverter.Planes planes = planes(syntheticNv12(64, 48, 6), 64, 48);
+        JpegEncoder encoder = new JpegEncoder(null, 90, 4);
+        byte[] plain = encode(encoder, planes);
+        ByteBuffer segment = ExifWriter.build(new CaptureMetadata(1, 0, -1, -1, -1, -1, false, 90, null, null), 6);
+        int length = segment.remaining();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long written = encoder.encode(planes, segment, Channels.newChannel(output));
+        byte[] tagged = output.toByteArray();
+        assertEquals(plain.length + length, written);
+        assertEquals(length, segment.remaining());
+
+        ExifWriter.Splice splice = ExifWriter.locate(ByteBuffer.wrap(tagged));
+        assertEquals(6, splice.existingOrientation);
+        // SOI 和 APP0 之后就是 APP1，其余字节和不带段时相同
+        assertEquals(20, splice.insertAt);
+        assertEquals(20 + length, splice.resumeAt);
+        for (int i = 0; i < plain.length; i++) {
+            assertEquals(plain[i], tagged[i < 20 ? i : i + length]);
+        }
+        assertTrue(psnr(tagged, planes) > 35);
+    }
+
+    @Test
+    public void parallelStrips_identicalToSequential() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int width = 333;
+            int height = 250;
+            YuvConverter.Planes planes = planes(syntheticNv12(width, height, 3), width, height);
+            for (int rowsPerStrip : new int[]{1, 2, 5, 100}) {
+                byte[] sequential = encode(new JpegEncoder(null, 90, rowsPerStrip), planes);
+                byte[] parallel = encode(new JpegEncoder(pool, 90, rowsPerStrip), planes);
+                assertArrayEquals("rowsPerStrip " + rowsPerStrip, sequential, parallel);
+                // 16 行 MCU，每段 rowsPerStrip 行
+                int strips = (16 + rowsPerStrip - 1) / rowsPerStrip;
+                assertEquals(strips - 1, countRestartMarkers(sequential));
+                assertTrue(psnr(parallel, planes) > 35);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void shutdownPool_fallsBackToCallingThread() throws IOException {
+        YuvConverter.Planes planes = planes(syntheticNv12(96, 96, 4), 96, 96);
+        byte[] expected = encode(new JpegEncoder(null, 90, 1), planes);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        pool.shutdown();
+        assertArrayEquals(expected, encode(new JpegEncoder(pool, 90, 1), planes));
+    }
+
+    @Test
+    public void streamsHeaderStripsAndTrailerSeparately() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            final List<Integer> writes = new ArrayList<>();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            WritableByteChannel channel = new WritableByteChannel() {
+                @Override
+                public int write(ByteBuffer src) {
+                    int count = src.remaining();
+                    writes.add(count);
+                    while (src.hasRemaining()) {
+                        output.write(src.get());
+                    }
+                    return count;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            YuvConverter.Planes planes = planes(syntheticNv12(160, 160, 5), 160, 160);
+            long written = new JpegEncoder(pool, 90, 2).encode(planes, channel);
+            // 文件头、5 段、EOI
+            assertEquals(7, writes.size());
+            assertEquals(2, (int) writes.get(6));
+            assertEquals(written, output.size());
+            // 每次写入都远小于整个文件
+            for (int i = 1; i < 6; i++) {
+                assertTrue(writes.get(i) < written / 2);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void byteBufferOutput_matchesChannelAndOverflows() throws IOException {
+        YuvConverter.Planes planes = planes(syntheticNv12(64, 48, 9), 64, 48);
+        JpegEncoder encoder = new JpegEncoder(null, 80, 1);
+        byte[] expected = encode(encoder, planes);
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 10);
+        buffer.position(10);
+        assertEquals(expected.length, encoder.encode(planes, buffer));
+        byte[] actual = new byte[expected.length];
+        buffer.position(10);
+        buffer.get(actual);
+        assertArrayEquals(expected, actual);
+        try {
+            encoder.encode(planes, ByteBuffer.allocate(expected.length - 1));
+            fail();
+        } catch (BufferOverflowException expectedException) {
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.shillu.camera2demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * {@link JpegThumbnailer} 从低频系数生成缩略图，和 ImageIO 完整解码后再缩小的对比。
+ * <p>
+ * 源图是 {@link JpegEncoder} 按 95 质量编码的合成画面（4:2:0）。运行 main() 即可，单位是每秒生成的缩略图数。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JpegThumbnailerBenchmark {
+
+    @Param({"1920x1080", "4000x3000"})
+    public String mSize;
+
+    @Param({"8", "4", "2"})
+    public int mScale;
+
+    private byte[] mJpeg;
+    private int mWidth;
+    private int mHeight;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] parts = mSize.split("x");
+        mWidth = Integer.parseInt(parts[0]);
+        mHeight = Integer.parseInt(parts[1]);
+        byte[] frame = JpegEncoderTest.syntheticNv12(mWidth, mHeight, 7);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new JpegEncoder(null, 95, JpegEncoder.DEFAULT_MCU_ROWS_PER_STRIP).encode(
+                YuvConverter.Planes.packed(ByteBuffer.wrap(frame), YuvConverter.Layout.NV12, mWidth, mHeight),
+                Channels.newChannel(output));
+        mJpeg = output.toByteArray();
+    }
+
+    @Benchmark
+    public int scaledDecode() throws IOException {
+        return JpegThumbnailer.decode(ByteBuffer.wrap(mJpeg), mScale).sizeInBytes();
+    }
+
+    /**
+     * 完整解码后双线性缩小到同样的尺寸
+     */
+    @Benchmark
+    public int imageIoReference() throws IOException {
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(mJpeg));
+        int width = (mWidth + mScale - 1) / mScale;
+        int height = (mHeight + mScale - 1) / mScale;
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(source, 0, 0, width, height, null);
+        graphics.dispose();
+        return target.getRGB(0, 0);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JpegThumbnailerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,172 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * JpegThumbnailer 的本地单元测试：和 ImageIO 完整解码后按块平均缩小的结果比较
+ */
+public class JpegThumbnailerTest {
+
+    static byte[] encoded(int width, int height) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        YuvConverter.Planes planes = YuvConverter.Planes.packed(
+                ByteBuffer.wrap(JpegEncoderTest.syntheticNv12(width, height, 11)), YuvConverter.Layout.NV12, width, height);
+        new JpegEncoder(null, 90, 4).encode(planes, Channels.newChannel(output));
+        return output.toByteArray();
+    }
+
+    /**
+     * 缩略图和 ImageIO 解码结果按 scale x scale 平均后的平均通道差
+     */
+    private static double meanDifference(byte[] jpeg, JpegThumbnailer.Thumbnail thumbnail, int scale) throws IOException {
+        BufferedImage full = ImageIO.read(new ByteArrayInputStream(jpeg));
+        int[] argb = thumbnail.toArgb();
+        double total = 0;
+        for (int y = 0; y < thumbnail.height; y++) {
+            for (int x = 0; x < thumbnail.width; x++) {
+                int[] sum = new int[3];
+                int count = 0;
+                for (int dy = 0; dy < scale && y * scale + dy < full.getHeight(); dy++) {
+                    for (int dx = 0; dx < scale && x * scale + dx < full.getWidth(); dx++) {
+                        int rgb = full.getRGB(x * scale + dx, y * scale + dy);
+                        for (int c = 0; c < 3; c++) {
+                            sum[c] += (rgb >> (16 - 8 * c)) & 0xff;
+                        }
+                        count++;
+                    }
+                }
+                int actual = argb[y * thumbnail.width + x];
+                for (int c = 0; c < 3; c++) {
+                    total += Math.abs(sum[c] / (double) count - ((actual >> (16 - 8 * c)) & 0xff));
+                }
+            }
+        }
+        return total / (3.0 * thumbnail.width * thumbnail.height);
+    }
+
+    @Test
+    public void scaleFor_picksSmallestSufficient() {
+        assertEquals(8, JpegThumbnailer.scaleFor(4000, 3000, 256));
+        assertEquals(8, JpegThumbnailer.scaleFor(4000, 3000, 500));
+        assertEquals(4, JpegThumbnailer.scaleFor(4000, 3000, 501));
+        assertEquals(2, JpegThumbnailer.scaleFor(3000, 4000, 1500));
+        assertEquals(1, JpegThumbnailer.scaleFor(640, 480, 400));
+    }
+
+    @Test
+    public void scaledDecode_matchesBoxFilteredFullDecode() throws IOException {
+        byte[] jpeg = encoded(128, 96);
+        for (int scale : new int[]{8, 4, 2, 1}) {
+            JpegThumbnailer.Thumbnail thumbnail = JpegThumbnailer.decode(ByteBuffer.wrap(jpeg), scale);
+            assertEquals(128 / scale, thumbnail.width);
+            assertEquals(96 / scale, thumbnail.height);
+            double difference = meanDifference(jpeg, thumbnail, scale);
+            assertTrue("1/" + scale + " differs by " + difference, difference < 3);
+        }
+    }
+
+    @Test
+    public void oddSizes_roundUp() throws IOException {
+        byte[] jpeg = encoded(70, 50);
+        JpegThumbnailer.Thumbnail thumbnail = JpegThumbnailer.decode(ByteBuffer.wrap(jpeg), 4);
+        assertEquals(18, thumbnail.width);
+        assertEquals(13, thumbnail.height);
+        assertEquals(18 * 13 + 2 * 9 * 7, thumbnail.sizeInBytes());
+        assertTrue(meanDifference(jpeg, thumbnail, 4) < 4);
+        assertEquals(35, JpegThumbnailer.decodeForSize(ByteBuffer.wrap(jpeg), 30).width);
+    }
+
+    @Test
+    public void visitor_doesNotKeepCoefficients() throws IOException {
+        final int[] blocks = new int[1];
+        JpegCoefficients image = JpegCoefficients.read(ByteBuffer.wrap(encoded(64, 32)), new JpegCoefficients.BlockVisitor() {
+            @Override
+            public void onHeader(JpegCoefficients image) {
+                assertNull(image.getComponent(0).coefficients);
+            }
+
+            @Override
+            public void onBlock(int component, int blockCol, int blockRow, short[] coefficients, int offset) {
+                blocks[0]++;
+            }
+        });
+        assertEquals(64, image.width);
+        // 4:2:0，每个 MCU 6 块，共 4x2 个 MCU
+        assertEquals(6 * 8, blocks[0]);
+    }
+
+    @Test
+    public void exifOrientation_isApplied() throws IOException {
+        byte[] jpeg = encoded(64, 32);
+        ByteBuffer segment = ExifWriter.build(new CaptureMetadata(1, 0, -1, -1, -1, -1, false, 90, null, null), 6);
+        ByteArrayOutputStream tagged = new ByteArrayOutputStream();
+        tagged.write(jpeg, 0, 20);
+        tagged.write(segment.array(), 0, segment.remaining());
+        tagged.write(jpeg, 20, jpeg.length - 20);
+
+        JpegThumbnailer.Thumbnail upright = JpegThumbnailer.decode(ByteBuffer.wrap(jpeg), 4);
+        JpegThumbnailer.Thumbnail rotated = JpegThumbnailer.decode(ByteBuffer.wrap(tagged.toByteArray()), 4);
+        assertEquals(8, rotated.width);
+        assertEquals(16, rotated.height);
+        int[] source = upright.toArgb();
+        int[] actual = rotated.toArgb();
+        // 顺时针 90°：源图左下角转到左上角，左上角转到右上角
+        assertEquals(source[(upright.height - 1) * upright.width], actual[0]);
+        assertEquals(source[0], actual[rotated.width - 1]);
+    }
+
+    @Test
+    public void rotate_roundTrips() throws IOException {
+        JpegThumbnailer.Thumbnail thumbnail = JpegThumbnailer.decode(ByteBuffer.wrap(encoded(80, 48)), 8);
+        JpegThumbnailer.Thumbnail turned = thumbnail;
+        for (int i = 0; i < 4; i++) {
+            turned = JpegThumbnailer.rotate(turned, 90);
+        }
+        assertArrayEquals(thumbnail.nv12, turned.nv12);
+        JpegThumbnailer.Thumbnail half = JpegThumbnailer.rotate(JpegThumbnailer.rotate(thumbnail, 180), 180);
+        assertArrayEquals(thumbnail.nv12, half.nv12);
+        assertArrayEquals(JpegThumbnailer.rotate(thumbnail, 270).nv12,
+                JpegThumbnailer.rotate(JpegThumbnailer.rotate(thumbnail, 180), 90).nv12);
+    }
+
+    @Test
+    public void grayscale_hasNeutralChroma() throws IOException {
+        BufferedImage gray = new BufferedImage(40, 24, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 24; y++) {
+            for (int x = 0; x < 40; x++) {
+                gray.getRaster().setSample(x, y, 0, x * 6);
+            }
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(gray, "jpeg", output);
+        JpegThumbnailer.Thumbnail thumbnail = JpegThumbnailer.decode(ByteBuffer.wrap(output.toByteArray()), 2);
+        assertEquals(20, thumbnail.width);
+        for (int i = 20 * 12; i < thumbnail.nv12.length; i++) {
+            assertEquals(128, thumbnail.nv12[i] & 0xff);
+        }
+        // TYPE_BYTE_GRAY 的 getRGB() 会做线性到 sRGB 的转换，这里直接比较栅格里的样本
+        BufferedImage full = ImageIO.read(new ByteArrayInputStream(output.toByteArray()));
+        double total = 0;
+        for (int y = 0; y < 12; y++) {
+            for (int x = 0; x < 20; x++) {
+                int sum = 0;
+                for (int d = 0; d < 4; d++) {
+                    sum += full.getRaster().getSample(2 * x + (d & 1), 2 * y + (d >> 1), 0);
+                }
+                total += Math.abs(sum / 4.0 - (thumbnail.nv12[y * 20 + x] & 0xff));
+            }
+        }
+        assertTrue("gray differs by " + total / 240, total / 240 < 2);
+    }
+}
@@ -0,0 +1,187 @@
+package com.shillu.camera2demo;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * {@link JpegTransformer} 的 DCT 域旋转和 ImageIO 完整的解码、旋转像素、重新编码的对比。
+ * <p>
+ * 源图是 {@link JpegEncoder} 按 95 质量编码的合成画面（4:2:0，和相机输出的格式相同）。
+ * 运行 main() 即可，megapixels 一列是每秒处理的百万像素数，threads 只对 JpegTransformer 的编码阶段有效。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JpegTransformerBenchmark {
+
+    @Param({"1920x1080", "4000x3000"})
+    public String mSize;
+
+    @Param({"1", "4"})
+    public int mThreads;
+
+    private static final int QUALITY = 95;
+
+    private ForkJoinPool mPool;
+    private JpegTransformer mTransformer;
+    private byte[] mJpeg;
+    private int mWidth;
+    private int mHeight;
+    private ImageWriter mImageWriter;
+    private ImageWriteParam mWriteParam;
+    private final ByteArrayOutputStream mReferenceOutput = new ByteArrayOutputStream();
+
+    /**
+     * 丢弃写入的数据，只统计字节数
+     */
+    private static final class NullChannel implements WritableByteChannel {
+        long bytes;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = src.remaining();
+            src.position(src.limit());
+            bytes += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final NullChannel mChannel = new NullChannel();
+
+    /**
+     * 以百万像素为单位统计吞吐量
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class PixelCounter {
+        public double megapixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megapixels = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] parts = mSize.split("x");
+        mWidth = Integer.parseInt(parts[0]);
+        mHeight = Integer.parseInt(parts[1]);
+        byte[] frame = JpegEncoderTest.syntheticNv12(mWidth, mHeight, 7);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new JpegEncoder(null, QUALITY, JpegEncoder.DEFAULT_MCU_ROWS_PER_STRIP).encode(
+                YuvConverter.Planes.packed(ByteBuffer.wrap(frame), YuvConverter.Layout.NV12, mWidth, mHeight),
+                Channels.newChannel(output));
+        mJpeg = output.toByteArray();
+        mPool = mThreads > 1 ? new ForkJoinPool(mThreads) : null;
+        mTransformer = new JpegTransformer(mPool, JpegEncoder.DEFAULT_MCU_ROWS_PER_STRIP);
+
+        mImageWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+        mWriteParam = mImageWriter.getDefaultWriteParam();
+        mWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        mWriteParam.setCompressionQuality(QUALITY / 100f);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mImageWriter.dispose();
+        if (null != mPool) {
+            mPool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public long rotate90(PixelCounter counter) throws IOException {
+        long written = mTransformer.rotate(ByteBuffer.wrap(mJpeg), 90, mChannel);
+        counter.megapixels += mWidth * mHeight / 1e6;
+        return written;
+    }
+
+    /**
+     * 只裁出中间四分之一，系数只解码一次，编码量小得多
+     */
+    @Benchmark
+    public long cropQuarter(PixelCounter counter) throws IOException {
+        int x = mWidth / 4 / 16 * 16;
+        int y = mHeight / 4 / 16 * 16;
+        long written = mTransformer.transform(ByteBuffer.wrap(mJpeg), x, y, mWidth / 2, mHeight / 2, 0, mChannel);
+        counter.megapixels += mWidth * mHeight / 1e6;
+        return written;
+    }
+
+    /**
+     * 解码、逐像素旋转、重新编码；ImageIO 不能并行，threads 参数对它无效
+     */
+    @Benchmark
+    public int imageIoReference(PixelCounter counter) throws IOException {
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(mJpeg));
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] pixels = source.getRGB(0, 0, width, height, null, 0, width);
+        int[] rotated = new int[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rotated[x * height + (height - 1 - y)] = pixels[y * width + x];
+            }
+        }
+        BufferedImage target = new BufferedImage(height, width, BufferedImage.TYPE_3BYTE_BGR);
+        target.setRGB(0, 0, height, width, rotated, 0, height);
+
+        mReferenceOutput.reset();
+        MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(mReferenceOutput);
+        mImageWriter.setOutput(output);
+        mImageWriter.write(null, new IIOImage(target, null, null), mWriteParam);
+        output.close();
+        counter.megapixels += width * height / 1e6;
+        return mReferenceOutput.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JpegTransformerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,270 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * JpegCoefficients 和 JpegTransformer 的本地单元测试：用 JDK 的 ImageIO 解码，和源图旋转、裁剪后的像素比较
+ */
+public class JpegTransformerTest {
+
+    private static byte[] encoded(int width, int height, int rowsPerStrip) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        YuvConverter.Planes planes = YuvConverter.Planes.packed(
+                ByteBuffer.wrap(JpegEncoderTest.syntheticNv12(width, height, width + height)), YuvConverter.Layout.NV12, width, height);
+        new JpegEncoder(null, 90, rowsPerStrip).encode(planes, Channels.newChannel(output));
+        return output.toByteArray();
+    }
+
+    /**
+     * ImageIO 编码的 JPEG：它自己的 Huffman 表，灰度或者 4:2:0
+     */
+    private static byte[] imageIoEncoded(BufferedImage image, boolean progressive) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(bytes);
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (progressive) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        writer.setOutput(output);
+        writer.write(null, new IIOImage(image, null, null), param);
+        output.close();
+        writer.dispose();
+        return bytes.toByteArray();
+    }
+
+    private static BufferedImage gradient(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | ((x + y) * 7 & 0xff));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] transform(JpegTransformer transformer, byte[] jpeg, int x, int y, int width, int height,
+                                    int rotation) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long written = transformer.transform(ByteBuffer.wrap(jpeg), x, y, width, height, rotation, Channels.newChannel(output));
+        assertEquals(output.size(), written);
+        return output.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(image);
+        return image;
+    }
+
+    /**
+     * 源图 (x, y) 开始的区域顺时针旋转后和 actual 的最大通道差
+     */
+    private static int maxDifference(BufferedImage source, int x0, int y0, int rotation, BufferedImage actual) {
+        int width = actual.getWidth();
+        int height = actual.getHeight();
+        boolean transpose = rotation == 90 || rotation == 270;
+        int regionWidth = transpose ? height : width;
+        int regionHeight = transpose ? width : height;
+        int max = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sx;
+                int sy;
+                switch (rotation) {
+                    case 90:
+                        sx = y;
+                        sy = regionHeight - 1 - x;
+                        break;
+                    case 180:
+                        sx = regionWidth - 1 - x;
+                        sy = regionHeight - 1 - y;
+                        break;
+                    case 270:
+                        sx = regionWidth - 1 - y;
+                        sy = x;
+                        break;
+                    default:
+                        sx = x;
+                        sy = y;
+                        break;
+                }
+                int a = source.getRGB(x0 + sx, y0 + sy);
+                int b = actual.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    max = Math.max(max, Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff)));
+                }
+            }
+        }
+        return max;
+    }
+
+    @Test
+    public void identity_reproducesEncoderOutput() throws IOException {
+        byte[] jpeg = encoded(100, 70, 2);
+        JpegCoefficients image = JpegCoefficients.read(ByteBuffer.wrap(jpeg));
+        assertEquals(100, image.width);
+        assertEquals(70, image.height);
+        assertEquals(16, image.getMcuWidth());
+        assertEquals(3, image.getComponentCount());
+        // 同样的表、同样的 restart 间隔，重新编码逐字节相同（解码经过了 RSTn）
+        assertArrayEquals(jpeg, transform(new JpegTransformer(null, 2), jpeg, 0, 0, 100, 70, 0));
+    }
+
+    @Test
+    public void identity_foreignTables_decodesToSamePixels() throws IOException {
+        for (int type : new int[]{BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY}) {
+            byte[] jpeg = imageIoEncoded(gradient(77, 45, type), false);
+            byte[] copy = transform(new JpegTransformer(null, 1), jpeg, 0, 0, 77, 45, 0);
+            assertEquals(0, maxDifference(decode(jpeg), 0, 0, 0, decode(copy)));
+        }
+    }
+
+    @Test
+    public void rotations_matchRotatedPixels() throws IOException {
+        byte[] jpeg = encoded(96, 64, 1);
+        BufferedImage source = decode(jpeg);
+        JpegTransformer transformer = new JpegTransformer(null, 1);
+        for (int rotation : new int[]{90, 180, 270}) {
+            BufferedImage rotated = decode(transform(transformer, jpeg, 0, 0, 96, 64, rotation));
+            assertEquals(rotation == 180 ? 96 : 64, rotated.getWidth());
+            assertEquals(rotation == 180 ? 64 : 96, rotated.getHeight());
+            // 只有 IDCT 和色度插值的舍入不同
+            assertTrue("rotation " + rotation, maxDifference(source, 0, 0, rotation, rotated) <= 3);
+        }
+    }
+
+    @Test
+    public void fourQuarterTurns_areLossless() throws IOException {
+        byte[] jpeg = encoded(64, 48, 8);
+        JpegTransformer transformer = new JpegTransformer(null, 8);
+        byte[] current = jpeg;
+        for (int i = 0; i < 4; i++) {
+            current = transform(transformer, current, 0, 0, decode(current).getWidth(), decode(current).getHeight(), 90);
+        }
+        assertArrayEquals(jpeg, current);
+        byte[] half = transform(transformer, transform(transformer, jpeg, 0, 0, 64, 48, 180), 0, 0, 64, 48, 180);
+        assertArrayEquals(jpeg, half);
+    }
+
+    @Test
+    public void partialMcus_areTrimmedOnFlippedEdges() throws IOException {
+        byte[] jpeg = encoded(70, 50, 8);
+        BufferedImage source = decode(jpeg);
+        JpegTransformer transformer = new JpegTransformer(null, 8);
+        // 90 度翻转垂直方向：50 -> 48
+        BufferedImage rotated = decode(transform(transformer, jpeg, 0, 0, 70, 50, 90));
+        assertEquals(48, rotated.getWidth());
+        assertEquals(70, rotated.getHeight());
+        assertTrue(maxDifference(source, 0, 0, 90, rotated) <= 3);
+        // 270 度翻转水平方向：70 -> 64
+        rotated = decode(transform(transformer, jpeg, 0, 0, 70, 50, 270));
+        assertEquals(50, rotated.getWidth());
+        assertEquals(64, rotated.getHeight());
+        assertTrue(maxDifference(source, 0, 0, 270, rotated) <= 3);
+    }
+
+    @Test
+    public void crop_thenRotate() throws IOException {
+        byte[] jpeg = encoded(128, 96, 8);
+        BufferedImage source = decode(jpeg);
+        JpegTransformer transformer = new JpegTransformer(null, 8);
+        BufferedImage cropped = decode(transform(transformer, jpeg, 32, 16, 50, 40, 0));
+        assertEquals(50, cropped.getWidth());
+        assertEquals(40, cropped.getHeight());
+        assertTrue(maxDifference(source, 32, 16, 0, cropped) <= 3);
+
+        BufferedImage rotated = decode(transform(transformer, jpeg, 32, 16, 48, 32, 180));
+        assertEquals(48, rotated.getWidth());
+        assertEquals(32, rotated.getHeight());
+        assertTrue(maxDifference(source, 32, 16, 180, rotated) <= 3);
+    }
+
+    @Test
+    public void parallelStrips_identicalToSequential() throws IOException {
+        byte[] jpeg = encoded(160, 120, 8);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertArrayEquals(transform(new JpegTransformer(null, 1), jpeg, 0, 0, 160, 120, 90),
+                    transform(new JpegTransformer(pool, 1), jpeg, 0, 0, 160, 120, 90));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void autoOrient_rotatesAndResetsOrientation() throws IOException {
+        byte[] jpeg = encoded(64, 32, 8);
+        ByteBuffer segment = ExifWriter.build(new CaptureMetadata(1, 0, -1, -1, -1, -1, false, 90, null, null), 6);
+        byte[] app1 = new byte[segment.remaining()];
+        segment.get(app1);
+        // JFIF APP0 之后插入 Exif
+        ByteArrayOutputStream tagged = new ByteArrayOutputStream();
+        tagged.write(jpeg, 0, 20);
+        tagged.write(app1, 0, app1.length);
+        tagged.write(jpeg, 20, jpeg.length - 20);
+        assertEquals(6, ExifWriter.locate(ByteBuffer.wrap(tagged.toByteArray())).existingOrientation);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new JpegTransformer(null, 8).autoOrient(ByteBuffer.wrap(tagged.toByteArray()), Channels.newChannel(output));
+        byte[] oriented = output.toByteArray();
+        assertEquals(1, ExifWriter.locate(ByteBuffer.wrap(oriented)).existingOrientation);
+        BufferedImage image = decode(oriented);
+        assertEquals(32, image.getWidth());
+        assertEquals(64, image.getHeight());
+        assertTrue(maxDifference(decode(jpeg), 0, 0, 90, image) <= 3);
+    }
+
+    @Test
+    public void invalidInput_rejected() throws IOException {
+        byte[] jpeg = encoded(64, 48, 8);
+        JpegTransformer transformer = new JpegTransformer(null, 8);
+        int[][] crops = {{8, 0, 16, 16}, {0, 0, 65, 48}, {0, 0, 0, 16}};
+        for (int[] crop : crops) {
+            try {
+                transform(transformer, jpeg, crop[0], crop[1], crop[2], crop[3], 0);
+                fail(Arrays.toString(crop));
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            transform(transformer, jpeg, 0, 0, 64, 48, 45);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            // 只有 10 行，旋转 90 度时不满一个 MCU
+            transform(transformer, jpeg, 0, 0, 64, 10, 90);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            JpegCoefficients.read(ByteBuffer.wrap(imageIoEncoded(gradient(32, 32, BufferedImage.TYPE_3BYTE_BGR), true)));
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("SOF2"));
+        }
+        try {
+            JpegCoefficients.read(ByteBuffer.wrap(Arrays.copyOf(jpeg, 300)));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
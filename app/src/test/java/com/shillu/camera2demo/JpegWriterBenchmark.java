@@ -0,0 +1,107 @@
+package com.shillu.camera2demo;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比原来 ImageSaver 的写法（new byte[] + FileOutputStream）和 {@link PooledJpegWriter} 的吞吐量与分配速率。
+ * <p>
+ * 数据源用直接内存模拟 Image.Plane 的缓冲区。运行 main() 即可，结果中：
+ * bytes 一列是每秒写入字节数，gc.alloc.rate.norm 是每次保存分配的字节数。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JpegWriterBenchmark {
+
+    /**
+     * 模拟的 JPEG 大小，3 MB 左右接近 12MP 照片
+     */
+    @Param({"524288", "3145728"})
+    public int mJpegSize;
+
+    private ByteBuffer mPlane;
+    private File mFile;
+    private PooledJpegWriter mWriter;
+
+    /**
+     * 以字节为单位统计吞吐量
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ByteCounter {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] content = new byte[mJpegSize];
+        new Random(7).nextBytes(content);
+        mPlane = ByteBuffer.allocateDirect(mJpegSize);
+        mPlane.put(content).flip();
+        mFile = File.createTempFile("bench", ".jpg");
+        mWriter = new PooledJpegWriter();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public void legacyByteArrayCopy(ByteCounter counter) throws IOException {
+        ByteBuffer buffer = mPlane.duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        FileOutputStream output = new FileOutputStream(mFile);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+        counter.bytes += bytes.length;
+    }
+
+    @Benchmark
+    public void pooledChannelWrite(ByteCounter counter) throws IOException {
+        counter.bytes += mWriter.write(mPlane.duplicate(), mFile);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JpegWriterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,84 @@
+package com.shillu.camera2demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * PooledJpegWriter 的本地单元测试
+ */
+public class PooledJpegWriterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void write_directBuffer_writesWithoutStaging() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(1024, 1);
+        PooledJpegWriter writer = new PooledJpegWriter(pool);
+        byte[] expected = randomBytes(10_000);
+        ByteBuffer src = ByteBuffer.allocateDirect(expected.length);
+        src.put(expected).flip();
+
+        File file = mFolder.newFile("direct.jpg");
+        assertEquals(expected.length, writer.write(src, file));
+        assertFalse(src.hasRemaining());
+        assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+        assertEquals(0, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void write_heapBuffer_usesPooledChunks() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(1024, 1);
+        PooledJpegWriter writer = new PooledJpegWriter(pool);
+        byte[] expected = randomBytes(5 * 1024 + 17);
+
+        File file = mFolder.newFile("heap.jpg");
+        writer.write(ByteBuffer.wrap(expected), file);
+        writer.write(ByteBuffer.wrap(expected), file);
+
+        assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+        assertEquals(1, pool.getAllocatedCount());
+        assertEquals(1, pool.getFreeCount());
+        assertEquals(1, pool.getReuseCount());
+    }
+
+    @Test
+    public void write_respectsPositionAndLimit() throws Exception {
+        PooledJpegWriter writer = new PooledJpegWriter(new DirectBufferPool(8, 1));
+        byte[] bytes = randomBytes(100);
+        ByteBuffer src = ByteBuffer.wrap(bytes);
+        src.position(10).limit(90);
+
+        File file = mFolder.newFile("slice.jpg");
+        assertEquals(80, writer.write(src, file));
+        assertEquals(90, src.position());
+        assertEquals(90, src.limit());
+        assertArrayEquals(Arrays.copyOfRange(bytes, 10, 90), Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void write_truncatesExistingFile() throws Exception {
+        PooledJpegWriter writer = new PooledJpegWriter();
+        File file = mFolder.newFile("overwrite.jpg");
+        Files.write(file.toPath(), randomBytes(4096));
+
+        byte[] expected = randomBytes(16);
+        writer.write(ByteBuffer.wrap(expected), file);
+        assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+    }
+}
@@ -0,0 +1,123 @@
+package com.shillu.camera2demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比原来 chooseOptimalSize 的做法和 {@link PreviewSizeSelector}（冷查询 / 缓存命中）的耗时与分配。
+ * <p>
+ * 尺寸表使用 {@link PreviewSizeSelectorTest} 中真实设备的 SurfaceTexture 输出尺寸。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreviewSizeSelectorBenchmark {
+
+    /**
+     * 替代 android.util.Size，使原来的算法可以在 JVM 上运行
+     */
+    static final class LegacySize {
+        final int mWidth;
+        final int mHeight;
+
+        LegacySize(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+        }
+    }
+
+    static final class CompareSizesByArea implements Comparator<LegacySize> {
+        @Override
+        public int compare(LegacySize lhs, LegacySize rhs) {
+            return Long.signum((long) lhs.mWidth * lhs.mHeight - (long) rhs.mWidth * rhs.mHeight);
+        }
+    }
+
+    private LegacySize[] mChoices;
+    private LegacySize mAspect;
+    private SizeTable mTable;
+    private PreviewSizeSelector mWarmSelector;
+
+    @Setup
+    public void setUp() {
+        int n = PreviewSizeSelectorTest.PREVIEW_WIDTHS.length;
+        mChoices = new LegacySize[n];
+        for (int i = 0; i < n; i++) {
+            mChoices[i] = new LegacySize(PreviewSizeSelectorTest.PREVIEW_WIDTHS[i], PreviewSizeSelectorTest.PREVIEW_HEIGHTS[i]);
+        }
+        mAspect = new LegacySize(4032, 3024);
+        mTable = SizeTable.of(PreviewSizeSelectorTest.PREVIEW_WIDTHS, PreviewSizeSelectorTest.PREVIEW_HEIGHTS);
+        mWarmSelector = new PreviewSizeSelector(mTable);
+    }
+
+    /**
+     * 原来 chooseOptimalSize 的逻辑
+     */
+    static LegacySize chooseOptimalSize(LegacySize[] choices, int textureViewWidth, int textureViewHeight,
+                                        int maxWidth, int maxHeight, LegacySize aspectRatio) {
+        List<LegacySize> bigEnough = new ArrayList<>();
+        List<LegacySize> notBigEnough = new ArrayList<>();
+        int w = aspectRatio.mWidth;
+        int h = aspectRatio.mHeight;
+        for (LegacySize option : choices) {
+            if (option.mWidth <= maxWidth && option.mHeight <= maxHeight &&
+                    option.mHeight == option.mWidth * h / w) {
+                if (option.mWidth >= textureViewWidth && option.mHeight >= textureViewHeight) {
+                    bigEnough.add(option);
+                } else {
+                    notBigEnough.add(option);
+                }
+            }
+        }
+        if (bigEnough.size() > 0) {
+            return Collections.min(bigEnough, new CompareSizesByArea());
+        } else if (notBigEnough.size() > 0) {
+            return Collections.max(notBigEnough, new CompareSizesByArea());
+        } else {
+            return choices[0];
+        }
+    }
+
+    @Benchmark
+    public LegacySize legacyChooseOptimalSize() {
+        return chooseOptimalSize(mChoices, 1440, 1080, 1920, 1080, mAspect);
+    }
+
+    @Benchmark
+    public int selectorColdQuery() {
+        return new PreviewSizeSelector(mTable).select(1440, 1080, 1920, 1080, 4032, 3024, 0.01f);
+    }
+
+    @Benchmark
+    public int selectorCachedQuery() {
+        return mWarmSelector.select(1440, 1080, 1920, 1080, 4032, 3024, 0.01f);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PreviewSizeSelectorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
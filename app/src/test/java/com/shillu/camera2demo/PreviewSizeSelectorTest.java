@@ -0,0 +1,86 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * PreviewSizeSelector 的本地单元测试
+ */
+public class PreviewSizeSelectorTest {
+
+    /**
+     * 某后置主摄的 SurfaceTexture 输出尺寸（未排序，和 StreamConfigurationMap 返回的顺序一样）
+     */
+    static final int[] PREVIEW_WIDTHS = {4032, 4000, 3840, 3264, 3024, 2880, 2592, 2560, 2048, 1920, 1920, 1600,
+            1440, 1440, 1280, 1280, 1088, 1024, 960, 800, 720, 720, 640, 640, 352, 320, 176};
+    static final int[] PREVIEW_HEIGHTS = {3024, 3000, 2160, 2448, 3024, 2160, 1944, 1440, 1536, 1440, 1080, 1200,
+            1080, 1440, 960, 720, 1088, 768, 720, 600, 720, 480, 480, 360, 288, 240, 144};
+
+    private static PreviewSizeSelector selector() {
+        return new PreviewSizeSelector(SizeTable.of(PREVIEW_WIDTHS, PREVIEW_HEIGHTS));
+    }
+
+    private static String sizeAt(PreviewSizeSelector selector, int index) {
+        return selector.getSizes().width(index) + "x" + selector.getSizes().height(index);
+    }
+
+    @Test
+    public void picksSmallestSizeThatCoversView() {
+        PreviewSizeSelector selector = selector();
+        // 4:3 的 JPEG，1080x1440 的竖屏 view 交换后是 1440x1080
+        int index = selector.select(1440, 1080, 1920, 1080, 4032, 3024, 0f);
+        assertEquals("1440x1080", sizeAt(selector, index));
+    }
+
+    @Test
+    public void fallsBackToLargestSmallerSize() {
+        PreviewSizeSelector selector = selector();
+        int index = selector.select(2000, 1500, 1920, 1080, 4, 3, 0f);
+        assertEquals("1440x1080", sizeAt(selector, index));
+    }
+
+    @Test
+    public void toleranceAcceptsNearAspect() {
+        // 1088x1088 和 1920x1088 都不是精确的 1:1 / 16:9
+        PreviewSizeSelector selector = new PreviewSizeSelector(
+                SizeTable.of(new int[]{1920, 1280, 640}, new int[]{1088, 720, 480}));
+        int exact = selector.select(1900, 1000, 1920, 1088, 16, 9, 0f);
+        assertEquals("1280x720", sizeAt(selector, exact));
+        int tolerant = selector.select(1900, 1000, 1920, 1088, 16, 9, 0.01f);
+        assertEquals("1920x1088", sizeAt(selector, tolerant));
+    }
+
+    @Test
+    public void noAspectMatch_returnsLargestWithinMax() {
+        PreviewSizeSelector selector = selector();
+        int index = selector.select(100, 100, 1000, 1000, 7, 5, 0f);
+        assertEquals("960x720", sizeAt(selector, index));
+    }
+
+    @Test
+    public void repeatedQueries_hitCache() {
+        PreviewSizeSelector selector = selector();
+        int first = selector.select(1440, 1080, 1920, 1080, 4, 3, 0.01f);
+        int second = selector.select(1440, 1080, 1920, 1080, 4, 3, 0.01f);
+        assertEquals(first, second);
+        assertEquals(1, selector.getCacheMisses());
+        assertEquals(1, selector.getCacheHits());
+
+        selector.select(1080, 1440, 1920, 1080, 4, 3, 0.01f);
+        assertEquals(2, selector.getCacheMisses());
+    }
+
+    @Test
+    public void emptyTable_returnsMinusOne() {
+        assertEquals(-1, new PreviewSizeSelector(SizeTable.EMPTY).select(1, 1, 1, 1, 1, 1, 0f));
+    }
+
+    @Test
+    public void aspectMatches_usesRelativeTolerance() {
+        assertTrue(PreviewSizeSelector.aspectMatches(1920, 1080, 16, 9, 0f));
+        assertFalse(PreviewSizeSelector.aspectMatches(1920, 1088, 16, 9, 0f));
+        assertTrue(PreviewSizeSelector.aspectMatches(1920, 1088, 16, 9, 0.01f));
+        assertFalse(PreviewSizeSelector.aspectMatches(1440, 1080, 16, 9, 0.05f));
+    }
+}
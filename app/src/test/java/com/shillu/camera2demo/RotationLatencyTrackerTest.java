@@ -0,0 +1,51 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * RotationLatencyTracker 的本地单元测试
+ */
+public class RotationLatencyTrackerTest {
+
+    @Test
+    public void rotationLatency_waitsForLayoutOnQuarterTurn() {
+        RotationLatencyTracker tracker = new RotationLatencyTracker();
+        assertFalse(tracker.onPreviewFrame(5));
+
+        tracker.onRotation(100, true);
+        // 旧尺寸下的帧
+        assertFalse(tracker.onPreviewFrame(116));
+        tracker.onTransformApplied(130);
+        assertTrue(tracker.onPreviewFrame(150));
+        assertFalse(tracker.onPreviewFrame(166));
+
+        assertEquals(1, tracker.getCount());
+        assertEquals(50, tracker.getLastLatencyNs());
+        assertEquals(30, tracker.getLastTransformNs());
+        assertEquals(20, tracker.getLastFirstFrameNs());
+    }
+
+    @Test
+    public void rotationLatency_halfTurnAndRepeatedRotations() {
+        RotationLatencyTracker tracker = new RotationLatencyTracker();
+        // 180 度翻转尺寸不变，变换立即生效
+        tracker.onRotation(100, false);
+        assertTrue(tracker.onPreviewFrame(120));
+        assertEquals(20, tracker.getLastLatencyNs());
+
+        // 90 度后马上又转了 90 度，从第一次开始计时
+        tracker.onRotation(1000, true);
+        tracker.onRotation(1010, true);
+        tracker.onTransformApplied(1050);
+        assertTrue(tracker.onPreviewFrame(1060));
+        assertEquals(60, tracker.getLastLatencyNs());
+
+        tracker.onRotation(2000, false);
+        tracker.cancel();
+        assertFalse(tracker.onPreviewFrame(2010));
+        assertEquals(2, tracker.getCount());
+        assertEquals(2, tracker.getLatency().getCount());
+    }
+}
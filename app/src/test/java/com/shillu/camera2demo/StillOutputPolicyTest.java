@@ -0,0 +1,100 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * StillOutputPolicy 的本地单元测试
+ */
+public class StillOutputPolicyTest {
+
+    private static final long MS = 1000_000L;
+    private static final long MB = 1024 * 1024;
+
+    private static StillOutputPolicy newPolicy() {
+        return new StillOutputPolicy(24 * MB, 10_000 * MS, 2, 8);
+    }
+
+    @Test
+    public void largeSensor_previewOnlyUntilFirstShot() {
+        StillOutputPolicy policy = newPolicy();
+        // 4000x3000 单张深度 2 约 34MB，超过预算
+        policy.onCameraConfigured(4000, 3000);
+        assertEquals(0, policy.getDepth());
+        policy.onSessionConfigured(0, 0);
+        assertEquals(0, policy.getAttachedBytes());
+
+        assertTrue(policy.request(false, 1000 * MS));
+        assertTrue(policy.isAttachPending());
+        assertEquals(2, policy.getDepth());
+        policy.onSessionConfigured(policy.getDepth(), 1180 * MS);
+        assertFalse(policy.isAttachPending());
+        assertEquals(180 * MS, policy.getAttachLatency().getMax());
+        assertEquals(1, policy.getAttaches());
+        assertEquals(2 * StillOutputPolicy.estimateBufferBytes(4000, 3000), policy.getAttachedBytes());
+
+        // 已经有输出，第二张直接拍
+        assertFalse(policy.request(false, 2000 * MS));
+    }
+
+    @Test
+    public void smallSensor_staysResident() {
+        StillOutputPolicy policy = newPolicy();
+        policy.onCameraConfigured(2592, 1944);
+        assertEquals(2, policy.getDepth());
+        policy.onSessionConfigured(2, 0);
+        assertFalse(policy.request(false, 100 * MS));
+        assertFalse(policy.shouldRelease(Long.MAX_VALUE / 2));
+        assertEquals(0, policy.getAttaches());
+    }
+
+    @Test
+    public void burst_growsDepthThenReleasesWhenIdle() {
+        StillOutputPolicy policy = newPolicy();
+        policy.onCameraConfigured(2592, 1944);
+        policy.onSessionConfigured(2, 0);
+        assertTrue(policy.request(true, 1000 * MS));
+        assertEquals(8, policy.getDepth());
+        policy.onSessionConfigured(8, 1200 * MS);
+        policy.onUse(5000 * MS);
+
+        assertFalse(policy.shouldRelease(14_999 * MS));
+        assertTrue(policy.shouldRelease(15_000 * MS));
+        // 回到常驻的单张深度，而不是完全释放
+        assertEquals(2, policy.getDepth());
+        assertEquals(1, policy.getReleases());
+    }
+
+    @Test
+    public void cancelledAttach_allowsRetry() {
+        StillOutputPolicy policy = newPolicy();
+        policy.onCameraConfigured(4000, 3000);
+        policy.onSessionConfigured(0, 0);
+        policy.request(false, 0);
+        policy.cancelAttach();
+        assertFalse(policy.isAttachPending());
+        assertEquals(0, policy.getDepth());
+        assertTrue(policy.request(false, 10 * MS));
+        // 换相机时作废
+        policy.onCameraConfigured(4000, 3000);
+        assertFalse(policy.isAttachPending());
+        assertEquals(0, policy.getAttachedDepth());
+    }
+
+    @Test
+    public void zsl_neverResident_burstReleasesBackToNone() {
+        StillOutputPolicy policy = newPolicy();
+        // 尺寸在预算内也不常驻，ZSL 会话不带 JPEG 输出
+        policy.onCameraConfigured(2592, 1944, true);
+        assertEquals(0, policy.getResidentDepth());
+        assertEquals(0, policy.getDepth());
+        policy.onSessionConfigured(0, 0);
+        assertTrue(policy.request(true, 1000 * MS));
+        assertEquals(8, policy.getDepth());
+        policy.onSessionConfigured(8, 1100 * MS);
+        policy.onUse(2000 * MS);
+        assertTrue(policy.shouldRelease(12_000 * MS));
+        assertEquals(0, policy.getDepth());
+    }
+}
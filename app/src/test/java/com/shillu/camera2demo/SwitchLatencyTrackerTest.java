@@ -0,0 +1,55 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * SwitchLatencyTracker 的本地单元测试
+ */
+public class SwitchLatencyTrackerTest {
+
+    @Test
+    public void switchLatency_measuresTapToFirstFrame() {
+        SwitchLatencyTracker tracker = new SwitchLatencyTracker();
+        // 没有切换时预览帧不计数
+        assertFalse(tracker.onPreviewFrame(5));
+
+        tracker.onSwitchRequested(100);
+        // 旧相机的帧
+        assertFalse(tracker.onPreviewFrame(120));
+        tracker.onDeviceOpened(250);
+        tracker.onSessionConfigured(300);
+        assertTrue(tracker.onPreviewFrame(340));
+        assertFalse(tracker.onPreviewFrame(370));
+
+        assertEquals(1, tracker.getSwitchCount());
+        assertEquals(240, tracker.getLastLatencyNs());
+        assertEquals(150, tracker.getLastOpenNs());
+        assertEquals(50, tracker.getLastConfigureNs());
+        assertEquals(40, tracker.getLastFirstFrameNs());
+    }
+
+    @Test
+    public void switchLatency_repeatedTapsMeasuredFromFirst() {
+        SwitchLatencyTracker tracker = new SwitchLatencyTracker();
+        tracker.onSwitchRequested(100);
+        tracker.onSwitchRequested(150);
+        tracker.onDeviceOpened(200);
+        tracker.onSessionConfigured(220);
+        tracker.onPreviewFrame(300);
+        assertEquals(200, tracker.getLastLatencyNs());
+
+        tracker.onSwitchRequested(1000);
+        tracker.cancel();
+        assertFalse(tracker.onPreviewFrame(1100));
+
+        tracker.onSwitchRequested(2000);
+        tracker.onDeviceOpened(2100);
+        tracker.onSessionConfigured(2200);
+        tracker.onPreviewFrame(2400);
+        assertEquals(2, tracker.getSwitchCount());
+        assertEquals(400, tracker.getMaxLatencyNs());
+        assertEquals(300, tracker.getAverageLatencyNs());
+    }
+}
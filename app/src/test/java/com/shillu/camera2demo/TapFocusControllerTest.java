@@ -0,0 +1,134 @@
+package com.shillu.camera2demo;
+
+import android.hardware.camera2.CaptureResult;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * TapFocusController 和 MeteringRegions 的本地单元测试
+ */
+public class TapFocusControllerTest {
+
+    private static final long MS = 1000_000L;
+    private static final int NO_TRIGGER = CaptureResult.CONTROL_AF_TRIGGER_IDLE;
+    private static final int TRIGGER = CaptureResult.CONTROL_AF_TRIGGER_START;
+    private static final int SCAN = CaptureResult.CONTROL_AF_STATE_ACTIVE_SCAN;
+    private static final int LOCKED = CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED;
+
+    private static final int[] ACTIVE = {0, 0, 4000, 3000};
+
+    private static TapFocusController newController() {
+        return new TapFocusController(1500 * MS, 3000 * MS);
+    }
+
+    @Test
+    public void tap_locksRecordsTimeAndReleasesAfterHold() {
+        TapFocusController controller = newController();
+        controller.onTap(0);
+        assertEquals(TapFocusController.TRIGGER_START, controller.takePendingTrigger());
+        assertEquals(TapFocusController.TRIGGER_NONE, controller.takePendingTrigger());
+
+        assertEquals(TapFocusController.ACTION_NONE, controller.onResult(SCAN, TRIGGER, 66 * MS));
+        assertEquals(TapFocusController.ACTION_NONE, controller.onResult(SCAN, NO_TRIGGER, 100 * MS));
+        assertEquals(TapFocusController.ACTION_NONE, controller.onResult(LOCKED, NO_TRIGGER, 400 * MS));
+        assertEquals(TapFocusController.STATE_LOCKED, controller.getState());
+        assertEquals(400 * MS, controller.getLastTimeToLockNs());
+        assertEquals(1, controller.getFocused());
+        assertEquals(3400 * MS, controller.getDeadlineNs());
+
+        assertEquals(TapFocusController.ACTION_NONE, controller.onTimeoutCheck(3399 * MS));
+        assertEquals(TapFocusController.ACTION_RELEASE, controller.onTimeoutCheck(3400 * MS));
+        assertEquals(TapFocusController.TRIGGER_CANCEL, controller.takePendingTrigger());
+        assertFalse(controller.isActive());
+        assertEquals(0, controller.getTimeouts());
+    }
+
+    @Test
+    public void lockedStateBeforeTriggerResult_isIgnored() {
+        TapFocusController controller = newController();
+        controller.onTap(0);
+        // 上一次对焦留下的锁定状态，这一帧的请求还没有带触发
+        controller.onResult(LOCKED, NO_TRIGGER, 33 * MS);
+        assertEquals(TapFocusController.STATE_FOCUSING, controller.getState());
+        controller.onResult(SCAN, TRIGGER, 66 * MS);
+        controller.onResult(CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED, NO_TRIGGER, 200 * MS);
+        assertEquals(TapFocusController.STATE_LOCKED, controller.getState());
+        assertEquals(1, controller.getNotFocused());
+        assertEquals(200 * MS, controller.getTimeToLock().getMax());
+    }
+
+    @Test
+    public void neverLocks_hitsHardTimeout() {
+        TapFocusController controller = newController();
+        controller.onTap(0);
+        controller.onResult(SCAN, TRIGGER, 33 * MS);
+        for (long t = 66; t < 1500; t += 33) {
+            assertEquals(TapFocusController.ACTION_NONE, controller.onResult(SCAN, NO_TRIGGER, t * MS));
+        }
+        assertEquals(TapFocusController.ACTION_RELEASE, controller.onResult(SCAN, NO_TRIGGER, 1500 * MS));
+        assertEquals(1, controller.getTimeouts());
+        assertEquals(0, controller.getTimeToLock().getCount());
+        assertEquals(TapFocusController.TRIGGER_CANCEL, controller.takePendingTrigger());
+    }
+
+    @Test
+    public void secondTapWhileFocusing_supersedesFirst() {
+        TapFocusController controller = newController();
+        controller.onTap(0);
+        controller.onResult(SCAN, TRIGGER, 33 * MS);
+        controller.onTap(100 * MS);
+        // 第一次的触发结果不算第二次的
+        controller.onResult(LOCKED, NO_TRIGGER, 133 * MS);
+        assertEquals(TapFocusController.STATE_FOCUSING, controller.getState());
+        controller.onResult(SCAN, TRIGGER, 166 * MS);
+        controller.onResult(LOCKED, NO_TRIGGER, 300 * MS);
+        assertEquals(200 * MS, controller.getLastTimeToLockNs());
+        assertEquals(2, controller.getTaps());
+        assertEquals(1, controller.getSuperseded());
+    }
+
+    @Test
+    public void reset_dropsPendingTrigger() {
+        TapFocusController controller = newController();
+        controller.onTap(0);
+        controller.reset();
+        assertEquals(TapFocusController.TRIGGER_NONE, controller.takePendingTrigger());
+        assertEquals(TapFocusController.ACTION_NONE, controller.onTimeoutCheck(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void regions_centerMapsToCenterForAnyOrientation() {
+        int[] region = new int[4];
+        for (int orientation = 0; orientation < 360; orientation += 90) {
+            MeteringRegions.map(0.5f, 0.5f, orientation, false, ACTIVE, 0.1f, region);
+            assertArrayEquals(new int[]{1850, 1350, 2150, 1650}, region);
+        }
+    }
+
+    @Test
+    public void regions_backCameraRotatesNaturalToSensor() {
+        int[] region = new int[4];
+        // 后摄 90 度：自然方向画面的左上角是传感器的左下角
+        MeteringRegions.map(0f, 0f, 90, false, ACTIVE, 0.1f, region);
+        assertArrayEquals(new int[]{0, 2700, 300, 3000}, region);
+        // 画面右上角是传感器左上角
+        MeteringRegions.map(1f, 0f, 90, false, ACTIVE, 0.1f, region);
+        assertArrayEquals(new int[]{0, 0, 300, 300}, region);
+    }
+
+    @Test
+    public void regions_frontCameraIsMirroredAndZoomUsesCrop() {
+        int[] region = new int[4];
+        // 前摄 270 度且镜像：画面左上角对应传感器右下角
+        MeteringRegions.map(0f, 0f, 270, true, ACTIVE, 0.1f, region);
+        assertArrayEquals(new int[]{3700, 2700, 4000, 3000}, region);
+
+        int[] crop = new int[4];
+        ControlUpdateCoalescer.cropRegion(ACTIVE, 2f, crop);
+        MeteringRegions.map(1f, 1f, 0, false, crop, 0.1f, region);
+        // 缩放后只在裁剪区域内
+        assertArrayEquals(new int[]{2850, 2100, 3000, 2250}, region);
+    }
+}
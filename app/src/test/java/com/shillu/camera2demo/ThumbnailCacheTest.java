@@ -0,0 +1,205 @@
+package com.shillu.camera2demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ThumbnailCache 的本地单元测试：两级命中、按字节淘汰、源文件变化后失效
+ */
+public class ThumbnailCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static final int MIN_EDGE = 16;
+
+    /**
+     * 128x96 的源图，1/8 缩略图 16x12，NV12 共 288 字节
+     */
+    private File photo(String name, long modified) throws IOException {
+        File file = mFolder.newFile(name);
+        Files.write(file.toPath(), JpegThumbnailerTest.encoded(128, 96));
+        assertTrue(file.setLastModified(modified));
+        return file;
+    }
+
+    private ThumbnailCache cache(File directory, long maxMemory, long maxDisk, ThumbnailCache.Listener listener) {
+        return new ThumbnailCache(directory, maxMemory, maxDisk, MIN_EDGE, listener);
+    }
+
+    @Test
+    public void memoryThenDisk_acrossInstances() throws IOException {
+        File directory = new File(mFolder.getRoot(), "thumbnails");
+        File source = photo("a.jpg", 1_000_000L);
+        final List<File> notified = new ArrayList<>();
+        ThumbnailCache.Listener listener = new ThumbnailCache.Listener() {
+            @Override
+            public void onThumbnail(File file, JpegThumbnailer.Thumbnail thumbnail) {
+                notified.add(file);
+            }
+        };
+        ThumbnailCache first = cache(directory, 1 << 20, 1 << 20, listener);
+        assertNull(first.getCached(source));
+        JpegThumbnailer.Thumbnail created = first.getOrCreate(source);
+        assertEquals(16, created.width);
+        assertEquals(12, created.height);
+        assertSame(created, first.getOrCreate(source));
+        assertEquals(1, first.getMisses());
+        assertEquals(1, first.getMemoryHits());
+        assertEquals(288, first.getMemoryBytes());
+        assertTrue(first.getDiskBytes() > 0);
+        assertTrue(new File(directory, ThumbnailCache.INDEX_NAME).isFile());
+
+        // 相当于重启：新实例从磁盘读出，像素和原来只差 JPEG 的量化误差
+        ThumbnailCache second = cache(directory, 1 << 20, 1 << 20, listener);
+        JpegThumbnailer.Thumbnail reloaded = second.getOrCreate(source);
+        assertEquals(1, second.getDiskHits());
+        assertEquals(0, second.getMisses());
+        assertEquals(created.width, reloaded.width);
+        assertEquals(created.height, reloaded.height);
+        int difference = 0;
+        for (int i = 0; i < created.nv12.length; i++) {
+            difference = Math.max(difference, Math.abs((created.nv12[i] & 0xff) - (reloaded.nv12[i] & 0xff)));
+        }
+        assertTrue("max difference " + difference, difference <= 16);
+        assertSame(reloaded, second.getCached(source));
+        assertEquals(Arrays.asList(source, source, source), notified);
+    }
+
+    @Test
+    public void memory_evictsLeastRecentlyUsedByBytes() throws IOException {
+        ThumbnailCache cache = cache(mFolder.newFolder(), 2 * 288, 1 << 20, null);
+        File a = photo("a.jpg", 1_000_000L);
+        File b = photo("b.jpg", 1_000_000L);
+        File c = photo("c.jpg", 1_000_000L);
+        cache.getOrCreate(a);
+        cache.getOrCreate(b);
+        assertNotNull(cache.getCached(a));
+        cache.getOrCreate(c);
+        assertEquals(2, cache.getMemoryCount());
+        assertEquals(2 * 288, cache.getMemoryBytes());
+        assertNotNull(cache.getCached(a));
+        assertNull(cache.getCached(b));
+        assertNotNull(cache.getCached(c));
+        // b 还在磁盘上
+        cache.getOrCreate(b);
+        assertEquals(1, cache.getDiskHits());
+
+        cache.clearMemory();
+        assertEquals(0, cache.getMemoryBytes());
+        assertNull(cache.getCached(a));
+    }
+
+    @Test
+    public void disk_evictsLeastRecentlyUsedByBytes() throws IOException {
+        File directory = mFolder.newFolder();
+        File a = photo("a.jpg", 1_000_000L);
+        File b = photo("b.jpg", 1_000_000L);
+        File c = photo("c.jpg", 1_000_000L);
+        ThumbnailCache probe = cache(mFolder.newFolder(), 0, 1 << 20, null);
+        probe.getOrCreate(a);
+        long each = probe.getDiskBytes();
+
+        ThumbnailCache cache = cache(directory, 0, 2 * each, null);
+        cache.getOrCreate(a);
+        cache.getOrCreate(b);
+        cache.getOrCreate(a);
+        cache.getOrCreate(c);
+        assertEquals(2 * each, cache.getDiskBytes());
+        assertEquals(Arrays.asList(a.getAbsolutePath(), c.getAbsolutePath()), cache.getDiskKeys());
+        // 索引加两个缩略图文件
+        assertEquals(3, directory.listFiles().length);
+
+        ThumbnailCache restarted = cache(directory, 0, 2 * each, null);
+        assertEquals(Arrays.asList(a.getAbsolutePath(), c.getAbsolutePath()), restarted.getDiskKeys());
+        assertEquals(2 * each, restarted.getDiskBytes());
+    }
+
+    @Test
+    public void changedSource_invalidatesBothLevels() throws IOException {
+        File directory = mFolder.newFolder();
+        File source = photo("a.jpg", 1_000_000L);
+        ThumbnailCache cache = cache(directory, 1 << 20, 1 << 20, null);
+        cache.getOrCreate(source);
+
+        // 单拍覆盖同一个文件
+        Files.write(source.toPath(), JpegThumbnailerTest.encoded(64, 64));
+        assertTrue(source.setLastModified(2_000_000L));
+        assertNull(cache.getCached(source));
+        assertEquals(16, cache.getOrCreate(source).height);
+        assertEquals(2, cache.getMisses());
+
+        ThumbnailCache restarted = cache(directory, 1 << 20, 1 << 20, null);
+        assertEquals(16, restarted.getOrCreate(source).height);
+        assertEquals(1, restarted.getDiskHits());
+    }
+
+    @Test
+    public void missingOrCorruptFiles_areMisses() throws IOException {
+        File directory = mFolder.newFolder();
+        File a = photo("a.jpg", 1_000_000L);
+        File b = photo("b.jpg", 1_000_000L);
+        ThumbnailCache cache = cache(directory, 0, 1 << 20, null);
+        cache.getOrCreate(a);
+        cache.getOrCreate(b);
+        for (File file : directory.listFiles()) {
+            if (!file.getName().equals(ThumbnailCache.INDEX_NAME)) {
+                Files.write(file.toPath(), "not a jpeg".getBytes(StandardCharsets.US_ASCII));
+                break;
+            }
+        }
+        File[] files = directory.listFiles();
+        for (File file : files) {
+            if (!file.getName().equals(ThumbnailCache.INDEX_NAME) && file.length() > 10) {
+                assertTrue(file.delete());
+            }
+        }
+
+        ThumbnailCache restarted = cache(directory, 0, 1 << 20, null);
+        assertEquals(16, restarted.getOrCreate(a).width);
+        assertEquals(16, restarted.getOrCreate(b).width);
+        assertEquals(0, restarted.getDiskHits());
+        assertEquals(2, restarted.getMisses());
+        assertEquals(2, restarted.getDiskKeys().size());
+
+        // 索引本身坏了就从空缓存开始
+        Files.write(new File(directory, ThumbnailCache.INDEX_NAME).toPath(),
+                "garbage\n".getBytes(StandardCharsets.US_ASCII));
+        ThumbnailCache fresh = cache(directory, 0, 1 << 20, null);
+        assertTrue(fresh.getDiskKeys().isEmpty());
+        fresh.getOrCreate(a);
+        assertEquals(1, fresh.getMisses());
+    }
+
+    @Test
+    public void createAndRemove() throws IOException {
+        File directory = mFolder.newFolder();
+        File source = photo("a.jpg", 1_000_000L);
+        ThumbnailCache cache = cache(directory, 1 << 20, 1 << 20, null);
+        byte[] jpeg = Files.readAllBytes(source.toPath());
+        JpegThumbnailer.Thumbnail created = cache.create(source, ByteBuffer.wrap(jpeg));
+        assertSame(created, cache.getOrCreate(source));
+        assertEquals(0, cache.getMisses());
+        assertEquals(1, cache.getDiskKeys().size());
+
+        cache.remove(source);
+        assertNull(cache.getCached(source));
+        assertEquals(0, cache.getMemoryBytes());
+        assertEquals(0, cache.getDiskBytes());
+        assertTrue(cache.getDiskKeys().isEmpty());
+        assertEquals(1, directory.listFiles().length);
+        assertTrue(cache.toString().startsWith("Thumbnails{memory=0/0KB"));
+    }
+}
@@ -0,0 +1,107 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * TimestampJoiner 的本地单元测试
+ */
+public class TimestampJoinerTest {
+
+    private static final long MS = 1_000_000L;
+
+    private final List<String> mEvents = new ArrayList<>();
+
+    private TimestampJoiner<String, String> joiner(int capacity) {
+        return new TimestampJoiner<>(capacity, 100 * MS, new TimestampJoiner.Listener<String, String>() {
+            @Override
+            public void onJoined(long timestampNs, String item, String result) {
+                mEvents.add("joined " + timestampNs + " " + item + "+" + result);
+            }
+
+            @Override
+            public void onUnmatched(long timestampNs, String item) {
+                mEvents.add("unmatched " + timestampNs + " " + item);
+            }
+        });
+    }
+
+    @Test
+    public void joins_inEitherOrder() {
+        TimestampJoiner<String, String> joiner = joiner(4);
+        joiner.offerItem(1, "a", 0);
+        joiner.offerResult(2, "r2", 0);
+        assertTrue(mEvents.isEmpty());
+        assertEquals(1, joiner.getPendingItems());
+        assertEquals(1, joiner.getPendingResults());
+
+        joiner.offerResult(1, "r1", 5 * MS);
+        joiner.offerItem(2, "b", 6 * MS);
+        assertEquals(2, mEvents.size());
+        assertEquals("joined 1 a+r1", mEvents.get(0));
+        assertEquals("joined 2 b+r2", mEvents.get(1));
+        assertEquals(2, joiner.getJoined());
+        assertEquals(0, joiner.getPendingItems());
+        assertEquals(0, joiner.getPendingResults());
+    }
+
+    @Test
+    public void capacity_evictsOldestItemAsUnmatched() {
+        TimestampJoiner<String, String> joiner = joiner(2);
+        joiner.offerItem(1, "a", 0);
+        joiner.offerItem(2, "b", 0);
+        joiner.offerItem(3, "c", 0);
+        assertEquals(1, mEvents.size());
+        assertEquals("unmatched 1 a", mEvents.get(0));
+        assertEquals(2, joiner.getPendingItems());
+
+        for (int i = 10; i < 13; i++) {
+            joiner.offerResult(i, "r", 0);
+        }
+        assertEquals(2, joiner.getPendingResults());
+        assertEquals(1, joiner.getOrphanResults());
+        assertEquals(1, joiner.getUnmatched());
+    }
+
+    @Test
+    public void expire_releasesItemsAfterMaxWait() {
+        TimestampJoiner<String, String> joiner = joiner(8);
+        joiner.offerItem(1, "a", 0);
+        joiner.offerResult(9, "r9", 0);
+        joiner.offerItem(2, "b", 50 * MS);
+        joiner.expire(100 * MS);
+        assertTrue(mEvents.isEmpty());
+
+        joiner.expire(120 * MS);
+        assertEquals(1, mEvents.size());
+        assertEquals("unmatched 1 a", mEvents.get(0));
+        assertEquals(1, joiner.getOrphanResults());
+
+        // 超时的结果已经丢弃，后到的同一帧图像只能等到超时
+        joiner.offerItem(9, "late", 130 * MS);
+        assertEquals(1, mEvents.size());
+        joiner.expire(300 * MS);
+        assertEquals("unmatched 2 b", mEvents.get(1));
+        assertEquals("unmatched 9 late", mEvents.get(2));
+    }
+
+    @Test
+    public void clear_flushesItemsAndDropsResults() {
+        TimestampJoiner<String, String> joiner = joiner(8);
+        joiner.offerItem(1, "a", 0);
+        joiner.offerItem(2, "b", 0);
+        joiner.offerResult(3, "r3", 0);
+        joiner.clear();
+        assertEquals(2, mEvents.size());
+        assertEquals("unmatched 1 a", mEvents.get(0));
+        assertEquals("unmatched 2 b", mEvents.get(1));
+        assertEquals(0, joiner.getPendingItems());
+        assertEquals(0, joiner.getPendingResults());
+        assertEquals(1, joiner.getOrphanResults());
+        assertTrue(joiner.toString().startsWith("Joiner{"));
+    }
+}
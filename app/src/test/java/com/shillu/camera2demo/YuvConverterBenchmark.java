@@ -0,0 +1,122 @@
+package com.shillu.camera2demo;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link YuvConverter} 在不同线程数下的吞吐量。
+ * <p>
+ * 输入模拟 Image.getPlanes()：直接内存、行尾按 64 字节对齐填充、U / V 交错（pixelStride 2）。
+ * 运行 main() 即可，结果中 megapixels 一列是每秒转换的百万像素数，threads = 1 是不用线程池的顺序转换，
+ * 用它除以其它行就是并行的加速比。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YuvConverterBenchmark {
+
+    /**
+     * 预览分析、1080p 预览、12MP 传感器
+     */
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String mSize;
+
+    @Param({"1", "2", "4", "8"})
+    public int mThreads;
+
+    private ForkJoinPool mPool;
+    private YuvConverter mConverter;
+    private YuvConverter.Planes mPlanes;
+    private int[] mArgb;
+    private byte[] mRgb;
+
+    /**
+     * 以百万像素为单位统计吞吐量
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class PixelCounter {
+        public double megapixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megapixels = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] parts = mSize.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        int rowStride = (width + 63) & ~63;
+        int chromaHeight = (height + 1) / 2;
+        Random random = new Random(7);
+        byte[] content = new byte[rowStride * height];
+        random.nextBytes(content);
+        ByteBuffer y = ByteBuffer.allocateDirect(content.length);
+        y.put(content).clear();
+        content = new byte[rowStride * chromaHeight];
+        random.nextBytes(content);
+        ByteBuffer uv = ByteBuffer.allocateDirect(content.length);
+        uv.put(content).clear();
+        ByteBuffer v = uv.duplicate();
+        v.position(1);
+        mPlanes = YuvConverter.Planes.of(y, rowStride, uv.duplicate(), v, rowStride, 2, width, height);
+
+        mPool = mThreads > 1 ? new ForkJoinPool(mThreads) : null;
+        mConverter = new YuvConverter(mPool, YuvConverter.DEFAULT_MIN_ROWS);
+        mArgb = new int[width * height];
+        mRgb = new byte[width * height * 3];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (null != mPool) {
+            mPool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int[] toArgb(PixelCounter counter) {
+        mConverter.toArgb(mPlanes, mArgb, 0, mPlanes.width);
+        counter.megapixels += mPlanes.width * mPlanes.height / 1e6;
+        return mArgb;
+    }
+
+    @Benchmark
+    public byte[] toRgb(PixelCounter counter) {
+        mConverter.toRgb(mPlanes, mRgb, 0, mPlanes.width * 3);
+        counter.megapixels += mPlanes.width * mPlanes.height / 1e6;
+        return mRgb;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(YuvConverterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
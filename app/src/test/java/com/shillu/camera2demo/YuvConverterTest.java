@@ -0,0 +1,224 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * YuvConverter 的本地单元测试：与逐像素的参考实现逐位比较
+ */
+public class YuvConverterTest {
+
+    private static final int[][] SIZES = {{1, 1}, {2, 2}, {3, 5}, {17, 11}, {64, 48}, {129, 97}};
+
+    private static byte[] randomFrame(int width, int height, long seed) {
+        byte[] frame = new byte[YuvPacker.nv21Size(width, height)];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * 参考实现：按布局的定义直接算下标，逐像素计算
+     */
+    private static int[] reference(byte[] frame, YuvConverter.Layout layout, int width, int height) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int chroma = width * height;
+        int[] out = new int[width * height];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int luma = frame[row * width + col] & 0xff;
+                int pair = (row / 2) * chromaWidth + col / 2;
+                int u;
+                int v;
+                if (layout == YuvConverter.Layout.NV21) {
+                    v = frame[chroma + 2 * pair] & 0xff;
+                    u = frame[chroma + 2 * pair + 1] & 0xff;
+                } else if (layout == YuvConverter.Layout.NV12) {
+                    u = frame[chroma + 2 * pair] & 0xff;
+                    v = frame[chroma + 2 * pair + 1] & 0xff;
+                } else {
+                    u = frame[chroma + pair] & 0xff;
+                    v = frame[chroma + chromaWidth * chromaHeight + pair] & 0xff;
+                }
+                int r = clamp(luma + ((91881 * (v - 128) + 32768) >> 16));
+                int g = clamp(luma + ((-22554 * (u - 128) - 46802 * (v - 128) + 32768) >> 16));
+                int b = clamp(luma + ((116130 * (u - 128) + 32768) >> 16));
+                out[row * width + col] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void packedLayouts_matchReferenceBitExact() {
+        YuvConverter converter = new YuvConverter(null, YuvConverter.DEFAULT_MIN_ROWS);
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            byte[] frame = randomFrame(width, height, width * 31 + height);
+            for (YuvConverter.Layout layout : YuvConverter.Layout.values()) {
+                int[] out = new int[width * height];
+                converter.toArgb(YuvConverter.Planes.packed(ByteBuffer.wrap(frame), layout, width, height), out, 0, width);
+                assertArrayEquals(layout + " " + width + "x" + height, reference(frame, layout, width, height), out);
+            }
+        }
+    }
+
+    @Test
+    public void stridedPlanes_skipRowPadding() {
+        int width = 37;
+        int height = 21;
+        int chromaWidth = 19;
+        int chromaHeight = 11;
+        byte[] i420 = randomFrame(width, height, 5);
+
+        // 模拟 Image.getPlanes()：行尾有填充，U / V 在同一块直接内存里交错（pixelStride 2）
+        int yRowStride = 64;
+        int uvRowStride = 64;
+        Random noise = new Random(9);
+        byte[] yBytes = new byte[yRowStride * height];
+        byte[] uvBytes = new byte[uvRowStride * chromaHeight];
+        noise.nextBytes(yBytes);
+        noise.nextBytes(uvBytes);
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(i420, row * width, yBytes, row * yRowStride, width);
+        }
+        int uStart = width * height;
+        int vStart = uStart + chromaWidth * chromaHeight;
+        for (int row = 0; row < chromaHeight; row++) {
+            for (int col = 0; col < chromaWidth; col++) {
+                uvBytes[row * uvRowStride + 2 * col] = i420[uStart + row * chromaWidth + col];
+                uvBytes[row * uvRowStride + 2 * col + 1] = i420[vStart + row * chromaWidth + col];
+            }
+        }
+        ByteBuffer y = ByteBuffer.allocateDirect(yBytes.length + 8);
+        y.position(8);
+        y.slice().put(yBytes);
+        ByteBuffer uv = ByteBuffer.allocateDirect(uvBytes.length);
+        uv.put(uvBytes).clear();
+        ByteBuffer u = uv.duplicate();
+        ByteBuffer v = uv.duplicate();
+        v.position(1);
+
+        int[] out = new int[width * height];
+        new YuvConverter(null, 2).toArgb(YuvConverter.Planes.of(y, yRowStride, u, v, uvRowStride, 2, width, height),
+                out, 0, width);
+        assertArrayEquals(reference(i420, YuvConverter.Layout.I420, width, height), out);
+        // 输入的 position 不变
+        assertEquals(8, y.position());
+        assertEquals(1, v.position());
+    }
+
+    @Test
+    public void parallel_matchesSequentialForAnySplit() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int width = 129;
+            int height = 97;
+            byte[] frame = randomFrame(width, height, 3);
+            YuvConverter.Planes planes = YuvConverter.Planes.packed(ByteBuffer.wrap(frame), YuvConverter.Layout.NV21, width, height);
+
+            // 输出带偏移和行步长，写到别的行或者越界都会被发现
+            int stride = width + 7;
+            int[] sequential = new int[5 + stride * height];
+            new YuvConverter(null, 2).toArgb(planes, sequential, 5, stride);
+            for (int minRows : new int[]{1, 2, 3, 8, 64}) {
+                int[] parallel = new int[5 + stride * height];
+                new YuvConverter(pool, minRows).toArgb(planes, parallel, 5, stride);
+                assertArrayEquals("minRows " + minRows, sequential, parallel);
+            }
+            int[] expected = reference(frame, YuvConverter.Layout.NV21, width, height);
+            for (int row = 0; row < height; row++) {
+                assertArrayEquals(Arrays.copyOfRange(expected, row * width, (row + 1) * width),
+                        Arrays.copyOfRange(sequential, 5 + row * stride, 5 + row * stride + width));
+            }
+            assertEquals(0, sequential[4]);
+            assertEquals(0, sequential[5 + width]);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void rgb_matchesArgbChannels() {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            int width = 64;
+            int height = 48;
+            byte[] frame = randomFrame(width, height, 11);
+            YuvConverter.Planes planes = YuvConverter.Planes.packed(ByteBuffer.wrap(frame), YuvConverter.Layout.NV12, width, height);
+            YuvConverter converter = new YuvConverter(pool, 4);
+            int[] argb = new int[width * height];
+            byte[] rgb = new byte[width * height * 3];
+            converter.toArgb(planes, argb, 0, width);
+            converter.toRgb(planes, rgb, 0, width * 3);
+            for (int i = 0; i < argb.length; i++) {
+                assertEquals((argb[i] >> 16) & 0xff, rgb[3 * i] & 0xff);
+                assertEquals((argb[i] >> 8) & 0xff, rgb[3 * i + 1] & 0xff);
+                assertEquals(argb[i] & 0xff, rgb[3 * i + 2] & 0xff);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void fixedPoint_withinOneOfFloatingPoint() {
+        YuvConverter converter = new YuvConverter(null, 2);
+        byte[] frame = new byte[YuvPacker.nv21Size(2, 2)];
+        int[] out = new int[4];
+        for (int luma = 0; luma < 256; luma += 5) {
+            for (int u = 0; u < 256; u += 3) {
+                for (int v = 0; v < 256; v += 3) {
+                    Arrays.fill(frame, 0, 4, (byte) luma);
+                    frame[4] = (byte) u;
+                    frame[5] = (byte) v;
+                    converter.toArgb(YuvConverter.Planes.packed(ByteBuffer.wrap(frame), YuvConverter.Layout.NV12, 2, 2), out, 0, 2);
+                    double r = luma + 1.402 * (v - 128);
+                    double g = luma - 0.344136 * (u - 128) - 0.714136 * (v - 128);
+                    double b = luma + 1.772 * (u - 128);
+                    assertEquals(clamp((int) Math.round(r)), (out[0] >> 16) & 0xff, 1);
+                    assertEquals(clamp((int) Math.round(g)), (out[0] >> 8) & 0xff, 1);
+                    assertEquals(clamp((int) Math.round(b)), out[0] & 0xff, 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void invalidGeometry_rejected() {
+        YuvConverter converter = new YuvConverter(null, 2);
+        YuvConverter.Planes planes = YuvConverter.Planes.packed(ByteBuffer.wrap(randomFrame(8, 8, 1)), YuvConverter.Layout.I420, 8, 8);
+        try {
+            converter.toArgb(planes, new int[63], 0, 8);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            converter.toRgb(planes, new byte[8 * 8 * 3], 0, 8 * 2);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            YuvConverter.Planes.packed(ByteBuffer.allocate(10), YuvConverter.Layout.NV21, 8, 8);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            YuvConverter.Planes.of(buffer, 4, buffer, buffer, 8, 2, 8, 8);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
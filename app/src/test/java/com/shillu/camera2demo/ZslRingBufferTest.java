@@ -0,0 +1,179 @@
+package com.shillu.camera2demo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ZslRingBuffer 和 YuvPacker 的本地单元测试
+ */
+public class ZslRingBufferTest {
+
+    private final List<String> mReleased = new ArrayList<>();
+
+    private final ZslRingBuffer.Releaser<String> mReleaser = new ZslRingBuffer.Releaser<String>() {
+        @Override
+        public void release(String frame) {
+            mReleased.add(frame);
+        }
+    };
+
+    @Test
+    public void add_evictsOldestWhenFull() {
+        ZslRingBuffer<String> ring = new ZslRingBuffer<>(3, mReleaser);
+        for (int i = 0; i < 5; i++) {
+            ring.add(i * 33L, "f" + i);
+        }
+        assertEquals(3, ring.size());
+        assertEquals(Arrays.asList("f0", "f1"), mReleased);
+        assertEquals(132L, ring.getLatestTimestamp());
+    }
+
+    @Test
+    public void takeClosest_picksNearestTimestampAndRemovesIt() {
+        ZslRingBuffer<String> ring = new ZslRingBuffer<>(4, mReleaser);
+        ring.add(100, "a");
+        ring.add(133, "b");
+        ring.add(166, "c");
+        ring.add(200, "d");
+
+        assertEquals("b", ring.takeClosest(140));
+        assertEquals(3, ring.size());
+        assertEquals("c", ring.takeClosest(140));
+        assertEquals("a", ring.takeClosest(0));
+        assertEquals("d", ring.takeClosest(1000));
+        assertNull(ring.takeClosest(0));
+        assertTrue(mReleased.isEmpty());
+    }
+
+    @Test
+    public void takeClosest_keepsOrderAfterWrapAround() {
+        ZslRingBuffer<String> ring = new ZslRingBuffer<>(3, mReleaser);
+        ring.add(10, "a");
+        ring.add(20, "b");
+        ring.add(30, "c");
+        ring.add(40, "d");
+        assertEquals("c", ring.takeClosest(31));
+        ring.add(50, "e");
+        assertEquals(50L, ring.getLatestTimestamp());
+        assertEquals("b", ring.takeClosest(0));
+        assertEquals("d", ring.takeClosest(0));
+        assertEquals("e", ring.takeClosest(0));
+    }
+
+    @Test
+    public void clear_releasesEverything() {
+        ZslRingBuffer<String> ring = new ZslRingBuffer<>(2, mReleaser);
+        ring.add(1, "a");
+        ring.add(2, "b");
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertEquals(Arrays.asList("a", "b"), mReleased);
+        assertEquals(-1, ring.getLatestTimestamp());
+    }
+
+    @Test
+    public void capacityForBudget_isBounded() {
+        long frame = 4000L * 3000 * 3 / 2;
+        assertEquals(3, ZslRingBuffer.capacityForBudget(64L << 20, frame, 8));
+        assertEquals(8, ZslRingBuffer.capacityForBudget(1L << 40, frame, 8));
+        assertEquals(0, ZslRingBuffer.capacityForBudget(frame - 1, frame, 8));
+    }
+
+    @Test
+    public void packNv21_honorsStrides() {
+        int width = 4;
+        int height = 2;
+        // rowStride 比宽度多 2 字节的 padding
+        ByteBuffer y = ByteBuffer.wrap(new byte[]{
+                1, 2, 3, 4, 0, 0,
+                5, 6, 7, 8, 0, 0});
+        // 交织存储的 U/V：pixelStride = 2，U 和 V 共享同一块内存，相差一个字节
+        byte[] uv = {10, 20, 11, 21, 0, 0};
+        ByteBuffer u = ByteBuffer.wrap(uv);
+        ByteBuffer v = ByteBuffer.wrap(uv, 1, uv.length - 1).slice();
+
+        byte[] out = new byte[YuvPacker.nv21Size(width, height)];
+        YuvPacker.packNv21(y, 6, u, v, 6, 2, width, height, out);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 20, 10, 21, 11}, out);
+        assertEquals(0, y.position());
+    }
+
+    @Test
+    public void packNv21_planarChroma() {
+        ByteBuffer y = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        ByteBuffer u = ByteBuffer.wrap(new byte[]{9});
+        ByteBuffer v = ByteBuffer.wrap(new byte[]{7});
+        byte[] out = new byte[YuvPacker.nv21Size(2, 2)];
+        YuvPacker.packNv21(y, 2, u, v, 1, 1, 2, 2, out);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 7, 9}, out);
+    }
+
+    /**
+     * 逐字节的参考实现
+     */
+    private static byte[] referenceNv21(byte[] y, int yRowStride, byte[] u, byte[] v, int uvRowStride, int uvPixelStride,
+                                        int width, int height) {
+        byte[] out = new byte[YuvPacker.nv21Size(width, height)];
+        int offset = 0;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                out[offset++] = y[row * yRowStride + col];
+            }
+        }
+        for (int row = 0; row < (height + 1) / 2; row++) {
+            for (int col = 0; col < (width + 1) / 2; col++) {
+                out[offset++] = v[row * uvRowStride + col * uvPixelStride];
+                out[offset++] = u[row * uvRowStride + col * uvPixelStride];
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void packNv21_matchesReferenceForAllStrides() {
+        Random random = new Random(3);
+        for (int pixelStride = 1; pixelStride <= 3; pixelStride++) {
+            for (int[] size : new int[][]{{2, 2}, {7, 5}, {16, 9}, {33, 17}}) {
+                int width = size[0];
+                int height = size[1];
+                int chromaWidth = (width + 1) / 2;
+                int chromaHeight = (height + 1) / 2;
+                int yRowStride = width + random.nextInt(8);
+                int uvRowStride = (chromaWidth - 1) * pixelStride + 1 + random.nextInt(8);
+                // 和 Image.Plane 一样，最后一行没有 padding，缓冲区正好到最后一个样本
+                byte[] y = new byte[(height - 1) * yRowStride + width];
+                byte[] u = new byte[(chromaHeight - 1) * uvRowStride + (chromaWidth - 1) * pixelStride + 1];
+                byte[] v = new byte[u.length];
+                random.nextBytes(y);
+                random.nextBytes(u);
+                random.nextBytes(v);
+                // 前面放几个无关字节，检查 position 不为 0 时的偏移，以及 position 不变
+                ByteBuffer uBuffer = ByteBuffer.wrap(concat(new byte[3], u));
+                uBuffer.position(3);
+                ByteBuffer vBuffer = ByteBuffer.allocateDirect(v.length + 5);
+                vBuffer.position(5);
+                vBuffer.put(v).position(5);
+
+                byte[] out = new byte[YuvPacker.nv21Size(width, height)];
+                YuvPacker.packNv21(ByteBuffer.wrap(y), yRowStride, uBuffer, vBuffer, uvRowStride, pixelStride, width, height, out);
+                assertArrayEquals(width + "x" + height + " pixelStride " + pixelStride,
+                        referenceNv21(y, yRowStride, u, v, uvRowStride, pixelStride, width, height), out);
+                assertEquals(3, uBuffer.position());
+                assertEquals(5, vBuffer.position());
+            }
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+}